@@ -6,10 +6,11 @@ import lombok.extern.slf4j.Slf4j;
 import org.springframework.format.annotation.DateTimeFormat;
 import org.springframework.web.bind.annotation.*;
 import ru.practicum.ewm.EndpointHitDto;
-import ru.practicum.ewm.StatsClient;
+import ru.practicum.ewm.StatsHitRecorder;
 import ru.practicum.ewm.event.dto.EventFullDto;
 import ru.practicum.ewm.event.dto.EventShortDto;
 import ru.practicum.ewm.event.service.EventService;
+import ru.practicum.ewm.event.service.EventViewsCache;
 
 import java.time.LocalDateTime;
 import java.util.List;
@@ -21,7 +22,8 @@ import java.util.List;
 public class PublicEventController {
 
     private final EventService eventService;
-    private final StatsClient statsClient;
+    private final StatsHitRecorder statsHitRecorder;
+    private final EventViewsCache eventViewsCache;
 
     @GetMapping
     public List<EventShortDto> findAllPublicEvents(@RequestParam(required = false) String text,
@@ -41,7 +43,7 @@ public class PublicEventController {
         List<EventShortDto> events = eventService.findAllPublicEvents(text, categories, paid, rangeStart, rangeEnd, onlyAvailable, sort, from, size);
         String ip = request.getRemoteAddr();
         String path = request.getRequestURI();
-        statsClient.save(EndpointHitDto.builder()
+        statsHitRecorder.record(EndpointHitDto.builder()
                 .app("ewm-main")
                 .uri(path)
                 .ip(ip)
@@ -56,12 +58,13 @@ public class PublicEventController {
         log.info("GET: /events/{}", id);
         String ip = request.getRemoteAddr();
         String path = request.getRequestURI();
-        statsClient.save(EndpointHitDto.builder()
+        statsHitRecorder.record(EndpointHitDto.builder()
                 .app("ewm-main")
                 .uri(path)
                 .ip(ip)
                 .timestamp(LocalDateTime.now())
                 .build());
+        eventViewsCache.invalidate(id);
         return event;
     }
 }
\ No newline at end of file
@@ -8,8 +8,6 @@ import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Sort;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
-import ru.practicum.ewm.StatsClient;
-import ru.practicum.ewm.ViewStatsDto;
 import ru.practicum.ewm.category.model.Category;
 import ru.practicum.ewm.category.repository.CategoryRepository;
 import ru.practicum.ewm.event.dto.*;
@@ -39,7 +37,7 @@ public class EventServiceImpl implements EventService {
     private final EventRepository eventRepository;
     private final CategoryRepository categoryRepository;
     private final UserRepository userRepository;
-    private final StatsClient statsClient;
+    private final EventViewsCache eventViewsCache;
 
     //------ Public ------//
 
@@ -323,18 +321,12 @@ public class EventServiceImpl implements EventService {
             return;
         }
 
-        List<String> uri = events.stream()
-                .map(event -> "/events/" + event.getId())
-                .toList();
-
-        List<ViewStatsDto> viewStatsDto = statsClient.getStats(LocalDateTime.now().minusYears(3),
-                LocalDateTime.now(), uri, true);
-
-        Map<String, Long> uriHitMap = viewStatsDto.stream()
-                .collect(Collectors.toMap(ViewStatsDto::getUri, ViewStatsDto::getHits));
+        Map<Long, Long> views = eventViewsCache.getViews(events.stream()
+                .map(Event::getId)
+                .toList());
 
         for (Event event : events) {
-            event.setViews(uriHitMap.getOrDefault("/events/" + event.getId(), 0L));
+            event.setViews(views.getOrDefault(event.getId(), 0L));
         }
     }
 
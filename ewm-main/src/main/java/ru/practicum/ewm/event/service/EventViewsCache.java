@@ -0,0 +1,355 @@
+package ru.practicum.ewm.event.service;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import ru.practicum.ewm.ExactUniqueUnavailableException;
+import ru.practicum.ewm.StatsClient;
+import ru.practicum.ewm.StatsUnavailableException;
+import ru.practicum.ewm.ViewStatsDto;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Просмотры событий (уникальные IP за последние три года) с локальным кэшем по id события. Промахи страницы
+ * загружаются одним запросом {@link StatsClient#getStats}, одновременные промахи по одному событию ждут
+ * общую загрузку. Запись старше {@code refresh-after} по-прежнему отдаётся из кэша, но ставится в очередь
+ * фонового обновления: часто читаемые события не ждут сервис статистики. Запись старше {@code ttl}
+ * загружается заново при чтении. Просмотр, записанный этим узлом, сбрасывает запись события
+ * ({@link #invalidate}), поэтому свои просмотры видны сразу, а чужие - с задержкой до {@code refresh-after}.
+ * <p>
+ * При {@code stats-service.views.cache.enabled=false} каждый вызов идёт в сервис статистики. Если включена
+ * {@link EventViewsFeed} и она не отстала, просмотры берутся из неё, а сервис запрашивается только
+ * для событий, о которых лента ещё не сообщала.
+ * <p>
+ * Если сервис статистики перегружен и отклоняет чтение ({@link StatsUnavailableException}), события получают
+ * устаревшие просмотры из кэша, а события без записи - 0: страница событий не падает из-за статистики.
+ * Если сервис сжал хиты старше трёх лет и точный подсчёт невозможен, просмотры оцениваются по скетчам, как при
+ * {@code stats-service.views.approximate-unique=true}.
+ */
+@Slf4j
+@Component
+public class EventViewsCache {
+
+    private static final String EVENT_URI = "/events/";
+    private static final int VIEWS_PERIOD_YEARS = 3;
+
+    private final StatsClient statsClient;
+    private final Optional<EventViewsFeed> feed;
+    private final boolean approximate;
+    private final boolean enabled;
+    private final int maxEntries;
+    private final long ttlNanos;
+    private final long refreshAfterNanos;
+    private final int batchSize;
+    private final Map<Long, Entry> entries = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, Entry> eldest) {
+            if (size() <= maxEntries) {
+                return false;
+            }
+            evictedEpoch = Math.max(evictedEpoch, eldest.getValue().epoch());
+            return true;
+        }
+    };
+    private final Map<Long, CompletableFuture<Long>> loading = new ConcurrentHashMap<>();
+    private final BlockingQueue<Long> refreshQueue = new LinkedBlockingQueue<>();
+    private final Set<Long> queued = ConcurrentHashMap.newKeySet();
+
+    private volatile long epoch;
+    private long evictedEpoch;
+    private volatile boolean running;
+    private volatile boolean exactUnavailable;
+    private Thread refresher;
+
+    public EventViewsCache(StatsClient statsClient,
+                           Optional<EventViewsFeed> feed,
+                           @Value("${stats-service.views.approximate-unique:false}") boolean approximate,
+                           @Value("${stats-service.views.cache.enabled:true}") boolean enabled,
+                           @Value("${stats-service.views.cache.max-entries:10000}") int maxEntries,
+                           @Value("${stats-service.views.cache.ttl:60s}") Duration ttl,
+                           @Value("${stats-service.views.cache.refresh-after:10s}") Duration refreshAfter,
+                           @Value("${stats-service.views.cache.batch-size:100}") int batchSize) {
+        if (batchSize <= 0 || enabled && (maxEntries <= 0 || refreshAfter.compareTo(ttl) > 0)) {
+            throw new IllegalArgumentException("Размеры кэша просмотров должны быть положительными, "
+                    + "а refresh-after не больше ttl.");
+        }
+        this.statsClient = statsClient;
+        this.feed = feed;
+        this.approximate = approximate;
+        this.enabled = enabled;
+        this.maxEntries = maxEntries;
+        this.ttlNanos = ttl.toNanos();
+        this.refreshAfterNanos = refreshAfter.toNanos();
+        this.batchSize = batchSize;
+    }
+
+    @PostConstruct
+    public void start() {
+        if (!enabled) {
+            return;
+        }
+        running = true;
+        refresher = new Thread(this::refreshLoop, "event-views-refresher");
+        refresher.setDaemon(true);
+        refresher.start();
+        log.info("Кэш просмотров событий включён");
+    }
+
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        if (!enabled) {
+            return;
+        }
+        running = false;
+        refresher.interrupt();
+        refresher.join();
+    }
+
+    /**
+     * Просмотры по id событий; события без просмотров получают 0. При перегрузке сервиса статистики в ответе
+     * только события с устаревшей записью кэша.
+     */
+    public Map<Long, Long> getViews(Collection<Long> eventIds) {
+        if (feed.isPresent() && feed.get().isLive()) {
+            return getFromFeed(feed.get(), eventIds);
+        }
+        if (!enabled) {
+            try {
+                return load(eventIds);
+            } catch (StatsUnavailableException e) {
+                return stale(List.copyOf(eventIds), e);
+            }
+        }
+        Map<Long, Long> views = new HashMap<>();
+        List<Long> missing = new ArrayList<>();
+        long now = System.nanoTime();
+        synchronized (entries) {
+            for (Long id : eventIds) {
+                Entry entry = entries.get(id);
+                if (entry == null || entry.isInvalidated() || now - entry.loadedAt() > ttlNanos) {
+                    missing.add(id);
+                    continue;
+                }
+                views.put(id, entry.views());
+                if (now - entry.loadedAt() > refreshAfterNanos && queued.add(id)) {
+                    refreshQueue.add(id);
+                }
+            }
+        }
+        if (!missing.isEmpty()) {
+            try {
+                views.putAll(loadShared(missing));
+            } catch (StatsUnavailableException e) {
+                views.putAll(stale(missing, e));
+            }
+        }
+        return views;
+    }
+
+    /**
+     * Сбрасывает запись события после записи его просмотра: следующее чтение загрузит просмотры заново.
+     * Вместо записи остаётся отметка с новой эпохой: загрузка, начатая раньше, могла не увидеть просмотр,
+     * поэтому её результат не сохраняется ({@link #store}), а ждать её следующему чтению не нужно.
+     */
+    public void invalidate(long eventId) {
+        if (!enabled) {
+            return;
+        }
+        synchronized (entries) {
+            epoch++;
+            entries.put(eventId, new Entry(-1, 0, epoch));
+        }
+        loading.remove(eventId);
+    }
+
+    private Map<Long, Long> getFromFeed(EventViewsFeed liveFeed, Collection<Long> eventIds) {
+        Map<Long, Long> views = new HashMap<>();
+        List<Long> missing = new ArrayList<>();
+        for (Long id : eventIds) {
+            long count = liveFeed.get(id);
+            if (count < 0) {
+                missing.add(id);
+            } else {
+                views.put(id, count);
+            }
+        }
+        if (!missing.isEmpty()) {
+            try {
+                Map<Long, Long> loaded = loadShared(missing);
+                liveFeed.putIfAbsent(loaded);
+                views.putAll(loaded);
+            } catch (StatsUnavailableException e) {
+                // устаревшие значения в ленту не кладём: лента держала бы их, пока событие не получит новый просмотр
+                views.putAll(stale(missing, e));
+            }
+        }
+        return views;
+    }
+
+    /**
+     * Загружает промахи одним запросом. События, которые уже загружает другой поток, не запрашиваются повторно:
+     * вызов ждёт их результат.
+     */
+    private Map<Long, Long> loadShared(List<Long> missing) {
+        Map<Long, CompletableFuture<Long>> owned = new HashMap<>();
+        Map<Long, CompletableFuture<Long>> awaited = new HashMap<>();
+        for (Long id : missing) {
+            CompletableFuture<Long> future = new CompletableFuture<>();
+            CompletableFuture<Long> existing = loading.putIfAbsent(id, future);
+            if (existing == null) {
+                owned.put(id, future);
+            } else {
+                awaited.put(id, existing);
+            }
+        }
+        Map<Long, Long> views = new HashMap<>();
+        if (!owned.isEmpty()) {
+            long started = epoch;
+            try {
+                Map<Long, Long> loaded = load(owned.keySet());
+                if (enabled) {
+                    store(loaded, started);
+                }
+                views.putAll(loaded);
+                owned.forEach((id, future) -> future.complete(loaded.get(id)));
+            } catch (RuntimeException e) {
+                owned.values().forEach(future -> future.completeExceptionally(e));
+                throw e;
+            } finally {
+                owned.forEach(loading::remove);
+            }
+        }
+        try {
+            awaited.forEach((id, future) -> views.put(id, future.join()));
+        } catch (CompletionException e) {
+            throw e.getCause() instanceof RuntimeException cause ? cause : e;
+        }
+        return views;
+    }
+
+    /**
+     * Устаревшие записи кэша для событий, которые не удалось загрузить.
+     */
+    private Map<Long, Long> stale(List<Long> eventIds, StatsUnavailableException e) {
+        Map<Long, Long> views = new HashMap<>();
+        if (enabled) {
+            synchronized (entries) {
+                for (Long id : eventIds) {
+                    Entry entry = entries.get(id);
+                    if (entry != null && !entry.isInvalidated()) {
+                        views.put(id, entry.views());
+                    }
+                }
+            }
+        }
+        log.warn("Сервис статистики перегружен: просмотры {} событий не загружены, из кэша взято {}: {}",
+                eventIds.size(), views.size(), e.getMessage());
+        return views;
+    }
+
+    private void refreshLoop() {
+        List<Long> batch = new ArrayList<>(batchSize);
+        while (running) {
+            try {
+                Long first = refreshQueue.poll(1, TimeUnit.SECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                refreshQueue.drainTo(batch, batchSize - 1);
+                long started = epoch;
+                store(load(batch), started);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (RuntimeException e) {
+                log.warn("Не удалось обновить просмотры {} событий: {}", batch.size(), e.getMessage());
+            } finally {
+                queued.removeAll(batch);
+                batch.clear();
+            }
+        }
+    }
+
+    private Map<Long, Long> load(Collection<Long> eventIds) {
+        List<Long> ids = List.copyOf(eventIds);
+        Map<Long, Long> views = new HashMap<>();
+        // окно начинается с полуночи: до горизонта сжатия сервис принимает только окна из целых суток
+        LocalDateTime now = LocalDateTime.now();
+        LocalDateTime start = now.toLocalDate().minusYears(VIEWS_PERIOD_YEARS).atStartOfDay();
+        for (int from = 0; from < ids.size(); from += batchSize) {
+            List<String> uris = ids.subList(from, Math.min(from + batchSize, ids.size())).stream()
+                    .map(id -> EVENT_URI + id)
+                    .toList();
+            for (ViewStatsDto stats : getStats(start, now, uris)) {
+                views.put(Long.parseLong(stats.getUri().substring(EVENT_URI.length())), stats.getHits());
+            }
+        }
+        ids.forEach(id -> views.putIfAbsent(id, 0L));
+        return views;
+    }
+
+    /**
+     * Уникальные просмотры окна. Если сервис статистики сжал старые хиты и точный подсчёт за три года невозможен,
+     * запрос повторяется с оценкой по скетчам, и дальше просмотры оцениваются сразу: горизонт сжатия только растёт.
+     */
+    private List<ViewStatsDto> getStats(LocalDateTime start, LocalDateTime end, List<String> uris) {
+        if (approximate || exactUnavailable) {
+            return statsClient.getStats(start, end, uris, true, true);
+        }
+        try {
+            return statsClient.getStats(start, end, uris, true, false);
+        } catch (ExactUniqueUnavailableException e) {
+            if (!exactUnavailable) {
+                exactUnavailable = true;
+                log.warn("Сервис статистики считает уникальные просмотры точно только с {}: просмотры событий "
+                        + "оцениваются по скетчам (approximate-unique)", e.getExactFrom());
+            }
+            return statsClient.getStats(start, end, uris, true, true);
+        }
+    }
+
+    /**
+     * Сохраняет просмотры загрузки, начатой в эпоху {@code started}. Значение события, сброшенного или уже
+     * загруженного заново после её начала, не перезаписывается: загрузка могла не увидеть новый просмотр.
+     */
+    private void store(Map<Long, Long> views, long started) {
+        long now = System.nanoTime();
+        synchronized (entries) {
+            views.forEach((id, count) -> {
+                Entry current = entries.get(id);
+                long newer = current != null ? current.epoch() : evictedEpoch;
+                if (newer <= started) {
+                    entries.put(id, new Entry(count, now, started));
+                }
+            });
+        }
+    }
+
+    /**
+     * Просмотры события, загруженные в эпоху {@code epoch}, или отметка сброса ({@code views < 0}).
+     */
+    private record Entry(long views, long loadedAt, long epoch) {
+        boolean isInvalidated() {
+            return views < 0;
+        }
+    }
+}
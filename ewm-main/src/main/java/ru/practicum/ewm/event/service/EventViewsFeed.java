@@ -0,0 +1,175 @@
+package ru.practicum.ewm.event.service;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+import ru.practicum.ewm.StatsClient;
+import ru.practicum.ewm.ViewCountDto;
+import ru.practicum.ewm.ViewFeedDto;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Просмотры событий, которые присылает сервис статистики через ленту {@code /stats/feed}. Фоновый поток на каждый
+ * узел сервиса держит long-poll запрос и кладёт новые значения в локальную таблицу id события -> просмотры, чтение
+ * страницы событий - поиск в этой таблице. Событий, которых ещё нет в таблице, загружает
+ * {@link EventViewsCache} и добавляет через {@link #putIfAbsent}: значение из ленты новее и не затирается.
+ * <p>
+ * Если хотя бы один узел не отвечал дольше {@code max-silence}, лента считается отставшей и просмотры читаются
+ * из сервиса напрямую. Сброс позиции на любом узле очищает всю таблицу: недостающее загрузится по запросу.
+ * <p>
+ * Лента должна считать уникальные просмотры тем же способом, что и запрос просмотров
+ * ({@code stats-service.views.approximate-unique}), иначе оценки из ленты смешивались бы с точными значениями
+ * из сервиса. Узел, лента которого считает иначе, не опрашивается, и просмотры читаются из сервиса напрямую.
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(name = "stats-service.views.feed.enabled", havingValue = "true")
+public class EventViewsFeed {
+
+    private static final String EVENT_URI = "/events/";
+    private static final long RETRY_DELAY_MS = 1000;
+
+    private final StatsClient statsClient;
+    private final Duration pollTimeout;
+    private final boolean approximate;
+    private final int limit;
+    private final long maxSilenceNanos;
+    private final LongLongMap views = new LongLongMap(1024);
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private final AtomicLongArray lastResponseAt;
+    private final List<Thread> pollers = new ArrayList<>();
+    private volatile boolean running;
+
+    public EventViewsFeed(StatsClient statsClient,
+                          @Value("${stats-service.views.feed.poll-timeout:30s}") Duration pollTimeout,
+                          @Value("${stats-service.views.approximate-unique:false}") boolean approximate,
+                          @Value("${stats-service.views.feed.limit:1000}") int limit,
+                          @Value("${stats-service.views.feed.max-silence:45s}") Duration maxSilence) {
+        if (maxSilence.compareTo(pollTimeout) <= 0) {
+            throw new IllegalArgumentException("max-silence ленты просмотров должен быть больше poll-timeout.");
+        }
+        this.statsClient = statsClient;
+        this.pollTimeout = pollTimeout;
+        this.approximate = approximate;
+        this.limit = limit;
+        this.maxSilenceNanos = maxSilence.toNanos();
+        this.lastResponseAt = new AtomicLongArray(statsClient.shardCount());
+    }
+
+    @PostConstruct
+    public void start() {
+        running = true;
+        for (int shard = 0; shard < statsClient.shardCount(); shard++) {
+            int polled = shard;
+            Thread poller = new Thread(() -> pollLoop(polled), "event-views-feed-" + shard);
+            poller.setDaemon(true);
+            poller.start();
+            pollers.add(poller);
+        }
+    }
+
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        running = false;
+        pollers.forEach(Thread::interrupt);
+        for (Thread poller : pollers) {
+            poller.join(TimeUnit.SECONDS.toMillis(1));
+        }
+    }
+
+    public boolean isLive() {
+        long now = System.nanoTime();
+        for (int shard = 0; shard < lastResponseAt.length(); shard++) {
+            long last = lastResponseAt.get(shard);
+            if (last == 0 || now - last >= maxSilenceNanos) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Просмотры события или {@code -1}, если лента о нём ещё не сообщала.
+     */
+    public long get(long eventId) {
+        lock.readLock().lock();
+        try {
+            return views.get(eventId, -1);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public void putIfAbsent(Map<Long, Long> loaded) {
+        lock.writeLock().lock();
+        try {
+            loaded.forEach(views::putIfAbsent);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void pollLoop(int shard) {
+        Long epoch = null;
+        long cursor = 0;
+        while (running) {
+            try {
+                ViewFeedDto feed = statsClient.pollFeed(shard, epoch, cursor, limit, pollTimeout);
+                if (!feed.isUnique() || feed.isApproximate() != approximate) {
+                    log.error("Лента просмотров узла {} считает просмотры с unique = {}, approximate = {}, а запрос "
+                                    + "просмотров - с unique = true, approximate = {}: лента узла не используется",
+                            shard, feed.isUnique(), feed.isApproximate(), approximate);
+                    return;
+                }
+                apply(feed);
+                epoch = feed.getEpoch();
+                cursor = feed.getCursor();
+                lastResponseAt.set(shard, System.nanoTime());
+            } catch (RuntimeException e) {
+                if (!running) {
+                    return;
+                }
+                log.warn("Лента просмотров недоступна, повтор через {} мс: {}", RETRY_DELAY_MS, e.getMessage());
+                try {
+                    TimeUnit.MILLISECONDS.sleep(RETRY_DELAY_MS);
+                } catch (InterruptedException interrupted) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+    private void apply(ViewFeedDto feed) {
+        lock.writeLock().lock();
+        try {
+            if (feed.isReset()) {
+                log.info("Лента просмотров: позиция сброшена, просмотры будут загружены заново");
+                views.clear();
+            }
+            for (ViewCountDto count : feed.getCounts()) {
+                if (!count.getUri().startsWith(EVENT_URI)) {
+                    continue;
+                }
+                try {
+                    views.put(Long.parseLong(count.getUri().substring(EVENT_URI.length())), count.getHits());
+                } catch (NumberFormatException e) {
+                    log.debug("Лента просмотров: URI {} не относится к событию", count.getUri());
+                }
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package ru.practicum.ewm.event.service;
+
+import java.util.Arrays;
+
+/**
+ * Хеш-таблица {@code long -> long} с открытой адресацией: ключи и значения лежат в массивах без упаковки
+ * в объекты. Удаления нет, только очистка целиком. Ключ {@link Long#MIN_VALUE} зарезервирован под пустую ячейку.
+ * Не потокобезопасна.
+ */
+class LongLongMap {
+
+    private static final long EMPTY = Long.MIN_VALUE;
+
+    private long[] keys;
+    private long[] values;
+    private int size;
+
+    LongLongMap(int expectedSize) {
+        int capacity = Integer.highestOneBit(Math.max(expectedSize, 8) * 2 - 1) << 1;
+        keys = new long[capacity];
+        values = new long[capacity];
+        Arrays.fill(keys, EMPTY);
+    }
+
+    long get(long key, long missing) {
+        int index = find(key);
+        return keys[index] == EMPTY ? missing : values[index];
+    }
+
+    void put(long key, long value) {
+        insert(key, value, true);
+    }
+
+    void putIfAbsent(long key, long value) {
+        insert(key, value, false);
+    }
+
+    int size() {
+        return size;
+    }
+
+    void clear() {
+        Arrays.fill(keys, EMPTY);
+        size = 0;
+    }
+
+    private void insert(long key, long value, boolean replace) {
+        if (key == EMPTY) {
+            throw new IllegalArgumentException("Ключ " + EMPTY + " не поддерживается");
+        }
+        int index = find(key);
+        if (keys[index] == EMPTY) {
+            keys[index] = key;
+            values[index] = value;
+            if (++size * 2 > keys.length) {
+                grow();
+            }
+        } else if (replace) {
+            values[index] = value;
+        }
+    }
+
+    private int find(long key) {
+        int mask = keys.length - 1;
+        int index = hash(key) & mask;
+        while (keys[index] != EMPTY && keys[index] != key) {
+            index = (index + 1) & mask;
+        }
+        return index;
+    }
+
+    private void grow() {
+        long[] oldKeys = keys;
+        long[] oldValues = values;
+        keys = new long[oldKeys.length * 2];
+        values = new long[oldKeys.length * 2];
+        Arrays.fill(keys, EMPTY);
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != EMPTY) {
+                int index = find(oldKeys[i]);
+                keys[index] = oldKeys[i];
+                values[index] = oldValues[i];
+            }
+        }
+    }
+
+    private static int hash(long key) {
+        long mixed = key * 0x9E3779B97F4A7C15L;
+        return (int) (mixed ^ (mixed >>> 32));
+    }
+}
@@ -0,0 +1,46 @@
+package ru.practicum.ewm;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Кольцо согласованного хеширования узлов сервиса статистики. Каждый узел занимает {@code virtualNodes} точек
+ * кольца, положение точек зависит только от адреса узла: при добавлении узла к нему переезжает около 1/N URI,
+ * остальные остаются на своих узлах.
+ */
+class ConsistentHashRing {
+
+    private final TreeMap<Long, Integer> points = new TreeMap<>();
+
+    ConsistentHashRing(List<String> nodes, int virtualNodes) {
+        for (int node = 0; node < nodes.size(); node++) {
+            for (int i = 0; i < virtualNodes; i++) {
+                points.put(hash(nodes.get(node) + "#" + i), node);
+            }
+        }
+    }
+
+    /**
+     * Номер узла, которому принадлежит {@code key}: первая точка кольца по часовой стрелке от хеша ключа.
+     */
+    int nodeFor(String key) {
+        Map.Entry<Long, Integer> point = points.ceilingEntry(hash(key));
+        return point != null ? point.getValue() : points.firstEntry().getValue();
+    }
+
+    private static long hash(String value) {
+        long hash = 0xcbf29ce484222325L;
+        for (byte b : value.getBytes(StandardCharsets.UTF_8)) {
+            hash ^= b & 0xff;
+            hash *= 0x100000001b3L;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+}
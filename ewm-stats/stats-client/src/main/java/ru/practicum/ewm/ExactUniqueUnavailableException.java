@@ -0,0 +1,19 @@
+package ru.practicum.ewm;
+
+import lombok.Getter;
+
+import java.time.LocalDateTime;
+
+/**
+ * Сервис статистики отклонил точный подсчёт уникальных просмотров: хиты до {@code exactFrom} сжаты, за окно,
+ * начинающееся раньше, доступна только оценка ({@code approximate = true}).
+ */
+@Getter
+public class ExactUniqueUnavailableException extends RuntimeException {
+    private final LocalDateTime exactFrom;
+
+    public ExactUniqueUnavailableException(String message, LocalDateTime exactFrom, Throwable cause) {
+        super(message, cause);
+        this.exactFrom = exactFrom;
+    }
+}
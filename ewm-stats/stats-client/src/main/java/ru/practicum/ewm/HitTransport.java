@@ -0,0 +1,6 @@
+package ru.practicum.ewm;
+
+public enum HitTransport {
+    HTTP,
+    TCP
+}
@@ -0,0 +1,7 @@
+package ru.practicum.ewm;
+
+public enum OverflowPolicy {
+    DROP_OLDEST,
+    BLOCK,
+    SPILL
+}
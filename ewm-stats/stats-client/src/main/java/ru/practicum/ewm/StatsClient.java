@@ -1,30 +1,142 @@
 package ru.practicum.ewm;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.annotation.PreDestroy;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.core.ParameterizedTypeReference;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.http.client.SimpleClientHttpRequestFactory;
 import org.springframework.stereotype.Component;
+import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.client.HttpServerErrorException;
+import org.springframework.web.client.ResourceAccessException;
 import org.springframework.web.client.RestClient;
+import org.springframework.web.client.RestClientResponseException;
 import org.springframework.web.util.UriComponentsBuilder;
 
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
 import java.net.URLEncoder;
 import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.Optional;
+import java.util.PriorityQueue;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+import java.util.zip.GZIPOutputStream;
 
+/**
+ * Клиент сервиса статистики. {@code stats-service.url} может перечислять несколько узлов через запятую, у каждого
+ * своя база: хит уходит на узел, выбранный согласованным хешем его URI, поэтому все хиты одного URI лежат на одном
+ * узле и уникальные посещения считаются там точно. Запрос статистики по списку URI идёт только на их узлы,
+ * запрос без URI или с шаблоном {@code *} - на все узлы параллельно; частичные ответы сливаются на клиенте.
+ * При добавлении узла старые хиты переехавших URI остаются на прежнем узле: их хиты складываются, а уникальные
+ * посещения получаются суммой по узлам (оценкой сверху).
+ */
 @Component
 @Slf4j
 public class StatsClient {
 
-    private final RestClient restClient;
+    private static final String IDEMPOTENCY_KEY = "Idempotency-Key";
+    private static final String EXACT_UNIQUE_FROM = "X-Exact-Unique-From";
 
-    public StatsClient(@Value("${stats-service.url}") String serverUrl) {
-        this.restClient = RestClient.create(serverUrl);
+    private final List<Shard> shards;
+    private final ConsistentHashRing ring;
+    private final ExecutorService fanOut = Executors.newVirtualThreadPerTaskExecutor();
+    private final ObjectMapper objectMapper;
+    private final boolean gzipBatches;
+    private final int hitMaxAttempts;
+    private final long hitRetryBackoffMs;
+    private final Duration hitMaxRetryAfter;
+    private final int readMaxAttempts;
+    private final long readRetryBackoffMs;
+    private final Duration readMaxRetryAfter;
+
+    /**
+     * Хиты отправляются отдельным клиентом с таймаутом {@code stats-service.hit.timeout}: каждый хит несёт
+     * {@code id}, а пачка - {@code Idempotency-Key}, поэтому запрос без ответа можно повторить, не задваивая
+     * просмотры. Чтение (в том числе долгие {@code /stats/feed} и {@code /stats/stream}) идёт без таймаута.
+     * Перегруженный сервис отвечает {@code 429}/{@code 503} с {@code Retry-After}: повтор ждёт указанное время,
+     * а если оно больше {@code stats-service.hit.max-retry-after}, хит сразу завершается ошибкой, не задерживая
+     * вызывающий поток. Чтение при таком отказе повторяется так же (до {@code stats-service.read.max-attempts} раз,
+     * ждать не дольше {@code stats-service.read.max-retry-after}), а затем бросает {@link StatsUnavailableException}.
+     */
+    public StatsClient(@Value("${stats-service.url}") String serverUrls,
+                       @Value("${stats-service.batch.gzip:false}") boolean gzipBatches,
+                       @Value("${stats-service.hit.timeout:5s}") Duration hitTimeout,
+                       @Value("${stats-service.hit.max-attempts:3}") int hitMaxAttempts,
+                       @Value("${stats-service.hit.retry-backoff-ms:200}") long hitRetryBackoffMs,
+                       @Value("${stats-service.hit.max-retry-after:2s}") Duration hitMaxRetryAfter,
+                       @Value("${stats-service.read.max-attempts:2}") int readMaxAttempts,
+                       @Value("${stats-service.read.retry-backoff-ms:100}") long readRetryBackoffMs,
+                       @Value("${stats-service.read.max-retry-after:1s}") Duration readMaxRetryAfter,
+                       @Value("${stats-service.shards.virtual-nodes:160}") int virtualNodes,
+                       ObjectMapper objectMapper) {
+        if (hitMaxAttempts <= 0 || readMaxAttempts <= 0 || virtualNodes <= 0) {
+            throw new IllegalArgumentException("Число попыток отправки хитов, чтения и виртуальных узлов должно быть "
+                    + "положительным.");
+        }
+        List<String> urls = parseUrls(serverUrls);
+        SimpleClientHttpRequestFactory hitRequestFactory = new SimpleClientHttpRequestFactory();
+        hitRequestFactory.setConnectTimeout(hitTimeout);
+        hitRequestFactory.setReadTimeout(hitTimeout);
+        this.shards = urls.stream()
+                .map(url -> new Shard(url, RestClient.create(url), RestClient.builder()
+                        .baseUrl(url)
+                        .requestFactory(hitRequestFactory)
+                        .build()))
+                .toList();
+        this.ring = new ConsistentHashRing(urls, virtualNodes);
+        this.objectMapper = objectMapper;
+        this.gzipBatches = gzipBatches;
+        this.hitMaxAttempts = hitMaxAttempts;
+        this.hitRetryBackoffMs = hitRetryBackoffMs;
+        this.hitMaxRetryAfter = hitMaxRetryAfter;
+        this.readMaxAttempts = readMaxAttempts;
+        this.readRetryBackoffMs = readRetryBackoffMs;
+        this.readMaxRetryAfter = readMaxRetryAfter;
+    }
+
+    @PreDestroy
+    public void close() {
+        fanOut.shutdownNow();
+    }
+
+    /**
+     * Число узлов сервиса статистики; лента {@link #pollFeed} читается с каждого узла отдельно.
+     */
+    public int shardCount() {
+        return shards.size();
     }
 
     public List<ViewStatsDto> getStats(
@@ -32,44 +144,344 @@ public class StatsClient {
             LocalDateTime end,
             List<String> uris,
             Boolean unique) {
+        return getStats(start, end, uris, unique, false);
+    }
+
+    /**
+     * При {@code approximate = true} уникальные посещения оцениваются по HyperLogLog-скетчам сервиса статистики
+     * (стандартная ошибка около 2.3%) вместо точного подсчёта по всем хитам окна. Если точный подсчёт за окно
+     * невозможен из-за сжатия старых хитов, бросается {@link ExactUniqueUnavailableException}.
+     */
+    public List<ViewStatsDto> getStats(
+            LocalDateTime start,
+            LocalDateTime end,
+            List<String> uris,
+            Boolean unique,
+            boolean approximate) {
+        return mergeStats(scatter(route(uris),
+                (shard, shardUris) -> getStats(shard, start, end, shardUris, unique, approximate)));
+    }
 
-        String uri = UriComponentsBuilder.fromPath("/stats")
+    private List<ViewStatsDto> getStats(Shard shard, LocalDateTime start, LocalDateTime end, List<String> uris,
+                                        Boolean unique, boolean approximate) {
+
+        String uri = statsUri("/stats", start, end, uris, unique, approximate);
+
+        try {
+            ResponseEntity<List<ViewStatsDto>> response = withReadRetries("получение статистики",
+                    () -> shard.rest().get()
+                            .uri(uri)
+                            .retrieve()
+                            .toEntity(new ParameterizedTypeReference<>() {
+                            }));
+
+            if (response.getStatusCode().is2xxSuccessful()) {
+                log.info("Stats-Client: запрос getStats выполнен успешно.");
+                return response.getBody();
+            } else {
+                log.debug("Stats-Client: запрос getStats завершился с ошибкой, статус: {}", response.getStatusCode());
+                return Collections.emptyList();
+            }
+        } catch (StatsUnavailableException e) {
+            throw e;
+        } catch (HttpClientErrorException.BadRequest e) {
+            String exactFrom = e.getResponseHeaders() == null ? null
+                    : e.getResponseHeaders().getFirst(EXACT_UNIQUE_FROM);
+            if (exactFrom != null) {
+                throw new ExactUniqueUnavailableException("Stats-Client: точные уникальные просмотры доступны только с "
+                        + exactFrom, LocalDateTime.parse(exactFrom), e);
+            }
+            log.error("Stats-Client: ошибка при получении статистики с {}", shard.url(), e);
+            throw new RuntimeException("Stats-Client: не удалось получить статистику", e);
+        } catch (Exception e) {
+            log.error("Stats-Client: ошибка при получении статистики с {}", shard.url(), e);
+            throw new RuntimeException("Stats-Client: не удалось получить статистику", e);
+        }
+    }
+
+    /**
+     * Статистика по нескольким окнам одним запросом {@code POST /stats/query}. URI идут в теле запроса, поэтому
+     * подходит для сотен URI, которые не помещаются в строку запроса {@link #getStats}; {@code /events/*} выбирает
+     * все URI с префиксом.
+     */
+    public List<WindowedStatsDto> queryStats(List<String> uris, List<StatsWindowDto> windows, boolean unique,
+                                             boolean approximate) {
+        Map<String, WindowedStatsDto> merged = new LinkedHashMap<>();
+        for (WindowedStatsDto stats : scatter(route(uris),
+                (shard, shardUris) -> queryStats(shard, shardUris, windows, unique, approximate))) {
+            merged.merge(stats.getApp() + " " + stats.getUri(), stats, (left, right) -> {
+                List<Long> hits = new ArrayList<>(left.getHits().size());
+                for (int i = 0; i < left.getHits().size(); i++) {
+                    hits.add(left.getHits().get(i) + right.getHits().get(i));
+                }
+                return new WindowedStatsDto(left.getApp(), left.getUri(), hits);
+            });
+        }
+        List<WindowedStatsDto> result = new ArrayList<>(merged.values());
+        if (shards.size() > 1) {
+            result.sort(Comparator.comparing((WindowedStatsDto stats) -> stats.getHits().get(0)).reversed());
+        }
+        return result;
+    }
+
+    private List<WindowedStatsDto> queryStats(Shard shard, List<String> uris, List<StatsWindowDto> windows,
+                                              boolean unique, boolean approximate) {
+        StatsQueryDto query = new StatsQueryDto(uris, windows, unique, approximate);
+        try {
+            ResponseEntity<List<WindowedStatsDto>> response = withReadRetries("получение статистики по окнам",
+                    () -> shard.rest().post()
+                            .uri("/stats/query")
+                            .contentType(MediaType.APPLICATION_JSON)
+                            .body(query)
+                            .retrieve()
+                            .toEntity(new ParameterizedTypeReference<>() {
+                            }));
+            if (response.getStatusCode().is2xxSuccessful()) {
+                log.info("Stats-Client: запрос queryStats выполнен успешно.");
+                return response.getBody();
+            } else {
+                log.debug("Stats-Client: запрос queryStats завершился с ошибкой, статус: {}", response.getStatusCode());
+                return Collections.emptyList();
+            }
+        } catch (StatsUnavailableException e) {
+            throw e;
+        } catch (Exception e) {
+            log.error("Stats-Client: ошибка при получении статистики по окнам с {}", shard.url(), e);
+            throw new RuntimeException("Stats-Client: не удалось получить статистику по окнам", e);
+        }
+    }
+
+    /**
+     * Самые посещаемые app + uri окна ({@code k} штук) для страниц популярных событий. Сервис считает их
+     * по сводкам heavy hitters, число хитов - нижняя оценка. С нескольких узлов берётся по {@code k} лучших.
+     */
+    public List<ViewStatsDto> getTopStats(LocalDateTime start, LocalDateTime end, int k, boolean unique) {
+        List<ViewStatsDto> merged = mergeStats(scatter(allShards(List.of()),
+                (shard, shardUris) -> getTopStats(shard, start, end, k, unique)));
+        return merged.size() > k ? new ArrayList<>(merged.subList(0, k)) : merged;
+    }
+
+    private List<ViewStatsDto> getTopStats(Shard shard, LocalDateTime start, LocalDateTime end, int k,
+                                           boolean unique) {
+        String uri = UriComponentsBuilder.fromPath("/stats/top")
                 .queryParam("start", encodeDate(start))
                 .queryParam("end", encodeDate(end))
-                .queryParam("uris", String.join(",", uris))
-                .queryParamIfPresent("unique", Optional.ofNullable(unique))
+                .queryParam("k", k)
+                .queryParam("unique", unique)
                 .build()
                 .toUriString();
+        try {
+            ResponseEntity<List<ViewStatsDto>> response = withReadRetries("получение популярных URI",
+                    () -> shard.rest().get()
+                            .uri(uri)
+                            .retrieve()
+                            .toEntity(new ParameterizedTypeReference<>() {
+                            }));
+            if (response.getStatusCode().is2xxSuccessful()) {
+                log.info("Stats-Client: запрос getTopStats выполнен успешно.");
+                return response.getBody();
+            } else {
+                log.debug("Stats-Client: запрос getTopStats завершился с ошибкой, статус: {}", response.getStatusCode());
+                return Collections.emptyList();
+            }
+        } catch (StatsUnavailableException e) {
+            throw e;
+        } catch (Exception e) {
+            log.error("Stats-Client: ошибка при получении популярных URI с {}", shard.url(), e);
+            throw new RuntimeException("Stats-Client: не удалось получить популярные URI", e);
+        }
+    }
 
+    /**
+     * Просмотры {@code uri} по шагам {@code step}, начиная со {@code start}, - одним запросом вместо вызова
+     * {@link #getStats} на каждый шаг. Шаги без просмотров приходят с нулём.
+     */
+    public List<TimeSeriesPointDto> getTimeSeries(String uri, LocalDateTime start, LocalDateTime end, Duration step,
+                                                  boolean unique) {
+        return getTimeSeries(uri, start, end, step, unique, false);
+    }
+
+    /**
+     * То же с выбором способа подсчёта уникальных: {@code approximate} - оценка по скетчам. Без него окно,
+     * начинающееся раньше горизонта сжатия сервиса, отклоняется с 400.
+     */
+    public List<TimeSeriesPointDto> getTimeSeries(String uri, LocalDateTime start, LocalDateTime end, Duration step,
+                                                  boolean unique, boolean approximate) {
+        String path = UriComponentsBuilder.fromPath("/stats/timeseries")
+                .queryParam("uri", uri)
+                .queryParam("start", encodeDate(start))
+                .queryParam("end", encodeDate(end))
+                .queryParam("step", step)
+                .queryParam("unique", unique)
+                .queryParam("approximate", approximate)
+                .build()
+                .toUriString();
         try {
-            ResponseEntity<List<ViewStatsDto>> response = restClient.get()
-                    .uri(uri)
-                    .retrieve()
-                    .toEntity(new ParameterizedTypeReference<>() {
-                    });
+            ResponseEntity<List<TimeSeriesPointDto>> response = withReadRetries("получение временного ряда",
+                    () -> shardFor(uri).rest().get()
+                            .uri(path)
+                            .retrieve()
+                            .toEntity(new ParameterizedTypeReference<>() {
+                            }));
+            if (response.getStatusCode().is2xxSuccessful()) {
+                log.info("Stats-Client: запрос getTimeSeries выполнен успешно.");
+                return response.getBody();
+            } else {
+                log.debug("Stats-Client: запрос getTimeSeries завершился с ошибкой, статус: {}", response.getStatusCode());
+                return Collections.emptyList();
+            }
+        } catch (StatsUnavailableException e) {
+            throw e;
+        } catch (Exception e) {
+            log.error("Stats-Client: ошибка при получении временного ряда", e);
+            throw new RuntimeException("Stats-Client: не удалось получить временной ряд", e);
+        }
+    }
+
+    /**
+     * Пары app + uri "в тренде" для {@code app} ({@code null} - по всем приложениям). {@code halfLife} должен
+     * совпадать с одним из периодов полураспада, настроенных в сервисе ({@code null} - первый из них).
+     */
+    public List<TrendingStatsDto> getTrending(String app, int limit, Duration halfLife) {
+        List<TrendingStatsDto> merged = scatter(allShards(List.of()),
+                (shard, shardUris) -> getTrending(shard, app, limit, halfLife));
+        if (shards.size() == 1) {
+            return merged;
+        }
+        merged.sort(Comparator.comparing(TrendingStatsDto::getScore).reversed());
+        return merged.size() > limit ? new ArrayList<>(merged.subList(0, limit)) : merged;
+    }
 
+    private List<TrendingStatsDto> getTrending(Shard shard, String app, int limit, Duration halfLife) {
+        String uri = UriComponentsBuilder.fromPath("/stats/trending")
+                .queryParamIfPresent("app", Optional.ofNullable(app))
+                .queryParam("limit", limit)
+                .queryParamIfPresent("halfLife", Optional.ofNullable(halfLife))
+                .build()
+                .toUriString();
+        try {
+            ResponseEntity<List<TrendingStatsDto>> response = withReadRetries("получение трендов",
+                    () -> shard.rest().get()
+                            .uri(uri)
+                            .retrieve()
+                            .toEntity(new ParameterizedTypeReference<>() {
+                            }));
             if (response.getStatusCode().is2xxSuccessful()) {
-                log.info("Stats-Client: запрос getStats выполнен успешно.");
+                log.info("Stats-Client: запрос getTrending выполнен успешно.");
                 return response.getBody();
             } else {
-                log.debug("Stats-Client: запрос getStats завершился с ошибкой, статус: {}", response.getStatusCode());
+                log.debug("Stats-Client: запрос getTrending завершился с ошибкой, статус: {}", response.getStatusCode());
                 return Collections.emptyList();
             }
+        } catch (StatsUnavailableException e) {
+            throw e;
+        } catch (Exception e) {
+            log.error("Stats-Client: ошибка при получении трендов с {}", shard.url(), e);
+            throw new RuntimeException("Stats-Client: не удалось получить тренды", e);
+        }
+    }
+
+    /**
+     * Порция ленты просмотров {@code /stats/feed} узла {@code shard} (от 0 до {@link #shardCount()}). Без новых
+     * записей сервис держит запрос до {@code timeout}, поэтому вызывается из отдельного потока. Первый вызов -
+     * с {@code epoch = null}.
+     */
+    public ViewFeedDto pollFeed(int shard, Long epoch, long cursor, int limit, Duration timeout) {
+        String uri = UriComponentsBuilder.fromPath("/stats/feed")
+                .queryParamIfPresent("epoch", Optional.ofNullable(epoch))
+                .queryParam("cursor", cursor)
+                .queryParam("limit", limit)
+                .queryParam("timeout", timeout)
+                .build()
+                .toUriString();
+        try {
+            ResponseEntity<ViewFeedDto> response = shards.get(shard).rest().get()
+                    .uri(uri)
+                    .retrieve()
+                    .toEntity(ViewFeedDto.class);
+            if (response.getStatusCode().is2xxSuccessful() && response.getBody() != null) {
+                log.debug("Stats-Client: запрос pollFeed выполнен успешно.");
+                return response.getBody();
+            }
+            throw new IllegalStateException("статус ответа " + response.getStatusCode());
         } catch (Exception e) {
-            log.error("Stats-Client: ошибка при получении статистики", e);
+            log.error("Stats-Client: ошибка при чтении ленты просмотров с {}", shards.get(shard).url(), e);
+            throw new RuntimeException("Stats-Client: не удалось прочитать ленту просмотров", e);
+        }
+    }
+
+    /**
+     * Потоковая выгрузка статистики через {@code /stats/stream}: строки NDJSON разбираются по мере чтения ответа,
+     * поэтому память не растёт с размером результата. Поток держит соединение открытым и должен быть закрыт
+     * (try-with-resources). Оценки по скетчам ({@code approximate}) приходят в порядке app, uri, остальное -
+     * по убыванию хитов; ответы нескольких узлов сливаются с сохранением этого порядка.
+     */
+    public Stream<ViewStatsDto> streamStats(
+            LocalDateTime start,
+            LocalDateTime end,
+            List<String> uris,
+            Boolean unique,
+            boolean approximate) {
+        Map<Shard, List<String>> routes = route(uris);
+        if (routes.size() == 1) {
+            Map.Entry<Shard, List<String>> route = routes.entrySet().iterator().next();
+            return streamStats(route.getKey(), start, end, route.getValue(), unique, approximate);
+        }
+        List<Stream<ViewStatsDto>> streams = new ArrayList<>(routes.size());
+        try {
+            routes.forEach((shard, shardUris) ->
+                    streams.add(streamStats(shard, start, end, shardUris, unique, approximate)));
+        } catch (RuntimeException e) {
+            streams.forEach(Stream::close);
+            throw e;
+        }
+        Comparator<ViewStatsDto> order = approximate
+                ? Comparator.comparing(ViewStatsDto::getApp).thenComparing(ViewStatsDto::getUri)
+                : Comparator.comparing(ViewStatsDto::getHits).reversed();
+        return mergeSorted(streams, order);
+    }
+
+    private Stream<ViewStatsDto> streamStats(Shard shard, LocalDateTime start, LocalDateTime end, List<String> uris,
+                                             Boolean unique, boolean approximate) {
+
+        String uri = statsUri("/stats/stream", start, end, uris, unique, approximate);
+        try {
+            return shard.rest().get()
+                    .uri(uri)
+                    .accept(MediaType.APPLICATION_NDJSON, MediaType.APPLICATION_JSON)
+                    .exchange((request, response) -> {
+                        if (!response.getStatusCode().is2xxSuccessful()) {
+                            response.close();
+                            throw new IllegalStateException("статус ответа " + response.getStatusCode());
+                        }
+                        BufferedReader reader = new BufferedReader(
+                                new InputStreamReader(response.getBody(), StandardCharsets.UTF_8));
+                        return reader.lines()
+                                .filter(line -> !line.isEmpty())
+                                .map(this::readStats)
+                                .onClose(response::close);
+                    }, false);
+        } catch (Exception e) {
+            log.error("Stats-Client: ошибка при потоковом получении статистики с {}", shard.url(), e);
             throw new RuntimeException("Stats-Client: не удалось получить статистику", e);
         }
     }
 
-    public void save(EndpointHitDto endpointHit) {
+    /**
+     * Хиту без {@code id} присваивается случайный: по нему сервис отбрасывает повторы. Переданный объект не меняется,
+     * {@code id} получает его копия.
+     */
+    public void save(EndpointHitDto hit) {
         try {
+            EndpointHitDto endpointHit = withId(hit);
             log.info("Stats-Client: отправка запроса на сохранение события {}", endpointHit);
-            ResponseEntity<Void> response = restClient.post()
+            ResponseEntity<Void> response = withRetries("сохранение события", () -> shardFor(endpointHit.getUri())
+                    .hit().post()
                     .uri("/hit")
                     .contentType(MediaType.APPLICATION_JSON)
                     .body(endpointHit)
                     .retrieve()
-                    .toBodilessEntity();
+                    .toBodilessEntity());
             if (response.getStatusCode().is2xxSuccessful()) {
                 log.info("Stats-Client: событие успешно сохранено, код {}", response.getStatusCode());
             } else {
@@ -81,8 +493,327 @@ public class StatsClient {
         }
     }
 
+    /**
+     * Пачка делится по узлам и отправляется на них параллельно. Если часть узлов не ответила, исключение
+     * получает вся пачка: повтор с теми же {@code id} хитов не задвоит уже записанное на других узлах. Хитам без
+     * {@code id} он присваивается в копиях, поэтому повтор той же пачки без {@code id} защиты от задвоения не даёт:
+     * повторяющий вызывающий код назначает {@code id} сам (как {@link StatsHitRecorder}).
+     */
+    public void saveAll(List<EndpointHitDto> endpointHits) {
+        if (endpointHits.isEmpty()) {
+            return;
+        }
+        Map<Shard, List<EndpointHitDto>> batches = new LinkedHashMap<>();
+        for (EndpointHitDto hit : endpointHits.stream().map(StatsClient::withId).toList()) {
+            batches.computeIfAbsent(shardFor(hit.getUri()), shard -> new ArrayList<>()).add(hit);
+        }
+        scatter(batches, (shard, batch) -> {
+            saveAll(shard, batch);
+            return List.of();
+        });
+    }
+
+    private void saveAll(Shard shard, List<EndpointHitDto> endpointHits) {
+        try {
+            String idempotencyKey = UUID.randomUUID().toString();
+            log.info("Stats-Client: отправка пачки из {} событий на {}, ключ {}", endpointHits.size(), shard.url(),
+                    idempotencyKey);
+            byte[] gzipped = gzipBatches ? gzip(endpointHits) : null;
+            ResponseEntity<Void> response = withRetries("сохранение пачки событий", () -> {
+                RestClient.RequestBodySpec request = shard.hit().post()
+                        .uri("/hit/batch")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .header(IDEMPOTENCY_KEY, idempotencyKey);
+                if (gzipped != null) {
+                    request.header(HttpHeaders.CONTENT_ENCODING, "gzip").body(gzipped);
+                } else {
+                    request.body(endpointHits);
+                }
+                return request.retrieve().toBodilessEntity();
+            });
+            if (response.getStatusCode().is2xxSuccessful()) {
+                log.info("Stats-Client: пачка событий успешно сохранена, код {}", response.getStatusCode());
+            } else {
+                log.error("Stats-Client: ошибка при сохранении пачки событий, код {}", response.getStatusCode());
+            }
+        } catch (Exception e) {
+            log.error("Stats-Client: ошибка при сохранении пачки событий на {}", shard.url(), e);
+            throw new RuntimeException("Stats-Client: не удалось сохранить пачку событий", e);
+        }
+    }
+
+    private Shard shardFor(String uri) {
+        return shards.size() == 1 ? shards.get(0) : shards.get(ring.nodeFor(uri));
+    }
+
+    /**
+     * URI запроса по узлам. Пустой список и шаблоны ({@code *}) нельзя разложить по узлам, такой запрос идёт
+     * на все узлы целиком.
+     */
+    private Map<Shard, List<String>> route(List<String> uris) {
+        if (shards.size() == 1 || uris.isEmpty() || uris.stream().anyMatch(uri -> uri.contains("*"))) {
+            return allShards(uris);
+        }
+        Map<Shard, List<String>> routes = new LinkedHashMap<>();
+        for (String uri : uris) {
+            routes.computeIfAbsent(shardFor(uri), shard -> new ArrayList<>()).add(uri);
+        }
+        return routes;
+    }
+
+    private Map<Shard, List<String>> allShards(List<String> uris) {
+        Map<Shard, List<String>> routes = new LinkedHashMap<>();
+        shards.forEach(shard -> routes.put(shard, uris));
+        return routes;
+    }
+
+    /**
+     * Выполняет запрос на каждом узле маршрута (на нескольких - параллельно) и склеивает ответы. Ошибка любого
+     * узла - ошибка всего запроса: частичная статистика выглядела бы как верная.
+     */
+    private <K, T> List<T> scatter(Map<Shard, K> routes, ShardRequest<K, T> request) {
+        if (routes.size() == 1) {
+            Map.Entry<Shard, K> route = routes.entrySet().iterator().next();
+            return request.execute(route.getKey(), route.getValue());
+        }
+        List<CompletableFuture<List<T>>> futures = new ArrayList<>(routes.size());
+        routes.forEach((shard, argument) -> futures.add(
+                CompletableFuture.supplyAsync(() -> request.execute(shard, argument), fanOut)));
+        List<T> merged = new ArrayList<>();
+        try {
+            futures.forEach(future -> merged.addAll(future.join()));
+        } catch (CompletionException e) {
+            throw e.getCause() instanceof RuntimeException cause ? cause : e;
+        }
+        return merged;
+    }
+
+    /**
+     * Складывает строки одной пары app + uri, пришедшие с разных узлов, и сортирует по убыванию хитов.
+     */
+    private List<ViewStatsDto> mergeStats(List<ViewStatsDto> stats) {
+        if (shards.size() == 1) {
+            return stats;
+        }
+        Map<String, ViewStatsDto> merged = new LinkedHashMap<>();
+        for (ViewStatsDto row : stats) {
+            merged.merge(row.getApp() + " " + row.getUri(), row,
+                    (left, right) -> new ViewStatsDto(left.getApp(), left.getUri(), left.getHits() + right.getHits()));
+        }
+        List<ViewStatsDto> result = new ArrayList<>(merged.values());
+        result.sort(Comparator.comparing(ViewStatsDto::getHits).reversed());
+        return result;
+    }
+
+    private static <T> Stream<T> mergeSorted(List<Stream<T>> streams, Comparator<T> order) {
+        List<Iterator<T>> iterators = streams.stream().map(Stream::iterator).toList();
+        PriorityQueue<Head<T>> heads = new PriorityQueue<>((left, right) -> order.compare(left.value(), right.value()));
+        Iterator<T> merged = new Iterator<>() {
+            private boolean started;
+
+            @Override
+            public boolean hasNext() {
+                start();
+                return !heads.isEmpty();
+            }
+
+            @Override
+            public T next() {
+                start();
+                Head<T> head = heads.poll();
+                if (head == null) {
+                    throw new NoSuchElementException();
+                }
+                Iterator<T> source = iterators.get(head.source());
+                if (source.hasNext()) {
+                    heads.add(new Head<>(source.next(), head.source()));
+                }
+                return head.value();
+            }
+
+            private void start() {
+                if (started) {
+                    return;
+                }
+                started = true;
+                for (int i = 0; i < iterators.size(); i++) {
+                    if (iterators.get(i).hasNext()) {
+                        heads.add(new Head<>(iterators.get(i).next(), i));
+                    }
+                }
+            }
+        };
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(merged, Spliterator.ORDERED), false)
+                .onClose(() -> streams.forEach(Stream::close));
+    }
+
+    /**
+     * Адреса узлов из {@code stats-service.url}: по ним строится кольцо, поэтому порядок и запись адресов
+     * у всех отправителей должны совпадать.
+     */
+    static List<String> parseUrls(String serverUrls) {
+        List<String> urls = Arrays.stream(serverUrls.split(","))
+                .map(String::trim)
+                .filter(url -> !url.isEmpty())
+                .toList();
+        if (urls.isEmpty()) {
+            throw new IllegalArgumentException("Не указан адрес сервиса статистики.");
+        }
+        return urls;
+    }
+
+    /**
+     * Тот же хит, если у него есть {@code id}, иначе копия со случайным {@code id}.
+     */
+    static EndpointHitDto withId(EndpointHitDto endpointHit) {
+        if (endpointHit.getId() != null) {
+            return endpointHit;
+        }
+        return EndpointHitDto.builder()
+                .id(ThreadLocalRandom.current().nextLong())
+                .app(endpointHit.getApp())
+                .uri(endpointHit.getUri())
+                .ip(endpointHit.getIp())
+                .timestamp(endpointHit.getTimestamp())
+                .build();
+    }
+
+    /**
+     * Повторяет запись при сетевой ошибке или таймауте, ответе 5xx, 429 (сервис перегружен) и 409 (запись с тем же
+     * ключом ещё идёт). Остальные ошибки запроса (4xx) не повторяются.
+     */
+    private <T> T withRetries(String operation, Supplier<T> request) {
+        return withRetries(operation, request, StatsClient::isRetryableWrite, hitMaxAttempts, hitRetryBackoffMs,
+                hitMaxRetryAfter);
+    }
+
+    /**
+     * Повторяет чтение, отклонённое перегруженным сервисом (503, 429). Остальные ошибки не повторяются: запрос
+     * без ответа мог нагрузить базу, и повтор только добавит нагрузки. Если сервис так и не принял запрос, бросает
+     * {@link StatsUnavailableException}.
+     */
+    private <T> T withReadRetries(String operation, Supplier<T> request) {
+        try {
+            return withRetries(operation, request, StatsClient::isOverloaded, readMaxAttempts, readRetryBackoffMs,
+                    readMaxRetryAfter);
+        } catch (HttpServerErrorException.ServiceUnavailable | HttpClientErrorException.TooManyRequests e) {
+            log.warn("Stats-Client: {} - сервис статистики перегружен: {}", operation, e.getMessage());
+            throw new StatsUnavailableException("Stats-Client: сервис статистики перегружен", e);
+        }
+    }
+
+    /**
+     * Пауза перед повтором растёт с номером попытки и не меньше {@code Retry-After} ответа; если сервис просит
+     * ждать дольше {@code maxRetryAfter}, ошибка бросается сразу.
+     */
+    private <T> T withRetries(String operation, Supplier<T> request, Predicate<RuntimeException> retryable,
+                              int maxAttempts, long backoffMs, Duration maxRetryAfter) {
+        for (int attempt = 1; ; attempt++) {
+            try {
+                return request.get();
+            } catch (RuntimeException e) {
+                if (!retryable.test(e) || attempt >= maxAttempts) {
+                    throw e;
+                }
+                long delayMs = backoffMs * attempt;
+                Duration retryAfter = retryAfter(e);
+                if (retryAfter != null) {
+                    if (retryAfter.compareTo(maxRetryAfter) > 0) {
+                        log.warn("Stats-Client: {} - сервис просит повторить через {} с, не ждём", operation,
+                                retryAfter.toSeconds());
+                        throw e;
+                    }
+                    delayMs = Math.max(delayMs, retryAfter.toMillis());
+                }
+                log.warn("Stats-Client: {} - попытка {} из {} не удалась, повтор через {} мс: {}", operation, attempt,
+                        maxAttempts, delayMs, e.getMessage());
+                try {
+                    TimeUnit.MILLISECONDS.sleep(delayMs);
+                } catch (InterruptedException interrupted) {
+                    Thread.currentThread().interrupt();
+                    throw e;
+                }
+            }
+        }
+    }
+
+    private static boolean isRetryableWrite(RuntimeException e) {
+        return e instanceof ResourceAccessException || e instanceof HttpServerErrorException
+                || e instanceof HttpClientErrorException.Conflict
+                || e instanceof HttpClientErrorException.TooManyRequests;
+    }
+
+    private static boolean isOverloaded(RuntimeException e) {
+        return e instanceof HttpServerErrorException.ServiceUnavailable
+                || e instanceof HttpClientErrorException.TooManyRequests;
+    }
+
+    /**
+     * {@code Retry-After} ответа: число секунд или HTTP-дата; {@code null}, если заголовка нет или он некорректен.
+     */
+    private static Duration retryAfter(RuntimeException e) {
+        if (!(e instanceof RestClientResponseException response) || response.getResponseHeaders() == null) {
+            return null;
+        }
+        HttpHeaders headers = response.getResponseHeaders();
+        String value = headers.getFirst(HttpHeaders.RETRY_AFTER);
+        if (value == null) {
+            return null;
+        }
+        try {
+            return Duration.ofSeconds(Math.max(0, Long.parseLong(value.trim())));
+        } catch (NumberFormatException notSeconds) {
+            try {
+                Duration untilDate = Duration.between(Instant.now(), Instant.ofEpochMilli(
+                        headers.getFirstDate(HttpHeaders.RETRY_AFTER)));
+                return untilDate.isNegative() ? Duration.ZERO : untilDate;
+            } catch (IllegalArgumentException notDate) {
+                return null;
+            }
+        }
+    }
+
+    private byte[] gzip(Object body) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (OutputStream out = new GZIPOutputStream(bytes)) {
+            objectMapper.writeValue(out, body);
+        }
+        return bytes.toByteArray();
+    }
+
+    private String statsUri(String path, LocalDateTime start, LocalDateTime end, List<String> uris, Boolean unique,
+                            boolean approximate) {
+        return UriComponentsBuilder.fromPath(path)
+                .queryParam("start", encodeDate(start))
+                .queryParam("end", encodeDate(end))
+                .queryParam("uris", String.join(",", uris))
+                .queryParamIfPresent("unique", Optional.ofNullable(unique))
+                .queryParamIfPresent("approximate", Optional.of(approximate).filter(Boolean::booleanValue))
+                .build()
+                .toUriString();
+    }
+
+    private ViewStatsDto readStats(String line) {
+        try {
+            return objectMapper.readValue(line, ViewStatsDto.class);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
     private String encodeDate(LocalDateTime dateTime) {
         String formatted = dateTime.format(DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss"));
         return URLEncoder.encode(formatted, StandardCharsets.UTF_8).replace("+", " ").replace("%3A", ":");
     }
+
+    private record Shard(String url, RestClient rest, RestClient hit) {
+    }
+
+    private record Head<T>(T value, int source) {
+    }
+
+    @FunctionalInterface
+    private interface ShardRequest<K, T> {
+        List<T> execute(Shard shard, K argument);
+    }
 }
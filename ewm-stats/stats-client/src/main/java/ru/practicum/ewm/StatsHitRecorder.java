@@ -0,0 +1,310 @@
+package ru.practicum.ewm;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Запись хитов в сервис статистики. В асинхронном режиме хиты складываются в ограниченную очередь,
+ * а фоновый поток отправляет их пачками через {@link StatsClient#saveAll(List)} или, при
+ * {@code stats-service.recorder.transport=TCP}, через {@link StatsTcpSender}.
+ */
+@Component
+@Slf4j
+public class StatsHitRecorder {
+
+    private final StatsClient statsClient;
+    private final StatsTcpSender tcpSender;
+    private final HitTransport transport;
+    private final ObjectMapper objectMapper;
+    private final boolean async;
+    private final BlockingQueue<EndpointHitDto> queue;
+    private final int batchSize;
+    private final long flushIntervalMs;
+    private final OverflowPolicy overflowPolicy;
+    private final long blockTimeoutMs;
+    private final Path spillFile;
+
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong spilled = new AtomicLong();
+    private final AtomicLong sent = new AtomicLong();
+    private final Object spillLock = new Object();
+
+    private volatile boolean running;
+    private Thread flusher;
+
+    public StatsHitRecorder(StatsClient statsClient,
+                            StatsTcpSender tcpSender,
+                            ObjectMapper objectMapper,
+                            @Value("${stats-service.recorder.transport:HTTP}") HitTransport transport,
+                            @Value("${stats-service.recorder.async:false}") boolean async,
+                            @Value("${stats-service.recorder.queue-capacity:10000}") int queueCapacity,
+                            @Value("${stats-service.recorder.batch-size:500}") int batchSize,
+                            @Value("${stats-service.recorder.flush-interval-ms:1000}") long flushIntervalMs,
+                            @Value("${stats-service.recorder.overflow:DROP_OLDEST}") OverflowPolicy overflowPolicy,
+                            @Value("${stats-service.recorder.block-timeout-ms:50}") long blockTimeoutMs,
+                            @Value("${stats-service.recorder.spill-file:${java.io.tmpdir}/stats-hits.spill}") String spillFile) {
+        this.statsClient = statsClient;
+        this.tcpSender = tcpSender;
+        this.transport = transport;
+        this.objectMapper = objectMapper;
+        this.async = async;
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+        this.batchSize = batchSize;
+        this.flushIntervalMs = flushIntervalMs;
+        this.overflowPolicy = overflowPolicy;
+        this.blockTimeoutMs = blockTimeoutMs;
+        this.spillFile = Path.of(spillFile);
+    }
+
+    @PostConstruct
+    public void start() {
+        if (!async) {
+            return;
+        }
+        running = true;
+        flusher = new Thread(this::flushLoop, "stats-hit-flusher");
+        flusher.setDaemon(true);
+        flusher.start();
+        log.info("Stats-Client: асинхронная запись хитов включена, политика переполнения {}", overflowPolicy);
+    }
+
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        if (!async) {
+            return;
+        }
+        running = false;
+        flusher.interrupt();
+        flusher.join(flushIntervalMs * 2);
+        List<EndpointHitDto> rest = new ArrayList<>();
+        queue.drainTo(rest);
+        for (int from = 0; from < rest.size(); from += batchSize) {
+            send(rest.subList(from, Math.min(from + batchSize, rest.size())));
+        }
+        log.info("Stats-Client: запись хитов остановлена, отправлено {}, отброшено {}, сброшено на диск {}",
+                sent.get(), dropped.get(), spilled.get());
+    }
+
+    public void record(EndpointHitDto hit) {
+        if (!async) {
+            try {
+                if (transport == HitTransport.TCP) {
+                    tcpSender.saveAll(List.of(hit));
+                } else {
+                    statsClient.save(hit);
+                }
+            } catch (RuntimeException e) {
+                log.warn("Stats-Client: хит {} не записан: {}", hit.getUri(), e.getMessage());
+            }
+            return;
+        }
+        // id назначается до очереди: пачка, сброшенная на диск и отправленная повторно, сохраняет те же id
+        EndpointHitDto queued = StatsClient.withId(hit);
+        switch (overflowPolicy) {
+            case DROP_OLDEST -> {
+                while (!queue.offer(queued)) {
+                    if (queue.poll() != null) {
+                        dropped.incrementAndGet();
+                    }
+                }
+            }
+            case BLOCK -> {
+                try {
+                    if (!queue.offer(queued, blockTimeoutMs, TimeUnit.MILLISECONDS)) {
+                        dropped.incrementAndGet();
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    dropped.incrementAndGet();
+                }
+            }
+            case SPILL -> {
+                if (!queue.offer(queued)) {
+                    spill(List.of(queued));
+                }
+            }
+        }
+    }
+
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    public long getSpilled() {
+        return spilled.get();
+    }
+
+    public long getSent() {
+        return sent.get();
+    }
+
+    private void flushLoop() {
+        List<EndpointHitDto> batch = new ArrayList<>(batchSize);
+        while (running) {
+            try {
+                EndpointHitDto first = queue.poll(flushIntervalMs, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    replaySpill();
+                    continue;
+                }
+                batch.add(first);
+                long deadline = System.currentTimeMillis() + flushIntervalMs;
+                while (batch.size() < batchSize) {
+                    if (queue.drainTo(batch, batchSize - batch.size()) > 0) {
+                        continue;
+                    }
+                    long remaining = deadline - System.currentTimeMillis();
+                    EndpointHitDto next = remaining > 0 ? queue.poll(remaining, TimeUnit.MILLISECONDS) : null;
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+                send(batch);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                batch.forEach(queue::offer);
+                return;
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    private boolean send(List<EndpointHitDto> batch) {
+        try {
+            deliver(batch);
+            sent.addAndGet(batch.size());
+            return true;
+        } catch (RuntimeException e) {
+            if (overflowPolicy == OverflowPolicy.SPILL) {
+                spill(batch);
+            } else {
+                dropped.addAndGet(batch.size());
+                log.warn("Stats-Client: пачка из {} хитов отброшена: {}", batch.size(), e.getMessage());
+            }
+            return false;
+        }
+    }
+
+    private void spill(List<EndpointHitDto> hits) {
+        synchronized (spillLock) {
+            try (BufferedWriter writer = Files.newBufferedWriter(spillFile, StandardCharsets.UTF_8,
+                    StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+                for (EndpointHitDto hit : hits) {
+                    writer.write(objectMapper.writeValueAsString(hit));
+                    writer.newLine();
+                }
+                spilled.addAndGet(hits.size());
+            } catch (IOException e) {
+                dropped.addAndGet(hits.size());
+                log.error("Stats-Client: не удалось сбросить {} хитов в {}", hits.size(), spillFile, e);
+            }
+        }
+    }
+
+    /**
+     * Дочитывает сброшенные на диск хиты, когда очередь пуста. Файл переименовывается целиком,
+     * поэтому новые хиты во время отправки копятся в свежем файле; неотправленный остаток дописывается обратно.
+     * Файл, оставшийся от прерванного прохода, не затирается: новый сброс дописывается в его конец. Строки,
+     * которые не разбираются (например, оборванные при падении процесса), пропускаются.
+     */
+    private void replaySpill() {
+        Path replay = spillFile.resolveSibling(spillFile.getFileName() + ".replay");
+        if (overflowPolicy != OverflowPolicy.SPILL || !Files.exists(spillFile) && !Files.exists(replay)) {
+            return;
+        }
+        try {
+            synchronized (spillLock) {
+                if (!Files.exists(replay)) {
+                    Files.move(spillFile, replay);
+                } else if (Files.exists(spillFile)) {
+                    try (OutputStream out = Files.newOutputStream(replay, StandardOpenOption.APPEND)) {
+                        // последняя строка прерванного прохода могла оборваться без перевода строки
+                        out.write('\n');
+                        Files.copy(spillFile, out);
+                    }
+                    Files.delete(spillFile);
+                }
+            }
+            List<EndpointHitDto> batch = new ArrayList<>(batchSize);
+            List<EndpointHitDto> failed = new ArrayList<>();
+            try (BufferedReader reader = Files.newBufferedReader(replay, StandardCharsets.UTF_8)) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    if (line.isBlank()) {
+                        continue;
+                    }
+                    EndpointHitDto hit;
+                    try {
+                        hit = objectMapper.readValue(line, EndpointHitDto.class);
+                    } catch (JsonProcessingException e) {
+                        spilled.decrementAndGet();
+                        dropped.incrementAndGet();
+                        log.warn("Stats-Client: пропущена повреждённая строка в {}: {}", replay,
+                                e.getOriginalMessage());
+                        continue;
+                    }
+                    if (!failed.isEmpty()) {
+                        failed.add(hit);
+                        continue;
+                    }
+                    batch.add(hit);
+                    if (batch.size() == batchSize) {
+                        sendSpilled(batch, failed);
+                    }
+                }
+            }
+            if (!batch.isEmpty() && failed.isEmpty()) {
+                sendSpilled(batch, failed);
+            }
+            failed.addAll(batch);
+            if (!failed.isEmpty()) {
+                spill(failed);
+                spilled.addAndGet(-failed.size());
+            }
+            Files.delete(replay);
+        } catch (IOException e) {
+            log.error("Stats-Client: не удалось дочитать сброшенные хиты из {}", replay, e);
+        }
+    }
+
+    private void sendSpilled(List<EndpointHitDto> batch, List<EndpointHitDto> failed) {
+        try {
+            deliver(batch);
+            sent.addAndGet(batch.size());
+            spilled.addAndGet(-batch.size());
+        } catch (RuntimeException e) {
+            failed.addAll(batch);
+        }
+        batch.clear();
+    }
+
+    private void deliver(List<EndpointHitDto> batch) {
+        if (transport == HitTransport.TCP) {
+            tcpSender.saveAll(batch);
+        } else {
+            statsClient.saveAll(batch);
+        }
+    }
+}
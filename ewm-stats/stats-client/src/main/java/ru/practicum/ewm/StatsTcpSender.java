@@ -0,0 +1,210 @@
+package ru.practicum.ewm;
+
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Отправка хитов в TCP-приёмник сервиса статистики ({@code stats.ingest.tcp.enabled}) строками
+ * {@code epochSecond \t app \t uri \t ip \t id}. Узел выбирается тем же кольцом по uri, что и в {@link StatsClient},
+ * хост берётся из {@code stats-service.url}, порт - {@code stats-service.tcp.port}. На узел одно соединение.
+ * <p>
+ * Подтверждений нет: хиты считаются отправленными, когда записаны в сокет. При ошибке записи соединение
+ * открывается заново и пачка отправляется повторно до {@code stats-service.hit.max-attempts} раз, повтор не
+ * задваивает хиты благодаря {@code id}. Хиты, ушедшие в уже закрытое сервисом соединение, могут потеряться.
+ * <p>
+ * Пока сервис пишет пачку в базу, он не читает сокеты, и запись упирается в TCP-окно. Поэтому отправка на узел,
+ * включая ожидание соединения, занятого другим потоком, и все повторы, укладывается в
+ * {@code stats-service.hit.timeout}: по его истечении пачка не отправляется, а недописанное соединение закрывается
+ * (сервис пропустит оборванную строку). Поток запроса при синхронной записи хитов не ждёт медленную базу
+ * статистики дольше этого времени.
+ */
+@Slf4j
+@Component
+public class StatsTcpSender {
+
+    private final List<Node> nodes;
+    private final ConsistentHashRing ring;
+    private final long timeoutNanos;
+    private final int maxAttempts;
+
+    public StatsTcpSender(@Value("${stats-service.url}") String serverUrls,
+                          @Value("${stats-service.tcp.port:9091}") int port,
+                          @Value("${stats-service.hit.timeout:5s}") Duration timeout,
+                          @Value("${stats-service.hit.max-attempts:3}") int maxAttempts,
+                          @Value("${stats-service.shards.virtual-nodes:160}") int virtualNodes) {
+        List<String> urls = StatsClient.parseUrls(serverUrls);
+        this.nodes = urls.stream()
+                .map(url -> new Node(new InetSocketAddress(URI.create(url).getHost(), port)))
+                .toList();
+        this.ring = new ConsistentHashRing(urls, virtualNodes);
+        this.timeoutNanos = timeout.toNanos();
+        this.maxAttempts = maxAttempts;
+    }
+
+    @PreDestroy
+    public void close() {
+        nodes.forEach(Node::close);
+    }
+
+    public void saveAll(List<EndpointHitDto> endpointHits) {
+        Map<Node, StringBuilder> batches = new LinkedHashMap<>();
+        for (EndpointHitDto hit : endpointHits.stream().map(StatsClient::withId).toList()) {
+            StringBuilder lines = batches.computeIfAbsent(nodes.get(ring.nodeFor(hit.getUri())),
+                    node -> new StringBuilder());
+            lines.append(hit.getTimestamp().toEpochSecond(ZoneOffset.UTC)).append('\t');
+            escape(lines, hit.getApp()).append('\t');
+            escape(lines, hit.getUri()).append('\t');
+            escape(lines, hit.getIp()).append('\t');
+            lines.append(hit.getId()).append('\n');
+        }
+        List<Node> failed = new ArrayList<>();
+        batches.forEach((node, lines) -> {
+            if (!node.send(lines.toString().getBytes(StandardCharsets.UTF_8))) {
+                failed.add(node);
+            }
+        });
+        if (!failed.isEmpty()) {
+            throw new UncheckedIOException(new IOException("Не удалось отправить хиты по TCP на " + failed));
+        }
+    }
+
+    private static long remainingMs(long deadline) {
+        return TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+    }
+
+    private static StringBuilder escape(StringBuilder lines, String value) {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '\\' -> lines.append("\\\\");
+                case '\t' -> lines.append("\\t");
+                case '\n' -> lines.append("\\n");
+                case '\r' -> lines.append("\\r");
+                default -> lines.append(c);
+            }
+        }
+        return lines;
+    }
+
+    private class Node {
+        private final InetSocketAddress address;
+        private final ReentrantLock lock = new ReentrantLock();
+        private SocketChannel channel;
+        private Selector selector;
+
+        Node(InetSocketAddress address) {
+            this.address = address;
+        }
+
+        boolean send(byte[] lines) {
+            long deadline = System.nanoTime() + timeoutNanos;
+            try {
+                if (!lock.tryLock(timeoutNanos, TimeUnit.NANOSECONDS)) {
+                    log.warn("Stats-Client: соединение с {} занято дольше таймаута, хиты не отправлены", address);
+                    return false;
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+            try {
+                for (int attempt = 1; attempt <= maxAttempts; attempt++) {
+                    try {
+                        if (channel == null) {
+                            connect(deadline);
+                        }
+                        write(ByteBuffer.wrap(lines), deadline);
+                        return true;
+                    } catch (IOException e) {
+                        log.warn("Stats-Client: отправка хитов по TCP на {} - попытка {} из {} не удалась: {}",
+                                address, attempt, maxAttempts, e.getMessage());
+                        close();
+                        if (e instanceof SocketTimeoutException) {
+                            return false;
+                        }
+                    }
+                }
+                return false;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private void connect(long deadline) throws IOException {
+            SocketChannel opened = SocketChannel.open();
+            try {
+                opened.socket().connect(address, (int) Math.max(1, remainingMs(deadline)));
+                opened.configureBlocking(false);
+                Selector writable = Selector.open();
+                opened.register(writable, SelectionKey.OP_WRITE);
+                channel = opened;
+                selector = writable;
+            } catch (IOException e) {
+                opened.close();
+                throw e;
+            }
+        }
+
+        /**
+         * Неблокирующая запись: пока буфер отправки полон, ждёт готовности сокета, но не дольше {@code deadline}.
+         */
+        private void write(ByteBuffer buffer, long deadline) throws IOException {
+            while (buffer.hasRemaining()) {
+                if (channel.write(buffer) > 0) {
+                    continue;
+                }
+                long remainingMs = remainingMs(deadline);
+                if (remainingMs <= 0) {
+                    throw new SocketTimeoutException("таймаут записи, осталось " + buffer.remaining() + " байт");
+                }
+                selector.select(remainingMs);
+                selector.selectedKeys().clear();
+            }
+        }
+
+        void close() {
+            lock.lock();
+            try {
+                if (channel == null) {
+                    return;
+                }
+                try {
+                    selector.close();
+                    channel.close();
+                } catch (IOException e) {
+                    log.debug("Stats-Client: ошибка закрытия TCP-соединения с {}", address, e);
+                }
+                channel = null;
+                selector = null;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        @Override
+        public String toString() {
+            return address.toString();
+        }
+    }
+}
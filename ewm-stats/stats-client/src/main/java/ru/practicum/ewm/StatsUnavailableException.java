@@ -0,0 +1,11 @@
+package ru.practicum.ewm;
+
+/**
+ * Сервис статистики перегружен и отклонил чтение ({@code 503}/{@code 429}) даже после повторов. Вызывающий код
+ * может обойтись без свежей статистики: показать устаревшие данные или не показывать их вовсе.
+ */
+public class StatsUnavailableException extends RuntimeException {
+    public StatsUnavailableException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
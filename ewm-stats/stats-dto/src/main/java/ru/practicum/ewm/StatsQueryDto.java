@@ -0,0 +1,27 @@
+package ru.practicum.ewm;
+
+import jakarta.validation.Valid;
+import jakarta.validation.constraints.NotEmpty;
+import lombok.*;
+
+import java.util.List;
+
+/**
+ * Запрос статистики по нескольким окнам сразу. {@code uris} может содержать префиксы вида {@code /events/*};
+ * пустой список - все URI.
+ */
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class StatsQueryDto {
+    private List<String> uris;
+
+    @NotEmpty
+    private List<@Valid StatsWindowDto> windows;
+
+    private boolean unique;
+
+    private boolean approximate;
+}
@@ -0,0 +1,14 @@
+package ru.practicum.ewm;
+
+import lombok.*;
+
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class TrendingStatsDto {
+    private String app;
+    private String uri;
+    private Double score;
+}
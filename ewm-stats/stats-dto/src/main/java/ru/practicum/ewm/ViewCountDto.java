@@ -0,0 +1,13 @@
+package ru.practicum.ewm;
+
+import lombok.*;
+
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class ViewCountDto {
+    private String uri;
+    private Long hits;
+}
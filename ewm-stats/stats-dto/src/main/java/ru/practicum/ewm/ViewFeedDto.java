@@ -0,0 +1,25 @@
+package ru.practicum.ewm;
+
+import lombok.*;
+
+import java.util.List;
+
+/**
+ * Порция ленты просмотров. {@code cursor} - позиция для следующего запроса; при {@code reset = true} позиция
+ * клиента потеряна (перезапуск сервиса или отставание больше хранимой ленты) и накопленные значения нужно
+ * сбросить. {@code counts} - новые значения просмотров изменившихся URI. {@code unique} и {@code approximate} -
+ * как сервис считает просмотры ленты: клиент сверяет их с параметрами своего запроса просмотров.
+ */
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class ViewFeedDto {
+    private long epoch;
+    private long cursor;
+    private boolean reset;
+    private List<ViewCountDto> counts;
+    private boolean unique;
+    private boolean approximate;
+}
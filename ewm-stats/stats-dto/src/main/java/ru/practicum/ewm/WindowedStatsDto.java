@@ -0,0 +1,19 @@
+package ru.practicum.ewm;
+
+import lombok.*;
+
+import java.util.List;
+
+/**
+ * Статистика пары app + uri по окнам запроса: {@code hits.get(i)} относится к i-му окну.
+ */
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class WindowedStatsDto {
+    private String app;
+    private String uri;
+    private List<Long> hits;
+}
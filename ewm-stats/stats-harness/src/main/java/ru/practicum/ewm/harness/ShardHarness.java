@@ -0,0 +1,253 @@
+package ru.practicum.ewm.harness;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.Banner;
+import org.springframework.boot.autoconfigure.AutoConfigurationPackage;
+import org.springframework.boot.autoconfigure.EnableAutoConfiguration;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.web.servlet.context.ServletWebServerApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.context.annotation.ComponentScan;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.FilterType;
+import org.springframework.scheduling.annotation.EnableScheduling;
+import ru.practicum.ewm.EndpointHitDto;
+import ru.practicum.ewm.StatsClient;
+import ru.practicum.ewm.StatsHitRecorder;
+import ru.practicum.ewm.StatsServiceApp;
+import ru.practicum.ewm.StatsTcpSender;
+import ru.practicum.ewm.StatsWindowDto;
+import ru.practicum.ewm.TimeSeriesPointDto;
+import ru.practicum.ewm.ViewStatsDto;
+import ru.practicum.ewm.WindowedStatsDto;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Локальный стенд шардирования. Поднимает в одном процессе {@code nodes} узлов сервиса статистики (у каждого своя
+ * база H2 в памяти) и ещё один узел-эталон, пишет одни и те же хиты через {@link StatsClient} на все узлы и на эталон,
+ * сверяет ответы шардированного клиента с эталоном и замеряет скорость записи и чтения. Узлы делят ядра одного
+ * процесса, поэтому замер показывает накладные расходы разбиения, а рост ёмкости виден, только если ядер не меньше,
+ * чем узлов.
+ * <p>
+ * Запуск: {@code mvn -B package -DskipTests}, затем
+ * {@code java -jar ewm-stats/stats-harness/target/stats-harness-0.0.1-SNAPSHOT.jar [узлов] [хитов] [потоков чтения]}.
+ * При расхождении с эталоном процесс завершается с кодом 1.
+ */
+@Slf4j
+public final class ShardHarness {
+
+    private static final int BATCH_SIZE = 500;
+    private static final int URIS = 2000;
+    private static final int QUERIES = 2000;
+    private static final int QUERY_URIS = 10;
+
+    private final Random random = new Random(1);
+    private int failures;
+
+    public static void main(String[] args) throws Exception {
+        int nodes = args.length > 0 ? Integer.parseInt(args[0]) : 3;
+        int hits = args.length > 1 ? Integer.parseInt(args[1]) : 50_000;
+        int threads = args.length > 2 ? Integer.parseInt(args[2]) : 8;
+        int failures = new ShardHarness().run(nodes, hits, threads);
+        System.exit(failures == 0 ? 0 : 1);
+    }
+
+    private int run(int nodes, int hits, int threads) throws Exception {
+        Path workDir = Files.createTempDirectory("stats-harness");
+        List<ConfigurableApplicationContext> contexts = new ArrayList<>();
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<String> urls = new ArrayList<>();
+            for (int i = 0; i < nodes; i++) {
+                contexts.add(startNode("shard" + i, workDir));
+                urls.add(url(contexts.get(i)));
+            }
+            ConfigurableApplicationContext reference = startNode("reference", workDir);
+            contexts.add(reference);
+            ObjectMapper objectMapper = reference.getBean(ObjectMapper.class);
+            StatsClient sharded = client(String.join(",", urls), objectMapper);
+            StatsClient single = client(url(reference), objectMapper);
+            try {
+                LocalDateTime now = LocalDateTime.now().truncatedTo(ChronoUnit.SECONDS);
+                List<EndpointHitDto> generated = generate(hits, now);
+                log.info("Запись {} хитов: {} узлов - {} хитов/с, один узел - {} хитов/с", hits, nodes,
+                        write(sharded, generated), write(single, generated));
+                verify(sharded, single, now);
+                log.info("Чтение {} запросов по {} URI: {} узлов - {} запросов/с, один узел - {} запросов/с",
+                        QUERIES, QUERY_URIS, nodes, read(sharded, now, executor), read(single, now, executor));
+            } finally {
+                sharded.close();
+                single.close();
+            }
+        } finally {
+            executor.shutdownNow();
+            contexts.forEach(ConfigurableApplicationContext::close);
+        }
+        log.info("Стенд шардирования: расхождений с эталоном {}", failures);
+        return failures;
+    }
+
+    private static ConfigurableApplicationContext startNode(String name, Path workDir) throws IOException {
+        Path dir = Files.createDirectories(workDir.resolve(name));
+        return new SpringApplicationBuilder(NodeConfiguration.class)
+                .profiles("test")
+                .bannerMode(Banner.Mode.OFF)
+                .logStartupInfo(false)
+                .run("--server.port=0",
+                        "--spring.datasource.url=jdbc:h2:mem:" + name,
+                        "--spring.jpa.show-sql=false",
+                        "--logging.level.root=WARN",
+                        "--logging.level.ru.practicum.ewm.harness=INFO",
+                        "--stats.trending.checkpoint-file=" + dir.resolve("trending.dat"),
+                        "--stats.storage.segment.dir=" + dir.resolve("segments"),
+                        "--stats.ingest.write-behind.journal-dir=" + dir.resolve("journal"),
+                        "--stats.snapshot.dir=" + dir.resolve("snapshot"),
+                        "--stats.load.dir=" + dir.resolve("load"));
+    }
+
+    private static String url(ConfigurableApplicationContext context) {
+        return "http://localhost:" + ((ServletWebServerApplicationContext) context).getWebServer().getPort();
+    }
+
+    private static StatsClient client(String urls, ObjectMapper objectMapper) {
+        return new StatsClient(urls, false, Duration.ofSeconds(5), 3, 200, Duration.ofSeconds(2), 2, 100,
+                Duration.ofSeconds(1), 160, objectMapper);
+    }
+
+    private List<EndpointHitDto> generate(int count, LocalDateTime now) {
+        List<EndpointHitDto> hits = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            hits.add(new EndpointHitDto(null, random.nextInt(5) == 0 ? "other" : "ewm",
+                    "/events/" + random.nextInt(URIS), "10.0." + random.nextInt(8) + "." + random.nextInt(100),
+                    now.minusMinutes(random.nextInt(24 * 60))));
+        }
+        return hits;
+    }
+
+    /**
+     * Пишет хиты пачками и возвращает число хитов в секунду. Пачки идут по одной (шардированный клиент сам
+     * рассылает части пачки по узлам параллельно): H2 не выдерживает одновременный MERGE одной строки агрегатов.
+     * Каждый клиент получает свои копии хитов: id назначается при отправке.
+     */
+    private static long write(StatsClient client, List<EndpointHitDto> hits) {
+        long started = System.nanoTime();
+        for (int from = 0; from < hits.size(); from += BATCH_SIZE) {
+            client.saveAll(hits.subList(from, Math.min(from + BATCH_SIZE, hits.size())).stream()
+                    .map(hit -> new EndpointHitDto(null, hit.getApp(), hit.getUri(), hit.getIp(), hit.getTimestamp()))
+                    .toList());
+        }
+        return hits.size() * 1_000_000_000L / Math.max(1, System.nanoTime() - started);
+    }
+
+    private long read(StatsClient client, LocalDateTime now, ExecutorService executor) throws Exception {
+        List<Callable<Void>> queries = new ArrayList<>(QUERIES);
+        for (int i = 0; i < QUERIES; i++) {
+            List<String> uris = randomUris();
+            queries.add(() -> {
+                client.getStats(now.minusDays(1), now, uris, true);
+                return null;
+            });
+        }
+        return perSecond(QUERIES, executor, queries);
+    }
+
+    private static long perSecond(int count, ExecutorService executor, List<Callable<Void>> tasks) throws Exception {
+        long started = System.nanoTime();
+        for (Future<Void> future : executor.invokeAll(tasks)) {
+            future.get();
+        }
+        return count * 1_000_000_000L / Math.max(1, System.nanoTime() - started);
+    }
+
+    private void verify(StatsClient sharded, StatsClient single, LocalDateTime now) {
+        LocalDateTime start = now.minusDays(1);
+        for (boolean unique : new boolean[]{false, true}) {
+            for (boolean approximate : new boolean[]{false, true}) {
+                check("getStats unique=" + unique + " approximate=" + approximate,
+                        rows(sharded.getStats(start, now, List.of(), unique, approximate)),
+                        rows(single.getStats(start, now, List.of(), unique, approximate)));
+            }
+        }
+        List<String> uris = randomUris();
+        check("getStats по списку URI", rows(sharded.getStats(start, now, uris, true)),
+                rows(single.getStats(start, now, uris, true)));
+        check("getStats по шаблону", rows(sharded.getStats(start, now, List.of("/events/1*"), true)),
+                rows(single.getStats(start, now, List.of("/events/1*"), true)));
+        List<StatsWindowDto> windows = List.of(new StatsWindowDto(now.minusHours(2), now),
+                new StatsWindowDto(now.minusHours(12), now.minusHours(1)));
+        check("queryStats", windowRows(sharded.queryStats(uris, windows, true, false)),
+                windowRows(single.queryStats(uris, windows, true, false)));
+        // популярные URI считаются по сводкам heavy hitters: список может отличаться, но счёт - нижняя оценка
+        Map<String, Long> exact = single.getStats(start, now, List.of(), false).stream()
+                .collect(Collectors.toMap(row -> row.getApp() + " " + row.getUri(), ViewStatsDto::getHits));
+        check("getTopStats", sharded.getTopStats(start, now, 10, false).stream()
+                .filter(row -> row.getHits() > exact.getOrDefault(row.getApp() + " " + row.getUri(), 0L))
+                .toList(), List.of());
+        check("getTimeSeries", series(sharded.getTimeSeries(uris.get(0), start, now, Duration.ofHours(1), true)),
+                series(single.getTimeSeries(uris.get(0), start, now, Duration.ofHours(1), true)));
+        try (Stream<ViewStatsDto> stream = sharded.streamStats(start, now, List.of(), true, false)) {
+            check("streamStats", rows(stream.toList()), rows(single.getStats(start, now, List.of(), true)));
+        }
+    }
+
+    private void check(String name, Object actual, Object expected) {
+        if (actual.equals(expected)) {
+            log.info("Проверка {}: совпадает с эталоном", name);
+        } else {
+            failures++;
+            log.error("Проверка {}: расхождение с эталоном\n  узлы:   {}\n  эталон: {}", name, actual, expected);
+        }
+    }
+
+    private List<String> randomUris() {
+        return random.ints(QUERY_URIS, 0, URIS).mapToObj(i -> "/events/" + i).toList();
+    }
+
+    private static Set<String> rows(List<ViewStatsDto> stats) {
+        return stats.stream()
+                .map(row -> row.getApp() + " " + row.getUri() + " " + row.getHits())
+                .collect(Collectors.toSet());
+    }
+
+    private static Set<String> windowRows(List<WindowedStatsDto> stats) {
+        return stats.stream()
+                .map(row -> row.getApp() + " " + row.getUri() + " " + row.getHits())
+                .collect(Collectors.toSet());
+    }
+
+    private static List<Long> series(List<TimeSeriesPointDto> points) {
+        return points.stream().map(TimeSeriesPointDto::getHits).toList();
+    }
+
+    /**
+     * Контекст узла: тот же набор бинов, что у {@link StatsServiceApp}, но без клиента статистики, который
+     * в этом модуле тоже лежит в пакете {@code ru.practicum.ewm}.
+     */
+    @Configuration
+    @EnableAutoConfiguration
+    @AutoConfigurationPackage(basePackageClasses = StatsServiceApp.class)
+    @EnableScheduling
+    @ComponentScan(basePackageClasses = StatsServiceApp.class, excludeFilters = @ComponentScan.Filter(
+            type = FilterType.ASSIGNABLE_TYPE,
+            classes = {StatsServiceApp.class, StatsClient.class, StatsHitRecorder.class, StatsTcpSender.class}))
+    static class NodeConfiguration {
+    }
+}
@@ -0,0 +1,310 @@
+package ru.practicum.ewm.cache;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import ru.practicum.ewm.ViewStatsDto;
+import ru.practicum.ewm.model.endpoint.EndpointHit;
+import ru.practicum.ewm.model.stats.StatsKey;
+import ru.practicum.ewm.storage.HitListener;
+import ru.practicum.ewm.storage.HitStorage;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Кэш ответов {@code /stats}. В записи хранится выровненная по {@code stats.cache.granularity} часть окна
+ * запроса (начало округляется вверх, конец - вниз), а невыровненные края досчитываются хранилищем при каждом
+ * запросе и складываются с записью. Поэтому запросы вида "с now() - 3 года по now()", отличающиеся на секунды,
+ * попадают в одну запись, и в ответ не попадают хиты вне окна. Уникальные посетители по частям окна
+ * не складываются, поэтому такие запросы берутся из кэша, только если окно выровнено целиком.
+ * <p>
+ * Записанные хиты не сбрасывают запись целиком: их URI помечаются в записях, чьё окно содержит время хита,
+ * и при следующем чтении перечитываются только строки этих URI. Запись создаётся до чтения хранилища, поэтому
+ * хит, сохранённый во время чтения, тоже её пометит. Число записей ограничено {@code stats.cache.max-entries}
+ * (вытесняется давно не читавшаяся), время жизни - {@code stats.cache.ttl}: так в кэш попадают и изменения,
+ * о которых он не узнаёт (сжатие, удаление партиций).
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(name = "stats.cache.enabled", havingValue = "true")
+public class StatsQueryCache implements HitListener {
+
+    private final HitStorage hitStorage;
+    private final long granularitySeconds;
+    private final int maxEntries;
+    private final long ttlNanos;
+    private final Map<CacheKey, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final Map<String, Set<Entry>> entriesByUri = new HashMap<>();
+    private final Set<Entry> allUriEntries = new HashSet<>();
+    private final Counter hits;
+    private final Counter refreshes;
+    private final Counter misses;
+    private final Counter bypasses;
+    private final Counter sizeEvictions;
+    private final Counter expirations;
+
+    public StatsQueryCache(HitStorage hitStorage,
+                           MeterRegistry meterRegistry,
+                           @Value("${stats.cache.granularity:1m}") Duration granularity,
+                           @Value("${stats.cache.max-entries:10000}") int maxEntries,
+                           @Value("${stats.cache.ttl:5m}") Duration ttl) {
+        if (granularity.getSeconds() <= 0 || granularity.getNano() != 0) {
+            throw new IllegalArgumentException("Шаг кэша должен быть положительным и кратным секунде.");
+        }
+        if (maxEntries <= 0 || ttl.isNegative() || ttl.isZero()) {
+            throw new IllegalArgumentException("Размер и время жизни кэша должны быть положительными.");
+        }
+        this.hitStorage = hitStorage;
+        this.granularitySeconds = granularity.getSeconds();
+        this.maxEntries = maxEntries;
+        this.ttlNanos = ttl.toNanos();
+        this.hits = result(meterRegistry, "hit");
+        this.refreshes = result(meterRegistry, "refresh");
+        this.misses = result(meterRegistry, "miss");
+        this.bypasses = result(meterRegistry, "bypass");
+        this.sizeEvictions = eviction(meterRegistry, "size");
+        this.expirations = eviction(meterRegistry, "expired");
+        Gauge.builder("stats.cache.size", this, StatsQueryCache::size)
+                .description("Число записей в кэше /stats")
+                .register(meterRegistry);
+        Gauge.builder("stats.cache.hit.ratio", this, StatsQueryCache::hitRatio)
+                .description("Доля запросов /stats, отвеченных из кэша (в том числе с перечитанными URI)")
+                .register(meterRegistry);
+    }
+
+    public List<ViewStatsDto> get(LocalDateTime start, LocalDateTime end, List<String> uris, boolean unique,
+                                  boolean approximate) {
+        LocalDateTime endExclusive = end.plus(1, ChronoUnit.MICROS);
+        LocalDateTime from = ceil(start);
+        LocalDateTime to = floor(endExclusive);
+        boolean aligned = from.equals(start) && to.equals(endExclusive);
+        if (!from.isBefore(to) || (unique && !aligned)) {
+            bypasses.increment();
+            return hitStorage.countHits(start, end, uris, unique, approximate);
+        }
+        List<ViewStatsDto> cached = entry(new CacheKey(from, to, List.copyOf(new TreeSet<>(uris)), unique,
+                approximate)).read();
+        if (aligned) {
+            return cached;
+        }
+        Map<StatsKey, Long> merged = new HashMap<>();
+        cached.forEach(row -> merged.merge(new StatsKey(row.getApp(), row.getUri()), row.getHits(), Long::sum));
+        List<ViewStatsDto> edges = new ArrayList<>();
+        if (start.isBefore(from)) {
+            edges.addAll(hitStorage.countHits(start, from.minus(1, ChronoUnit.MICROS), uris, false, approximate));
+        }
+        if (to.isBefore(endExclusive)) {
+            edges.addAll(hitStorage.countHits(to, end, uris, false, approximate));
+        }
+        edges.forEach(row -> merged.merge(new StatsKey(row.getApp(), row.getUri()), row.getHits(), Long::sum));
+        return merged.entrySet().stream()
+                .map(row -> new ViewStatsDto(row.getKey().app(), row.getKey().uri(), row.getValue()))
+                .sorted(Comparator.comparing(ViewStatsDto::getHits).reversed())
+                .toList();
+    }
+
+    private Entry entry(CacheKey key) {
+        Entry entry;
+        synchronized (this) {
+            entry = entries.get(key);
+            if (entry != null && entry.isExpired()) {
+                remove(entry);
+                expirations.increment();
+                entry = null;
+            }
+            if (entry == null) {
+                entry = new Entry(key, System.nanoTime());
+                add(entry);
+            }
+        }
+        return entry;
+    }
+
+    /**
+     * Помечает URI сохранённых хитов в записях, чьё окно содержит время хита.
+     */
+    @Override
+    public void onWrite(List<EndpointHit> savedHits) {
+        synchronized (this) {
+            if (entries.isEmpty()) {
+                return;
+            }
+            for (EndpointHit hit : savedHits) {
+                for (Entry entry : entriesByUri.getOrDefault(hit.getUri(), Set.of())) {
+                    entry.mark(hit);
+                }
+                for (Entry entry : allUriEntries) {
+                    entry.mark(hit);
+                }
+            }
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${stats.cache.purge-interval-ms:60000}")
+    public synchronized void purgeExpired() {
+        int purged = 0;
+        Iterator<Entry> iterator = entries.values().iterator();
+        while (iterator.hasNext()) {
+            Entry entry = iterator.next();
+            if (entry.isExpired()) {
+                iterator.remove();
+                unindex(entry);
+                purged++;
+            }
+        }
+        if (purged > 0) {
+            expirations.increment(purged);
+            log.debug("Кэш /stats: удалено {} устаревших записей", purged);
+        }
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    private double hitRatio() {
+        double answered = hits.count() + refreshes.count();
+        double total = answered + misses.count() + bypasses.count();
+        return total == 0 ? 0 : answered / total;
+    }
+
+    private void add(Entry entry) {
+        entries.put(entry.key, entry);
+        if (entry.key.uris().isEmpty()) {
+            allUriEntries.add(entry);
+        } else {
+            entry.key.uris().forEach(uri -> entriesByUri.computeIfAbsent(uri, u -> new HashSet<>()).add(entry));
+        }
+        Iterator<Entry> eldest = entries.values().iterator();
+        while (entries.size() > maxEntries) {
+            Entry evicted = eldest.next();
+            eldest.remove();
+            unindex(evicted);
+            sizeEvictions.increment();
+        }
+    }
+
+    private void remove(Entry entry) {
+        entries.remove(entry.key);
+        unindex(entry);
+    }
+
+    private void unindex(Entry entry) {
+        if (entry.key.uris().isEmpty()) {
+            allUriEntries.remove(entry);
+            return;
+        }
+        for (String uri : entry.key.uris()) {
+            Set<Entry> uriEntries = entriesByUri.get(uri);
+            uriEntries.remove(entry);
+            if (uriEntries.isEmpty()) {
+                entriesByUri.remove(uri);
+            }
+        }
+    }
+
+    private LocalDateTime ceil(LocalDateTime time) {
+        LocalDateTime floor = floor(time);
+        return floor.equals(time) ? time : floor.plusSeconds(granularitySeconds);
+    }
+
+    private LocalDateTime floor(LocalDateTime time) {
+        long seconds = time.toEpochSecond(ZoneOffset.UTC);
+        return LocalDateTime.ofEpochSecond(Math.floorDiv(seconds, granularitySeconds) * granularitySeconds, 0,
+                ZoneOffset.UTC);
+    }
+
+    private static Counter result(MeterRegistry meterRegistry, String result) {
+        return Counter.builder("stats.cache.gets")
+                .description("Запросы к кэшу /stats: hit - без чтения хранилища, refresh - перечитаны "
+                        + "помеченные URI, miss - запись прочитана целиком, bypass - уникальные по невыровненному окну "
+                        + "посчитаны мимо кэша")
+                .tag("result", result)
+                .register(meterRegistry);
+    }
+
+    private static Counter eviction(MeterRegistry meterRegistry, String cause) {
+        return Counter.builder("stats.cache.evictions")
+                .description("Вытесненные записи кэша /stats")
+                .tag("cause", cause)
+                .register(meterRegistry);
+    }
+
+    /**
+     * Окно {@code [from, to)}, выровненное по шагу кэша; {@code uris} отсортированы, пустой список - все URI.
+     */
+    private record CacheKey(LocalDateTime from, LocalDateTime to, List<String> uris, boolean unique,
+                            boolean approximate) {
+    }
+
+    private class Entry {
+        private final CacheKey key;
+        private final long createdAt;
+        private final Set<String> dirtyUris = ConcurrentHashMap.newKeySet();
+        private List<ViewStatsDto> rows;
+
+        Entry(CacheKey key, long createdAt) {
+            this.key = key;
+            this.createdAt = createdAt;
+        }
+
+        boolean isExpired() {
+            return System.nanoTime() - createdAt > ttlNanos;
+        }
+
+        void mark(EndpointHit hit) {
+            if (!hit.getTimestamp().isBefore(key.from()) && hit.getTimestamp().isBefore(key.to())) {
+                dirtyUris.add(hit.getUri());
+            }
+        }
+
+        /**
+         * Одновременные чтения одной записи ждут друг друга, чтобы хранилище читалось один раз.
+         */
+        synchronized List<ViewStatsDto> read() {
+            if (rows == null) {
+                dirtyUris.clear();
+                rows = List.copyOf(count(key.uris()));
+                misses.increment();
+                return rows;
+            }
+            if (dirtyUris.isEmpty()) {
+                hits.increment();
+                return rows;
+            }
+            List<String> refreshed = new ArrayList<>(dirtyUris);
+            dirtyUris.removeAll(refreshed);
+            Set<String> refreshedSet = new HashSet<>(refreshed);
+            List<ViewStatsDto> merged = new ArrayList<>(count(refreshed));
+            rows.stream().filter(row -> !refreshedSet.contains(row.getUri())).forEach(merged::add);
+            merged.sort(Comparator.comparing(ViewStatsDto::getHits).reversed());
+            rows = List.copyOf(merged);
+            refreshes.increment();
+            return rows;
+        }
+
+        private List<ViewStatsDto> count(List<String> uris) {
+            return hitStorage.countHits(key.from(), key.to().minus(1, ChronoUnit.MICROS), uris, key.unique(),
+                    key.approximate());
+        }
+    }
+}
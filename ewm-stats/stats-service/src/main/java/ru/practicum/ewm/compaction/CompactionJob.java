@@ -0,0 +1,68 @@
+package ru.practicum.ewm.compaction;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import ru.practicum.ewm.model.partition.StatisticsPartition;
+import ru.practicum.ewm.model.rollup.Granularity;
+import ru.practicum.ewm.repository.CompactionRepository;
+import ru.practicum.ewm.repository.DatabaseDialect;
+import ru.practicum.ewm.repository.PartitionRepository;
+import ru.practicum.ewm.storage.ConditionalOnJdbcStorage;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+
+/**
+ * Сжатие старых данных: хиты старше {@code stats.compaction.raw-retention-days} остаются только в дневных
+ * бакетах, дневных скетчах и дневных сводках top-K. Сырые строки, минутные и часовые бакеты, часовые скетчи
+ * и сводки до горизонта удаляются. На Postgres целиком устаревшие секции удаляются без DELETE.
+ */
+@Slf4j
+@Component
+@ConditionalOnJdbcStorage
+public class CompactionJob {
+
+    private final RawHorizon rawHorizon;
+    private final CompactionRepository compactionRepository;
+    private final PartitionRepository partitionRepository;
+    private final boolean postgres;
+    private final int rawRetentionDays;
+
+    public CompactionJob(RawHorizon rawHorizon,
+                         CompactionRepository compactionRepository,
+                         PartitionRepository partitionRepository,
+                         DatabaseDialect databaseDialect,
+                         @Value("${stats.compaction.raw-retention-days:0}") int rawRetentionDays) {
+        this.rawHorizon = rawHorizon;
+        this.compactionRepository = compactionRepository;
+        this.partitionRepository = partitionRepository;
+        this.postgres = databaseDialect.isPostgres();
+        this.rawRetentionDays = rawRetentionDays;
+    }
+
+    @Scheduled(cron = "${stats.compaction.cron:0 30 0 * * *}")
+    public void compact() {
+        if (rawRetentionDays <= 0) {
+            return;
+        }
+        LocalDateTime horizon = rawHorizon.advance(LocalDate.now().minusDays(rawRetentionDays).atStartOfDay());
+        if (postgres) {
+            for (StatisticsPartition partition : partitionRepository.findAll()) {
+                if (!partition.isDefaultPartition() && partition.getTo() != null
+                        && !partition.getTo().isAfter(horizon)) {
+                    partitionRepository.dropPartition(partition.getName());
+                }
+            }
+        }
+        long raw = compactionRepository.deleteRawBefore(horizon);
+        long rollups = compactionRepository.deleteRollupsBefore(Granularity.MINUTE, horizon)
+                + compactionRepository.deleteRollupsBefore(Granularity.HOUR, horizon);
+        long sketches = compactionRepository.deleteSketchesBefore(Granularity.HOUR, horizon);
+        long counters = compactionRepository.deleteTopKBefore(Granularity.HOUR, horizon);
+        log.info("Сжатие до {}: удалено {} сырых хитов, {} бакетов, {} скетчей, {} счётчиков top-K",
+                horizon, raw, rollups, sketches, counters);
+    }
+}
@@ -0,0 +1,39 @@
+package ru.practicum.ewm.compaction;
+
+import org.springframework.boot.sql.init.dependency.DependsOnDatabaseInitialization;
+import org.springframework.stereotype.Component;
+import ru.practicum.ewm.repository.CompactionRepository;
+
+import java.time.LocalDateTime;
+
+/**
+ * Граница, до которой сырые хиты удалены и остались только дневные бакеты и скетчи.
+ * {@code null} - сжатия ещё не было.
+ */
+@Component
+@DependsOnDatabaseInitialization
+public class RawHorizon {
+
+    private final CompactionRepository compactionRepository;
+    private volatile LocalDateTime horizon;
+
+    public RawHorizon(CompactionRepository compactionRepository) {
+        this.compactionRepository = compactionRepository;
+        this.horizon = compactionRepository.findHorizon();
+    }
+
+    public LocalDateTime get() {
+        return horizon;
+    }
+
+    /**
+     * Сдвигает горизонт вперёд. Вызывается до удаления данных, чтобы запросы успели перейти на дневные бакеты.
+     */
+    public synchronized LocalDateTime advance(LocalDateTime newHorizon) {
+        if (horizon == null || newHorizon.isAfter(horizon)) {
+            compactionRepository.saveHorizon(newHorizon);
+            horizon = newHorizon;
+        }
+        return horizon;
+    }
+}
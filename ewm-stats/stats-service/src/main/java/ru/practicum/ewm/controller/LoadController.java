@@ -0,0 +1,63 @@
+package ru.practicum.ewm.controller;
+
+import jakarta.validation.ValidationException;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.*;
+import ru.practicum.ewm.load.HitFileFormat;
+import ru.practicum.ewm.load.HitLoader;
+import ru.practicum.ewm.load.LoadStatus;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Загрузка хитов из файлов каталога {@code stats.load.dir} при переносе и восстановлении статистики.
+ * Файлы вне каталога не читаются.
+ */
+@RestController
+@RequestMapping("/admin/load")
+@Slf4j
+public class LoadController {
+
+    private final HitLoader hitLoader;
+    private final Path loadDir;
+
+    public LoadController(HitLoader hitLoader,
+                          @Value("${stats.load.dir:${java.io.tmpdir}/stats-load}") String loadDir) {
+        this.hitLoader = hitLoader;
+        this.loadDir = Path.of(loadDir).toAbsolutePath().normalize();
+    }
+
+    /**
+     * Запускает загрузку в фоне. Без {@code offset} загрузка продолжается со строки, на которой остановилась
+     * прошлая загрузка файла с тем же именем; {@code offset=0} - с начала файла.
+     */
+    @PostMapping
+    @ResponseStatus(HttpStatus.ACCEPTED)
+    public LoadStatus start(@RequestParam String file,
+                            @RequestParam(required = false) HitFileFormat format,
+                            @RequestParam(required = false) Long offset) {
+        log.info("Получен запрос POST /admin/load, файл: {}, формат: {}, строка: {}", file, format, offset);
+        Path path = loadDir.resolve(file).normalize();
+        if (!path.startsWith(loadDir) || !Files.isRegularFile(path)) {
+            throw new ValidationException("Файл " + file + " не найден в каталоге загрузки.");
+        }
+        if (offset != null && offset < 0) {
+            throw new ValidationException("Номер строки не может быть отрицательным.");
+        }
+        return hitLoader.start(path, format, offset);
+    }
+
+    @GetMapping
+    public LoadStatus status() {
+        return hitLoader.status();
+    }
+
+    @DeleteMapping
+    public LoadStatus cancel() {
+        log.info("Получен запрос DELETE /admin/load");
+        return hitLoader.cancel();
+    }
+}
@@ -1,33 +1,149 @@
 package ru.practicum.ewm.controller;
 
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.validation.Valid;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.format.annotation.DateTimeFormat;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.validation.annotation.Validated;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 import ru.practicum.ewm.EndpointHitDto;
+import ru.practicum.ewm.StatsQueryDto;
+import ru.practicum.ewm.TimeSeriesPointDto;
+import ru.practicum.ewm.TrendingStatsDto;
+import ru.practicum.ewm.ViewFeedDto;
 import ru.practicum.ewm.ViewStatsDto;
+import ru.practicum.ewm.WindowedStatsDto;
 import ru.practicum.ewm.service.StatsService;
+import ru.practicum.ewm.service.StatsStream;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.time.LocalDateTime;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
+@Validated
 @RestController
 @RequiredArgsConstructor
 @Slf4j
 public class StatsController {
 
     private final StatsService service;
+    private final ObjectMapper objectMapper;
 
 
     @GetMapping("/stats")
     public List<ViewStatsDto> get(@RequestParam @DateTimeFormat(pattern = "yyyy-MM-dd HH:mm:ss") LocalDateTime start,
                                                   @RequestParam @DateTimeFormat(pattern = "yyyy-MM-dd HH:mm:ss") LocalDateTime end,
                                                   @RequestParam(defaultValue = "") List<String> uris,
-                                                  @RequestParam(defaultValue = "false") Boolean unique) {
+                                                  @RequestParam(defaultValue = "false") Boolean unique,
+                                                  @RequestParam(defaultValue = "false") Boolean approximate) {
 
-        log.info("Получен запрос GET /stats. Параметры: start = {}, end = {}, uris = {}, unique = {}", start, end, uris, unique);
-        return service.getStats(start, end, uris, unique);
+        log.info("Получен запрос GET /stats. Параметры: start = {}, end = {}, uris = {}, unique = {}, approximate = {}",
+                start, end, uris, unique, approximate);
+        return service.getStats(start, end, uris, unique, approximate);
+    }
+
+    /**
+     * Статистика по нескольким окнам за один запрос. URI передаются в теле, поэтому их число не упирается в длину
+     * строки запроса; {@code /events/*} выбирает все URI с префиксом {@code /events/}.
+     */
+    @PostMapping("/stats/query")
+    public List<WindowedStatsDto> query(@RequestBody @Valid StatsQueryDto query) {
+        log.info("Получен запрос POST /stats/query. Окон: {}, URI: {}, unique = {}, approximate = {}",
+                query.getWindows().size(), query.getUris() == null ? 0 : query.getUris().size(), query.isUnique(),
+                query.isApproximate());
+        return service.query(query);
+    }
+
+    /**
+     * Самые посещаемые app + uri окна. Считается по сводкам heavy hitters без группировки всех хитов окна.
+     */
+    @GetMapping("/stats/top")
+    public List<ViewStatsDto> top(@RequestParam @DateTimeFormat(pattern = "yyyy-MM-dd HH:mm:ss") LocalDateTime start,
+                                  @RequestParam @DateTimeFormat(pattern = "yyyy-MM-dd HH:mm:ss") LocalDateTime end,
+                                  @RequestParam(defaultValue = "10") int k,
+                                  @RequestParam(defaultValue = "false") Boolean unique) {
+
+        log.info("Получен запрос GET /stats/top. Параметры: start = {}, end = {}, k = {}, unique = {}",
+                start, end, k, unique);
+        return service.getTop(start, end, k, unique);
+    }
+
+    /**
+     * Просмотры {@code uri} по шагам {@code step} (например, {@code 1h} или {@code PT15M}) для графиков:
+     * весь ряд считается одним запросом вместо отдельного {@code /stats} на каждый шаг.
+     */
+    @GetMapping("/stats/timeseries")
+    public List<TimeSeriesPointDto> timeSeries(@RequestParam String uri,
+                                               @RequestParam @DateTimeFormat(pattern = "yyyy-MM-dd HH:mm:ss") LocalDateTime start,
+                                               @RequestParam @DateTimeFormat(pattern = "yyyy-MM-dd HH:mm:ss") LocalDateTime end,
+                                               @RequestParam(defaultValue = "1h") String step,
+                                               @RequestParam(defaultValue = "false") Boolean unique,
+                                               @RequestParam(defaultValue = "false") Boolean approximate) {
+
+        log.info("Получен запрос GET /stats/timeseries. Параметры: uri = {}, start = {}, end = {}, step = {}, unique = {}, approximate = {}",
+                uri, start, end, step, unique, approximate);
+        return service.getTimeSeries(uri, start, end, step, unique, approximate);
+    }
+
+    /**
+     * Пары app + uri "в тренде": просмотры взвешены по давности, вес падает вдвое за {@code halfLife}
+     * (например, {@code 1h} или {@code PT6H}).
+     */
+    @GetMapping("/stats/trending")
+    public List<TrendingStatsDto> trending(@RequestParam(required = false) String app,
+                                           @RequestParam(defaultValue = "10") int limit,
+                                           @RequestParam(required = false) String halfLife) {
+
+        log.info("Получен запрос GET /stats/trending. Параметры: app = {}, limit = {}, halfLife = {}",
+                app, limit, halfLife);
+        return service.getTrending(app, limit, halfLife);
+    }
+
+    /**
+     * Лента просмотров (long-poll): новые значения просмотров изменившихся URI после {@code cursor}. Первый запрос
+     * идёт без {@code epoch} и получает {@code reset} с текущей позицией; дальше клиент передаёт {@code epoch}
+     * и {@code cursor} из предыдущего ответа.
+     */
+    @GetMapping("/stats/feed")
+    public CompletableFuture<ViewFeedDto> feed(@RequestParam(required = false) Long epoch,
+                                               @RequestParam(defaultValue = "0") long cursor,
+                                               @RequestParam(defaultValue = "1000") int limit,
+                                               @RequestParam(defaultValue = "30s") String timeout) {
+
+        log.debug("Получен запрос GET /stats/feed. Параметры: epoch = {}, cursor = {}, limit = {}, timeout = {}",
+                epoch, cursor, limit, timeout);
+        return service.pollFeed(epoch, cursor, limit, timeout);
+    }
+
+    /**
+     * Та же статистика в формате NDJSON (объект на строку), которая пишется в ответ по мере чтения из базы.
+     * Для выгрузок по всем URI: ни сервис, ни клиент не держат весь результат в памяти.
+     */
+    @GetMapping(value = "/stats/stream", produces = MediaType.APPLICATION_NDJSON_VALUE)
+    public ResponseEntity<StreamingResponseBody> stream(@RequestParam @DateTimeFormat(pattern = "yyyy-MM-dd HH:mm:ss") LocalDateTime start,
+                                                        @RequestParam @DateTimeFormat(pattern = "yyyy-MM-dd HH:mm:ss") LocalDateTime end,
+                                                        @RequestParam(defaultValue = "") List<String> uris,
+                                                        @RequestParam(defaultValue = "false") Boolean unique,
+                                                        @RequestParam(defaultValue = "false") Boolean approximate) {
+
+        log.info("Получен запрос GET /stats/stream. Параметры: start = {}, end = {}, uris = {}, unique = {}, approximate = {}",
+                start, end, uris, unique, approximate);
+        StatsStream stats = service.streamStats(start, end, uris, unique, approximate);
+        StreamingResponseBody body = out -> {
+            try (JsonGenerator generator = objectMapper.createGenerator(out)) {
+                generator.setRootValueSeparator(null);
+                stats.forEach(dto -> writeLine(generator, dto));
+            }
+        };
+        return ResponseEntity.ok().contentType(MediaType.APPLICATION_NDJSON).body(body);
     }
 
 
@@ -37,4 +153,26 @@ public class StatsController {
         log.info("Получен запрос POST /hit");
         service.save(dto);
     }
+
+    /**
+     * Пачка хитов. Клиент, повторяющий запрос после таймаута, передаёт тот же {@code Idempotency-Key} и те же
+     * {@code id} хитов: уже записанное не задваивается.
+     */
+    @PostMapping("/hit/batch")
+    @ResponseStatus(HttpStatus.CREATED)
+    public void saveAll(@RequestBody List<@Valid EndpointHitDto> dtos,
+                        @RequestHeader(value = "Idempotency-Key", required = false) String idempotencyKey) {
+        log.info("Получен запрос POST /hit/batch, количество хитов: {}, ключ идемпотентности: {}", dtos.size(),
+                idempotencyKey);
+        service.saveAll(dtos, idempotencyKey);
+    }
+
+    private void writeLine(JsonGenerator generator, ViewStatsDto dto) {
+        try {
+            generator.writeObject(dto);
+            generator.writeRaw('\n');
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
 }
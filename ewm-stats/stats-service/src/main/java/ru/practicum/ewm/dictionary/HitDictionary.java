@@ -0,0 +1,137 @@
+package ru.practicum.ewm.dictionary;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.context.annotation.DependsOn;
+import org.springframework.stereotype.Component;
+import ru.practicum.ewm.model.dictionary.DictionaryKind;
+import ru.practicum.ewm.model.endpoint.EndpointHit;
+import ru.practicum.ewm.repository.DictionaryRepository;
+import ru.practicum.ewm.snapshot.SnapshotParticipant;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Кэш словарей приложений и URI. Строки словаря никогда не меняются и не удаляются, поэтому кэш не нужно
+ * инвалидировать; его размер равен числу различных приложений и URI.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+@DependsOn("schemaUpgrade")
+public class HitDictionary implements SnapshotParticipant {
+
+    private static final int SNAPSHOT_SAMPLE = 100;
+
+    private final DictionaryRepository dictionaryRepository;
+    private final Map<DictionaryKind, Map<String, Integer>> ids = new EnumMap<>(Map.of(
+            DictionaryKind.APP, new ConcurrentHashMap<>(), DictionaryKind.URI, new ConcurrentHashMap<>()));
+
+    /**
+     * Заносит в словари приложения и URI пачки. Вызывается до транзакции записи хитов: вставка в словарь
+     * коммитится сразу, и откат записи не оставит в кэше идентификатор, которого нет в базе.
+     */
+    public void intern(List<EndpointHit> hits) {
+        for (EndpointHit hit : hits) {
+            id(DictionaryKind.APP, hit.getApp());
+            id(DictionaryKind.URI, hit.getUri());
+        }
+    }
+
+    /**
+     * Запрос к базе идёт вне {@code computeIfAbsent}: иначе он держал бы блокировку сегмента карты, и чтения
+     * соседних строк ждали бы базу. Одновременный промах по одной строке даёт два идемпотентных вызова
+     * {@code intern} с одним и тем же результатом.
+     */
+    public int id(DictionaryKind kind, String name) {
+        Map<String, Integer> cache = ids.get(kind);
+        Integer id = cache.get(name);
+        if (id != null) {
+            return id;
+        }
+        int interned = dictionaryRepository.intern(kind, name);
+        Integer existing = cache.putIfAbsent(name, interned);
+        return existing != null ? existing : interned;
+    }
+
+    /**
+     * Идентификаторы известных строк; строки, которых нет в словаре, пропускаются.
+     */
+    public List<Integer> findIds(DictionaryKind kind, List<String> names) {
+        Map<String, Integer> cache = ids.get(kind);
+        List<Integer> result = new ArrayList<>(names.size());
+        List<String> missing = new ArrayList<>();
+        for (String name : names) {
+            Integer id = cache.get(name);
+            if (id != null) {
+                result.add(id);
+            } else {
+                missing.add(name);
+            }
+        }
+        if (!missing.isEmpty()) {
+            Map<String, Integer> found = dictionaryRepository.findIds(kind, missing);
+            cache.putAll(found);
+            result.addAll(found.values());
+        }
+        return result;
+    }
+
+    @Override
+    public String snapshotSection() {
+        return "dictionary";
+    }
+
+    @Override
+    public void writeSnapshot(DataOutput out) throws IOException {
+        for (DictionaryKind kind : DictionaryKind.values()) {
+            Map<String, Integer> saved = Map.copyOf(ids.get(kind));
+            out.writeInt(saved.size());
+            for (Map.Entry<String, Integer> entry : saved.entrySet()) {
+                out.writeUTF(entry.getKey());
+                out.writeInt(entry.getValue());
+            }
+        }
+    }
+
+    /**
+     * Снимок мог остаться от другой базы, поэтому до {@value #SNAPSHOT_SAMPLE} строк каждого словаря сверяются
+     * с базой; при расхождении словарь не восстанавливается.
+     */
+    @Override
+    public void readSnapshot(DataInput in) throws IOException {
+        for (DictionaryKind kind : DictionaryKind.values()) {
+            int count = in.readInt();
+            Map<String, Integer> saved = new HashMap<>(count * 4 / 3 + 1);
+            List<String> sample = new ArrayList<>(Math.min(count, SNAPSHOT_SAMPLE));
+            for (int i = 0; i < count; i++) {
+                String name = in.readUTF();
+                saved.put(name, in.readInt());
+                if (i % Math.max(1, count / SNAPSHOT_SAMPLE) == 0 && sample.size() < SNAPSHOT_SAMPLE) {
+                    sample.add(name);
+                }
+            }
+            Map<String, Integer> found = sample.isEmpty() ? Map.of() : dictionaryRepository.findIds(kind, sample);
+            if (sample.stream().allMatch(name -> saved.get(name).equals(found.get(name)))) {
+                ids.get(kind).putAll(saved);
+            } else {
+                log.warn("Словарь {} в снимке не совпадает с базой, пропускаем", kind);
+            }
+        }
+    }
+
+    /**
+     * Строки из хвоста уже занесены в базу при записи и попадут в кэш при первом обращении.
+     */
+    @Override
+    public void replay(List<EndpointHit> hits) {
+    }
+}
@@ -3,7 +3,9 @@ package ru.practicum.ewm.exception;
 import jakarta.validation.ValidationException;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.coyote.BadRequestException;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.MethodArgumentNotValidException;
 import org.springframework.web.bind.MissingRequestHeaderException;
 import org.springframework.web.bind.MissingServletRequestParameterException;
@@ -18,6 +20,9 @@ import java.util.MissingFormatArgumentException;
 @Slf4j
 @RestControllerAdvice
 public class ErrorHandler {
+
+    private static final String EXACT_UNIQUE_FROM = "X-Exact-Unique-From";
+
     @ExceptionHandler({
             MethodArgumentNotValidException.class,
             MissingFormatArgumentException.class,
@@ -30,6 +35,14 @@ public class ErrorHandler {
         return new ErrorResponse(HttpStatus.BAD_REQUEST, "Validation exception: {}", e.getMessage());
     }
 
+    @ExceptionHandler
+    public ResponseEntity<ErrorResponse> handleExactUniqueUnavailable(final ExactUniqueUnavailableException e) {
+        log.warn(e.getMessage());
+        return ResponseEntity.status(HttpStatus.BAD_REQUEST)
+                .header(EXACT_UNIQUE_FROM, e.getExactFrom().toString())
+                .body(new ErrorResponse(HttpStatus.BAD_REQUEST, "Validation exception: {}", e.getMessage()));
+    }
+
     @ExceptionHandler
     @ResponseStatus(HttpStatus.BAD_REQUEST)
     public ErrorResponse handleBadRequest(final BadRequestException e) {
@@ -37,6 +50,21 @@ public class ErrorHandler {
         return new ErrorResponse(HttpStatus.BAD_REQUEST, "Bad request exception: {}", e.getMessage());
     }
 
+    @ExceptionHandler
+    @ResponseStatus(HttpStatus.CONFLICT)
+    public ErrorResponse handleConflict(final ConflictException e) {
+        log.warn(e.getMessage());
+        return new ErrorResponse(HttpStatus.CONFLICT, "Conflict: {}", e.getMessage());
+    }
+
+    @ExceptionHandler
+    public ResponseEntity<ErrorResponse> handleServiceUnavailable(final ServiceUnavailableException e) {
+        log.warn(e.getMessage());
+        return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                .header(HttpHeaders.RETRY_AFTER, "1")
+                .body(new ErrorResponse(HttpStatus.SERVICE_UNAVAILABLE, "Service unavailable: {}", e.getMessage()));
+    }
+
     @ExceptionHandler
     @ResponseStatus(HttpStatus.INTERNAL_SERVER_ERROR)
     public ErrorResponse handleThrowable(final Exception e) {
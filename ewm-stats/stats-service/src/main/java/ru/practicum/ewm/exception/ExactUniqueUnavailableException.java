@@ -0,0 +1,21 @@
+package ru.practicum.ewm.exception;
+
+import jakarta.validation.ValidationException;
+import lombok.Getter;
+
+import java.time.LocalDateTime;
+
+/**
+ * Точные уникальные просмотры запрошены за окно, начинающееся раньше {@code exactFrom}: более старые хиты сжаты,
+ * доступна только оценка по скетчам. Ответ помечается заголовком {@code X-Exact-Unique-From}, по которому клиент
+ * отличает этот отказ от прочих ошибок валидации.
+ */
+@Getter
+public class ExactUniqueUnavailableException extends ValidationException {
+    private final LocalDateTime exactFrom;
+
+    public ExactUniqueUnavailableException(String message, LocalDateTime exactFrom) {
+        super(message);
+        this.exactFrom = exactFrom;
+    }
+}
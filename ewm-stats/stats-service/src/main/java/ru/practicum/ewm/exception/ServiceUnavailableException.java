@@ -0,0 +1,10 @@
+package ru.practicum.ewm.exception;
+
+/**
+ * Сервис временно не успевает обработать запрос; ничего не записано, запрос можно повторить.
+ */
+public class ServiceUnavailableException extends RuntimeException {
+    public ServiceUnavailableException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,159 @@
+package ru.practicum.ewm.feed;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import ru.practicum.ewm.ViewCountDto;
+import ru.practicum.ewm.ViewFeedDto;
+import ru.practicum.ewm.model.endpoint.EndpointHit;
+import ru.practicum.ewm.storage.HitListener;
+import ru.practicum.ewm.storage.HitStorage;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Лента просмотров URI с префиксом {@code stats.feed.uri-prefix}. Записанные хиты помечают свои URI,
+ * раз в {@code stats.feed.publish-interval-ms} просмотры помеченных URI за {@code stats.feed.period} считаются
+ * одним запросом к хранилищу и дописываются в ленту. Нагрузка на хранилище зависит от числа изменившихся URI,
+ * а не от числа читателей.
+ * <p>
+ * Запись ленты несёт новое значение, а не разницу, поэтому повторное применение ничего не портит. Лента хранит
+ * последние {@code stats.feed.capacity} записей в памяти. Клиент, который отстал сильнее или пришёл с позицией
+ * другого запуска сервиса (эпохи), получает {@code reset}.
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(name = "stats.feed.enabled", havingValue = "true")
+public class ViewFeed implements HitListener {
+
+    private final HitStorage hitStorage;
+    private final String uriPrefix;
+    private final Duration period;
+    private final boolean unique;
+    private final boolean approximate;
+    private final int batchSize;
+    private final ViewCountDto[] records;
+    private final long epoch = System.currentTimeMillis();
+    private final Set<String> changed = ConcurrentHashMap.newKeySet();
+    private final List<Waiter> waiters = new ArrayList<>();
+    private long nextSeq;
+
+    public ViewFeed(HitStorage hitStorage,
+                    @Value("${stats.feed.uri-prefix:/events/}") String uriPrefix,
+                    @Value("${stats.feed.period:1095d}") Duration period,
+                    @Value("${stats.feed.unique:true}") boolean unique,
+                    @Value("${stats.feed.approximate:false}") boolean approximate,
+                    @Value("${stats.feed.batch-size:500}") int batchSize,
+                    @Value("${stats.feed.capacity:100000}") int capacity) {
+        if (batchSize <= 0 || capacity <= 0) {
+            throw new IllegalArgumentException("Размеры ленты просмотров должны быть положительными.");
+        }
+        this.hitStorage = hitStorage;
+        this.uriPrefix = uriPrefix;
+        this.period = period;
+        this.unique = unique;
+        this.approximate = approximate;
+        this.batchSize = batchSize;
+        this.records = new ViewCountDto[capacity];
+    }
+
+    @Override
+    public void onWrite(List<EndpointHit> hits) {
+        for (EndpointHit hit : hits) {
+            if (hit.getUri().startsWith(uriPrefix)) {
+                changed.add(hit.getUri());
+            }
+        }
+    }
+
+    /**
+     * URI снимаются с отметки до чтения хранилища: хит, записанный во время чтения, пометит URI заново
+     * и попадёт в следующую публикацию.
+     */
+    @Scheduled(fixedDelayString = "${stats.feed.publish-interval-ms:1000}")
+    public void publish() {
+        if (changed.isEmpty()) {
+            return;
+        }
+        List<String> uris = new ArrayList<>(changed);
+        changed.removeAll(uris);
+        LocalDateTime now = LocalDateTime.now();
+        for (int from = 0; from < uris.size(); from += batchSize) {
+            List<String> batch = uris.subList(from, Math.min(from + batchSize, uris.size()));
+            try {
+                Map<String, Long> counts = new LinkedHashMap<>();
+                batch.forEach(uri -> counts.put(uri, 0L));
+                hitStorage.countHits(now.minus(period), now, batch, unique, approximate)
+                        .forEach(stats -> counts.merge(stats.getUri(), stats.getHits(), Long::sum));
+                append(counts);
+            } catch (RuntimeException e) {
+                log.warn("Лента просмотров: не удалось посчитать {} URI, повтор при следующей публикации",
+                        batch.size(), e);
+                changed.addAll(batch);
+            }
+        }
+    }
+
+    /**
+     * Записи после {@code cursor}, не больше {@code limit}. Если новых записей нет, ответ приходит с первой
+     * публикацией или пустым через {@code timeout}.
+     */
+    public CompletableFuture<ViewFeedDto> poll(Long clientEpoch, long cursor, int limit, Duration timeout) {
+        synchronized (this) {
+            if (clientEpoch == null || clientEpoch != epoch || cursor > nextSeq || cursor < oldestSeq()) {
+                return CompletableFuture.completedFuture(reset());
+            }
+            if (cursor < nextSeq) {
+                return CompletableFuture.completedFuture(read(cursor, limit));
+            }
+            waiters.removeIf(waiter -> waiter.future().isDone());
+            CompletableFuture<ViewFeedDto> future = new CompletableFuture<ViewFeedDto>()
+                    .completeOnTimeout(response(cursor, false, List.of()), timeout.toMillis(), TimeUnit.MILLISECONDS);
+            waiters.add(new Waiter(cursor, limit, future));
+            return future;
+        }
+    }
+
+    private synchronized void append(Map<String, Long> counts) {
+        counts.forEach((uri, hits) -> records[(int) (nextSeq++ % records.length)] = new ViewCountDto(uri, hits));
+        for (Waiter waiter : waiters) {
+            waiter.future().complete(waiter.cursor() < oldestSeq() ? reset() : read(waiter.cursor(), waiter.limit()));
+        }
+        waiters.clear();
+    }
+
+    private ViewFeedDto read(long cursor, int limit) {
+        long to = Math.min(nextSeq, cursor + limit);
+        List<ViewCountDto> counts = new ArrayList<>((int) (to - cursor));
+        for (long seq = cursor; seq < to; seq++) {
+            counts.add(records[(int) (seq % records.length)]);
+        }
+        return response(to, false, counts);
+    }
+
+    private ViewFeedDto reset() {
+        return response(nextSeq, true, List.of());
+    }
+
+    private ViewFeedDto response(long cursor, boolean reset, List<ViewCountDto> counts) {
+        return new ViewFeedDto(epoch, cursor, reset, counts, unique, approximate);
+    }
+
+    private long oldestSeq() {
+        return Math.max(0, nextSeq - records.length);
+    }
+
+    private record Waiter(long cursor, int limit, CompletableFuture<ViewFeedDto> future) {
+    }
+}
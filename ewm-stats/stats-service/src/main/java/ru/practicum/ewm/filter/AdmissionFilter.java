@@ -0,0 +1,184 @@
+package ru.practicum.ewm.filter;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.servlet.AsyncEvent;
+import jakarta.servlet.AsyncListener;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.lang.NonNull;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+import ru.practicum.ewm.exception.ErrorResponse;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Ограничение числа одновременно обрабатываемых запросов: когда база замедляется, лишние запросы, прождав места
+ * в бюджете не дольше {@code max-wait}, получают отказ с {@code Retry-After} вместо того, чтобы занимать потоки
+ * Tomcat в ожидании соединения. У записи хитов ({@code POST /hit}, {@code /hit/batch}) и чтения статистики
+ * ({@code /stats/**}) свои бюджеты, поэтому медленные отчёты не мешают приёму хитов и наоборот. Запись сверх
+ * бюджета получает {@code 429}, чтение - {@code 503}.
+ * <p>
+ * Фильтр стоит перед распаковкой тела, отказ не читает запрос. Лента {@code /stats/feed} не ограничивается:
+ * long-poll почти всё время ждёт без потока и без базы. Ответ {@code /stats/stream} пишется асинхронно, и место
+ * в бюджете освобождается, когда он дописан.
+ */
+@Slf4j
+@Component
+@Order(Ordered.LOWEST_PRECEDENCE - 1)
+@ConditionalOnProperty(name = "stats.admission.enabled", havingValue = "true", matchIfMissing = true)
+public class AdmissionFilter extends OncePerRequestFilter {
+
+    private final Budget ingest;
+    private final Budget read;
+    private final long maxWaitNanos;
+    private final String retryAfter;
+    private final ObjectMapper objectMapper;
+
+    public AdmissionFilter(MeterRegistry meterRegistry,
+                           ObjectMapper objectMapper,
+                           @Value("${stats.admission.ingest.max-in-flight:64}") int ingestMaxInFlight,
+                           @Value("${stats.admission.read.max-in-flight:32}") int readMaxInFlight,
+                           @Value("${stats.admission.max-wait:200ms}") Duration maxWait,
+                           @Value("${stats.admission.retry-after:1s}") Duration retryAfter) {
+        if (ingestMaxInFlight <= 0 || readMaxInFlight <= 0 || maxWait.isNegative() || retryAfter.isNegative()) {
+            throw new IllegalArgumentException("Некорректные параметры ограничения запросов.");
+        }
+        this.ingest = new Budget("ingest", ingestMaxInFlight, HttpStatus.TOO_MANY_REQUESTS, meterRegistry);
+        this.read = new Budget("read", readMaxInFlight, HttpStatus.SERVICE_UNAVAILABLE, meterRegistry);
+        this.maxWaitNanos = maxWait.toNanos();
+        // Retry-After - целое число секунд, округляем вверх
+        this.retryAfter = String.valueOf((retryAfter.toMillis() + 999) / 1000);
+        this.objectMapper = objectMapper;
+    }
+
+    @Override
+    protected boolean shouldNotFilter(@NonNull HttpServletRequest request) {
+        return budget(request) == null;
+    }
+
+    @Override
+    protected void doFilterInternal(@NonNull HttpServletRequest request,
+                                    @NonNull HttpServletResponse response,
+                                    @NonNull FilterChain filterChain) throws ServletException, IOException {
+        Budget budget = budget(request);
+        if (!budget.tryAcquire(maxWaitNanos)) {
+            reject(budget, request, response);
+            return;
+        }
+        AtomicBoolean released = new AtomicBoolean();
+        Runnable release = () -> {
+            if (released.compareAndSet(false, true)) {
+                budget.permits.release();
+            }
+        };
+        try {
+            filterChain.doFilter(request, response);
+        } finally {
+            if (request.isAsyncStarted()) {
+                request.getAsyncContext().addListener(new ReleaseListener(release));
+            } else {
+                release.run();
+            }
+        }
+    }
+
+    private Budget budget(HttpServletRequest request) {
+        String path = request.getServletPath();
+        if (HttpMethod.POST.matches(request.getMethod()) && (path.equals("/hit") || path.equals("/hit/batch"))) {
+            return ingest;
+        }
+        if (path.equals("/stats") || path.startsWith("/stats/") && !path.equals("/stats/feed")) {
+            return read;
+        }
+        return null;
+    }
+
+    private void reject(Budget budget, HttpServletRequest request, HttpServletResponse response) throws IOException {
+        budget.rejected.increment();
+        log.debug("Отказ в обработке {} {}: все {} мест бюджета {} заняты", request.getMethod(),
+                request.getServletPath(), budget.limit, budget.name);
+        response.setStatus(budget.status.value());
+        response.setHeader(HttpHeaders.RETRY_AFTER, retryAfter);
+        response.setContentType(MediaType.APPLICATION_JSON_VALUE);
+        objectMapper.writeValue(response.getOutputStream(), new ErrorResponse(budget.status,
+                "Service overloaded: {}", "Превышено число одновременных запросов, повторите позже"));
+    }
+
+    private static final class Budget {
+        private final String name;
+        private final int limit;
+        private final HttpStatus status;
+        private final Semaphore permits;
+        private final Counter rejected;
+
+        Budget(String name, int limit, HttpStatus status, MeterRegistry meterRegistry) {
+            this.name = name;
+            this.limit = limit;
+            this.status = status;
+            this.permits = new Semaphore(limit);
+            this.rejected = Counter.builder("stats.admission.rejected")
+                    .description("Запросы, отклонённые из-за превышения числа одновременных запросов")
+                    .tag("budget", name)
+                    .register(meterRegistry);
+            Gauge.builder("stats.admission.in-flight", permits, semaphore -> limit - semaphore.availablePermits())
+                    .description("Одновременно обрабатываемые запросы")
+                    .tag("budget", name)
+                    .register(meterRegistry);
+        }
+
+        boolean tryAcquire(long maxWaitNanos) {
+            if (maxWaitNanos == 0) {
+                return permits.tryAcquire();
+            }
+            try {
+                return permits.tryAcquire(maxWaitNanos, TimeUnit.NANOSECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+    }
+
+    private record ReleaseListener(Runnable release) implements AsyncListener {
+
+        @Override
+        public void onComplete(AsyncEvent event) {
+            release.run();
+        }
+
+        @Override
+        public void onTimeout(AsyncEvent event) {
+            release.run();
+        }
+
+        @Override
+        public void onError(AsyncEvent event) {
+            release.run();
+        }
+
+        @Override
+        public void onStartAsync(AsyncEvent event) {
+            // повторный startAsync снимает слушателей, поэтому регистрируемся заново
+            event.getAsyncContext().addListener(this);
+        }
+    }
+}
@@ -0,0 +1,42 @@
+package ru.practicum.ewm.ingest;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Пул прямых буферов одного размера. Буферы создаются по требованию, не более {@code maxBuffers}, и после
+ * возврата переиспользуются: прямой буфер дорого создавать, и освобождается он только сборщиком мусора.
+ */
+class DirectBufferPool {
+
+    private final int bufferSize;
+    private final int maxBuffers;
+    private final ConcurrentLinkedQueue<ByteBuffer> free = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger allocated = new AtomicInteger();
+
+    DirectBufferPool(int bufferSize, int maxBuffers) {
+        this.bufferSize = bufferSize;
+        this.maxBuffers = maxBuffers;
+    }
+
+    /**
+     * Свободный буфер или {@code null}, если все {@code maxBuffers} заняты.
+     */
+    ByteBuffer acquire() {
+        ByteBuffer buffer = free.poll();
+        if (buffer != null) {
+            return buffer;
+        }
+        if (allocated.incrementAndGet() > maxBuffers) {
+            allocated.decrementAndGet();
+            return null;
+        }
+        return ByteBuffer.allocateDirect(bufferSize);
+    }
+
+    void release(ByteBuffer buffer) {
+        buffer.clear();
+        free.offer(buffer);
+    }
+}
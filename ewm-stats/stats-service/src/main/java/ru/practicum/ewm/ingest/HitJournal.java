@@ -0,0 +1,159 @@
+package ru.practicum.ewm.ingest;
+
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import ru.practicum.ewm.model.endpoint.EndpointHit;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.BiConsumer;
+import java.util.stream.Stream;
+
+/**
+ * Локальный журнал хитов (append-only). Позиция в журнале (LSN) - сквозное число записанных байт:
+ * файл {@code hits-<LSN начала>.log} заменяется новым, когда все его хиты закоммичены в базе.
+ */
+@Slf4j
+class HitJournal implements Closeable {
+
+    private static final String PREFIX = "hits-";
+    private static final String SUFFIX = ".log";
+
+    private final Path directory;
+    private FileChannel channel;
+    private Path file;
+    private long baseLsn;
+    @Getter
+    private long endLsn;
+    private boolean broken;
+
+    HitJournal(Path directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * Передаёт в {@code replay} хиты, записанные после {@code checkpointLsn}, и открывает новый файл.
+     */
+    void recover(long checkpointLsn, int batchSize, BiConsumer<List<EndpointHit>, Long> replay) throws IOException {
+        Files.createDirectories(directory);
+        List<Path> files;
+        try (Stream<Path> list = Files.list(directory)) {
+            files = list.filter(path -> path.getFileName().toString().startsWith(PREFIX)
+                            && path.getFileName().toString().endsWith(SUFFIX))
+                    .sorted()
+                    .toList();
+        }
+        long lsn = checkpointLsn;
+        List<EndpointHit> batch = new ArrayList<>(batchSize);
+        for (Path existing : files) {
+            long position = parseBase(existing);
+            try (InputStream in = new BufferedInputStream(Files.newInputStream(existing))) {
+                ByteArrayOutputStream line = new ByteArrayOutputStream();
+                int b;
+                while ((b = in.read()) != -1) {
+                    position++;
+                    if (b != '\n') {
+                        line.write(b);
+                        continue;
+                    }
+                    if (position > checkpointLsn) {
+                        batch.add(HitLineCodec.decode(line.toString(StandardCharsets.UTF_8)));
+                        if (batch.size() == batchSize) {
+                            replay.accept(List.copyOf(batch), position);
+                            batch.clear();
+                        }
+                    }
+                    lsn = Math.max(lsn, position);
+                    line.reset();
+                }
+            }
+        }
+        if (!batch.isEmpty()) {
+            replay.accept(List.copyOf(batch), lsn);
+        }
+        for (Path existing : files) {
+            Files.delete(existing);
+        }
+        open(lsn);
+    }
+
+    long append(List<EndpointHit> hits) throws IOException {
+        if (broken) {
+            throw new IOException("Журнал хитов не удалось откатить после ошибки записи, запись остановлена");
+        }
+        StringBuilder lines = new StringBuilder(hits.size() * 64);
+        for (EndpointHit hit : hits) {
+            lines.append(HitLineCodec.encode(hit)).append('\n');
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(lines.toString().getBytes(StandardCharsets.UTF_8));
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        endLsn += buffer.capacity();
+        return endLsn;
+    }
+
+    void sync() throws IOException {
+        channel.force(false);
+    }
+
+    /**
+     * Отрезает журнал по {@code lsn}: записи, не подтверждённые клиентам, не должны повториться при восстановлении.
+     * Если отрезать не удалось, журнал перестаёт принимать записи, а хвост после {@code lsn} повторится
+     * при следующем запуске.
+     */
+    void truncate(long lsn) throws IOException {
+        try {
+            channel.truncate(lsn - baseLsn);
+            channel.position(lsn - baseLsn);
+            channel.force(false);
+            endLsn = lsn;
+        } catch (IOException e) {
+            broken = true;
+            throw e;
+        }
+    }
+
+    long size() {
+        return endLsn - baseLsn;
+    }
+
+    void rotate() throws IOException {
+        Path previous = file;
+        channel.close();
+        open(endLsn);
+        Files.delete(previous);
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (channel != null) {
+            channel.close();
+        }
+    }
+
+    private void open(long lsn) throws IOException {
+        baseLsn = lsn;
+        endLsn = lsn;
+        file = directory.resolve(String.format("%s%020d%s", PREFIX, lsn, SUFFIX));
+        channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+        log.info("Журнал хитов: открыт файл {}", file);
+    }
+
+    private long parseBase(Path path) {
+        String name = path.getFileName().toString();
+        return Long.parseLong(name.substring(PREFIX.length(), name.length() - SUFFIX.length()));
+    }
+}
@@ -0,0 +1,65 @@
+package ru.practicum.ewm.ingest;
+
+import lombok.experimental.UtilityClass;
+import ru.practicum.ewm.model.endpoint.EndpointHit;
+import ru.practicum.ewm.util.IpAddresses;
+
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+
+/**
+ * Строковый формат хита для локальных журналов: {@code epochSecond \t app \t uri \t ip}.
+ * Табуляция, перевод строки и обратная косая черта в полях экранируются.
+ */
+@UtilityClass
+public class HitLineCodec {
+
+    private static final char SEPARATOR = '\t';
+
+    public String encode(EndpointHit hit) {
+        return hit.getTimestamp().toEpochSecond(ZoneOffset.UTC) + "\t" + escape(hit.getApp()) + SEPARATOR
+                + escape(hit.getUri()) + SEPARATOR + IpAddresses.toString(hit.getIp());
+    }
+
+    public EndpointHit decode(String line) {
+        String[] fields = line.split("\t", -1);
+        if (fields.length != 4) {
+            throw new IllegalArgumentException("Некорректная строка хита: " + line);
+        }
+        return EndpointHit.builder()
+                .timestamp(LocalDateTime.ofEpochSecond(Long.parseLong(fields[0]), 0, ZoneOffset.UTC))
+                .app(unescape(fields[1]))
+                .uri(unescape(fields[2]))
+                .ip(IpAddresses.toBytes(fields[3]))
+                .build();
+    }
+
+    private String escape(String value) {
+        if (value.indexOf('\\') < 0 && value.indexOf('\t') < 0 && value.indexOf('\n') < 0 && value.indexOf('\r') < 0) {
+            return value;
+        }
+        return value.replace("\\", "\\\\").replace("\t", "\\t").replace("\n", "\\n").replace("\r", "\\r");
+    }
+
+    String unescape(String value) {
+        if (value.indexOf('\\') < 0) {
+            return value;
+        }
+        StringBuilder result = new StringBuilder(value.length());
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '\\' && i + 1 < value.length()) {
+                char next = value.charAt(++i);
+                result.append(switch (next) {
+                    case 't' -> '\t';
+                    case 'n' -> '\n';
+                    case 'r' -> '\r';
+                    default -> next;
+                });
+            } else {
+                result.append(c);
+            }
+        }
+        return result.toString();
+    }
+}
@@ -0,0 +1,152 @@
+package ru.practicum.ewm.ingest;
+
+import ru.practicum.ewm.model.endpoint.EndpointHit;
+import ru.practicum.ewm.util.IpAddresses;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+
+/**
+ * Разбор строки хита TCP-приёмника прямо из буфера: {@code epochSecond \t app \t uri \t ip [\t id]} - формат
+ * {@link HitLineCodec} с необязательным ключом идемпотентности в конце. Числа и IPv4 разбираются по байтам без
+ * промежуточных строк, строки app и uri берутся из небольшого кэша по байтам поля и создаются только при промахе.
+ * Не потокобезопасен: у каждого потока чтения свой экземпляр.
+ */
+class HitLineParser {
+
+    private static final int MAX_FIELDS = 5;
+    private static final int CACHE_SIZE = 4096;
+    private static final int MAX_CACHED_LENGTH = 256;
+
+    private final int[] starts = new int[MAX_FIELDS];
+    private final int[] ends = new int[MAX_FIELDS];
+    private final byte[][] cachedBytes = new byte[CACHE_SIZE][];
+    private final String[] cachedValues = new String[CACHE_SIZE];
+
+    /**
+     * Хит из байтов {@code [from, to)} буфера без перевода строки.
+     */
+    EndpointHit parse(ByteBuffer buffer, int from, int to) {
+        int fields = 0;
+        int start = from;
+        for (int i = from; i <= to; i++) {
+            if (i == to || buffer.get(i) == '\t') {
+                if (fields == MAX_FIELDS) {
+                    throw new IllegalArgumentException("Лишние поля в строке хита");
+                }
+                starts[fields] = start;
+                ends[fields] = i;
+                fields++;
+                start = i + 1;
+            }
+        }
+        if (fields < MAX_FIELDS - 1) {
+            throw new IllegalArgumentException("Ожидалось 4 или 5 полей, получено " + fields);
+        }
+        return EndpointHit.builder()
+                .timestamp(LocalDateTime.ofEpochSecond(parseLong(buffer, starts[0], ends[0]), 0, ZoneOffset.UTC))
+                .app(string(buffer, starts[1], ends[1]))
+                .uri(string(buffer, starts[2], ends[2]))
+                .ip(ip(buffer, starts[3], ends[3]))
+                .key(fields == MAX_FIELDS ? parseLong(buffer, starts[4], ends[4]) : null)
+                .build();
+    }
+
+    private static long parseLong(ByteBuffer buffer, int from, int to) {
+        boolean negative = to > from && buffer.get(from) == '-';
+        int i = negative ? from + 1 : from;
+        if (i == to) {
+            throw new IllegalArgumentException("Некорректное число в строке хита");
+        }
+        if (to - i > 18) {
+            // 19 цифр и больше могут не поместиться в long, это проверит Long.parseLong
+            return Long.parseLong(decode(buffer, from, to));
+        }
+        long value = 0;
+        for (; i < to; i++) {
+            int digit = buffer.get(i) - '0';
+            if (digit < 0 || digit > 9) {
+                throw new IllegalArgumentException("Некорректное число в строке хита");
+            }
+            value = value * 10 + digit;
+        }
+        return negative ? -value : value;
+    }
+
+    private String string(ByteBuffer buffer, int from, int to) {
+        if (from == to) {
+            throw new IllegalArgumentException("Пустое поле в строке хита");
+        }
+        long hash = 0xcbf29ce484222325L;
+        boolean escaped = false;
+        for (int i = from; i < to; i++) {
+            byte b = buffer.get(i);
+            escaped |= b == '\\';
+            hash ^= b & 0xff;
+            hash *= 0x100000001b3L;
+        }
+        if (escaped || to - from > MAX_CACHED_LENGTH) {
+            return HitLineCodec.unescape(decode(buffer, from, to));
+        }
+        int slot = (int) (hash ^ hash >>> 32) & (CACHE_SIZE - 1);
+        byte[] cached = cachedBytes[slot];
+        if (cached != null && equal(cached, buffer, from, to)) {
+            return cachedValues[slot];
+        }
+        byte[] bytes = new byte[to - from];
+        buffer.get(from, bytes);
+        String value = new String(bytes, StandardCharsets.UTF_8);
+        cachedBytes[slot] = bytes;
+        cachedValues[slot] = value;
+        return value;
+    }
+
+    private static boolean equal(byte[] cached, ByteBuffer buffer, int from, int to) {
+        if (cached.length != to - from) {
+            return false;
+        }
+        for (int i = 0; i < cached.length; i++) {
+            if (cached[i] != buffer.get(from + i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * IPv4 разбирается сразу в 16-байтовую форму, остальное (IPv6) - через {@link IpAddresses#toBytes}.
+     */
+    private static byte[] ip(ByteBuffer buffer, int from, int to) {
+        byte[] address = new byte[IpAddresses.LENGTH];
+        address[10] = (byte) 0xff;
+        address[11] = (byte) 0xff;
+        int octet = 12;
+        int value = 0;
+        int digits = 0;
+        for (int i = from; i <= to && octet < IpAddresses.LENGTH; i++) {
+            int b = i == to ? '.' : buffer.get(i);
+            if (b >= '0' && b <= '9' && digits < 3) {
+                value = value * 10 + b - '0';
+                digits++;
+            } else if (b == '.' && digits > 0 && value <= 255) {
+                address[octet++] = (byte) value;
+                value = 0;
+                digits = 0;
+                if (i == to) {
+                    return octet == IpAddresses.LENGTH ? address : IpAddresses.toBytes(decode(buffer, from, to));
+                }
+            } else {
+                break;
+            }
+        }
+        return IpAddresses.toBytes(decode(buffer, from, to));
+    }
+
+    private static String decode(ByteBuffer buffer, int from, int to) {
+        byte[] bytes = new byte[to - from];
+        buffer.get(from, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,191 @@
+package ru.practicum.ewm.ingest;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+import ru.practicum.ewm.exception.ConflictException;
+import ru.practicum.ewm.model.endpoint.EndpointHit;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Ключи идемпотентности записанных хитов ({@code id} хита вместе с {@code app}) и пачек (заголовок
+ * {@code Idempotency-Key}) за последние {@code stats.ingest.idempotency.window}. Повтор запроса с теми же ключами
+ * пропускает уже записанные хиты без обращения к базе. Ключи хранятся 64-битными хешами в двух поколениях:
+ * новые попадают в текущее, прошлое окно остаётся в предыдущем, поэтому ключ помнится от одного до двух окон.
+ * Поколение, набравшее {@code max-keys} ключей, сменяется досрочно: память ограничена, но при всплеске записи
+ * окно короче.
+ * <p>
+ * Ключ, запись которого ещё идёт, повторно не принимается: запрос получает 409, клиент повторяет его позже.
+ * Транспорт без подтверждений вместо этого пропускает такие хиты как повторы.
+ * Окно хранится в памяти и после перезапуска сервиса начинается заново. Хиты без {@code id} не проверяются.
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(name = "stats.ingest.idempotency.enabled", havingValue = "true", matchIfMissing = true)
+public class IdempotencyWindow {
+
+    private static final long BATCH_SEED = 0x9e3779b97f4a7c15L;
+
+    private final long windowNanos;
+    private final int maxKeys;
+    private final Set<Long> inFlight = new HashSet<>();
+    private final Counter batchDuplicates;
+    private final Counter hitDuplicates;
+    private LongHashSet current = new LongHashSet(1024);
+    private LongHashSet previous = new LongHashSet(1024);
+    private long currentStartedAt = System.nanoTime();
+
+    public IdempotencyWindow(MeterRegistry meterRegistry,
+                             @Value("${stats.ingest.idempotency.window:10m}") Duration window,
+                             @Value("${stats.ingest.idempotency.max-keys:1000000}") int maxKeys) {
+        if (window.isNegative() || window.isZero() || maxKeys <= 0) {
+            throw new IllegalArgumentException("Окно и число ключей идемпотентности должны быть положительными.");
+        }
+        this.windowNanos = window.toNanos();
+        this.maxKeys = maxKeys;
+        this.batchDuplicates = duplicates(meterRegistry, "batch");
+        this.hitDuplicates = duplicates(meterRegistry, "hit");
+    }
+
+    /**
+     * Занимает ключи пачки и её хитов. Возвращает хиты, которые ещё не записывались; для повторной пачки
+     * список пуст. После записи вызывается {@link #commit}, при ошибке - {@link #release}.
+     *
+     * @param skipInFlight {@code true} - хиты, запись которых ещё идёт, пропускаются как повторы; {@code false} -
+     *                     пачка отклоняется с {@link ConflictException}
+     */
+    public synchronized Claim claim(String batchKey, List<EndpointHit> hits, boolean skipInFlight) {
+        rotateIfDue();
+        LongHashSet claimed = new LongHashSet(hits.size() + 1);
+        List<Long> keys = new ArrayList<>(hits.size() + 1);
+        if (batchKey != null) {
+            long key = batchKey(batchKey);
+            if (isSeen(key)) {
+                batchDuplicates.increment();
+                return new Claim(List.of(), List.of());
+            }
+            if (inFlight.contains(key)) {
+                throw conflict();
+            }
+            claimed.add(key);
+            keys.add(key);
+        }
+        List<EndpointHit> accepted = new ArrayList<>(hits.size());
+        for (EndpointHit hit : hits) {
+            if (hit.getKey() == null) {
+                accepted.add(hit);
+                continue;
+            }
+            long key = hitKey(hit.getApp(), hit.getKey());
+            if (isSeen(key) || !claimed.add(key)) {
+                hitDuplicates.increment();
+                continue;
+            }
+            if (inFlight.contains(key)) {
+                if (!skipInFlight) {
+                    throw conflict();
+                }
+                hitDuplicates.increment();
+                continue;
+            }
+            keys.add(key);
+            accepted.add(hit);
+        }
+        inFlight.addAll(keys);
+        return new Claim(accepted, keys);
+    }
+
+    public synchronized void commit(Claim claim) {
+        for (Long key : claim.keys()) {
+            inFlight.remove(key);
+            if (current.size() >= maxKeys) {
+                log.warn("Ключи идемпотентности: {} ключей меньше чем за окно, поколение сменено досрочно", maxKeys);
+                rotate();
+            }
+            current.add(key);
+        }
+    }
+
+    public synchronized void release(Claim claim) {
+        claim.keys().forEach(inFlight::remove);
+    }
+
+    private static ConflictException conflict() {
+        return new ConflictException("Хиты с этим ключом идемпотентности ещё записываются, повторите позже.");
+    }
+
+    private boolean isSeen(long key) {
+        return current.contains(key) || previous.contains(key);
+    }
+
+    private void rotateIfDue() {
+        long now = System.nanoTime();
+        if (now - currentStartedAt >= 2 * windowNanos) {
+            previous.clear();
+            current.clear();
+            currentStartedAt = now;
+        } else if (now - currentStartedAt >= windowNanos) {
+            rotate();
+        }
+    }
+
+    private void rotate() {
+        LongHashSet cleared = previous;
+        cleared.clear();
+        previous = current;
+        current = cleared;
+        currentStartedAt = System.nanoTime();
+    }
+
+    private static long batchKey(String key) {
+        return nonZero(mix(hash(key) ^ BATCH_SEED));
+    }
+
+    private static long hitKey(String app, long id) {
+        return nonZero(mix(hash(app == null ? "" : app) ^ mix(id)));
+    }
+
+    private static long hash(String value) {
+        long hash = 0xcbf29ce484222325L;
+        for (byte b : value.getBytes(StandardCharsets.UTF_8)) {
+            hash ^= b & 0xff;
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    private static long mix(long k) {
+        k ^= k >>> 33;
+        k *= 0xff51afd7ed558ccdL;
+        k ^= k >>> 33;
+        k *= 0xc4ceb9fe1a85ec53L;
+        k ^= k >>> 33;
+        return k;
+    }
+
+    private static long nonZero(long key) {
+        return key == 0 ? 1 : key;
+    }
+
+    private static Counter duplicates(MeterRegistry meterRegistry, String level) {
+        return Counter.builder("stats.ingest.duplicates")
+                .description("Повторно присланные пачки и хиты, пропущенные по ключу идемпотентности")
+                .tag("level", level)
+                .register(meterRegistry);
+    }
+
+    /**
+     * Хиты, принятые к записи, и занятые под них ключи.
+     */
+    public record Claim(List<EndpointHit> hits, List<Long> keys) {
+    }
+}
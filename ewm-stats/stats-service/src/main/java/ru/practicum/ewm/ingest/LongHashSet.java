@@ -0,0 +1,68 @@
+package ru.practicum.ewm.ingest;
+
+import java.util.Arrays;
+
+/**
+ * Множество ненулевых {@code long} с открытой адресацией: без объектов-обёрток на каждый ключ. Удаление
+ * отдельных ключей не поддерживается, только очистка целиком; массив растёт при заполнении наполовину.
+ */
+class LongHashSet {
+
+    private long[] keys;
+    private int size;
+
+    LongHashSet(int initialCapacity) {
+        keys = new long[Integer.highestOneBit(Math.max(2, initialCapacity - 1)) << 1];
+    }
+
+    boolean contains(long key) {
+        int mask = keys.length - 1;
+        for (int i = slot(key, mask); keys[i] != 0; i = (i + 1) & mask) {
+            if (keys[i] == key) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    boolean add(long key) {
+        if ((size + 1) * 2 > keys.length) {
+            grow();
+        }
+        int mask = keys.length - 1;
+        int i = slot(key, mask);
+        while (keys[i] != 0) {
+            if (keys[i] == key) {
+                return false;
+            }
+            i = (i + 1) & mask;
+        }
+        keys[i] = key;
+        size++;
+        return true;
+    }
+
+    int size() {
+        return size;
+    }
+
+    void clear() {
+        Arrays.fill(keys, 0);
+        size = 0;
+    }
+
+    private void grow() {
+        long[] old = keys;
+        keys = new long[old.length * 2];
+        size = 0;
+        for (long key : old) {
+            if (key != 0) {
+                add(key);
+            }
+        }
+    }
+
+    private static int slot(long key, int mask) {
+        return (int) (key ^ (key >>> 32)) & mask;
+    }
+}
@@ -0,0 +1,265 @@
+package ru.practicum.ewm.ingest;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+import ru.practicum.ewm.model.endpoint.EndpointHit;
+import ru.practicum.ewm.snapshot.SnapshotParticipant;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Отбрасывает повторные хиты app + uri + ip до записи. Время делится на интервалы
+ * {@code stats.ingest.repeat-filter.bucket}, выровненные по началу суток, и хит отбрасывается, если в его интервале
+ * (по времени хита, а не приёма) уже был хит с теми же app, uri и ip. На каждый интервал - свой фильтр Блума,
+ * помнятся {@code buckets} последних интервалов; более старые хиты проходят без проверки. Проверка ({@link #check})
+ * и запоминание ({@link #mark}) разделены: хит запоминается только после записи, поэтому повтор пачки, запись
+ * которой не удалась, фильтр не отбросит.
+ * <p>
+ * Фильтр меняет смысл запросов, поэтому выключен по умолчанию. {@code unique=false} считает не более одного хита
+ * на зрителя в интервале. {@code unique=true} остаётся точным (с точностью до ложных срабатываний: доля
+ * {@code fpp} новых зрителей при {@code expected-views} разных просмотров в интервале), только если начало окна
+ * совпадает с границей интервала: в каждом интервале сохраняется первый хит зрителя, и он попадает в такое окно,
+ * если в окно попал хоть один хит зрителя. Если начало окна внутри интервала, зритель, чьи хиты в первом интервале
+ * окна повторяют его хит до начала окна, не учитывается.
+ */
+@Component
+@ConditionalOnProperty(name = "stats.ingest.repeat-filter.enabled", havingValue = "true")
+public class RepeatViewFilter implements SnapshotParticipant {
+
+    private final long bucketSeconds;
+    private final Bucket[] buckets;
+    private final int bits;
+    private final int hashes;
+    private final Counter suppressed;
+    private final Counter unchecked;
+
+    public RepeatViewFilter(MeterRegistry meterRegistry,
+                            @Value("${stats.ingest.repeat-filter.bucket:1h}") Duration bucket,
+                            @Value("${stats.ingest.repeat-filter.buckets:3}") int buckets,
+                            @Value("${stats.ingest.repeat-filter.expected-views:1000000}") int expectedViews,
+                            @Value("${stats.ingest.repeat-filter.fpp:0.001}") double fpp) {
+        if (bucket.getSeconds() <= 0 || bucket.getNano() != 0
+                || Duration.ofDays(1).getSeconds() % bucket.getSeconds() != 0) {
+            throw new IllegalArgumentException("Интервал фильтра повторов должен делить сутки на целое число секунд.");
+        }
+        if (buckets <= 0 || expectedViews <= 0 || fpp <= 0 || fpp >= 1) {
+            throw new IllegalArgumentException("Некорректные параметры фильтра повторов.");
+        }
+        long optimalBits = (long) Math.ceil(-expectedViews * Math.log(fpp) / (Math.log(2) * Math.log(2)));
+        this.bucketSeconds = bucket.getSeconds();
+        this.buckets = new Bucket[buckets];
+        this.bits = (int) Math.min(Integer.MAX_VALUE - Long.SIZE, Math.max(Long.SIZE, optimalBits));
+        this.hashes = Math.max(1, (int) Math.round((double) bits / expectedViews * Math.log(2)));
+        this.suppressed = Counter.builder("stats.ingest.repeats.suppressed")
+                .description("Хиты, отброшенные как повтор app + uri + ip в интервале")
+                .register(meterRegistry);
+        this.unchecked = Counter.builder("stats.ingest.repeats.unchecked")
+                .description("Хиты старше последних интервалов фильтра повторов, записанные без проверки")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Хиты без повторов уже записанных ({@link #mark}) и без повторов внутри пачки. Фильтр не меняется.
+     * Одновременные одинаковые хиты могут оба пройти.
+     */
+    public List<EndpointHit> check(List<EndpointHit> hits) {
+        List<EndpointHit> accepted = new ArrayList<>(hits.size());
+        Set<RepeatKey> batch = new HashSet<>();
+        for (EndpointHit hit : hits) {
+            long bucketIndex = bucketIndex(hit);
+            Bucket bucket = bucket(bucketIndex);
+            if (bucket == null) {
+                unchecked.increment();
+                accepted.add(hit);
+            } else if (!bucket.contains(hit) && batch.add(new RepeatKey(bucketIndex, hit.getApp(), hit.getUri(),
+                    ByteBuffer.wrap(hit.getIp())))) {
+                accepted.add(hit);
+            } else {
+                suppressed.increment();
+            }
+        }
+        return accepted;
+    }
+
+    /**
+     * Запоминает записанные хиты.
+     */
+    public void mark(List<EndpointHit> hits) {
+        for (EndpointHit hit : hits) {
+            Bucket bucket = bucket(bucketIndex(hit));
+            if (bucket != null) {
+                bucket.add(hit);
+            }
+        }
+    }
+
+    @Override
+    public String snapshotSection() {
+        return "repeat-filter";
+    }
+
+    @Override
+    public void writeSnapshot(DataOutput out) throws IOException {
+        out.writeLong(bucketSeconds);
+        out.writeInt(buckets.length);
+        out.writeInt(bits);
+        out.writeInt(hashes);
+        List<Bucket> saved = new ArrayList<>(buckets.length);
+        synchronized (buckets) {
+            for (Bucket bucket : buckets) {
+                if (bucket != null) {
+                    saved.add(bucket);
+                }
+            }
+        }
+        out.writeInt(saved.size());
+        for (Bucket bucket : saved) {
+            out.writeLong(bucket.index);
+            out.writeInt(bucket.words.length());
+            for (int i = 0; i < bucket.words.length(); i++) {
+                out.writeLong(bucket.words.get(i));
+            }
+        }
+    }
+
+    /**
+     * Фильтры, сохранённые с другими интервалом или размером, пропускаются: биты в них не совпадут.
+     */
+    @Override
+    public void readSnapshot(DataInput in) throws IOException {
+        if (in.readLong() != bucketSeconds || in.readInt() != buckets.length || in.readInt() != bits
+                || in.readInt() != hashes) {
+            return;
+        }
+        int count = in.readInt();
+        for (int i = 0; i < count; i++) {
+            long index = in.readLong();
+            long[] words = new long[in.readInt()];
+            for (int w = 0; w < words.length; w++) {
+                words[w] = in.readLong();
+            }
+            synchronized (buckets) {
+                buckets[(int) Math.floorMod(index, (long) buckets.length)] = new Bucket(index, words);
+            }
+        }
+    }
+
+    @Override
+    public void replay(List<EndpointHit> hits) {
+        mark(hits);
+    }
+
+    private long bucketIndex(EndpointHit hit) {
+        return Math.floorDiv(hit.getTimestamp().toEpochSecond(ZoneOffset.UTC), bucketSeconds);
+    }
+
+    /**
+     * Фильтр интервала или {@code null}, если интервал старше помнящихся или позже следующего за текущим
+     * (хит из будущего не должен вытеснять фильтр текущего интервала). Фильтр нового интервала вытесняет фильтр
+     * интервала, отстоящего на {@code buckets} назад.
+     */
+    private Bucket bucket(long index) {
+        if (index > Math.floorDiv(System.currentTimeMillis() / 1000, bucketSeconds) + 1) {
+            return null;
+        }
+        int slot = (int) Math.floorMod(index, (long) buckets.length);
+        Bucket bucket = buckets[slot];
+        if (bucket != null && bucket.index == index) {
+            return bucket;
+        }
+        synchronized (buckets) {
+            bucket = buckets[slot];
+            if (bucket != null && bucket.index >= index) {
+                return bucket.index == index ? bucket : null;
+            }
+            bucket = new Bucket(index);
+            buckets[slot] = bucket;
+            return bucket;
+        }
+    }
+
+    private class Bucket {
+        private final long index;
+        private final AtomicLongArray words;
+
+        Bucket(long index) {
+            this.index = index;
+            this.words = new AtomicLongArray((bits + Long.SIZE - 1) / Long.SIZE);
+        }
+
+        Bucket(long index, long[] words) {
+            this.index = index;
+            this.words = new AtomicLongArray(words);
+        }
+
+        /**
+         * {@code true}, если все биты хита уже установлены.
+         */
+        boolean contains(EndpointHit hit) {
+            long hash1 = hash(hit);
+            long hash2 = mix(hash1 ^ 0x9e3779b97f4a7c15L) | 1;
+            for (int i = 0; i < hashes; i++) {
+                long bit = Math.floorMod(hash1 + i * hash2, (long) bits);
+                if ((words.get((int) (bit >>> 6)) & (1L << bit)) == 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        void add(EndpointHit hit) {
+            long hash1 = hash(hit);
+            long hash2 = mix(hash1 ^ 0x9e3779b97f4a7c15L) | 1;
+            for (int i = 0; i < hashes; i++) {
+                long bit = Math.floorMod(hash1 + i * hash2, (long) bits);
+                long mask = 1L << bit;
+                words.getAndAccumulate((int) (bit >>> 6), mask, (current, set) -> current | set);
+            }
+        }
+    }
+
+    private record RepeatKey(long bucketIndex, String app, String uri, ByteBuffer ip) {
+    }
+
+    private static long hash(EndpointHit hit) {
+        return mix(fnv(fnv(fnv(0xcbf29ce484222325L, Objects.toString(hit.getApp(), "")),
+                Objects.toString(hit.getUri(), "")), hit.getIp()));
+    }
+
+    private static long fnv(long hash, String value) {
+        return fnv(hash, value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static long fnv(long hash, byte[] value) {
+        for (byte b : value) {
+            hash ^= b & 0xff;
+            hash *= 0x100000001b3L;
+        }
+        hash ^= 0xff;
+        return hash * 0x100000001b3L;
+    }
+
+    private static long mix(long k) {
+        k ^= k >>> 33;
+        k *= 0xff51afd7ed558ccdL;
+        k ^= k >>> 33;
+        k *= 0xc4ceb9fe1a85ec53L;
+        k ^= k >>> 33;
+        return k;
+    }
+}
@@ -0,0 +1,332 @@
+package ru.practicum.ewm.ingest;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.dao.RecoverableDataAccessException;
+import org.springframework.dao.TransientDataAccessException;
+import org.springframework.stereotype.Component;
+import ru.practicum.ewm.exception.ServiceUnavailableException;
+import ru.practicum.ewm.model.endpoint.EndpointHit;
+import ru.practicum.ewm.service.StatsService;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Приём хитов по TCP без HTTP и JSON: строки {@link HitLineParser}, разделённые переводом строки. Поток приёма
+ * раздаёт соединения {@code readers} потокам чтения, у каждого свой {@link Selector}. Соединение читается в прямой
+ * буфер из общего пула, хиты всех готовых соединений передаются в {@link StatsService#saveHits} одной пачкой;
+ * пока пачка пишется, поток чтения не читает сокеты, и отправители упираются в TCP-окно.
+ * <p>
+ * Подтверждений нет: хиты, не записанные из-за обрыва соединения или ошибки хранилища, теряются, отправитель может
+ * повторить их после переподключения, а {@code id} хита не даст записать их дважды. Временные ошибки (база
+ * недоступна, конфликт блокировок, переполнен буфер отложенной записи) повторяются до {@code max-attempts} раз,
+ * прежде чем пачка будет отброшена. Строка с ошибкой и незавершённая
+ * строка перед закрытием соединения пропускаются, строка длиннее буфера закрывает соединение.
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(name = "stats.ingest.tcp.enabled", havingValue = "true")
+public class TcpHitListener {
+
+    private final StatsService statsService;
+    private final int port;
+    private final int batchSize;
+    private final int maxAttempts;
+    private final long retryBackoffMs;
+    private final DirectBufferPool bufferPool;
+    private final List<Reader> readers = new ArrayList<>();
+    private final Counter accepted;
+    private final Counter malformed;
+    private final Counter failed;
+
+    private volatile boolean running;
+    private ServerSocketChannel server;
+    private Thread acceptor;
+
+    public TcpHitListener(StatsService statsService,
+                          MeterRegistry meterRegistry,
+                          @Value("${stats.ingest.tcp.port:9091}") int port,
+                          @Value("${stats.ingest.tcp.readers:2}") int readers,
+                          @Value("${stats.ingest.tcp.buffer-size:65536}") int bufferSize,
+                          @Value("${stats.ingest.tcp.max-connections:256}") int maxConnections,
+                          @Value("${stats.ingest.tcp.batch-size:1000}") int batchSize,
+                          @Value("${stats.ingest.tcp.max-attempts:5}") int maxAttempts,
+                          @Value("${stats.ingest.tcp.retry-backoff-ms:200}") long retryBackoffMs) throws IOException {
+        if (readers <= 0 || bufferSize <= 0 || maxConnections <= 0 || batchSize <= 0 || maxAttempts <= 0
+                || retryBackoffMs < 0) {
+            throw new IllegalArgumentException("Некорректные параметры TCP-приёмника хитов.");
+        }
+        this.statsService = statsService;
+        this.port = port;
+        this.batchSize = batchSize;
+        this.maxAttempts = maxAttempts;
+        this.retryBackoffMs = retryBackoffMs;
+        this.bufferPool = new DirectBufferPool(bufferSize, maxConnections);
+        for (int i = 0; i < readers; i++) {
+            this.readers.add(new Reader());
+        }
+        this.accepted = hits(meterRegistry, "accepted");
+        this.malformed = hits(meterRegistry, "malformed");
+        this.failed = hits(meterRegistry, "failed");
+    }
+
+    @PostConstruct
+    public void start() throws IOException {
+        server = ServerSocketChannel.open();
+        server.bind(new InetSocketAddress(port));
+        running = true;
+        for (int i = 0; i < readers.size(); i++) {
+            Reader reader = readers.get(i);
+            reader.thread = new Thread(reader, "stats-tcp-reader-" + i);
+            reader.thread.start();
+        }
+        acceptor = new Thread(this::acceptLoop, "stats-tcp-acceptor");
+        acceptor.start();
+        log.info("TCP-приёмник хитов слушает порт {}", getPort());
+    }
+
+    @PreDestroy
+    public void stop() throws IOException, InterruptedException {
+        running = false;
+        server.close();
+        acceptor.join();
+        for (Reader reader : readers) {
+            reader.selector.wakeup();
+            reader.thread.join();
+        }
+    }
+
+    /**
+     * Фактический порт: при {@code stats.ingest.tcp.port=0} его выбирает система.
+     */
+    public int getPort() {
+        return server.socket().getLocalPort();
+    }
+
+    private void acceptLoop() {
+        int next = 0;
+        while (running) {
+            SocketChannel channel;
+            try {
+                channel = server.accept();
+            } catch (ClosedChannelException e) {
+                return;
+            } catch (IOException e) {
+                log.error("TCP-приёмник хитов: ошибка приёма соединения", e);
+                continue;
+            }
+            ByteBuffer buffer = bufferPool.acquire();
+            if (buffer == null) {
+                log.warn("TCP-приёмник хитов: достигнут предел соединений, {} отклонено", remote(channel));
+                closeQuietly(channel);
+                continue;
+            }
+            try {
+                channel.configureBlocking(false);
+            } catch (IOException e) {
+                bufferPool.release(buffer);
+                closeQuietly(channel);
+                continue;
+            }
+            readers.get(next++ % readers.size()).register(new Connection(channel, buffer));
+        }
+    }
+
+    private static Counter hits(MeterRegistry meterRegistry, String result) {
+        return Counter.builder("stats.ingest.tcp.hits")
+                .description("Строки хитов, принятые TCP-приёмником")
+                .tag("result", result)
+                .register(meterRegistry);
+    }
+
+    private static boolean isTransient(RuntimeException e) {
+        return e instanceof ServiceUnavailableException || e instanceof TransientDataAccessException
+                || e instanceof RecoverableDataAccessException || e instanceof DataAccessResourceFailureException;
+    }
+
+    private static String remote(SocketChannel channel) {
+        try {
+            return String.valueOf(channel.getRemoteAddress());
+        } catch (IOException e) {
+            return "?";
+        }
+    }
+
+    private static void closeQuietly(SocketChannel channel) {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            log.debug("TCP-приёмник хитов: ошибка закрытия соединения", e);
+        }
+    }
+
+    private record Connection(SocketChannel channel, ByteBuffer buffer) {
+    }
+
+    private class Reader implements Runnable {
+        private final Selector selector;
+        private final Queue<Connection> pending = new ConcurrentLinkedQueue<>();
+        private final HitLineParser parser = new HitLineParser();
+        private final List<EndpointHit> batch = new ArrayList<>();
+        private Thread thread;
+
+        Reader() throws IOException {
+            this.selector = Selector.open();
+        }
+
+        void register(Connection connection) {
+            pending.add(connection);
+            selector.wakeup();
+        }
+
+        @Override
+        public void run() {
+            while (running) {
+                try {
+                    selector.select(1000);
+                } catch (IOException e) {
+                    log.error("TCP-приёмник хитов: ошибка ожидания данных", e);
+                    continue;
+                }
+                Connection connection;
+                while ((connection = pending.poll()) != null) {
+                    try {
+                        connection.channel().register(selector, SelectionKey.OP_READ, connection);
+                    } catch (ClosedChannelException e) {
+                        bufferPool.release(connection.buffer());
+                    }
+                }
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    read(key, (Connection) key.attachment());
+                    if (batch.size() >= batchSize) {
+                        flush();
+                    }
+                }
+                flush();
+            }
+            for (SelectionKey key : selector.keys()) {
+                close(key, (Connection) key.attachment());
+            }
+            pending.forEach(connection -> {
+                closeQuietly(connection.channel());
+                bufferPool.release(connection.buffer());
+            });
+            try {
+                selector.close();
+            } catch (IOException e) {
+                log.debug("TCP-приёмник хитов: ошибка закрытия селектора", e);
+            }
+        }
+
+        private void read(SelectionKey key, Connection connection) {
+            ByteBuffer buffer = connection.buffer();
+            int read;
+            try {
+                read = connection.channel().read(buffer);
+            } catch (IOException e) {
+                read = -1;
+            }
+            buffer.flip();
+            int lineStart = buffer.position();
+            for (int i = lineStart; i < buffer.limit(); i++) {
+                if (buffer.get(i) == '\n') {
+                    parseLine(buffer, lineStart, i);
+                    lineStart = i + 1;
+                }
+            }
+            if (read < 0) {
+                // строка без перевода строки перед закрытием соединения могла оборваться на середине поля
+                if (lineStart < buffer.limit()) {
+                    malformed.increment();
+                }
+                close(key, connection);
+                return;
+            }
+            buffer.position(lineStart);
+            buffer.compact();
+            if (!buffer.hasRemaining()) {
+                log.warn("TCP-приёмник хитов: строка длиннее {} байт от {}, соединение закрыто",
+                        buffer.capacity(), remote(connection.channel()));
+                malformed.increment();
+                close(key, connection);
+            }
+        }
+
+        private void parseLine(ByteBuffer buffer, int from, int to) {
+            if (to > from && buffer.get(to - 1) == '\r') {
+                to--;
+            }
+            if (to == from) {
+                return;
+            }
+            try {
+                batch.add(parser.parse(buffer, from, to));
+            } catch (IllegalArgumentException e) {
+                log.debug("TCP-приёмник хитов: некорректная строка пропущена: {}", e.getMessage());
+                malformed.increment();
+            }
+        }
+
+        /**
+         * Пишет накопленные хиты. Временную ошибку повторяет с растущей паузой, пока идут попытки и приёмник
+         * не остановлен; сокеты в это время не читаются.
+         */
+        private void flush() {
+            if (batch.isEmpty()) {
+                return;
+            }
+            List<EndpointHit> hits = new ArrayList<>(batch);
+            batch.clear();
+            for (int attempt = 1; ; attempt++) {
+                try {
+                    statsService.saveHits(hits, null);
+                    accepted.increment(hits.size());
+                    return;
+                } catch (RuntimeException e) {
+                    if (!isTransient(e) || attempt >= maxAttempts || !running) {
+                        log.error("TCP-приёмник хитов: не удалось записать {} хитов", hits.size(), e);
+                        failed.increment(hits.size());
+                        return;
+                    }
+                    long backoff = retryBackoffMs << (attempt - 1);
+                    log.warn("TCP-приёмник хитов: попытка {} из {} записать {} хитов не удалась, "
+                            + "повтор через {} мс: {}", attempt, maxAttempts, hits.size(), backoff, e.getMessage());
+                    try {
+                        Thread.sleep(backoff);
+                    } catch (InterruptedException interrupted) {
+                        Thread.currentThread().interrupt();
+                        failed.increment(hits.size());
+                        return;
+                    }
+                }
+            }
+        }
+
+        private void close(SelectionKey key, Connection connection) {
+            key.cancel();
+            closeQuietly(connection.channel());
+            bufferPool.release(connection.buffer());
+        }
+    }
+}
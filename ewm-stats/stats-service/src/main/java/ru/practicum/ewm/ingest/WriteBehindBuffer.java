@@ -0,0 +1,255 @@
+package ru.practicum.ewm.ingest;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+import ru.practicum.ewm.exception.ServiceUnavailableException;
+import ru.practicum.ewm.model.endpoint.EndpointHit;
+import ru.practicum.ewm.storage.HitListener;
+import ru.practicum.ewm.storage.HitStorage;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Отложенная запись хитов. Поток запроса кладёт пачку в lock-free буфер и ждёт только записи в локальный журнал:
+ * поток журнала забирает всё накопленное, пишет одним вызовом fsync на всю группу (group commit) и отпускает
+ * запросы. Отдельный поток коммитит хиты в базу пачками по размеру или по времени вместе с позицией журнала.
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(name = "stats.ingest.write-behind.enabled", havingValue = "true")
+public class WriteBehindBuffer {
+
+    private final HitStorage hitStorage;
+    private final List<HitListener> hitListeners;
+    private final RingBuffer<PendingGroup> ringBuffer;
+    private final BlockingQueue<LoggedGroup> journaled;
+    private final HitJournal journal;
+    private final String journalName;
+    private final int batchSize;
+    private final long maxDelayMs;
+    private final long ackTimeoutMs;
+    private final long rotateBytes;
+
+    private volatile boolean running;
+    private volatile long checkpointLsn;
+    private Thread journalThread;
+    private Thread flushThread;
+
+    public WriteBehindBuffer(HitStorage hitStorage,
+                             List<HitListener> hitListeners,
+                             @Value("${stats.ingest.write-behind.capacity:65536}") int capacity,
+                             @Value("${stats.ingest.write-behind.batch-size:1000}") int batchSize,
+                             @Value("${stats.ingest.write-behind.max-delay-ms:200}") long maxDelayMs,
+                             @Value("${stats.ingest.write-behind.ack-timeout-ms:5000}") long ackTimeoutMs,
+                             @Value("${stats.ingest.write-behind.rotate-bytes:67108864}") long rotateBytes,
+                             @Value("${stats.ingest.write-behind.journal-dir:${java.io.tmpdir}/stats-journal}") String journalDir,
+                             @Value("${stats.ingest.write-behind.journal-name:default}") String journalName) {
+        this.hitStorage = hitStorage;
+        this.hitListeners = hitListeners;
+        this.ringBuffer = new RingBuffer<>(capacity);
+        this.journaled = new ArrayBlockingQueue<>(capacity);
+        this.journal = new HitJournal(Path.of(journalDir));
+        this.journalName = journalName;
+        this.batchSize = batchSize;
+        this.maxDelayMs = maxDelayMs;
+        this.ackTimeoutMs = ackTimeoutMs;
+        this.rotateBytes = rotateBytes;
+    }
+
+    @PostConstruct
+    public void start() throws IOException {
+        long checkpoint = hitStorage.findCheckpoint(journalName);
+        journal.recover(checkpoint, batchSize, (hits, lsn) -> {
+            log.info("Журнал хитов: повтор {} незакоммиченных хитов", hits.size());
+            hitStorage.write(hits, journalName, lsn);
+        });
+        checkpointLsn = journal.getEndLsn();
+        running = true;
+        journalThread = new Thread(this::journalLoop, "stats-hit-journal");
+        flushThread = new Thread(this::flushLoop, "stats-hit-flusher");
+        journalThread.start();
+        flushThread.start();
+    }
+
+    @PreDestroy
+    public void stop() throws InterruptedException, IOException {
+        running = false;
+        LockSupport.unpark(journalThread);
+        journalThread.join();
+        flushThread.join();
+        journal.close();
+    }
+
+    /**
+     * Возвращает управление, когда хиты надёжно записаны в журнал. Если за {@code ack-timeout-ms} буфер так и не
+     * освободился или поток журнала не взял пачку (база стоит, и журнал упёрся в очередь на запись), бросает
+     * {@link ServiceUnavailableException}: пачка гарантированно не записана, и клиент может её повторить.
+     */
+    public void append(List<EndpointHit> hits) {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(ackTimeoutMs);
+        PendingGroup group = new PendingGroup(hits, new AtomicBoolean(), new CompletableFuture<>());
+        while (!ringBuffer.offer(group)) {
+            if (System.nanoTime() - deadline >= 0) {
+                throw new ServiceUnavailableException("Буфер отложенной записи заполнен, повторите позже");
+            }
+            LockSupport.unpark(journalThread);
+            LockSupport.parkNanos(50_000);
+        }
+        LockSupport.unpark(journalThread);
+        try {
+            awaitDurable(group, Math.max(0, deadline - System.nanoTime()));
+        } catch (TimeoutException e) {
+            if (group.taken().compareAndSet(false, true)) {
+                // поток журнала пачку ещё не взял и теперь пропустит её
+                throw new ServiceUnavailableException("Журнал хитов не успевает, повторите позже");
+            }
+            try {
+                // пачка уже пишется в журнал: ждём результата, иначе повтор мог бы её задвоить
+                awaitDurable(group, TimeUnit.MILLISECONDS.toNanos(ackTimeoutMs));
+            } catch (TimeoutException timeout) {
+                throw new IllegalStateException("Не удалось записать хиты в журнал", timeout);
+            }
+        }
+    }
+
+    private void awaitDurable(PendingGroup group, long timeoutNanos) throws TimeoutException {
+        try {
+            group.durable().get(timeoutNanos, TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Запись хитов в журнал прервана", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Не удалось записать хиты в журнал", e);
+        }
+    }
+
+    private void journalLoop() {
+        List<PendingGroup> drained = new ArrayList<>();
+        while (running || !ringBuffer.isEmpty()) {
+            PendingGroup group;
+            while ((group = ringBuffer.poll()) != null) {
+                if (group.taken().compareAndSet(false, true)) {
+                    drained.add(group);
+                }
+            }
+            if (drained.isEmpty()) {
+                rotateIfCheckpointed();
+                LockSupport.parkNanos(1_000_000);
+                continue;
+            }
+            long startLsn = journal.getEndLsn();
+            try {
+                List<LoggedGroup> logged = new ArrayList<>(drained.size());
+                for (PendingGroup pending : drained) {
+                    logged.add(new LoggedGroup(pending.hits(), journal.append(pending.hits())));
+                }
+                journal.sync();
+                drained.forEach(pending -> pending.durable().complete(null));
+                for (LoggedGroup loggedGroup : logged) {
+                    journaled.put(loggedGroup);
+                }
+            } catch (IOException e) {
+                log.error("Журнал хитов: ошибка записи", e);
+                rollback(startLsn);
+                drained.forEach(pending -> pending.durable().completeExceptionally(new UncheckedIOException(e)));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            drained.clear();
+        }
+    }
+
+    /**
+     * Группы неудавшейся записи получают ошибку, клиент повторит их с теми же ключами идемпотентности, поэтому
+     * уже дописанные в журнал строки отрезаются: иначе восстановление записало бы эти хиты второй раз.
+     */
+    private void rollback(long lsn) {
+        try {
+            journal.truncate(lsn);
+        } catch (IOException e) {
+            log.error("Журнал хитов: не удалось отрезать неудавшуюся запись после позиции {}, журнал остановлен; "
+                    + "при следующем запуске её хиты могут задвоиться", lsn, e);
+        }
+    }
+
+    private void flushLoop() {
+        List<EndpointHit> batch = new ArrayList<>(batchSize);
+        long batchLsn = 0;
+        long deadline = Long.MAX_VALUE;
+        while (running || journalThread.isAlive() || !journaled.isEmpty() || !batch.isEmpty()) {
+            try {
+                long wait = batch.isEmpty() ? maxDelayMs : Math.max(0, deadline - System.currentTimeMillis());
+                LoggedGroup group = journaled.poll(wait, TimeUnit.MILLISECONDS);
+                if (group != null) {
+                    if (batch.isEmpty()) {
+                        deadline = System.currentTimeMillis() + maxDelayMs;
+                    }
+                    batch.addAll(group.hits());
+                    batchLsn = group.lsn();
+                }
+                if (!batch.isEmpty() && (batch.size() >= batchSize || System.currentTimeMillis() >= deadline
+                        || (!running && journaled.isEmpty()))) {
+                    commit(batch, batchLsn);
+                    batch.clear();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    private void commit(List<EndpointHit> batch, long lsn) throws InterruptedException {
+        while (true) {
+            try {
+                hitStorage.write(batch, journalName, lsn);
+                hitListeners.forEach(listener -> listener.onWrite(batch));
+                checkpointLsn = lsn;
+                return;
+            } catch (RuntimeException e) {
+                if (!running) {
+                    log.error("Отложенная запись: {} хитов останутся в журнале до следующего запуска", batch.size(), e);
+                    return;
+                }
+                log.error("Отложенная запись: не удалось сохранить {} хитов, повтор через секунду", batch.size(), e);
+                TimeUnit.SECONDS.sleep(1);
+            }
+        }
+    }
+
+    private void rotateIfCheckpointed() {
+        if (journal.size() >= rotateBytes && checkpointLsn == journal.getEndLsn()) {
+            try {
+                journal.rotate();
+            } catch (IOException e) {
+                log.error("Журнал хитов: не удалось сменить файл", e);
+            }
+        }
+    }
+
+    /**
+     * {@code taken} забирает либо поток журнала, либо запрос, отказавшийся ждать.
+     */
+    private record PendingGroup(List<EndpointHit> hits, AtomicBoolean taken, CompletableFuture<Void> durable) {
+    }
+
+    private record LoggedGroup(List<EndpointHit> hits, long lsn) {
+    }
+}
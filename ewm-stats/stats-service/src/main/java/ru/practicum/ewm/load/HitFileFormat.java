@@ -0,0 +1,17 @@
+package ru.practicum.ewm.load;
+
+import java.nio.file.Path;
+import java.util.Locale;
+
+public enum HitFileFormat {
+    NDJSON,
+    CSV;
+
+    /**
+     * Формат по расширению файла ({@code .csv}, {@code .csv.gz}); всё остальное читается как NDJSON.
+     */
+    public static HitFileFormat of(Path file) {
+        String name = file.getFileName().toString().toLowerCase(Locale.ROOT);
+        return name.endsWith(".csv") || name.endsWith(".csv.gz") ? CSV : NDJSON;
+    }
+}
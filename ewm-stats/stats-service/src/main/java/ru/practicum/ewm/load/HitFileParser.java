@@ -0,0 +1,132 @@
+package ru.practicum.ewm.load;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.validation.ConstraintViolation;
+import jakarta.validation.ValidationException;
+import jakarta.validation.Validator;
+import ru.practicum.ewm.EndpointHitDto;
+import ru.practicum.ewm.mapper.endpoint.EndpointHitMapper;
+import ru.practicum.ewm.model.endpoint.EndpointHit;
+
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * Разбор строк файла хитов. NDJSON - по объекту {@link EndpointHitDto} в строке, CSV - заголовок из имён полей
+ * того же DTO ({@code app}, {@code uri}, {@code ip}, {@code timestamp}, необязательно {@code id}) в любом порядке,
+ * значения в двойных кавычках допускаются. Проверки те же, что у {@code POST /hit/batch}. Потокобезопасен.
+ */
+class HitFileParser {
+
+    private static final DateTimeFormatter TIMESTAMP = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+    private static final List<String> REQUIRED_COLUMNS = List.of("app", "uri", "ip", "timestamp");
+
+    private final HitFileFormat format;
+    private final ObjectMapper objectMapper;
+    private final Validator validator;
+    private final Map<String, Integer> columns = new HashMap<>();
+
+    /**
+     * {@code header} - первая строка CSV, для NDJSON не нужна.
+     */
+    HitFileParser(HitFileFormat format, String header, ObjectMapper objectMapper, Validator validator) {
+        this.format = format;
+        this.objectMapper = objectMapper;
+        this.validator = validator;
+        if (format == HitFileFormat.CSV) {
+            List<String> names = split(header == null ? "" : header);
+            for (int i = 0; i < names.size(); i++) {
+                columns.put(names.get(i).trim().toLowerCase(Locale.ROOT), i);
+            }
+            if (!columns.keySet().containsAll(REQUIRED_COLUMNS)) {
+                throw new IllegalArgumentException("В заголовке CSV нет обязательных колонок " + REQUIRED_COLUMNS
+                        + ": " + header);
+            }
+        }
+    }
+
+    EndpointHit parse(String line) {
+        EndpointHitDto dto;
+        try {
+            dto = format == HitFileFormat.CSV ? fromCsv(line) : objectMapper.readValue(line, EndpointHitDto.class);
+        } catch (JsonProcessingException | DateTimeParseException e) {
+            throw new IllegalArgumentException(e.getMessage(), e);
+        }
+        Set<ConstraintViolation<EndpointHitDto>> violations = validator.validate(dto);
+        if (!violations.isEmpty()) {
+            throw new IllegalArgumentException(violations.stream()
+                    .map(violation -> violation.getPropertyPath() + " " + violation.getMessage())
+                    .collect(Collectors.joining(", ")));
+        }
+        try {
+            return EndpointHitMapper.toEndpointHit(dto);
+        } catch (ValidationException e) {
+            throw new IllegalArgumentException(e.getMessage(), e);
+        }
+    }
+
+    private EndpointHitDto fromCsv(String line) {
+        List<String> values = split(line);
+        if (values.size() != columns.size()) {
+            throw new IllegalArgumentException("Ожидалось колонок: " + columns.size() + ", получено: "
+                    + values.size());
+        }
+        String id = value(values, "id");
+        String timestamp = value(values, "timestamp");
+        return EndpointHitDto.builder()
+                .id(id == null || id.isEmpty() ? null : Long.parseLong(id))
+                .app(value(values, "app"))
+                .uri(value(values, "uri"))
+                .ip(value(values, "ip"))
+                .timestamp(timestamp == null || timestamp.isEmpty() ? null : LocalDateTime.parse(timestamp, TIMESTAMP))
+                .build();
+    }
+
+    private String value(List<String> values, String column) {
+        Integer index = columns.get(column);
+        return index == null ? null : values.get(index);
+    }
+
+    /**
+     * Поля строки CSV: запятая - разделитель, в значении в кавычках кавычка удваивается.
+     */
+    private static List<String> split(String line) {
+        List<String> values = new ArrayList<>();
+        StringBuilder value = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (quoted) {
+                if (c != '"') {
+                    value.append(c);
+                } else if (i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                    value.append('"');
+                    i++;
+                } else {
+                    quoted = false;
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == ',') {
+                values.add(value.toString());
+                value.setLength(0);
+            } else {
+                value.append(c);
+            }
+        }
+        if (quoted) {
+            throw new IllegalArgumentException("Незакрытая кавычка в строке CSV");
+        }
+        values.add(value.toString());
+        return values;
+    }
+}
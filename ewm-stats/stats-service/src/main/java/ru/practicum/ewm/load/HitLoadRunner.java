@@ -0,0 +1,53 @@
+package ru.practicum.ewm.load;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.stereotype.Component;
+
+import java.nio.file.Path;
+import java.util.Locale;
+
+/**
+ * Загрузка файла хитов из командной строки:
+ * {@code java -jar stats-service.jar --stats.load.file=/data/hits.ndjson.gz --spring.main.web-application-type=none}.
+ * {@code stats.load.format} ({@code ndjson}, {@code csv}) по умолчанию определяется по расширению,
+ * {@code stats.load.offset} - число уже загруженных строк, по умолчанию загрузка продолжается с сохранённой позиции.
+ * После загрузки приложение завершается: код 0 - файл загружен целиком, 1 - загрузка прервана.
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(name = "stats.load.file")
+public class HitLoadRunner implements ApplicationRunner {
+
+    private final HitLoader hitLoader;
+    private final ConfigurableApplicationContext context;
+    private final Path file;
+    private final String format;
+    private final long offset;
+
+    public HitLoadRunner(HitLoader hitLoader,
+                         ConfigurableApplicationContext context,
+                         @Value("${stats.load.file}") String file,
+                         @Value("${stats.load.format:}") String format,
+                         @Value("${stats.load.offset:-1}") long offset) {
+        this.hitLoader = hitLoader;
+        this.context = context;
+        this.file = Path.of(file);
+        this.format = format;
+        this.offset = offset;
+    }
+
+    @Override
+    public void run(ApplicationArguments args) {
+        LoadStatus status = hitLoader.load(file,
+                format.isBlank() ? null : HitFileFormat.valueOf(format.trim().toUpperCase(Locale.ROOT)),
+                offset < 0 ? null : offset);
+        int exitCode = status.state() == LoadStatus.State.DONE ? 0 : 1;
+        System.exit(SpringApplication.exit(context, () -> exitCode));
+    }
+}
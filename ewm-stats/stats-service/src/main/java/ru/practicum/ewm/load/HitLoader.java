@@ -0,0 +1,360 @@
+package ru.practicum.ewm.load;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import jakarta.validation.Validator;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import ru.practicum.ewm.exception.ConflictException;
+import ru.practicum.ewm.model.endpoint.EndpointHit;
+import ru.practicum.ewm.storage.HitListener;
+import ru.practicum.ewm.storage.HitStorage;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Загрузка хитов из файла NDJSON или CSV (в том числе {@code .gz}) при переносе и восстановлении статистики.
+ * Поток чтения режет файл на куски по {@code stats.load.chunk-size} строк, куски разбираются и проверяются
+ * параллельно в {@code stats.load.parallelism} потоков, а пишутся по порядку: каждый кусок - одной транзакцией
+ * хранилища вместе с номером следующей строки файла в {@code stats_ingest_checkpoint}. Загрузка без явного
+ * {@code offset} продолжается с этой позиции, поэтому повтор после сбоя не задваивает записанные куски. Позиция
+ * привязана к имени файла и хешу его первых 64 КБ: другой файл под тем же именем читается с начала, а дописанный
+ * в конец - продолжается.
+ * Сегментное хранилище помнит одну позицию на весь сервис (журнала отложенной записи), поэтому с ним позиция
+ * загрузки не сохраняется: без {@code offset} файл читается с начала, позиция для продолжения есть в логе.
+ * <p>
+ * Хиты пишутся мимо ключей идемпотентности, фильтра повторов, отложенной записи и трендов: это принятые когда-то
+ * хиты, а не новый трафик. Слушатели записи (лента просмотров) уведомляются как обычно. Некорректные строки
+ * пропускаются и считаются, больше {@code stats.load.max-rejected} - загрузка прерывается. Одновременно идёт не
+ * больше одной загрузки.
+ */
+@Slf4j
+@Component
+public class HitLoader {
+
+    private static final String CHECKPOINT_PREFIX = "load:";
+    private static final int MAX_CHECKPOINT_LENGTH = 64;
+    private static final int HEADER_BYTES = 65536;
+    private static final int MAX_LOGGED_REJECTIONS = 10;
+    private static final Chunk END = new Chunk(List.of(), 0, -1);
+
+    private final HitStorage hitStorage;
+    private final List<HitListener> hitListeners;
+    private final ObjectMapper objectMapper;
+    private final Validator validator;
+    private final int chunkSize;
+    private final int parallelism;
+    private final long maxRejected;
+    private final long progressIntervalNanos;
+    private final Counter loadedHits;
+    private final Counter rejectedHits;
+    private final ExecutorService jobExecutor = Executors.newSingleThreadExecutor(task ->
+            new Thread(task, "stats-load"));
+    private final AtomicReference<Job> current = new AtomicReference<>();
+    private volatile LoadStatus last = LoadStatus.IDLE;
+
+    public HitLoader(HitStorage hitStorage,
+                     List<HitListener> hitListeners,
+                     ObjectMapper objectMapper,
+                     Validator validator,
+                     MeterRegistry meterRegistry,
+                     @Value("${stats.load.chunk-size:10000}") int chunkSize,
+                     @Value("${stats.load.parallelism:4}") int parallelism,
+                     @Value("${stats.load.max-rejected:1000}") long maxRejected,
+                     @Value("${stats.load.progress-interval:10s}") Duration progressInterval) {
+        if (chunkSize <= 0 || parallelism <= 0 || maxRejected < 0) {
+            throw new IllegalArgumentException("Некорректные параметры загрузки хитов.");
+        }
+        this.hitStorage = hitStorage;
+        this.hitListeners = hitListeners;
+        this.objectMapper = objectMapper;
+        this.validator = validator;
+        this.chunkSize = chunkSize;
+        this.parallelism = parallelism;
+        this.maxRejected = maxRejected;
+        this.progressIntervalNanos = progressInterval.toNanos();
+        this.loadedHits = hits(meterRegistry, "loaded");
+        this.rejectedHits = hits(meterRegistry, "rejected");
+        Gauge.builder("stats.load.offset", this, loader -> loader.status().offset())
+                .description("Строк файла загрузки записано или отклонено")
+                .register(meterRegistry);
+    }
+
+    @PreDestroy
+    public void stop() {
+        cancel();
+        jobExecutor.shutdownNow();
+    }
+
+    /**
+     * Загрузка в фоне. {@code offset} - число уже загруженных строк файла, {@code null} - продолжить
+     * с сохранённой позиции.
+     */
+    public LoadStatus start(Path file, HitFileFormat format, Long offset) {
+        Job job = claim(file, format, offset);
+        jobExecutor.execute(job::run);
+        return job.status();
+    }
+
+    /**
+     * То же, что {@link #start}, в потоке вызова; возвращает итоговое состояние.
+     */
+    public LoadStatus load(Path file, HitFileFormat format, Long offset) {
+        Job job = claim(file, format, offset);
+        job.run();
+        return job.status();
+    }
+
+    public LoadStatus status() {
+        Job job = current.get();
+        return job != null ? job.status() : last;
+    }
+
+    public LoadStatus cancel() {
+        Job job = current.get();
+        if (job != null) {
+            job.cancelled = true;
+        }
+        return status();
+    }
+
+    private Job claim(Path file, HitFileFormat format, Long offset) {
+        Job job = new Job(file, format != null ? format : HitFileFormat.of(file));
+        if (!current.compareAndSet(null, job)) {
+            throw new ConflictException("Загрузка хитов уже идёт: " + current.get().file);
+        }
+        try {
+            job.offset = offset != null ? offset
+                    : hitStorage.isNamedCheckpoints() ? hitStorage.findCheckpoint(job.checkpoint) : 0;
+        } catch (RuntimeException e) {
+            current.set(null);
+            throw e;
+        }
+        return job;
+    }
+
+    /**
+     * {@code load:<имя>@<хеш начала файла>}; слишком длинное имя укорачивается с добавлением его хеша.
+     */
+    private static String checkpoint(Path file) {
+        String name = CHECKPOINT_PREFIX + file.getFileName();
+        String header = "@" + headerHash(file);
+        if (name.length() + header.length() > MAX_CHECKPOINT_LENGTH) {
+            name = name.substring(0, MAX_CHECKPOINT_LENGTH - header.length() - 9) + "#"
+                    + String.format("%08x", name.hashCode());
+        }
+        return name + header;
+    }
+
+    private static String headerHash(Path file) {
+        try (InputStream in = Files.newInputStream(file)) {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(in.readNBytes(HEADER_BYTES));
+            return HexFormat.of().formatHex(digest, 0, 8);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Не удалось прочитать файл загрузки " + file, e);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static BufferedReader open(Path file) throws IOException {
+        InputStream in = Files.newInputStream(file);
+        if (file.getFileName().toString().endsWith(".gz")) {
+            in = new GZIPInputStream(in, 1 << 16);
+        }
+        return new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8), 1 << 16);
+    }
+
+    private static Counter hits(MeterRegistry meterRegistry, String result) {
+        return Counter.builder("stats.load.hits")
+                .description("Строки файлов загрузки, записанные и отклонённые")
+                .tag("result", result)
+                .register(meterRegistry);
+    }
+
+    /**
+     * Разобранный кусок файла: хиты, число отклонённых строк и номер строки, с которой начинается следующий кусок.
+     */
+    private record Chunk(List<EndpointHit> hits, long rejected, long endOffset) {
+    }
+
+    private class Job {
+        private final Path file;
+        private final HitFileFormat format;
+        private final String checkpoint;
+        private final AtomicLong loaded = new AtomicLong();
+        private final AtomicLong rejected = new AtomicLong();
+        private final AtomicInteger loggedRejections = new AtomicInteger();
+        private final long startedAt = System.nanoTime();
+        private volatile long offset;
+        private volatile LoadStatus.State state = LoadStatus.State.RUNNING;
+        private volatile String error;
+        private volatile boolean cancelled;
+
+        Job(Path file, HitFileFormat format) {
+            this.file = file;
+            this.format = format;
+            this.checkpoint = checkpoint(file);
+        }
+
+        LoadStatus status() {
+            long elapsedNanos = Math.max(1, System.nanoTime() - startedAt);
+            long perSecond = (long) (loaded.get() * 1e9 / elapsedNanos);
+            return new LoadStatus(file.toString(), format, state, offset, loaded.get(), rejected.get(), perSecond,
+                    error);
+        }
+
+        void run() {
+            log.info("Загрузка хитов из {} ({}) со строки {}", file, format, offset);
+            ExecutorService parsers = Executors.newFixedThreadPool(parallelism, task -> new Thread(task,
+                    "stats-load-parser"));
+            Thread reader = null;
+            try (BufferedReader lines = open(file)) {
+                String header = format == HitFileFormat.CSV ? lines.readLine() : null;
+                HitFileParser parser = new HitFileParser(format, header, objectMapper, validator);
+                long lineNumber = header != null ? 1 : 0;
+                while (lineNumber < offset && lines.readLine() != null) {
+                    lineNumber++;
+                }
+                BlockingQueue<CompletableFuture<Chunk>> chunks = new ArrayBlockingQueue<>(parallelism * 2);
+                long firstLine = lineNumber;
+                reader = new Thread(() -> read(lines, firstLine, parser, parsers, chunks), "stats-load-reader");
+                reader.start();
+                write(chunks);
+                state = cancelled ? LoadStatus.State.CANCELLED : LoadStatus.State.DONE;
+                log.info("Загрузка хитов из {} {}: строк {}, записано {}, отклонено {}, {} хитов/с", file,
+                        cancelled ? "отменена" : "завершена", offset, loaded.get(), rejected.get(),
+                        status().hitsPerSecond());
+            } catch (IOException | RuntimeException e) {
+                error = e instanceof CompletionException && e.getCause() != null ? e.getCause().getMessage()
+                        : e.getMessage();
+                state = LoadStatus.State.FAILED;
+                log.error("Загрузка хитов из {} прервана, продолжить можно со строки {}", file, offset, e);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                state = LoadStatus.State.CANCELLED;
+            } finally {
+                if (reader != null) {
+                    reader.interrupt();
+                }
+                parsers.shutdownNow();
+                last = status();
+                current.set(null);
+            }
+        }
+
+        private void write(BlockingQueue<CompletableFuture<Chunk>> chunks) throws InterruptedException {
+            long lastProgress = System.nanoTime();
+            while (!cancelled) {
+                Chunk chunk = chunks.take().join();
+                if (chunk == END) {
+                    return;
+                }
+                if (rejected.addAndGet(chunk.rejected()) > maxRejected) {
+                    throw new IllegalStateException("Отклонено больше " + maxRejected + " строк, проверьте формат "
+                            + "файла");
+                }
+                if (hitStorage.isNamedCheckpoints()) {
+                    hitStorage.write(chunk.hits(), checkpoint, chunk.endOffset());
+                } else {
+                    hitStorage.write(chunk.hits());
+                }
+                hitListeners.forEach(listener -> listener.onWrite(chunk.hits()));
+                loaded.addAndGet(chunk.hits().size());
+                loadedHits.increment(chunk.hits().size());
+                rejectedHits.increment(chunk.rejected());
+                offset = chunk.endOffset();
+                if (System.nanoTime() - lastProgress >= progressIntervalNanos) {
+                    lastProgress = System.nanoTime();
+                    log.info("Загрузка хитов из {}: строка {}, записано {}, отклонено {}, {} хитов/с", file, offset,
+                            loaded.get(), rejected.get(), status().hitsPerSecond());
+                }
+            }
+        }
+
+        /**
+         * Поток чтения: режет файл на куски и отдаёт их разбор пулу; очередь ограничена, поэтому чтение
+         * не уходит дальше записи больше чем на {@code 2 * parallelism} кусков.
+         */
+        private void read(BufferedReader lines, long lineNumber, HitFileParser parser, ExecutorService parsers,
+                          BlockingQueue<CompletableFuture<Chunk>> chunks) {
+            try {
+                CompletableFuture<Chunk> end;
+                try {
+                    List<String> chunk = new ArrayList<>(chunkSize);
+                    long chunkStart = lineNumber;
+                    String line;
+                    while (!cancelled && (line = lines.readLine()) != null) {
+                        chunk.add(line);
+                        lineNumber++;
+                        if (chunk.size() == chunkSize) {
+                            chunks.put(parse(chunk, chunkStart, lineNumber, parser, parsers));
+                            chunk = new ArrayList<>(chunkSize);
+                            chunkStart = lineNumber;
+                        }
+                    }
+                    if (!chunk.isEmpty()) {
+                        chunks.put(parse(chunk, chunkStart, lineNumber, parser, parsers));
+                    }
+                    end = CompletableFuture.completedFuture(END);
+                } catch (IOException | RuntimeException e) {
+                    end = CompletableFuture.failedFuture(e);
+                }
+                chunks.put(end);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        private CompletableFuture<Chunk> parse(List<String> lines, long chunkStart, long chunkEnd,
+                                               HitFileParser parser, ExecutorService parsers) {
+            return CompletableFuture.supplyAsync(() -> {
+                List<EndpointHit> hits = new ArrayList<>(lines.size());
+                long rejectedLines = 0;
+                for (int i = 0; i < lines.size(); i++) {
+                    String line = lines.get(i);
+                    if (line.isBlank()) {
+                        continue;
+                    }
+                    try {
+                        hits.add(parser.parse(line));
+                    } catch (IllegalArgumentException e) {
+                        rejectedLines++;
+                        if (loggedRejections.incrementAndGet() <= MAX_LOGGED_REJECTIONS) {
+                            log.warn("Загрузка хитов из {}: строка {} отклонена: {}", file, chunkStart + i + 1,
+                                    e.getMessage());
+                        }
+                    }
+                }
+                return new Chunk(hits, rejectedLines, chunkEnd);
+            }, parsers);
+        }
+    }
+}
@@ -0,0 +1,19 @@
+package ru.practicum.ewm.load;
+
+/**
+ * Состояние загрузки файла хитов. {@code offset} - число строк файла (вместе с заголовком CSV), которые уже
+ * записаны или отклонены: с него загрузка продолжается после сбоя.
+ */
+public record LoadStatus(String file, HitFileFormat format, State state, long offset, long loaded, long rejected,
+                         long hitsPerSecond, String error) {
+
+    public static final LoadStatus IDLE = new LoadStatus(null, null, State.IDLE, 0, 0, 0, 0, null);
+
+    public enum State {
+        IDLE,
+        RUNNING,
+        DONE,
+        FAILED,
+        CANCELLED
+    }
+}
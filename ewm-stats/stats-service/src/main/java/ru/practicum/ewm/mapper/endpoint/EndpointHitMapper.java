@@ -1,8 +1,10 @@
 package ru.practicum.ewm.mapper.endpoint;
 
+import jakarta.validation.ValidationException;
 import org.springframework.stereotype.Component;
 import ru.practicum.ewm.EndpointHitDto;
 import ru.practicum.ewm.model.endpoint.EndpointHit;
+import ru.practicum.ewm.util.IpAddresses;
 
 @Component
 public class EndpointHitMapper {
@@ -10,8 +12,9 @@ public class EndpointHitMapper {
         return EndpointHit.builder()
                 .app(endpointHitDto.getApp())
                 .uri(endpointHitDto.getUri())
-                .ip(endpointHitDto.getIp())
+                .ip(toIp(endpointHitDto.getIp()))
                 .timestamp(endpointHitDto.getTimestamp())
+                .key(endpointHitDto.getId())
                 .build();
     }
 
@@ -19,8 +22,16 @@ public class EndpointHitMapper {
         return EndpointHitDto.builder()
                 .app(endpointHit.getApp())
                 .uri(endpointHit.getUri())
-                .ip(endpointHit.getIp())
+                .ip(IpAddresses.toString(endpointHit.getIp()))
                 .timestamp(endpointHit.getTimestamp())
                 .build();
     }
+
+    private static byte[] toIp(String ip) {
+        try {
+            return IpAddresses.toBytes(ip);
+        } catch (IllegalArgumentException e) {
+            throw new ValidationException(e.getMessage());
+        }
+    }
 }
@@ -0,0 +1,14 @@
+package ru.practicum.ewm.model.dictionary;
+
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+
+@Getter
+@RequiredArgsConstructor
+public enum DictionaryKind {
+    APP("stats_app", 64),
+    URI("stats_uri", 256);
+
+    private final String table;
+    private final int length;
+}
@@ -1,14 +1,16 @@
 package ru.practicum.ewm.model.endpoint;
 
-import jakarta.persistence.*;
 import jakarta.validation.constraints.NotBlank;
 import jakarta.validation.constraints.NotNull;
 import lombok.*;
 
 import java.time.LocalDateTime;
 
-@Entity
-@Table(name = "statistics")
+/**
+ * Хит в том виде, в каком его принимает сервис. В таблице {@code statistics} приложение и URI хранятся
+ * идентификаторами словарей {@code stats_app} и {@code stats_uri}, IP - 16 байтами
+ * (см. {@link ru.practicum.ewm.util.IpAddresses}).
+ */
 @Getter
 @Setter
 @NoArgsConstructor
@@ -16,20 +18,15 @@ import java.time.LocalDateTime;
 @Builder
 public class EndpointHit {
 
-    @Id
-    @Column(name = "id", nullable = false)
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
     private Long id;
     @NotBlank
-    @Column(name = "app")
     private String app;
     @NotBlank
-    @Column(name = "uri")
     private String uri;
-    @NotBlank
-    @Column(name = "ip")
-    private String ip;
     @NotNull
-    @Column(name = "timestamp")
+    private byte[] ip;
+    @NotNull
     private LocalDateTime timestamp;
+    // ключ идемпотентности клиента (id из запроса), в хранилище не пишется
+    private Long key;
 }
@@ -0,0 +1,25 @@
+package ru.practicum.ewm.model.partition;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.ToString;
+
+import java.time.LocalDateTime;
+
+/**
+ * Секция таблицы {@code statistics}. Границы полуоткрытые {@code [from, to)}, {@code null} - MINVALUE/MAXVALUE;
+ * у секции по умолчанию границ нет.
+ */
+@Getter
+@ToString
+@AllArgsConstructor
+public class StatisticsPartition {
+    private final String name;
+    private final boolean defaultPartition;
+    private final LocalDateTime from;
+    private final LocalDateTime to;
+
+    public boolean overlaps(LocalDateTime start, LocalDateTime end) {
+        return !defaultPartition && (from == null || from.isBefore(end)) && (to == null || to.isAfter(start));
+    }
+}
@@ -0,0 +1,39 @@
+package ru.practicum.ewm.model.rollup;
+
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.List;
+
+/**
+ * Размер бакета. Бакеты хитов - минутные, часовые и дневные ({@link #coarseToFine()}); месячные есть только
+ * у скетчей уникальных IP, чтобы окно в несколько лет складывалось из десятков бакетов, а не из тысяч.
+ */
+@Getter
+@RequiredArgsConstructor
+public enum Granularity {
+    MINUTE(ChronoUnit.MINUTES),
+    HOUR(ChronoUnit.HOURS),
+    DAY(ChronoUnit.DAYS),
+    MONTH(ChronoUnit.MONTHS);
+
+    private final ChronoUnit unit;
+
+    public LocalDateTime floor(LocalDateTime dateTime) {
+        if (this == MONTH) {
+            return dateTime.toLocalDate().withDayOfMonth(1).atStartOfDay();
+        }
+        return dateTime.truncatedTo(unit);
+    }
+
+    public LocalDateTime ceil(LocalDateTime dateTime) {
+        LocalDateTime floor = floor(dateTime);
+        return floor.equals(dateTime) ? floor : floor.plus(1, unit);
+    }
+
+    public static List<Granularity> coarseToFine() {
+        return List.of(DAY, HOUR, MINUTE);
+    }
+}
@@ -0,0 +1,9 @@
+package ru.practicum.ewm.model.rollup;
+
+import java.util.BitSet;
+
+/**
+ * Часть нескольких окон сразу: {@code windows} - номера окон запроса, в которые целиком входит {@code segment}.
+ */
+public record SharedSegment(WindowSegment segment, BitSet windows) {
+}
@@ -0,0 +1,9 @@
+package ru.practicum.ewm.model.rollup;
+
+import java.time.LocalDateTime;
+
+/**
+ * Окно запроса с полуоткрытыми границами {@code [from, to)}.
+ */
+public record TimeWindow(LocalDateTime from, LocalDateTime to) {
+}
@@ -0,0 +1,24 @@
+package ru.practicum.ewm.model.rollup;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.ToString;
+
+import java.time.LocalDateTime;
+
+/**
+ * Часть окна запроса: либо диапазон бакетов одной гранулярности, либо "сырой" хвост ({@code granularity == null}).
+ * Границы полуоткрытые: {@code [from, to)}.
+ */
+@Getter
+@ToString
+@AllArgsConstructor
+public class WindowSegment {
+    private final Granularity granularity;
+    private final LocalDateTime from;
+    private final LocalDateTime to;
+
+    public boolean isRaw() {
+        return granularity == null;
+    }
+}
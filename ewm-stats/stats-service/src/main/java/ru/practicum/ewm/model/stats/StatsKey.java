@@ -0,0 +1,4 @@
+package ru.practicum.ewm.model.stats;
+
+public record StatsKey(String app, String uri) {
+}
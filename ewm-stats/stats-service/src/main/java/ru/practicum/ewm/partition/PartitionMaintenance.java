@@ -0,0 +1,100 @@
+package ru.practicum.ewm.partition;
+
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.DependsOn;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import ru.practicum.ewm.compaction.RawHorizon;
+import ru.practicum.ewm.model.partition.StatisticsPartition;
+import ru.practicum.ewm.repository.DatabaseDialect;
+import ru.practicum.ewm.repository.PartitionRepository;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.List;
+
+/**
+ * Обслуживает дневные секции {@code statistics}: создаёт их заранее и удаляет целиком после срока хранения,
+ * так что чистка старых хитов - операция над метаданными, а не DELETE по всей таблице. Окна запросов
+ * фильтруются по {@code timestamp}, поэтому Postgres отсекает лишние секции сам.
+ * <p>
+ * В H2 (профили ci/test) таблица не секционирована, и обслуживание отключено.
+ */
+@Slf4j
+@Component
+@DependsOn("schemaUpgrade")
+public class PartitionMaintenance {
+
+    private static final DateTimeFormatter SUFFIX = DateTimeFormatter.ofPattern("yyyyMMdd");
+
+    private final PartitionRepository partitionRepository;
+    private final RawHorizon rawHorizon;
+    private final boolean enabled;
+    private final int daysAhead;
+    private final int retentionDays;
+
+    public PartitionMaintenance(PartitionRepository partitionRepository,
+                                RawHorizon rawHorizon,
+                                DatabaseDialect databaseDialect,
+                                @Value("${stats.partitioning.days-ahead:7}") int daysAhead,
+                                @Value("${stats.partitioning.retention-days:0}") int retentionDays) {
+        this.partitionRepository = partitionRepository;
+        this.rawHorizon = rawHorizon;
+        this.enabled = databaseDialect.isPostgres();
+        this.daysAhead = daysAhead;
+        this.retentionDays = retentionDays;
+    }
+
+    @PostConstruct
+    public void init() {
+        if (!enabled) {
+            return;
+        }
+        partitionRepository.createDefaultPartition();
+        maintain();
+    }
+
+    @Scheduled(cron = "${stats.partitioning.cron:0 5 0 * * *}")
+    public void maintain() {
+        if (!enabled) {
+            return;
+        }
+        LocalDate today = LocalDate.now();
+        createAhead(today);
+        if (retentionDays > 0) {
+            dropExpired(today.minusDays(retentionDays).atStartOfDay());
+        }
+    }
+
+    private void createAhead(LocalDate today) {
+        List<StatisticsPartition> partitions = partitionRepository.findAll();
+        for (int i = 0; i <= daysAhead; i++) {
+            LocalDateTime from = today.plusDays(i).atStartOfDay();
+            LocalDateTime to = from.plusDays(1);
+            if (partitions.stream().anyMatch(partition -> partition.overlaps(from, to))) {
+                continue;
+            }
+            String name = "statistics_p" + SUFFIX.format(from);
+            partitionRepository.createPartition(name, from, to);
+            log.info("Создана секция {}", name);
+        }
+    }
+
+    private void dropExpired(LocalDateTime cutoff) {
+        // без сырых хитов запросы до cutoff отвечаются дневными бакетами
+        rawHorizon.advance(cutoff);
+        for (StatisticsPartition partition : partitionRepository.findAll()) {
+            if (!partition.isDefaultPartition() && partition.getTo() != null && !partition.getTo().isAfter(cutoff)) {
+                partitionRepository.dropPartition(partition.getName());
+                log.info("Удалена секция {} (хиты до {})", partition.getName(), partition.getTo());
+            }
+        }
+        int deleted = partitionRepository.deleteFromDefaultBefore(cutoff);
+        if (deleted > 0) {
+            log.info("Из секции по умолчанию удалено {} хитов старше {}", deleted, cutoff);
+        }
+    }
+}
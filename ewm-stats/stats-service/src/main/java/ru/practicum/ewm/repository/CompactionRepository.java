@@ -0,0 +1,65 @@
+package ru.practicum.ewm.repository;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+import ru.practicum.ewm.model.rollup.Granularity;
+
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.List;
+
+/**
+ * Горизонт сжатия и удаление данных до него. Удаление идёт по суткам, чтобы первый запуск на большой
+ * истории не превращался в одну огромную транзакцию.
+ */
+@Repository
+@RequiredArgsConstructor
+public class CompactionRepository {
+
+    private final JdbcTemplate jdbcTemplate;
+
+    public LocalDateTime findHorizon() {
+        List<Timestamp> horizon = jdbcTemplate.queryForList("SELECT horizon FROM stats_compaction", Timestamp.class);
+        return horizon.isEmpty() ? null : horizon.get(0).toLocalDateTime();
+    }
+
+    public void saveHorizon(LocalDateTime horizon) {
+        if (jdbcTemplate.update("UPDATE stats_compaction SET horizon = ?", horizon) == 0) {
+            jdbcTemplate.update("INSERT INTO stats_compaction (horizon) VALUES (?)", horizon);
+        }
+    }
+
+    public long deleteRawBefore(LocalDateTime horizon) {
+        return deleteDaily("statistics", "timestamp", "", horizon);
+    }
+
+    public long deleteRollupsBefore(Granularity granularity, LocalDateTime horizon) {
+        return deleteDaily("stats_rollup", "bucket_start", " AND granularity = '" + granularity + "'", horizon);
+    }
+
+    public long deleteSketchesBefore(Granularity granularity, LocalDateTime horizon) {
+        return deleteDaily("stats_sketch", "bucket_start", " AND granularity = '" + granularity + "'", horizon);
+    }
+
+    public long deleteTopKBefore(Granularity granularity, LocalDateTime horizon) {
+        return deleteDaily("stats_topk", "bucket_start", " AND granularity = '" + granularity + "'", horizon);
+    }
+
+    private long deleteDaily(String table, String column, String filter, LocalDateTime horizon) {
+        Timestamp min = jdbcTemplate.queryForObject("SELECT MIN(" + column + ") FROM " + table
+                + " WHERE " + column + " < ?" + filter, Timestamp.class, horizon);
+        if (min == null) {
+            return 0;
+        }
+        long deleted = 0;
+        LocalDateTime from = Granularity.DAY.floor(min.toLocalDateTime());
+        while (from.isBefore(horizon)) {
+            LocalDateTime to = from.plusDays(1).isBefore(horizon) ? from.plusDays(1) : horizon;
+            deleted += jdbcTemplate.update("DELETE FROM " + table + " WHERE " + column + " >= ? AND "
+                    + column + " < ?" + filter, from, to);
+            from = to;
+        }
+        return deleted;
+    }
+}
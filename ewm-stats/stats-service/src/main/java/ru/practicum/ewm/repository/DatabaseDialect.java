@@ -0,0 +1,24 @@
+package ru.practicum.ewm.repository;
+
+import lombok.Getter;
+import org.springframework.jdbc.support.JdbcUtils;
+import org.springframework.jdbc.support.MetaDataAccessException;
+import org.springframework.stereotype.Component;
+
+import javax.sql.DataSource;
+import java.sql.DatabaseMetaData;
+
+/**
+ * Postgres и H2 (профили ci/test) по-разному делают upsert, поэтому JDBC-репозитории выбирают SQL по СУБД.
+ */
+@Getter
+@Component
+public class DatabaseDialect {
+
+    private final boolean postgres;
+
+    public DatabaseDialect(DataSource dataSource) throws MetaDataAccessException {
+        String product = JdbcUtils.extractDatabaseMetaData(dataSource, DatabaseMetaData::getDatabaseProductName);
+        this.postgres = "PostgreSQL".equalsIgnoreCase(product);
+    }
+}
@@ -0,0 +1,47 @@
+package ru.practicum.ewm.repository;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Repository;
+import ru.practicum.ewm.model.dictionary.DictionaryKind;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+@Repository
+@RequiredArgsConstructor
+public class DictionaryRepository {
+
+    private final NamedParameterJdbcTemplate jdbcTemplate;
+    private final DatabaseDialect dialect;
+
+    /**
+     * Идентификатор строки словаря; новая строка добавляется. Повторная вставка той же строки
+     * из параллельной транзакции ничего не делает.
+     */
+    public int intern(DictionaryKind kind, String name) {
+        String table = kind.getTable();
+        String insert = dialect.isPostgres()
+                ? "INSERT INTO " + table + " (name) VALUES (:name) ON CONFLICT (name) DO NOTHING"
+                : "MERGE INTO " + table + " AS d USING (SELECT CAST(:name AS VARCHAR(" + kind.getLength() + ")) AS name) AS v "
+                + "ON d.name = v.name WHEN NOT MATCHED THEN INSERT (name) VALUES (v.name)";
+        MapSqlParameterSource params = new MapSqlParameterSource("name", name);
+        jdbcTemplate.update(insert, params);
+        Integer id = jdbcTemplate.queryForObject("SELECT id FROM " + table + " WHERE name = :name", params,
+                Integer.class);
+        return id == null ? -1 : id;
+    }
+
+    public Map<String, Integer> findIds(DictionaryKind kind, Collection<String> names) {
+        Map<String, Integer> ids = new HashMap<>();
+        if (!names.isEmpty()) {
+            jdbcTemplate.query("SELECT id, name FROM " + kind.getTable() + " WHERE name IN (:names)",
+                    new MapSqlParameterSource("names", names),
+                    (RowCallbackHandler) rs -> ids.put(rs.getString("name"), rs.getInt("id")));
+        }
+        return ids;
+    }
+}
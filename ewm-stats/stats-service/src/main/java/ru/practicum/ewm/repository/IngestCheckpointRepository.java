@@ -0,0 +1,26 @@
+package ru.practicum.ewm.repository;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import java.util.List;
+
+@Repository
+@RequiredArgsConstructor
+public class IngestCheckpointRepository {
+
+    private final JdbcTemplate jdbcTemplate;
+
+    public long find(String journal) {
+        List<Long> lsn = jdbcTemplate.queryForList("SELECT lsn FROM stats_ingest_checkpoint WHERE journal = ?",
+                Long.class, journal);
+        return lsn.isEmpty() ? 0 : lsn.get(0);
+    }
+
+    public void save(String journal, long lsn) {
+        if (jdbcTemplate.update("UPDATE stats_ingest_checkpoint SET lsn = ? WHERE journal = ?", lsn, journal) == 0) {
+            jdbcTemplate.update("INSERT INTO stats_ingest_checkpoint (journal, lsn) VALUES (?, ?)", journal, lsn);
+        }
+    }
+}
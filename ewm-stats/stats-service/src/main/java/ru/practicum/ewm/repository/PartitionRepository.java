@@ -0,0 +1,124 @@
+package ru.practicum.ewm.repository;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+import ru.practicum.ewm.model.partition.StatisticsPartition;
+
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * DDL секционирования таблицы {@code statistics} (только Postgres).
+ */
+@Repository
+@RequiredArgsConstructor
+public class PartitionRepository {
+
+    public static final String DEFAULT_PARTITION = "statistics_default";
+    public static final String LEGACY_PARTITION = "statistics_legacy";
+
+    private static final Pattern RANGE = Pattern.compile("FOR VALUES FROM \\((.+)\\) TO \\((.+)\\)");
+    private static final DateTimeFormatter LITERAL = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+
+    private final JdbcTemplate jdbcTemplate;
+
+    /**
+     * {@code true}, если {@code statistics} - обычная таблица, созданная до секционирования.
+     */
+    public boolean isLegacyTable() {
+        return "r".equals(jdbcTemplate.queryForObject(
+                "SELECT CAST(c.relkind AS VARCHAR) FROM pg_class c WHERE c.oid = to_regclass('statistics')",
+                String.class));
+    }
+
+    /**
+     * Превращает старую таблицу в секцию {@code [MINVALUE, bound)} новой секционированной таблицы:
+     * данные не копируются, новые идентификаторы продолжают старую последовательность. Типы колонок берутся
+     * из старой таблицы - Hibernate ({@code ddl-auto=update}) мог их расширить.
+     */
+    @Transactional
+    public void migrateLegacyTable(LocalDateTime minBound) {
+        jdbcTemplate.execute("ALTER TABLE statistics RENAME TO " + LEGACY_PARTITION);
+        jdbcTemplate.execute("ALTER INDEX IF EXISTS statistics_timestamp_idx RENAME TO " + LEGACY_PARTITION
+                + "_timestamp_idx");
+        jdbcTemplate.execute("ALTER TABLE " + LEGACY_PARTITION + " ALTER COLUMN id DROP IDENTITY IF EXISTS");
+        // первичный ключ секции должен совпадать с ключом (id, timestamp) родительской таблицы
+        jdbcTemplate.queryForList("SELECT conname FROM pg_constraint WHERE contype = 'p' "
+                        + "AND conrelid = CAST('" + LEGACY_PARTITION + "' AS regclass)", String.class)
+                .forEach(name -> jdbcTemplate.execute("ALTER TABLE " + LEGACY_PARTITION
+                        + " DROP CONSTRAINT " + name));
+        Long nextId = jdbcTemplate.queryForObject("SELECT COALESCE(MAX(id), 0) + 1 FROM " + LEGACY_PARTITION,
+                Long.class);
+        jdbcTemplate.execute("CREATE TABLE statistics (LIKE " + LEGACY_PARTITION + " INCLUDING DEFAULTS) "
+                + "PARTITION BY RANGE (timestamp)");
+        jdbcTemplate.execute("ALTER TABLE statistics ALTER COLUMN id ADD GENERATED BY DEFAULT AS IDENTITY "
+                + "(START WITH " + nextId + ")");
+        jdbcTemplate.execute("ALTER TABLE statistics ADD CONSTRAINT statistics_id_timestamp_pk "
+                + "PRIMARY KEY (id, timestamp)");
+        jdbcTemplate.execute("CREATE INDEX statistics_timestamp_idx ON statistics (timestamp)");
+        Timestamp maxTimestamp = jdbcTemplate.queryForObject("SELECT MAX(timestamp) FROM " + LEGACY_PARTITION,
+                Timestamp.class);
+        LocalDateTime bound = minBound;
+        if (maxTimestamp != null && !maxTimestamp.toLocalDateTime().isBefore(bound)) {
+            bound = maxTimestamp.toLocalDateTime().toLocalDate().plusDays(1).atStartOfDay();
+        }
+        jdbcTemplate.execute("ALTER TABLE statistics ATTACH PARTITION " + LEGACY_PARTITION
+                + " FOR VALUES FROM (MINVALUE) TO ('" + LITERAL.format(bound) + "')");
+    }
+
+    public void createDefaultPartition() {
+        jdbcTemplate.execute("CREATE TABLE IF NOT EXISTS " + DEFAULT_PARTITION + " PARTITION OF statistics DEFAULT");
+    }
+
+    public List<StatisticsPartition> findAll() {
+        return jdbcTemplate.query("SELECT c.relname, pg_get_expr(c.relpartbound, c.oid) FROM pg_inherits i "
+                        + "JOIN pg_class c ON c.oid = i.inhrelid WHERE i.inhparent = CAST('statistics' AS regclass)",
+                (rs, rowNum) -> toPartition(rs.getString(1), rs.getString(2)));
+    }
+
+    /**
+     * Создаёт секцию {@code [from, to)}. Хиты этого диапазона, успевшие попасть в секцию по умолчанию,
+     * переносятся в новую секцию; присоединение берёт на родительской таблице только SHARE UPDATE EXCLUSIVE.
+     */
+    @Transactional
+    public void createPartition(String name, LocalDateTime from, LocalDateTime to) {
+        jdbcTemplate.execute("CREATE TABLE " + name + " (LIKE statistics INCLUDING DEFAULTS)");
+        jdbcTemplate.update("INSERT INTO " + name + " SELECT * FROM " + DEFAULT_PARTITION
+                + " WHERE timestamp >= ? AND timestamp < ?", from, to);
+        jdbcTemplate.update("DELETE FROM " + DEFAULT_PARTITION + " WHERE timestamp >= ? AND timestamp < ?", from, to);
+        jdbcTemplate.execute("ALTER TABLE statistics ATTACH PARTITION " + name
+                + " FOR VALUES FROM ('" + LITERAL.format(from) + "') TO ('" + LITERAL.format(to) + "')");
+    }
+
+    public void dropPartition(String name) {
+        jdbcTemplate.execute("DROP TABLE IF EXISTS " + name);
+    }
+
+    /**
+     * Секция по умолчанию получает только хиты вне заранее созданных дней, поэтому её чистка дешёвая.
+     */
+    public int deleteFromDefaultBefore(LocalDateTime cutoff) {
+        return jdbcTemplate.update("DELETE FROM " + DEFAULT_PARTITION + " WHERE timestamp < ?", cutoff);
+    }
+
+    private StatisticsPartition toPartition(String name, String bound) {
+        Matcher matcher = RANGE.matcher(bound);
+        if (!matcher.matches()) {
+            return new StatisticsPartition(name, true, null, null);
+        }
+        return new StatisticsPartition(name, false, toBound(matcher.group(1)), toBound(matcher.group(2)));
+    }
+
+    private LocalDateTime toBound(String value) {
+        if (!value.startsWith("'")) {
+            return null;
+        }
+        return LocalDateTime.parse(value.substring(1, value.length() - 1), LITERAL);
+    }
+}
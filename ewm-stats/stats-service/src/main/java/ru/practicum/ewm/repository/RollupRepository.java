@@ -0,0 +1,209 @@
+package ru.practicum.ewm.repository;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.jdbc.core.namedparam.SqlParameterSource;
+import org.springframework.stereotype.Repository;
+import ru.practicum.ewm.ViewStatsDto;
+import ru.practicum.ewm.WindowedStatsDto;
+import ru.practicum.ewm.dictionary.HitDictionary;
+import ru.practicum.ewm.model.dictionary.DictionaryKind;
+import ru.practicum.ewm.model.endpoint.EndpointHit;
+import ru.practicum.ewm.model.rollup.Granularity;
+import ru.practicum.ewm.model.rollup.SharedSegment;
+import ru.practicum.ewm.model.rollup.WindowSegment;
+import ru.practicum.ewm.util.UriPatterns;
+
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.Consumer;
+
+@Repository
+@RequiredArgsConstructor
+public class RollupRepository {
+
+    private static final String UPSERT_POSTGRES = """
+            INSERT INTO stats_rollup (granularity, bucket_start, app_id, uri_id, hits)
+            VALUES (:granularity, :bucketStart, :appId, :uriId, :hits)
+            ON CONFLICT (granularity, bucket_start, app_id, uri_id)
+            DO UPDATE SET hits = stats_rollup.hits + EXCLUDED.hits
+            """;
+
+    private static final String UPSERT_STANDARD = """
+            MERGE INTO stats_rollup AS r
+            USING (SELECT CAST(:granularity AS VARCHAR(8)) AS granularity, CAST(:bucketStart AS TIMESTAMP) AS bucket_start,
+                          CAST(:appId AS INTEGER) AS app_id, CAST(:uriId AS INTEGER) AS uri_id,
+                          CAST(:hits AS BIGINT) AS hits) AS v
+            ON r.granularity = v.granularity AND r.bucket_start = v.bucket_start AND r.app_id = v.app_id
+                AND r.uri_id = v.uri_id
+            WHEN MATCHED THEN UPDATE SET hits = r.hits + v.hits
+            WHEN NOT MATCHED THEN INSERT (granularity, bucket_start, app_id, uri_id, hits)
+                VALUES (v.granularity, v.bucket_start, v.app_id, v.uri_id, v.hits)
+            """;
+
+    static final String JOIN_NAMES = "JOIN stats_app a ON a.id = s.app_id JOIN stats_uri u ON u.id = s.uri_id";
+
+    private static final Comparator<RollupKey> KEY_ORDER = Comparator.comparing(RollupKey::granularity)
+            .thenComparing(RollupKey::bucketStart)
+            .thenComparingInt(RollupKey::appId)
+            .thenComparingInt(RollupKey::uriId);
+
+    private final NamedParameterJdbcTemplate jdbcTemplate;
+    private final DatabaseDialect dialect;
+    private final HitDictionary hitDictionary;
+
+    /**
+     * Добавляет хиты в минутные, часовые и дневные бакеты. Пачка сначала сворачивается в памяти,
+     * ключи сортируются, чтобы параллельные транзакции брали блокировки строк в одном порядке.
+     * Строки словарей должны быть заранее занесены через {@link HitDictionary#intern(List)}.
+     */
+    public void increment(List<EndpointHit> hits) {
+        Map<RollupKey, Long> counts = new TreeMap<>(KEY_ORDER);
+        for (EndpointHit hit : hits) {
+            int appId = hitDictionary.id(DictionaryKind.APP, hit.getApp());
+            int uriId = hitDictionary.id(DictionaryKind.URI, hit.getUri());
+            for (Granularity granularity : Granularity.coarseToFine()) {
+                RollupKey key = new RollupKey(granularity, granularity.floor(hit.getTimestamp()), appId, uriId);
+                counts.merge(key, 1L, Long::sum);
+            }
+        }
+        SqlParameterSource[] batch = counts.entrySet().stream()
+                .map(entry -> new MapSqlParameterSource()
+                        .addValue("granularity", entry.getKey().granularity().name())
+                        .addValue("bucketStart", Timestamp.valueOf(entry.getKey().bucketStart()))
+                        .addValue("appId", entry.getKey().appId())
+                        .addValue("uriId", entry.getKey().uriId())
+                        .addValue("hits", entry.getValue()))
+                .toArray(SqlParameterSource[]::new);
+        jdbcTemplate.batchUpdate(dialect.isPostgres() ? UPSERT_POSTGRES : UPSERT_STANDARD, batch);
+    }
+
+    /**
+     * Считает хиты по окну, разложенному {@link ru.practicum.ewm.service.WindowPlanner}:
+     * выровненные части берутся из бакетов, края - из сырой таблицы, всё одним запросом.
+     * Фильтр - по идентификаторам URI {@code uriIds} (при пустом {@code uris} не используются).
+     */
+    public List<ViewStatsDto> countHits(List<WindowSegment> segments, List<String> uris, List<Integer> uriIds) {
+        if (segments.isEmpty()) {
+            return List.of();
+        }
+        MapSqlParameterSource params = new MapSqlParameterSource();
+        return jdbcTemplate.query(countHitsQuery(segments, uris, uriIds, params), params, (rs, rowNum) ->
+                new ViewStatsDto(rs.getString("app"), rs.getString("uri"), rs.getLong("hits")));
+    }
+
+    /**
+     * То же, что {@link #countHits}, но строки передаются в {@code sink} по мере чтения курсора.
+     */
+    public void streamHits(List<WindowSegment> segments, List<String> uris, List<Integer> uriIds,
+                           Consumer<ViewStatsDto> sink) {
+        if (segments.isEmpty()) {
+            return;
+        }
+        MapSqlParameterSource params = new MapSqlParameterSource();
+        jdbcTemplate.query(countHitsQuery(segments, uris, uriIds, params), params, (RowCallbackHandler) rs ->
+                sink.accept(new ViewStatsDto(rs.getString("app"), rs.getString("uri"), rs.getLong("hits"))));
+    }
+
+    /**
+     * Хиты по {@code uri} (по всем приложениям), сгруппированные по шагам ряда {@code seriesStart + i * step}.
+     * Бакеты в {@code segments} не должны пересекать границы шагов, сырые края группируются по времени хита.
+     */
+    public Map<Integer, Long> countSeries(List<WindowSegment> segments, List<Integer> uriIds,
+                                          LocalDateTime seriesStart, Duration step) {
+        Map<Integer, Long> series = new HashMap<>();
+        if (segments.isEmpty()) {
+            return series;
+        }
+        MapSqlParameterSource params = SeriesSql.params(seriesStart, step)
+                .addValue("uriIds", uriIds.isEmpty() ? List.of(-1) : uriIds);
+        List<String> parts = new ArrayList<>();
+        for (int i = 0; i < segments.size(); i++) {
+            WindowSegment segment = segments.get(i);
+            params.addValue("from" + i, Timestamp.valueOf(segment.getFrom()));
+            params.addValue("to" + i, Timestamp.valueOf(segment.getTo()));
+            if (segment.isRaw()) {
+                parts.add("SELECT " + SeriesSql.bucketIndex("timestamp") + " AS bucket, 1 AS hits FROM statistics "
+                        + "WHERE timestamp >= :from" + i + " AND timestamp < :to" + i + " AND uri_id IN (:uriIds)");
+            } else {
+                params.addValue("granularity" + i, segment.getGranularity().name());
+                parts.add("SELECT " + SeriesSql.bucketIndex("bucket_start") + " AS bucket, hits FROM stats_rollup "
+                        + "WHERE granularity = :granularity" + i + " AND bucket_start >= :from" + i
+                        + " AND bucket_start < :to" + i + " AND uri_id IN (:uriIds)");
+            }
+        }
+        jdbcTemplate.query("SELECT s.bucket, SUM(s.hits) AS hits FROM (" + String.join(" UNION ALL ", parts)
+                + ") s GROUP BY s.bucket", params, (RowCallbackHandler) rs ->
+                series.put(rs.getInt("bucket"), rs.getLong("hits")));
+        return series;
+    }
+
+    /**
+     * Хиты по нескольким окнам за один проход: каждая часть из {@code segments} читается один раз и попадает
+     * в колонки всех своих окон. Результат отсортирован по первому окну.
+     */
+    public List<WindowedStatsDto> countWindows(List<SharedSegment> segments, int windowCount, UriPatterns uris,
+                                               List<Integer> uriIds) {
+        if (segments.isEmpty()) {
+            return List.of();
+        }
+        MapSqlParameterSource params = new MapSqlParameterSource();
+        String uriFilter = UriSql.filter(uris, uriIds, params);
+        List<String> parts = new ArrayList<>();
+        for (int i = 0; i < segments.size(); i++) {
+            SharedSegment shared = segments.get(i);
+            parts.add(segmentPart(shared.segment(), i, WindowSql.columns(shared.windows(), windowCount, "hits"),
+                    uriFilter, params));
+        }
+        return jdbcTemplate.query("SELECT a.name AS app, u.name AS uri, " + WindowSql.aggregate("SUM", "s", windowCount)
+                        + " FROM (" + String.join(" UNION ALL ", parts) + ") s " + JOIN_NAMES
+                        + " GROUP BY a.name, u.name ORDER BY SUM(s.w0) DESC",
+                params, (rs, rowNum) -> new WindowedStatsDto(rs.getString("app"), rs.getString("uri"),
+                        WindowSql.read(rs, windowCount)));
+    }
+
+    private String countHitsQuery(List<WindowSegment> segments, List<String> uris, List<Integer> uriIds,
+                                  MapSqlParameterSource params) {
+        String uriFilter = "";
+        if (!uris.isEmpty()) {
+            params.addValue("uriIds", uriIds.isEmpty() ? List.of(-1) : uriIds);
+            uriFilter = " AND uri_id IN (:uriIds)";
+        }
+        List<String> parts = new ArrayList<>();
+        for (int i = 0; i < segments.size(); i++) {
+            parts.add(segmentPart(segments.get(i), i, "hits", uriFilter, params));
+        }
+        return "SELECT a.name AS app, u.name AS uri, SUM(s.hits) AS hits FROM (" + String.join(" UNION ALL ", parts)
+                + ") s " + JOIN_NAMES + " GROUP BY a.name, u.name ORDER BY SUM(s.hits) DESC";
+    }
+
+    /**
+     * Хиты части окна по app_id, uri_id: из бакетов или, для сырого края, из таблицы хитов. {@code columns} -
+     * выражения над колонкой {@code hits}.
+     */
+    private String segmentPart(WindowSegment segment, int i, String columns, String uriFilter,
+                               MapSqlParameterSource params) {
+        params.addValue("from" + i, Timestamp.valueOf(segment.getFrom()));
+        params.addValue("to" + i, Timestamp.valueOf(segment.getTo()));
+        if (segment.isRaw()) {
+            return "SELECT app_id, uri_id, " + columns + " FROM (SELECT app_id, uri_id, COUNT(*) AS hits "
+                    + "FROM statistics WHERE timestamp >= :from" + i + " AND timestamp < :to" + i + uriFilter
+                    + " GROUP BY app_id, uri_id) c";
+        }
+        params.addValue("granularity" + i, segment.getGranularity().name());
+        return "SELECT app_id, uri_id, " + columns + " FROM stats_rollup WHERE granularity = :granularity" + i
+                + " AND bucket_start >= :from" + i + " AND bucket_start < :to" + i + uriFilter;
+    }
+
+    private record RollupKey(Granularity granularity, LocalDateTime bucketStart, int appId, int uriId) {
+    }
+}
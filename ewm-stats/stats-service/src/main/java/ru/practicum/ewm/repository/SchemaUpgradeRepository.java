@@ -0,0 +1,249 @@
+package ru.practicum.ewm.repository;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+import ru.practicum.ewm.model.rollup.Granularity;
+import ru.practicum.ewm.sketch.HyperLogLog;
+import ru.practicum.ewm.util.IpAddresses;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Переход таблиц, заведённых старыми версиями, на текущую схему. Скрипты инициализации
+ * выполняются при каждом старте и могут ссылаться только на колонки, которые есть в любой версии таблицы,
+ * поэтому всё, что зависит от новых колонок, делается здесь.
+ */
+@Repository
+@RequiredArgsConstructor
+public class SchemaUpgradeRepository {
+
+    private static final int PAGE_SIZE = 10_000;
+    private static final int BATCH_SIZE = 500;
+
+    private final JdbcTemplate jdbcTemplate;
+    private final DatabaseDialect dialect;
+
+    public boolean hasTable(String table) {
+        return !jdbcTemplate.queryForList("SELECT table_name FROM information_schema.tables "
+                + "WHERE LOWER(table_schema) = LOWER(CURRENT_SCHEMA) AND LOWER(table_name) = ?", String.class, table)
+                .isEmpty();
+    }
+
+    public boolean hasColumn(String table, String column) {
+        return columnType(table, column) != null;
+    }
+
+    /**
+     * Тип колонки в терминах information_schema или {@code null}, если колонки нет.
+     */
+    public String columnType(String table, String column) {
+        List<String> types = jdbcTemplate.queryForList("SELECT LOWER(data_type) FROM information_schema.columns "
+                + "WHERE LOWER(table_schema) = LOWER(CURRENT_SCHEMA) AND LOWER(table_name) = ? "
+                + "AND LOWER(column_name) = ?", String.class, table, column);
+        return types.isEmpty() ? null : types.get(0);
+    }
+
+    /**
+     * Заменяет строковые колонки {@code app} и {@code uri} идентификаторами словарей.
+     */
+    @Transactional
+    public void encodeDictionaries() {
+        jdbcTemplate.execute("INSERT INTO stats_app (name) SELECT DISTINCT s.app FROM statistics s "
+                + "WHERE NOT EXISTS (SELECT 1 FROM stats_app a WHERE a.name = s.app)");
+        jdbcTemplate.execute("INSERT INTO stats_uri (name) SELECT DISTINCT s.uri FROM statistics s "
+                + "WHERE NOT EXISTS (SELECT 1 FROM stats_uri u WHERE u.name = s.uri)");
+        jdbcTemplate.execute("ALTER TABLE statistics ADD COLUMN IF NOT EXISTS app_id INTEGER");
+        jdbcTemplate.execute("ALTER TABLE statistics ADD COLUMN IF NOT EXISTS uri_id INTEGER");
+        jdbcTemplate.execute("UPDATE statistics SET "
+                + "app_id = (SELECT a.id FROM stats_app a WHERE a.name = statistics.app), "
+                + "uri_id = (SELECT u.id FROM stats_uri u WHERE u.name = statistics.uri)");
+        jdbcTemplate.execute("ALTER TABLE statistics ALTER COLUMN app_id SET NOT NULL");
+        jdbcTemplate.execute("ALTER TABLE statistics ALTER COLUMN uri_id SET NOT NULL");
+        jdbcTemplate.execute("ALTER TABLE statistics DROP COLUMN app");
+        jdbcTemplate.execute("ALTER TABLE statistics DROP COLUMN uri");
+    }
+
+    /**
+     * Заменяет строковые колонки {@code app} и {@code uri} таблицы агрегатов ({@code stats_rollup}, {@code stats_hll},
+     * {@code stats_topk}) идентификаторами словарей. Строки конвертируются на месте: агрегаты до горизонта сжатия
+     * по сырым хитам уже не восстановить.
+     *
+     * @param primaryKey колонки нового первичного ключа
+     */
+    @Transactional
+    public void encodeAggregateDictionaries(String table, String primaryKey) {
+        jdbcTemplate.execute("INSERT INTO stats_app (name) SELECT DISTINCT t.app FROM " + table + " t "
+                + "WHERE NOT EXISTS (SELECT 1 FROM stats_app a WHERE a.name = t.app)");
+        jdbcTemplate.execute("INSERT INTO stats_uri (name) SELECT DISTINCT t.uri FROM " + table + " t "
+                + "WHERE NOT EXISTS (SELECT 1 FROM stats_uri u WHERE u.name = t.uri)");
+        jdbcTemplate.execute("ALTER TABLE " + table + " ADD COLUMN IF NOT EXISTS app_id INTEGER");
+        jdbcTemplate.execute("ALTER TABLE " + table + " ADD COLUMN IF NOT EXISTS uri_id INTEGER");
+        jdbcTemplate.execute("UPDATE " + table + " SET "
+                + "app_id = (SELECT a.id FROM stats_app a WHERE a.name = " + table + ".app), "
+                + "uri_id = (SELECT u.id FROM stats_uri u WHERE u.name = " + table + ".uri)");
+        jdbcTemplate.execute("ALTER TABLE " + table + " ALTER COLUMN app_id SET NOT NULL");
+        jdbcTemplate.execute("ALTER TABLE " + table + " ALTER COLUMN uri_id SET NOT NULL");
+        List<String> keys = jdbcTemplate.queryForList("SELECT constraint_name "
+                + "FROM information_schema.table_constraints WHERE LOWER(table_schema) = LOWER(CURRENT_SCHEMA) "
+                + "AND LOWER(table_name) = ? AND constraint_type = 'PRIMARY KEY'", String.class, table);
+        for (String key : keys) {
+            jdbcTemplate.execute("ALTER TABLE " + table + " DROP CONSTRAINT " + key);
+        }
+        jdbcTemplate.execute("ALTER TABLE " + table + " DROP COLUMN app");
+        jdbcTemplate.execute("ALTER TABLE " + table + " DROP COLUMN uri");
+        jdbcTemplate.execute("ALTER TABLE " + table + " ADD PRIMARY KEY (" + primaryKey + ")");
+    }
+
+    /**
+     * Переводит скетчи из старой таблицы {@code stats_hll} (строка на каждый ненулевой регистр) в {@code stats_sketch}
+     * (строка с массивом регистров на бакет) и удаляет старую таблицу. Месячных скетчей раньше не было, они
+     * собираются из дневных. Строки читаются курсором по app и uri, поэтому в памяти держатся только скетчи
+     * текущего бакета и месяца.
+     */
+    @Transactional
+    public void convertSketches() {
+        SketchConversion conversion = new SketchConversion();
+        jdbcTemplate.query("SELECT granularity, bucket_start, app_id, uri_id, register_idx, rho FROM stats_hll "
+                + "ORDER BY app_id, uri_id, granularity, bucket_start", conversion);
+        conversion.flush();
+        jdbcTemplate.execute("DROP TABLE stats_hll");
+    }
+
+    /**
+     * Заполняет пустые таблицы бакетов по уже сохранённым хитам (база, заведённая до появления бакетов).
+     */
+    public void backfillRollups() {
+        for (Granularity granularity : Granularity.coarseToFine()) {
+            String truncated = "DATE_TRUNC('" + granularity + "', timestamp)";
+            jdbcTemplate.update("INSERT INTO stats_rollup (granularity, bucket_start, app_id, uri_id, hits) "
+                    + "SELECT '" + granularity + "', " + truncated + ", app_id, uri_id, COUNT(*) FROM statistics "
+                    + "WHERE NOT EXISTS (SELECT 1 FROM stats_rollup WHERE granularity = '" + granularity + "') "
+                    + "GROUP BY " + truncated + ", app_id, uri_id");
+        }
+    }
+
+    public void createIndexes() {
+        jdbcTemplate.execute("CREATE INDEX IF NOT EXISTS statistics_uri_timestamp_idx ON statistics (uri_id, timestamp)");
+    }
+
+    /**
+     * Переводит текстовую колонку {@code ip} в 16-байтовую форму. Строки, которые не разбираются как IP,
+     * получают адрес {@code ::}. Скетчи уникальных IP считались по строкам: бакеты, для которых ещё есть сырые хиты
+     * (начиная с горизонта сжатия {@code rawHorizon}), удаляются, и после старта их заново строит
+     * {@link ru.practicum.ewm.sketch.SketchBackfill}. Более старые скетчи восстановить не из чего, они остаются
+     * как есть; IP, попавший и в старый, и в новый бакет одного окна, в оценке может учесться дважды.
+     *
+     * @param rawHorizon горизонт сжатия, {@code null} - сжатия не было
+     * @return число строк с неразбираемым IP
+     */
+    @Transactional
+    public long convertIpColumn(LocalDateTime rawHorizon) {
+        jdbcTemplate.execute("ALTER TABLE statistics ADD COLUMN IF NOT EXISTS ip_bin "
+                + (dialect.isPostgres() ? "BYTEA" : "VARBINARY(16)"));
+        long lastId = 0;
+        long invalid = 0;
+        while (true) {
+            List<Object[]> page = new ArrayList<>();
+            jdbcTemplate.query("SELECT id, timestamp, ip FROM statistics WHERE id > ? ORDER BY id LIMIT " + PAGE_SIZE,
+                    rs -> {
+                        page.add(new Object[]{rs.getLong("id"), rs.getTimestamp("timestamp"), rs.getString("ip")});
+                    }, lastId);
+            if (page.isEmpty()) {
+                break;
+            }
+            List<Object[]> updates = new ArrayList<>(page.size());
+            for (Object[] row : page) {
+                byte[] ip;
+                try {
+                    ip = IpAddresses.toBytes((String) row[2]);
+                } catch (IllegalArgumentException e) {
+                    ip = new byte[IpAddresses.LENGTH];
+                    invalid++;
+                }
+                updates.add(new Object[]{ip, row[0], row[1]});
+            }
+            jdbcTemplate.batchUpdate("UPDATE statistics SET ip_bin = ? WHERE id = ? AND timestamp = ?", updates);
+            lastId = (Long) page.get(page.size() - 1)[0];
+        }
+        jdbcTemplate.execute("ALTER TABLE statistics ALTER COLUMN ip_bin SET NOT NULL");
+        jdbcTemplate.execute("ALTER TABLE statistics DROP COLUMN ip");
+        jdbcTemplate.execute("ALTER TABLE statistics RENAME COLUMN ip_bin TO ip");
+        if (rawHorizon == null) {
+            jdbcTemplate.execute("DELETE FROM stats_sketch");
+        } else {
+            jdbcTemplate.update("DELETE FROM stats_sketch WHERE bucket_start >= ?", rawHorizon);
+        }
+        return invalid;
+    }
+
+    private record SketchKey(String granularity, LocalDateTime bucketStart, int appId, int uriId) {
+    }
+
+    private class SketchConversion implements RowCallbackHandler {
+
+        private final List<Object[]> batch = new ArrayList<>();
+        private SketchKey bucketKey;
+        private HyperLogLog bucket;
+        private SketchKey monthKey;
+        private HyperLogLog month;
+
+        @Override
+        public void processRow(ResultSet rs) throws SQLException {
+            SketchKey key = new SketchKey(rs.getString("granularity"),
+                    rs.getTimestamp("bucket_start").toLocalDateTime(), rs.getInt("app_id"), rs.getInt("uri_id"));
+            int index = rs.getInt("register_idx");
+            byte rho = rs.getByte("rho");
+            if (!key.equals(bucketKey)) {
+                add(bucketKey, bucket);
+                bucketKey = key;
+                bucket = new HyperLogLog();
+            }
+            bucket.merge(index, rho);
+            if (Granularity.DAY.name().equals(key.granularity())) {
+                SketchKey monthOf = new SketchKey(Granularity.MONTH.name(), Granularity.MONTH.floor(key.bucketStart()),
+                        key.appId(), key.uriId());
+                if (!monthOf.equals(monthKey)) {
+                    add(monthKey, month);
+                    monthKey = monthOf;
+                    month = new HyperLogLog();
+                }
+                month.merge(index, rho);
+            }
+        }
+
+        void flush() {
+            add(bucketKey, bucket);
+            add(monthKey, month);
+            bucketKey = null;
+            monthKey = null;
+            write();
+        }
+
+        private void add(SketchKey key, HyperLogLog sketch) {
+            if (key == null) {
+                return;
+            }
+            batch.add(new Object[]{key.granularity(), Timestamp.valueOf(key.bucketStart()), key.appId(), key.uriId(),
+                    sketch.toBytes()});
+            if (batch.size() >= BATCH_SIZE) {
+                write();
+            }
+        }
+
+        private void write() {
+            if (!batch.isEmpty()) {
+                jdbcTemplate.batchUpdate("INSERT INTO stats_sketch (granularity, bucket_start, app_id, uri_id, "
+                        + "registers) VALUES (?, ?, ?, ?, ?)", batch);
+                batch.clear();
+            }
+        }
+    }
+}
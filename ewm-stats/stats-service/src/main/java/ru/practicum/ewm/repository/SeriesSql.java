@@ -0,0 +1,29 @@
+package ru.practicum.ewm.repository;
+
+import lombok.experimental.UtilityClass;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.LocalDateTime;
+
+/**
+ * Номер шага временного ряда {@code start + i * step}, вычисляемый в СУБД, чтобы строки группировались по шагам
+ * одним запросом. Выражение одинаково работает в Postgres и H2. Дневные бакеты за горизонтом сжатия могут
+ * начинаться раньше ряда - они относятся к первому шагу.
+ */
+@UtilityClass
+class SeriesSql {
+
+    String bucketIndex(String column) {
+        // деление целых секунд: NUMERIC-деление в H2 на порядки медленнее
+        return "GREATEST(0, (CAST(FLOOR(EXTRACT(EPOCH FROM " + column + ")) AS BIGINT) "
+                + "- CAST(FLOOR(EXTRACT(EPOCH FROM CAST(:seriesStart AS TIMESTAMP))) AS BIGINT)) / :stepSeconds)";
+    }
+
+    MapSqlParameterSource params(LocalDateTime seriesStart, Duration step) {
+        return new MapSqlParameterSource()
+                .addValue("seriesStart", Timestamp.valueOf(seriesStart))
+                .addValue("stepSeconds", step.toSeconds());
+    }
+}
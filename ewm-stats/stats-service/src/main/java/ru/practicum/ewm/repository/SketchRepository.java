@@ -0,0 +1,397 @@
+package ru.practicum.ewm.repository;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.jdbc.core.namedparam.SqlParameterSource;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+import ru.practicum.ewm.ViewStatsDto;
+import ru.practicum.ewm.WindowedStatsDto;
+import ru.practicum.ewm.dictionary.HitDictionary;
+import ru.practicum.ewm.model.dictionary.DictionaryKind;
+import ru.practicum.ewm.model.endpoint.EndpointHit;
+import ru.practicum.ewm.model.rollup.Granularity;
+import ru.practicum.ewm.model.rollup.SharedSegment;
+import ru.practicum.ewm.model.rollup.WindowSegment;
+import ru.practicum.ewm.sketch.HyperLogLog;
+import ru.practicum.ewm.util.UriPatterns;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.Consumer;
+
+/**
+ * HyperLogLog-скетчи уникальных IP по часовым, дневным и месячным бакетам. Скетч бакета - одна строка с массивом
+ * регистров ({@link HyperLogLog#toBytes()}), поэтому окно в три года читает около полутора сотен строк на URI
+ * (месяцы и дни с часами по краям), а не регистры каждого дня. Строки сливаются в памяти поэлементным максимумом.
+ * <p>
+ * Запись сворачивает пачку в скетчи бакетов. Новые строки вставляются как есть, существующие блокируются в порядке
+ * ключа, сливаются с пачкой и перезаписываются, только если какой-то регистр вырос. Слияние идемпотентно, поэтому
+ * повтор записи ничего не портит.
+ */
+@Repository
+@RequiredArgsConstructor
+public class SketchRepository {
+
+    public static final List<Granularity> GRANULARITIES = List.of(Granularity.MONTH, Granularity.DAY, Granularity.HOUR);
+
+    private static final int LOCK_BATCH_SIZE = 500;
+
+    private static final String INSERT_POSTGRES = """
+            INSERT INTO stats_sketch (granularity, bucket_start, app_id, uri_id, registers)
+            VALUES (:granularity, :bucketStart, :appId, :uriId, :registers)
+            ON CONFLICT (granularity, bucket_start, app_id, uri_id) DO NOTHING
+            """;
+
+    private static final String INSERT_STANDARD = """
+            MERGE INTO stats_sketch AS r
+            USING (SELECT CAST(:granularity AS VARCHAR(8)) AS granularity, CAST(:bucketStart AS TIMESTAMP) AS bucket_start,
+                          CAST(:appId AS INTEGER) AS app_id, CAST(:uriId AS INTEGER) AS uri_id) AS v
+            ON r.granularity = v.granularity AND r.bucket_start = v.bucket_start AND r.app_id = v.app_id
+                AND r.uri_id = v.uri_id
+            WHEN NOT MATCHED THEN INSERT (granularity, bucket_start, app_id, uri_id, registers)
+                VALUES (v.granularity, v.bucket_start, v.app_id, v.uri_id, :registers)
+            """;
+
+    private static final String LOCK = """
+            SELECT granularity, bucket_start, app_id, uri_id, registers FROM stats_sketch
+            WHERE (granularity, bucket_start, app_id, uri_id) IN (:keys)
+            ORDER BY granularity, bucket_start, app_id, uri_id FOR UPDATE
+            """;
+
+    private static final String UPDATE = """
+            UPDATE stats_sketch SET registers = :registers
+            WHERE granularity = :granularity AND bucket_start = :bucketStart AND app_id = :appId AND uri_id = :uriId
+            """;
+
+    private static final Comparator<SketchKey> KEY_ORDER = Comparator.comparing(SketchKey::granularity)
+            .thenComparing(SketchKey::bucketStart)
+            .thenComparingInt(SketchKey::appId)
+            .thenComparingInt(SketchKey::uriId);
+
+    private final NamedParameterJdbcTemplate jdbcTemplate;
+    private final DatabaseDialect dialect;
+    private final HitDictionary hitDictionary;
+
+    /**
+     * Строки словарей должны быть заранее занесены через {@link HitDictionary#intern(List)}.
+     */
+    @Transactional
+    public void offer(List<EndpointHit> hits) {
+        Map<SketchKey, HyperLogLog> sketches = new TreeMap<>(KEY_ORDER);
+        for (EndpointHit hit : hits) {
+            long hash = HyperLogLog.hash(hit.getIp());
+            int appId = hitDictionary.id(DictionaryKind.APP, hit.getApp());
+            int uriId = hitDictionary.id(DictionaryKind.URI, hit.getUri());
+            for (Granularity granularity : GRANULARITIES) {
+                SketchKey key = new SketchKey(granularity, granularity.floor(hit.getTimestamp()), appId, uriId);
+                sketches.computeIfAbsent(key, k -> new HyperLogLog()).offer(hash);
+            }
+        }
+        List<SketchKey> keys = new ArrayList<>(sketches.keySet());
+        int[] inserted = jdbcTemplate.batchUpdate(dialect.isPostgres() ? INSERT_POSTGRES : INSERT_STANDARD,
+                keys.stream()
+                        .map(key -> params(key, sketches.get(key)))
+                        .toArray(SqlParameterSource[]::new));
+        // драйвер может не сообщить число вставленных строк: такие ключи сливаются, повторное слияние безвредно
+        List<SketchKey> existing = new ArrayList<>();
+        for (int i = 0; i < keys.size(); i++) {
+            if (inserted[i] != 1) {
+                existing.add(keys.get(i));
+            }
+        }
+        for (int from = 0; from < existing.size(); from += LOCK_BATCH_SIZE) {
+            mergeExisting(existing.subList(from, Math.min(from + LOCK_BATCH_SIZE, existing.size())), sketches);
+        }
+    }
+
+    /**
+     * Оценивает уникальные IP по окну, разложенному на месячные, дневные и часовые бакеты: скетчи бакетов
+     * сливаются в памяти, IP из сырых краёв окна (фильтр по идентификаторам URI {@code uriIds}) добавляются в них же.
+     */
+    public List<ViewStatsDto> estimateUnique(List<WindowSegment> segments, List<String> uris, List<Integer> uriIds) {
+        Map<StatsKey, HyperLogLog> sketches = new HashMap<>();
+        SketchQuery query = sketchQuery(segments, uris, uriIds);
+        if (query.buckets() != null) {
+            jdbcTemplate.query(query.buckets(), query.params(), (RowCallbackHandler) rs ->
+                    sketch(sketches, rs.getString("app"), rs.getString("uri")).merge(rs.getBytes("registers")));
+        }
+        if (query.raw() != null) {
+            jdbcTemplate.query(query.raw(), query.params(), (RowCallbackHandler) rs ->
+                    sketch(sketches, rs.getString("app"), rs.getString("uri"))
+                            .offer(HyperLogLog.hash(rs.getBytes("ip"))));
+        }
+        return sketches.entrySet().stream()
+                .map(entry -> new ViewStatsDto(entry.getKey().app(), entry.getKey().uri(), entry.getValue().estimate()))
+                .sorted(Comparator.comparing(ViewStatsDto::getHits).reversed())
+                .toList();
+    }
+
+    /**
+     * Потоковый вариант {@link #estimateUnique}: скетчи бакетов и сырые IP читаются одним курсором, упорядоченным по
+     * app и uri, в памяти держится только текущий скетч. Поэтому оценки выдаются в порядке app, uri,
+     * а не по убыванию.
+     */
+    public void streamUnique(List<WindowSegment> segments, List<String> uris, List<Integer> uriIds,
+                             Consumer<ViewStatsDto> sink) {
+        SketchQuery query = sketchQuery(segments, uris, uriIds);
+        List<String> parts = new ArrayList<>();
+        if (query.buckets() != null) {
+            parts.add("SELECT app, uri, registers, NULL AS ip FROM (" + query.buckets() + ") b");
+        }
+        if (query.raw() != null) {
+            parts.add("SELECT app, uri, NULL AS registers, ip FROM (" + query.raw() + ") r");
+        }
+        if (parts.isEmpty()) {
+            return;
+        }
+        SketchGroups groups = new SketchGroups(sink);
+        jdbcTemplate.query(String.join(" UNION ALL ", parts) + " ORDER BY app, uri", query.params(), groups);
+        groups.flush();
+    }
+
+    /**
+     * Оценка уникальных IP по {@code uri} для каждого шага ряда {@code seriesStart + i * step}: номер шага бакета
+     * считается в СУБД, скетчи сливаются в памяти по шагам, IP сырых краёв добавляются в скетч своего шага.
+     */
+    public Map<Integer, Long> estimateUniqueSeries(List<WindowSegment> segments, List<Integer> uriIds,
+                                                   LocalDateTime seriesStart, Duration step) {
+        MapSqlParameterSource params = SeriesSql.params(seriesStart, step)
+                .addValue("uriIds", uriIds.isEmpty() ? List.of(-1) : uriIds);
+        List<String> bucketRanges = new ArrayList<>();
+        List<String> rawRanges = new ArrayList<>();
+        for (int i = 0; i < segments.size(); i++) {
+            WindowSegment segment = segments.get(i);
+            params.addValue("from" + i, Timestamp.valueOf(segment.getFrom()));
+            params.addValue("to" + i, Timestamp.valueOf(segment.getTo()));
+            if (segment.isRaw()) {
+                rawRanges.add("(timestamp >= :from" + i + " AND timestamp < :to" + i + ")");
+            } else {
+                params.addValue("granularity" + i, segment.getGranularity().name());
+                bucketRanges.add("(granularity = :granularity" + i + " AND bucket_start >= :from" + i
+                        + " AND bucket_start < :to" + i + ")");
+            }
+        }
+        Map<Integer, HyperLogLog> sketches = new HashMap<>();
+        if (!bucketRanges.isEmpty()) {
+            jdbcTemplate.query("SELECT " + SeriesSql.bucketIndex("bucket_start") + " AS bucket, registers "
+                            + "FROM stats_sketch WHERE (" + String.join(" OR ", bucketRanges)
+                            + ") AND uri_id IN (:uriIds)", params, (RowCallbackHandler) rs ->
+                            sketches.computeIfAbsent(rs.getInt("bucket"), bucket -> new HyperLogLog())
+                                    .merge(rs.getBytes("registers")));
+        }
+        if (!rawRanges.isEmpty()) {
+            jdbcTemplate.query("SELECT DISTINCT " + SeriesSql.bucketIndex("timestamp") + " AS bucket, ip "
+                            + "FROM statistics WHERE (" + String.join(" OR ", rawRanges) + ") AND uri_id IN (:uriIds)",
+                    params, (RowCallbackHandler) rs ->
+                            sketches.computeIfAbsent(rs.getInt("bucket"), bucket -> new HyperLogLog())
+                                    .offer(HyperLogLog.hash(rs.getBytes("ip"))));
+        }
+        Map<Integer, Long> series = new HashMap<>();
+        sketches.forEach((bucket, sketch) -> series.put(bucket, sketch.estimate()));
+        return series;
+    }
+
+    /**
+     * Оценки уникальных IP по нескольким окнам: скетчи каждой части из {@code segments} читаются один раз
+     * и сливаются в скетчи окон, в которые часть входит, IP сырых краёв добавляются в скетчи своих окон.
+     */
+    public List<WindowedStatsDto> estimateUniqueWindows(List<SharedSegment> segments, int windowCount,
+                                                        UriPatterns uris, List<Integer> uriIds) {
+        MapSqlParameterSource params = new MapSqlParameterSource();
+        String uriFilter = UriSql.filter(uris, uriIds, params);
+        List<String> bucketParts = new ArrayList<>();
+        List<String> rawParts = new ArrayList<>();
+        for (int i = 0; i < segments.size(); i++) {
+            WindowSegment segment = segments.get(i).segment();
+            String windows = WindowSql.columns(segments.get(i).windows(), windowCount, "1");
+            params.addValue("from" + i, Timestamp.valueOf(segment.getFrom()));
+            params.addValue("to" + i, Timestamp.valueOf(segment.getTo()));
+            if (segment.isRaw()) {
+                rawParts.add("SELECT DISTINCT app_id, uri_id, ip, " + windows + " FROM statistics "
+                        + "WHERE timestamp >= :from" + i + " AND timestamp < :to" + i + uriFilter);
+            } else {
+                params.addValue("granularity" + i, segment.getGranularity().name());
+                bucketParts.add("SELECT app_id, uri_id, registers, " + windows + " FROM stats_sketch "
+                        + "WHERE granularity = :granularity" + i + " AND bucket_start >= :from" + i
+                        + " AND bucket_start < :to" + i + uriFilter);
+            }
+        }
+        Map<StatsKey, HyperLogLog[]> sketches = new HashMap<>();
+        if (!bucketParts.isEmpty()) {
+            String buckets = "SELECT a.name AS app, u.name AS uri, s.* FROM (" + String.join(" UNION ALL ", bucketParts)
+                    + ") s " + RollupRepository.JOIN_NAMES;
+            jdbcTemplate.query(buckets, params, (RowCallbackHandler) rs -> {
+                HyperLogLog[] windows = windowSketches(sketches, rs.getString("app"), rs.getString("uri"), windowCount);
+                byte[] registers = rs.getBytes("registers");
+                for (int w = 0; w < windowCount; w++) {
+                    if (rs.getInt("w" + w) != 0) {
+                        windows[w].merge(registers);
+                    }
+                }
+            });
+        }
+        if (!rawParts.isEmpty()) {
+            String raw = "SELECT a.name AS app, u.name AS uri, s.* FROM (" + String.join(" UNION ALL ", rawParts)
+                    + ") s " + RollupRepository.JOIN_NAMES;
+            jdbcTemplate.query(raw, params, (RowCallbackHandler) rs -> {
+                HyperLogLog[] windows = windowSketches(sketches, rs.getString("app"), rs.getString("uri"), windowCount);
+                long hash = HyperLogLog.hash(rs.getBytes("ip"));
+                for (int w = 0; w < windowCount; w++) {
+                    if (rs.getInt("w" + w) != 0) {
+                        windows[w].offer(hash);
+                    }
+                }
+            });
+        }
+        return sketches.entrySet().stream()
+                .map(entry -> new WindowedStatsDto(entry.getKey().app(), entry.getKey().uri(),
+                        Arrays.stream(entry.getValue()).map(HyperLogLog::estimate).toList()))
+                .sorted(Comparator.comparing((WindowedStatsDto stats) -> stats.getHits().get(0)).reversed())
+                .toList();
+    }
+
+    /**
+     * Нет ни одного бакета, начинающегося не раньше {@code from} ({@code null} - вообще ни одного).
+     */
+    public boolean isEmptySince(LocalDateTime from) {
+        String query = "SELECT EXISTS (SELECT 1 FROM stats_sketch WHERE bucket_start >= :from)";
+        if (from == null) {
+            query = "SELECT EXISTS (SELECT 1 FROM stats_sketch)";
+        }
+        Boolean exists = jdbcTemplate.queryForObject(query,
+                new MapSqlParameterSource("from", from == null ? null : Timestamp.valueOf(from)), Boolean.class);
+        return !Boolean.TRUE.equals(exists);
+    }
+
+    /**
+     * Блокирует уже существующие строки {@code keys}, сливает их с {@code sketches} и перезаписывает изменившиеся.
+     */
+    private void mergeExisting(List<SketchKey> keys, Map<SketchKey, HyperLogLog> sketches) {
+        MapSqlParameterSource params = new MapSqlParameterSource("keys", keys.stream()
+                .map(key -> new Object[]{key.granularity().name(), Timestamp.valueOf(key.bucketStart()), key.appId(),
+                        key.uriId()})
+                .toList());
+        List<SqlParameterSource> updates = new ArrayList<>();
+        jdbcTemplate.query(LOCK, params, (RowCallbackHandler) rs -> {
+            SketchKey key = new SketchKey(Granularity.valueOf(rs.getString("granularity")),
+                    rs.getTimestamp("bucket_start").toLocalDateTime(), rs.getInt("app_id"), rs.getInt("uri_id"));
+            HyperLogLog stored = new HyperLogLog(rs.getBytes("registers"));
+            if (stored.merge(sketches.get(key))) {
+                updates.add(params(key, stored));
+            }
+        });
+        if (!updates.isEmpty()) {
+            jdbcTemplate.batchUpdate(UPDATE, updates.toArray(SqlParameterSource[]::new));
+        }
+    }
+
+    private static MapSqlParameterSource params(SketchKey key, HyperLogLog sketch) {
+        return new MapSqlParameterSource()
+                .addValue("granularity", key.granularity().name())
+                .addValue("bucketStart", Timestamp.valueOf(key.bucketStart()))
+                .addValue("appId", key.appId())
+                .addValue("uriId", key.uriId())
+                .addValue("registers", sketch.toBytes());
+    }
+
+    private HyperLogLog sketch(Map<StatsKey, HyperLogLog> sketches, String app, String uri) {
+        return sketches.computeIfAbsent(new StatsKey(app, uri), key -> new HyperLogLog());
+    }
+
+    private HyperLogLog[] windowSketches(Map<StatsKey, HyperLogLog[]> sketches, String app, String uri,
+                                         int windowCount) {
+        return sketches.computeIfAbsent(new StatsKey(app, uri), key -> {
+            HyperLogLog[] windows = new HyperLogLog[windowCount];
+            Arrays.setAll(windows, w -> new HyperLogLog());
+            return windows;
+        });
+    }
+
+    private SketchQuery sketchQuery(List<WindowSegment> segments, List<String> uris, List<Integer> uriIds) {
+        MapSqlParameterSource params = new MapSqlParameterSource();
+        String uriFilter = "";
+        if (!uris.isEmpty()) {
+            params.addValue("uriIds", uriIds.isEmpty() ? List.of(-1) : uriIds);
+            uriFilter = " AND uri_id IN (:uriIds)";
+        }
+        List<String> bucketRanges = new ArrayList<>();
+        List<String> rawRanges = new ArrayList<>();
+        for (int i = 0; i < segments.size(); i++) {
+            WindowSegment segment = segments.get(i);
+            params.addValue("from" + i, Timestamp.valueOf(segment.getFrom()));
+            params.addValue("to" + i, Timestamp.valueOf(segment.getTo()));
+            if (segment.isRaw()) {
+                rawRanges.add("(timestamp >= :from" + i + " AND timestamp < :to" + i + ")");
+            } else {
+                params.addValue("granularity" + i, segment.getGranularity().name());
+                bucketRanges.add("(granularity = :granularity" + i + " AND bucket_start >= :from" + i
+                        + " AND bucket_start < :to" + i + ")");
+            }
+        }
+        String buckets = bucketRanges.isEmpty() ? null
+                : "SELECT a.name AS app, u.name AS uri, s.registers FROM (SELECT app_id, uri_id, registers "
+                + "FROM stats_sketch WHERE (" + String.join(" OR ", bucketRanges) + ")" + uriFilter + ") s "
+                + RollupRepository.JOIN_NAMES;
+        String raw = rawRanges.isEmpty() ? null
+                : "SELECT a.name AS app, u.name AS uri, s.ip FROM (SELECT DISTINCT app_id, uri_id, ip "
+                + "FROM statistics WHERE (" + String.join(" OR ", rawRanges) + ")" + uriFilter + ") s "
+                + RollupRepository.JOIN_NAMES;
+        return new SketchQuery(params, buckets, raw);
+    }
+
+    private record SketchKey(Granularity granularity, LocalDateTime bucketStart, int appId, int uriId) {
+    }
+
+    private record StatsKey(String app, String uri) {
+    }
+
+    private record SketchQuery(MapSqlParameterSource params, String buckets, String raw) {
+    }
+
+    /**
+     * Собирает скетч текущей пары app, uri и отдаёт оценку, как только курсор переходит к следующей.
+     */
+    @RequiredArgsConstructor
+    private static class SketchGroups implements RowCallbackHandler {
+
+        private final Consumer<ViewStatsDto> sink;
+        private StatsKey key;
+        private HyperLogLog sketch;
+
+        @Override
+        public void processRow(ResultSet rs) throws SQLException {
+            StatsKey rowKey = new StatsKey(rs.getString("app"), rs.getString("uri"));
+            if (!rowKey.equals(key)) {
+                flush();
+                key = rowKey;
+                sketch = new HyperLogLog();
+            }
+            byte[] ip = rs.getBytes("ip");
+            if (ip != null) {
+                sketch.offer(HyperLogLog.hash(ip));
+            } else {
+                sketch.merge(rs.getBytes("registers"));
+            }
+        }
+
+        void flush() {
+            if (key != null) {
+                sink.accept(new ViewStatsDto(key.app(), key.uri(), sketch.estimate()));
+                key = null;
+            }
+        }
+    }
+}
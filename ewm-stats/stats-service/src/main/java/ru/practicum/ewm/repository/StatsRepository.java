@@ -1,55 +1,142 @@
 package ru.practicum.ewm.repository;
 
-import org.springframework.data.jpa.repository.JpaRepository;
-import org.springframework.data.jpa.repository.Query;
-import org.springframework.data.repository.query.Param;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Repository;
 import ru.practicum.ewm.ViewStatsDto;
+import ru.practicum.ewm.WindowedStatsDto;
+import ru.practicum.ewm.dictionary.HitDictionary;
+import ru.practicum.ewm.model.dictionary.DictionaryKind;
 import ru.practicum.ewm.model.endpoint.EndpointHit;
+import ru.practicum.ewm.model.rollup.TimeWindow;
+import ru.practicum.ewm.util.UriPatterns;
 
+import java.sql.Timestamp;
+import java.time.Duration;
 import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
 
-public interface StatsRepository extends JpaRepository<EndpointHit, Long> {
-
-    @Query("""
-            SELECT NEW ru.practicum.ewm.ViewStatsDto(eh.app, eh.uri, COUNT(eh.uri))
-            FROM EndpointHit AS eh
-            WHERE eh.uri IN (:uris) AND eh.timestamp BETWEEN :start AND :end
-            GROUP BY eh.app, eh.uri
-            ORDER BY COUNT(eh.uri) DESC
-            """)
-    List<ViewStatsDto> findAllHitsWithUris(@Param("uris") List<String> uris,
-                                           @Param("start") LocalDateTime start,
-                                           @Param("end") LocalDateTime end);
-
-    @Query("""
-            SELECT NEW ru.practicum.ewm.ViewStatsDto(eh.app, eh.uri, COUNT(eh.uri))
-            FROM EndpointHit AS eh
-            WHERE eh.timestamp BETWEEN :start AND :end
-            GROUP BY eh.app, eh.uri
-            ORDER BY COUNT(eh.uri) DESC
-            """)
-    List<ViewStatsDto> findAllHitsWithoutUris(@Param("start") LocalDateTime start,
-                                              @Param("end") LocalDateTime end);
-
-    @Query("""
-            SELECT NEW ru.practicum.ewm.ViewStatsDto(eh.app, eh.uri, COUNT(DISTINCT eh.ip))
-            FROM EndpointHit AS eh
-            WHERE eh.uri IN (:uris) AND eh.timestamp BETWEEN :start AND :end
-            GROUP BY eh.app, eh.uri
-            ORDER BY COUNT(DISTINCT eh.ip) DESC
-            """)
-    List<ViewStatsDto> findAllHitsWithUniqueIpWithUris(@Param("uris") List<String> uris,
-                                                       @Param("start") LocalDateTime start,
-                                                       @Param("end") LocalDateTime end);
-
-    @Query("""
-            SELECT NEW ru.practicum.ewm.ViewStatsDto(eh.app, eh.uri, COUNT(DISTINCT eh.ip))
-            FROM EndpointHit AS eh
-            WHERE eh.timestamp BETWEEN :start AND :end
-            GROUP BY eh.app, eh.uri
-            ORDER BY COUNT(DISTINCT eh.ip) DESC
-            """)
-    List<ViewStatsDto> findAllHitsWithUniqueIpWithoutUris(@Param("start") LocalDateTime start,
-                                                          @Param("end") LocalDateTime end);
+/**
+ * Сырые хиты. Приложение и URI хранятся идентификаторами словарей: фильтр по URI сравнивает целые числа,
+ * строки подставляются уже в сгруппированный результат.
+ */
+@Repository
+public class StatsRepository {
+
+    private static final String INSERT_HIT = "INSERT INTO statistics (app_id, uri_id, ip, timestamp) VALUES (?, ?, ?, ?)";
+
+    private final NamedParameterJdbcTemplate jdbcTemplate;
+    private final HitDictionary hitDictionary;
+    private final int batchSize;
+
+    public StatsRepository(NamedParameterJdbcTemplate jdbcTemplate,
+                           HitDictionary hitDictionary,
+                           @Value("${stats.ingest.jdbc-batch-size:500}") int batchSize) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.hitDictionary = hitDictionary;
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Вставка пачки хитов через JDBC batch. Строки словарей должны быть заранее занесены
+     * через {@link HitDictionary#intern(List)}.
+     */
+    public void saveAllInBatch(List<EndpointHit> hits) {
+        jdbcTemplate.getJdbcTemplate().batchUpdate(INSERT_HIT, hits, batchSize, (ps, hit) -> {
+            ps.setInt(1, hitDictionary.id(DictionaryKind.APP, hit.getApp()));
+            ps.setInt(2, hitDictionary.id(DictionaryKind.URI, hit.getUri()));
+            ps.setBytes(3, hit.getIp());
+            ps.setTimestamp(4, Timestamp.valueOf(hit.getTimestamp()));
+        });
+    }
+
+    /**
+     * Число уникальных IP по окну {@code [start, end]}; {@code uriIds == null} - по всем URI.
+     */
+    public List<ViewStatsDto> countUniqueIps(LocalDateTime start, LocalDateTime end, List<Integer> uriIds) {
+        if (uriIds != null && uriIds.isEmpty()) {
+            return List.of();
+        }
+        MapSqlParameterSource params = new MapSqlParameterSource();
+        return jdbcTemplate.query(countUniqueIpsQuery(start, end, uriIds, params), params, (rs, rowNum) ->
+                new ViewStatsDto(rs.getString("app"), rs.getString("uri"), rs.getLong("hits")));
+    }
+
+    /**
+     * То же, что {@link #countUniqueIps}, но строки передаются в {@code sink} по мере чтения курсора.
+     */
+    public void streamUniqueIps(LocalDateTime start, LocalDateTime end, List<Integer> uriIds,
+                                Consumer<ViewStatsDto> sink) {
+        if (uriIds != null && uriIds.isEmpty()) {
+            return;
+        }
+        MapSqlParameterSource params = new MapSqlParameterSource();
+        jdbcTemplate.query(countUniqueIpsQuery(start, end, uriIds, params), params, (RowCallbackHandler) rs ->
+                sink.accept(new ViewStatsDto(rs.getString("app"), rs.getString("uri"), rs.getLong("hits"))));
+    }
+
+    /**
+     * Уникальные IP по {@code uriIds} за окно {@code [start, end]}, отдельно по каждому шагу ряда
+     * {@code start + i * step}.
+     */
+    public Map<Integer, Long> countUniqueIpSeries(LocalDateTime start, LocalDateTime end, List<Integer> uriIds,
+                                                  Duration step) {
+        Map<Integer, Long> series = new HashMap<>();
+        if (uriIds.isEmpty()) {
+            return series;
+        }
+        MapSqlParameterSource params = SeriesSql.params(start, step)
+                .addValue("start", Timestamp.valueOf(start))
+                .addValue("end", Timestamp.valueOf(end))
+                .addValue("uriIds", uriIds);
+        jdbcTemplate.query("SELECT s.bucket, COUNT(DISTINCT s.ip) AS hits FROM (SELECT "
+                + SeriesSql.bucketIndex("timestamp") + " AS bucket, ip FROM statistics "
+                + "WHERE timestamp BETWEEN :start AND :end AND uri_id IN (:uriIds)) s GROUP BY s.bucket", params,
+                (RowCallbackHandler) rs -> series.put(rs.getInt("bucket"), rs.getLong("hits")));
+        return series;
+    }
+
+    /**
+     * Уникальные IP по нескольким окнам за один проход по сырой таблице: {@code COUNT(DISTINCT CASE ...)}
+     * для каждого окна. Результат отсортирован по первому окну.
+     */
+    public List<WindowedStatsDto> countUniqueIpWindows(List<TimeWindow> windows, UriPatterns uris,
+                                                       List<Integer> uriIds) {
+        MapSqlParameterSource params = new MapSqlParameterSource();
+        String uriFilter = UriSql.filter(uris, uriIds, params);
+        List<String> columns = new ArrayList<>();
+        List<String> ranges = new ArrayList<>();
+        for (int i = 0; i < windows.size(); i++) {
+            params.addValue("from" + i, Timestamp.valueOf(windows.get(i).from()));
+            params.addValue("to" + i, Timestamp.valueOf(windows.get(i).to()));
+            String range = "timestamp >= :from" + i + " AND timestamp < :to" + i;
+            columns.add("COUNT(DISTINCT CASE WHEN " + range + " THEN ip END) AS w" + i);
+            ranges.add("(" + range + ")");
+        }
+        return jdbcTemplate.query("SELECT a.name AS app, u.name AS uri, c.* FROM (SELECT app_id, uri_id, "
+                        + String.join(", ", columns) + " FROM statistics WHERE (" + String.join(" OR ", ranges) + ")"
+                        + uriFilter + " GROUP BY app_id, uri_id) c JOIN stats_app a ON a.id = c.app_id "
+                        + "JOIN stats_uri u ON u.id = c.uri_id ORDER BY c.w0 DESC", params, (rs, rowNum) ->
+                new WindowedStatsDto(rs.getString("app"), rs.getString("uri"), WindowSql.read(rs, windows.size())));
+    }
+
+    private String countUniqueIpsQuery(LocalDateTime start, LocalDateTime end, List<Integer> uriIds,
+                                       MapSqlParameterSource params) {
+        params.addValue("start", Timestamp.valueOf(start));
+        params.addValue("end", Timestamp.valueOf(end));
+        String uriFilter = "";
+        if (uriIds != null) {
+            params.addValue("uriIds", uriIds);
+            uriFilter = " AND uri_id IN (:uriIds)";
+        }
+        return "SELECT a.name AS app, u.name AS uri, c.hits FROM (SELECT app_id, uri_id, COUNT(DISTINCT ip) AS hits "
+                + "FROM statistics WHERE timestamp BETWEEN :start AND :end" + uriFilter + " GROUP BY app_id, uri_id) c "
+                + "JOIN stats_app a ON a.id = c.app_id JOIN stats_uri u ON u.id = c.uri_id ORDER BY c.hits DESC";
+    }
 }
@@ -0,0 +1,135 @@
+package ru.practicum.ewm.repository;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.jdbc.core.namedparam.SqlParameterSource;
+import org.springframework.stereotype.Repository;
+import ru.practicum.ewm.dictionary.HitDictionary;
+import ru.practicum.ewm.model.dictionary.DictionaryKind;
+import ru.practicum.ewm.model.rollup.Granularity;
+import ru.practicum.ewm.model.rollup.WindowSegment;
+import ru.practicum.ewm.model.stats.StatsKey;
+import ru.practicum.ewm.sketch.SpaceSaving;
+
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Сводки Space-Saving по часовым и дневным бакетам: не больше {@code capacity} строк на бакет,
+ * {@code floor_hits} одинаков для всех строк бакета.
+ */
+@Repository
+@RequiredArgsConstructor
+public class TopKRepository {
+
+    private final NamedParameterJdbcTemplate jdbcTemplate;
+    private final HitDictionary hitDictionary;
+
+    public SpaceSaving<StatsKey> find(Granularity granularity, LocalDateTime bucketStart, int capacity) {
+        SpaceSaving<StatsKey> summary = new SpaceSaving<>(capacity);
+        jdbcTemplate.query("SELECT a.name AS app, u.name AS uri, s.hits, s.error_hits, s.floor_hits FROM stats_topk s "
+                        + RollupRepository.JOIN_NAMES + " WHERE s.granularity = :granularity "
+                        + "AND s.bucket_start = :bucketStart",
+                new MapSqlParameterSource()
+                        .addValue("granularity", granularity.name())
+                        .addValue("bucketStart", Timestamp.valueOf(bucketStart)),
+                (RowCallbackHandler) rs -> {
+                    summary.restore(new StatsKey(rs.getString("app"), rs.getString("uri")), rs.getLong("hits"),
+                            rs.getLong("error_hits"));
+                    summary.setFloor(rs.getLong("floor_hits"));
+                });
+        return summary;
+    }
+
+    public void replace(Granularity granularity, LocalDateTime bucketStart, SpaceSaving<StatsKey> summary) {
+        MapSqlParameterSource bucket = new MapSqlParameterSource()
+                .addValue("granularity", granularity.name())
+                .addValue("bucketStart", Timestamp.valueOf(bucketStart));
+        jdbcTemplate.update("DELETE FROM stats_topk WHERE granularity = :granularity AND bucket_start = :bucketStart",
+                bucket);
+        SqlParameterSource[] batch = summary.top(summary.size()).stream()
+                .map(key -> new MapSqlParameterSource(bucket.getValues())
+                        .addValue("appId", hitDictionary.id(DictionaryKind.APP, key.app()))
+                        .addValue("uriId", hitDictionary.id(DictionaryKind.URI, key.uri()))
+                        .addValue("hits", summary.count(key))
+                        .addValue("error", summary.error(key))
+                        .addValue("floor", summary.getFloor()))
+                .toArray(SqlParameterSource[]::new);
+        jdbcTemplate.batchUpdate("INSERT INTO stats_topk (granularity, bucket_start, app_id, uri_id, hits, error_hits, "
+                + "floor_hits) VALUES (:granularity, :bucketStart, :appId, :uriId, :hits, :error, :floor)", batch);
+    }
+
+    /**
+     * Сливает сводки всех бакетов из {@code segments} одним запросом: ключ получает сумму своих счётчиков
+     * и {@code floor_hits} тех бакетов, где его нет. Читается {@code capacity + 1} строка, последняя
+     * становится границей для отброшенных ключей.
+     */
+    public SpaceSaving<StatsKey> merge(List<WindowSegment> segments, int capacity) {
+        SpaceSaving<StatsKey> summary = new SpaceSaving<>(capacity);
+        MapSqlParameterSource params = new MapSqlParameterSource();
+        List<String> ranges = new ArrayList<>();
+        for (int i = 0; i < segments.size(); i++) {
+            WindowSegment segment = segments.get(i);
+            params.addValue("granularity" + i, segment.getGranularity().name());
+            params.addValue("from" + i, Timestamp.valueOf(segment.getFrom()));
+            params.addValue("to" + i, Timestamp.valueOf(segment.getTo()));
+            ranges.add("(granularity = :granularity" + i + " AND bucket_start >= :from" + i
+                    + " AND bucket_start < :to" + i + ")");
+        }
+        if (ranges.isEmpty()) {
+            return summary;
+        }
+        String filter = " WHERE " + String.join(" OR ", ranges);
+        Long floor = jdbcTemplate.queryForObject("SELECT COALESCE(SUM(f), 0) FROM (SELECT MAX(floor_hits) AS f "
+                + "FROM stats_topk" + filter + " GROUP BY granularity, bucket_start) b", params, Long.class);
+        params.addValue("floor", floor);
+        params.addValue("limit", capacity + 1);
+        List<Counter> rows = jdbcTemplate.query("SELECT a.name AS app, u.name AS uri, s.hits, s.error_hits FROM ("
+                        + "SELECT app_id, uri_id, SUM(hits - floor_hits) + :floor AS hits, "
+                        + "SUM(error_hits - floor_hits) + :floor AS error_hits FROM stats_topk" + filter
+                        + " GROUP BY app_id, uri_id ORDER BY 3 DESC LIMIT :limit) s " + RollupRepository.JOIN_NAMES
+                        + " ORDER BY s.hits DESC", params,
+                (rs, rowNum) -> new Counter(new StatsKey(rs.getString("app"), rs.getString("uri")),
+                        rs.getLong("hits"), rs.getLong("error_hits")));
+        summary.setFloor(floor);
+        for (int i = 0; i < rows.size(); i++) {
+            Counter row = rows.get(i);
+            if (i < capacity) {
+                summary.restore(row.key(), row.hits(), row.error());
+            } else {
+                summary.setFloor(Math.max(floor, row.hits()));
+            }
+        }
+        return summary;
+    }
+
+    public boolean isEmpty() {
+        Boolean exists = jdbcTemplate.getJdbcTemplate()
+                .queryForObject("SELECT EXISTS (SELECT 1 FROM stats_topk)", Boolean.class);
+        return !Boolean.TRUE.equals(exists);
+    }
+
+    /**
+     * Строит сводки по уже накопленным бакетам: верхние {@code capacity} ключей каждого бакета точны,
+     * {@code floor_hits} - счётчик первого не вошедшего.
+     */
+    public int backfill(int capacity) {
+        return jdbcTemplate.update("""
+                INSERT INTO stats_topk (granularity, bucket_start, app_id, uri_id, hits, error_hits, floor_hits)
+                SELECT granularity, bucket_start, app_id, uri_id, hits, 0, floor_hits
+                FROM (SELECT r.*, MAX(CASE WHEN rn = :capacity + 1 THEN hits ELSE 0 END)
+                                      OVER (PARTITION BY granularity, bucket_start) AS floor_hits
+                      FROM (SELECT granularity, bucket_start, app_id, uri_id, hits,
+                                   ROW_NUMBER() OVER (PARTITION BY granularity, bucket_start ORDER BY hits DESC) AS rn
+                            FROM stats_rollup WHERE granularity IN ('HOUR', 'DAY')) r) t
+                WHERE rn <= :capacity
+                """, new MapSqlParameterSource("capacity", capacity));
+    }
+
+    private record Counter(StatsKey key, long hits, long error) {
+    }
+}
@@ -0,0 +1,32 @@
+package ru.practicum.ewm.repository;
+
+import lombok.experimental.UtilityClass;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import ru.practicum.ewm.util.UriPatterns;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Условие на URI из {@link UriPatterns} по идентификатору из словаря ({@code uri_id}): точные URI - списком
+ * {@code uriIds}, префиксы - через LIKE подзапросом к словарю.
+ */
+@UtilityClass
+class UriSql {
+
+    String filter(UriPatterns uris, List<Integer> uriIds, MapSqlParameterSource params) {
+        if (uris.isEmpty()) {
+            return "";
+        }
+        List<String> conditions = new ArrayList<>();
+        if (!uris.getExact().isEmpty()) {
+            params.addValue("uriIds", uriIds.isEmpty() ? List.of(-1) : uriIds);
+            conditions.add("uri_id IN (:uriIds)");
+        }
+        for (int i = 0; i < uris.getPrefixes().size(); i++) {
+            params.addValue("uriPrefix" + i, UriPatterns.likePattern(uris.getPrefixes().get(i)));
+            conditions.add("uri_id IN (SELECT id FROM stats_uri WHERE name LIKE :uriPrefix" + i + " ESCAPE '\\')");
+        }
+        return " AND (" + String.join(" OR ", conditions) + ")";
+    }
+}
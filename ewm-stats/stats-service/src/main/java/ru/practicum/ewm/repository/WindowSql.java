@@ -0,0 +1,41 @@
+package ru.practicum.ewm.repository;
+
+import lombok.experimental.UtilityClass;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * Условная агрегация по нескольким окнам: каждая часть запроса отдаёт колонки {@code w0..wN}, в окнах, куда она
+ * не входит, - ноль, внешний запрос агрегирует все колонки за один проход.
+ */
+@UtilityClass
+class WindowSql {
+
+    String columns(BitSet windows, int windowCount, String value) {
+        List<String> columns = new ArrayList<>(windowCount);
+        for (int i = 0; i < windowCount; i++) {
+            columns.add((windows.get(i) ? value : "0") + " AS w" + i);
+        }
+        return String.join(", ", columns);
+    }
+
+    String aggregate(String function, String alias, int windowCount) {
+        List<String> columns = new ArrayList<>(windowCount);
+        for (int i = 0; i < windowCount; i++) {
+            columns.add(function + "(" + alias + ".w" + i + ") AS w" + i);
+        }
+        return String.join(", ", columns);
+    }
+
+    List<Long> read(ResultSet rs, int windowCount) throws SQLException {
+        List<Long> values = new ArrayList<>(windowCount);
+        for (int i = 0; i < windowCount; i++) {
+            values.add(rs.getLong("w" + i));
+        }
+        return values;
+    }
+}
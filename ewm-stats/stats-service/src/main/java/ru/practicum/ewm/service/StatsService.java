@@ -1,14 +1,68 @@
 package ru.practicum.ewm.service;
 
 import ru.practicum.ewm.EndpointHitDto;
+import ru.practicum.ewm.StatsQueryDto;
+import ru.practicum.ewm.TimeSeriesPointDto;
+import ru.practicum.ewm.TrendingStatsDto;
+import ru.practicum.ewm.ViewFeedDto;
 import ru.practicum.ewm.ViewStatsDto;
+import ru.practicum.ewm.WindowedStatsDto;
+import ru.practicum.ewm.model.endpoint.EndpointHit;
 
 import java.time.LocalDateTime;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 public interface StatsService {
 
-    List<ViewStatsDto> getStats(LocalDateTime start, LocalDateTime end, List<String> uris, boolean unique);
+    List<ViewStatsDto> getStats(LocalDateTime start, LocalDateTime end, List<String> uris, boolean unique,
+                                boolean approximate);
+
+    /**
+     * Статистика по нескольким окнам запроса за один проход по данным.
+     */
+    List<WindowedStatsDto> query(StatsQueryDto query);
+
+    /**
+     * Записи ленты просмотров после {@code cursor}; без новых записей ответ ждёт публикации до {@code timeout}.
+     */
+    CompletableFuture<ViewFeedDto> pollFeed(Long epoch, long cursor, int limit, String timeout);
+
+    /**
+     * Проверяет окно сразу, а статистику отдаёт построчно при обходе результата, не материализуя его целиком.
+     */
+    StatsStream streamStats(LocalDateTime start, LocalDateTime end, List<String> uris, boolean unique,
+                            boolean approximate);
+
+    /**
+     * Самые посещаемые app + uri окна, {@code k} штук по убыванию.
+     */
+    List<ViewStatsDto> getTop(LocalDateTime start, LocalDateTime end, int k, boolean unique);
+
+    /**
+     * Хиты (или уникальные IP) по {@code uri} для каждого шага {@code step} окна, начиная со {@code start}.
+     * Шаги без хитов возвращаются с нулём.
+     */
+    List<TimeSeriesPointDto> getTimeSeries(String uri, LocalDateTime start, LocalDateTime end, String step,
+                                           boolean unique, boolean approximate);
+
+    /**
+     * Пары app + uri с наибольшим счётом просмотров, затухающим с периодом полураспада {@code halfLife}.
+     */
+    List<TrendingStatsDto> getTrending(String app, int limit, String halfLife);
 
     void save(EndpointHitDto dto);
+
+    /**
+     * Записывает пачку хитов. Повтор пачки с тем же {@code idempotencyKey} или хитов с уже записанными {@code id}
+     * в пределах окна идемпотентности ничего не добавляет.
+     */
+    void saveAll(List<EndpointHitDto> dtos, String idempotencyKey);
+
+    /**
+     * То же для хитов, уже разобранных транспортом без подтверждений (например, TCP-приёмником), без промежуточных
+     * DTO. Вернуть такому транспорту 409 некому, поэтому хиты, запись которых с тем же {@code id} ещё идёт,
+     * считаются повторами и пропускаются, а не отклоняют всю пачку.
+     */
+    void saveHits(List<EndpointHit> hits, String idempotencyKey);
 }
@@ -1,44 +1,249 @@
 package ru.practicum.ewm.service;
 
+import jakarta.validation.ValidationException;
 import lombok.RequiredArgsConstructor;
+import org.springframework.boot.convert.DurationStyle;
 import org.springframework.stereotype.Service;
 import ru.practicum.ewm.EndpointHitDto;
+import ru.practicum.ewm.StatsQueryDto;
+import ru.practicum.ewm.StatsWindowDto;
+import ru.practicum.ewm.TimeSeriesPointDto;
+import ru.practicum.ewm.TrendingStatsDto;
+import ru.practicum.ewm.ViewFeedDto;
 import ru.practicum.ewm.ViewStatsDto;
+import ru.practicum.ewm.WindowedStatsDto;
+import ru.practicum.ewm.cache.StatsQueryCache;
 import ru.practicum.ewm.exception.DateTimeException;
+import ru.practicum.ewm.exception.ExactUniqueUnavailableException;
+import ru.practicum.ewm.feed.ViewFeed;
+import ru.practicum.ewm.ingest.IdempotencyWindow;
+import ru.practicum.ewm.ingest.RepeatViewFilter;
+import ru.practicum.ewm.ingest.WriteBehindBuffer;
 import ru.practicum.ewm.mapper.endpoint.EndpointHitMapper;
-import ru.practicum.ewm.repository.StatsRepository;
+import ru.practicum.ewm.model.endpoint.EndpointHit;
+import ru.practicum.ewm.model.rollup.Granularity;
+import ru.practicum.ewm.snapshot.SnapshotStore;
+import ru.practicum.ewm.storage.HitListener;
+import ru.practicum.ewm.storage.HitStorage;
+import ru.practicum.ewm.trending.TrendingTracker;
 
+import java.time.Duration;
 import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Collectors;
 
 @Service
 @RequiredArgsConstructor
 public class StatsServiceImpl implements StatsService {
 
-    private final StatsRepository statsRepository;
+    private static final long MAX_SERIES_POINTS = 10_000;
+    private static final int MAX_WINDOWS = 16;
+    private static final int MAX_FEED_LIMIT = 10_000;
+    private static final Duration MAX_FEED_TIMEOUT = Duration.ofMinutes(1);
+    private static final LocalTime LAST_SECOND = LocalTime.of(23, 59, 59);
 
+    private final HitStorage hitStorage;
+    private final Optional<WriteBehindBuffer> writeBehindBuffer;
+    private final Optional<IdempotencyWindow> idempotencyWindow;
+    private final Optional<RepeatViewFilter> repeatViewFilter;
+    private final Optional<StatsQueryCache> queryCache;
+    private final Optional<ViewFeed> viewFeed;
+    private final Optional<SnapshotStore> snapshotStore;
+    private final List<HitListener> hitListeners;
+    private final TrendingTracker trendingTracker;
+
+    @Override
     public void save(EndpointHitDto endpointHitDto) {
-        statsRepository.save(EndpointHitMapper.toEndpointHit(endpointHitDto));
+        saveAll(List.of(endpointHitDto), null);
+    }
+
+    @Override
+    public void saveAll(List<EndpointHitDto> endpointHitDtos, String idempotencyKey) {
+        save(endpointHitDtos.stream()
+                .map(EndpointHitMapper::toEndpointHit)
+                .collect(Collectors.toList()), idempotencyKey, false);
+    }
+
+    @Override
+    public void saveHits(List<EndpointHit> hits, String idempotencyKey) {
+        save(hits, idempotencyKey, true);
+    }
+
+    private void save(List<EndpointHit> hits, String idempotencyKey, boolean skipInFlight) {
+        if (idempotencyWindow.isEmpty()) {
+            write(hits);
+            return;
+        }
+        IdempotencyWindow.Claim claim = idempotencyWindow.get().claim(idempotencyKey, hits, skipInFlight);
+        try {
+            write(claim.hits());
+        } catch (RuntimeException e) {
+            idempotencyWindow.get().release(claim);
+            throw e;
+        }
+        idempotencyWindow.get().commit(claim);
+    }
+
+    /**
+     * Записывает хиты, прошедшие фильтр повторов, и только после записи обновляет состояние в памяти (фильтр
+     * повторов, тренды): при включённых снимках - вместе с хвостом снимка, запись в хранилище идёт без его блокировки.
+     */
+    private void write(List<EndpointHit> accepted) {
+        List<EndpointHit> hits = repeatViewFilter.map(filter -> filter.check(accepted)).orElse(accepted);
+        if (hits.isEmpty()) {
+            return;
+        }
+        if (writeBehindBuffer.isPresent()) {
+            writeBehindBuffer.get().append(hits);
+        } else {
+            hitStorage.write(hits);
+            hitListeners.forEach(listener -> listener.onWrite(hits));
+        }
+        if (snapshotStore.isPresent()) {
+            snapshotStore.get().record(hits, () -> applyInMemory(hits));
+        } else {
+            applyInMemory(hits);
+        }
+    }
+
+    private void applyInMemory(List<EndpointHit> hits) {
+        repeatViewFilter.ifPresent(filter -> filter.mark(hits));
+        trendingTracker.offer(hits);
     }
 
     @Override
     public List<ViewStatsDto> getStats(LocalDateTime start, LocalDateTime end, List<String> uris,
-                                       boolean unique) {
+                                       boolean unique, boolean approximate) {
+        validateWindow(start, end);
+        validateExactUnique(start, unique, approximate);
+        validateCompacted(start, end);
+        if (queryCache.isPresent()) {
+            return queryCache.get().get(start, end, uris, unique, approximate);
+        }
+        return hitStorage.countHits(start, end, uris, unique, approximate);
+    }
+
+    @Override
+    public List<WindowedStatsDto> query(StatsQueryDto query) {
+        if (query.getWindows().size() > MAX_WINDOWS) {
+            throw new ValidationException("Запрос не может содержать больше " + MAX_WINDOWS + " окон.");
+        }
+        for (StatsWindowDto window : query.getWindows()) {
+            validateWindow(window.getStart(), window.getEnd());
+            validateExactUnique(window.getStart(), query.isUnique(), query.isApproximate());
+            validateCompacted(window.getStart(), window.getEnd());
+        }
+        List<String> uris = query.getUris() == null ? List.of() : query.getUris();
+        return hitStorage.countWindows(query.getWindows(), uris, query.isUnique(), query.isApproximate());
+    }
+
+    @Override
+    public StatsStream streamStats(LocalDateTime start, LocalDateTime end, List<String> uris, boolean unique,
+                                   boolean approximate) {
+        validateWindow(start, end);
+        validateExactUnique(start, unique, approximate);
+        validateCompacted(start, end);
+        return sink -> hitStorage.streamHits(start, end, uris, unique, approximate, sink);
+    }
+
+    @Override
+    public List<ViewStatsDto> getTop(LocalDateTime start, LocalDateTime end, int k, boolean unique) {
+        validateWindow(start, end);
+        validateCompacted(start, end);
+        return hitStorage.topHits(start, end, k, unique);
+    }
+
+    @Override
+    public List<TimeSeriesPointDto> getTimeSeries(String uri, LocalDateTime start, LocalDateTime end, String step,
+                                                  boolean unique, boolean approximate) {
+        validateWindow(start, end);
+        validateExactUnique(start, unique, approximate);
+        validateCompacted(start, end);
+        Duration parsed = parseDuration(step, "Некорректный шаг ряда: ");
+        if (parsed.getSeconds() <= 0 || parsed.getNano() != 0) {
+            throw new ValidationException("Шаг ряда должен быть положительным и кратным секунде.");
+        }
+        if (WindowPlanner.seriesLength(start, end, parsed) > MAX_SERIES_POINTS) {
+            throw new ValidationException("Ряд не может содержать больше " + MAX_SERIES_POINTS + " точек.");
+        }
+        long[] series = hitStorage.countSeries(start, end, parsed, uri, unique, approximate);
+        List<TimeSeriesPointDto> points = new ArrayList<>(series.length);
+        for (int i = 0; i < series.length; i++) {
+            points.add(new TimeSeriesPointDto(start.plus(parsed.multipliedBy(i)), series[i]));
+        }
+        return points;
+    }
+
+    @Override
+    public List<TrendingStatsDto> getTrending(String app, int limit, String halfLife) {
+        Duration parsed = halfLife == null ? null : parseDuration(halfLife, "Некорректный период полураспада: ");
+        return trendingTracker.top(app, limit, parsed);
+    }
+
+    @Override
+    public CompletableFuture<ViewFeedDto> pollFeed(Long epoch, long cursor, int limit, String timeout) {
+        if (viewFeed.isEmpty()) {
+            throw new ValidationException("Лента просмотров выключена.");
+        }
+        if (limit <= 0 || limit > MAX_FEED_LIMIT) {
+            throw new ValidationException("Параметр limit должен быть от 1 до " + MAX_FEED_LIMIT);
+        }
+        Duration parsed = parseDuration(timeout, "Некорректное время ожидания: ");
+        if (parsed.isNegative() || parsed.compareTo(MAX_FEED_TIMEOUT) > 0) {
+            throw new ValidationException("Время ожидания должно быть от 0 до " + MAX_FEED_TIMEOUT.toSeconds()
+                    + " секунд.");
+        }
+        return viewFeed.get().poll(epoch, cursor, limit, parsed);
+    }
+
+    private Duration parseDuration(String value, String message) {
+        try {
+            return DurationStyle.detectAndParse(value);
+        } catch (IllegalArgumentException e) {
+            throw new ValidationException(message + value);
+        }
+    }
+
+    /**
+     * Оценка не выдаётся за точный подсчёт: без {@code approximate} окно с уникальными не может начинаться раньше
+     * момента, с которого хранилище считает их точно.
+     */
+    private void validateExactUnique(LocalDateTime start, boolean unique, boolean approximate) {
+        LocalDateTime exactFrom = hitStorage.exactUniqueFrom();
+        if (unique && !approximate && exactFrom != null && start.isBefore(exactFrom)) {
+            throw new ExactUniqueUnavailableException("Точные уникальные просмотры доступны только с " + exactFrom
+                    + ": более старые хиты сжаты. Для оценки по скетчам передайте approximate=true.", exactFrom);
+        }
+    }
+
+    /**
+     * До горизонта сжатия остались только дневные бакеты, поэтому сжатая часть окна считается по целым суткам.
+     * Чтобы ответ не включал хиты вне окна, такое окно должно начинаться в начале суток, а если и заканчивается
+     * до горизонта - на последней секунде суток.
+     */
+    private void validateCompacted(LocalDateTime start, LocalDateTime end) {
+        LocalDateTime horizon = hitStorage.compactedBefore();
+        if (horizon == null || !start.isBefore(horizon)) {
+            return;
+        }
+        boolean startAligned = Granularity.DAY.floor(start).equals(start);
+        boolean endAligned = !end.isBefore(horizon) || !end.toLocalTime().isBefore(LAST_SECOND);
+        if (!startAligned || !endAligned) {
+            throw new ValidationException("Хиты до " + horizon + " сжаты до дневных бакетов: окно, начинающееся "
+                    + "раньше, должно начинаться в 00:00:00 и заканчиваться в 23:59:59 или позже " + horizon + ".");
+        }
+    }
+
+    private void validateWindow(LocalDateTime start, LocalDateTime end) {
         if (start == null || end == null) {
             throw new DateTimeException("Необходимо указать время начала и время окончания.");
         }
         if (start.isAfter(end)) {
             throw new DateTimeException("Время окончания раньше времени начала.");
         }
-        if (unique && !uris.isEmpty()) {
-            return statsRepository.findAllHitsWithUniqueIpWithUris(uris, start, end);
-        }
-        if (unique) {
-            return statsRepository.findAllHitsWithUniqueIpWithoutUris(start, end);
-        }
-        if (!uris.isEmpty()) {
-            return statsRepository.findAllHitsWithUris(uris, start, end);
-        }
-        return statsRepository.findAllHitsWithoutUris(start, end);
     }
 }
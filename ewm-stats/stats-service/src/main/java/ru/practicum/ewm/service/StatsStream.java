@@ -0,0 +1,15 @@
+package ru.practicum.ewm.service;
+
+import ru.practicum.ewm.ViewStatsDto;
+
+import java.util.function.Consumer;
+
+/**
+ * Отложенная выгрузка статистики: параметры уже проверены, строки читаются из базы только при вызове
+ * {@link #forEach}.
+ */
+@FunctionalInterface
+public interface StatsStream {
+
+    void forEach(Consumer<ViewStatsDto> sink);
+}
@@ -0,0 +1,131 @@
+package ru.practicum.ewm.service;
+
+import lombok.experimental.UtilityClass;
+import ru.practicum.ewm.model.rollup.Granularity;
+import ru.practicum.ewm.model.rollup.SharedSegment;
+import ru.practicum.ewm.model.rollup.TimeWindow;
+import ru.practicum.ewm.model.rollup.WindowSegment;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.TreeSet;
+
+/**
+ * Раскладывает окно {@code [from, to)} на самые крупные выровненные бакеты и сырые края:
+ * 2024-01-01 10:30:15 .. 2024-01-03 02:00:00 превращается в сырые 45 секунд, минуты до 11:00,
+ * часы до полуночи, один день и часы до 02:00.
+ */
+@UtilityClass
+public class WindowPlanner {
+
+    public List<WindowSegment> plan(LocalDateTime from, LocalDateTime to, List<Granularity> coarseToFine) {
+        List<WindowSegment> segments = new ArrayList<>();
+        split(from, to, coarseToFine, 0, segments);
+        return segments;
+    }
+
+    /**
+     * То же с учётом горизонта сжатия: до {@code horizon} сырых хитов и мелких бакетов нет, поэтому эта часть
+     * окна расширяется до целых суток и отвечается дневными бакетами (и более крупными из {@code coarseToFine}).
+     */
+    public List<WindowSegment> plan(LocalDateTime from, LocalDateTime to, List<Granularity> coarseToFine,
+                                    LocalDateTime horizon) {
+        if (horizon == null || !from.isBefore(horizon)) {
+            return plan(from, to, coarseToFine);
+        }
+        LocalDateTime compactedTo = Granularity.DAY.ceil(to).isBefore(horizon) ? Granularity.DAY.ceil(to) : horizon;
+        List<Granularity> compacted = new ArrayList<>(coarseToFine.stream()
+                .filter(granularity -> granularity.compareTo(Granularity.DAY) > 0)
+                .toList());
+        compacted.add(Granularity.DAY);
+        List<WindowSegment> segments = plan(Granularity.DAY.floor(from), compactedTo, compacted);
+        if (to.isAfter(horizon)) {
+            segments.addAll(plan(horizon, to, coarseToFine));
+        }
+        return segments;
+    }
+
+    /**
+     * Раскладывает несколько окон на непересекающиеся части, чтобы каждая строка читалась один раз: границы всех
+     * окон режут общий диапазон, каждый кусок планируется как одно окно и помечается окнами, в которые входит.
+     * Границы до горизонта сжатия заранее расширяются до суток, как это делает {@link #plan} для одного окна.
+     */
+    public List<SharedSegment> planShared(List<TimeWindow> windows, List<Granularity> coarseToFine,
+                                          LocalDateTime horizon) {
+        List<TimeWindow> widened = windows.stream().map(window -> widen(window, horizon)).toList();
+        TreeSet<LocalDateTime> bounds = new TreeSet<>();
+        for (TimeWindow window : widened) {
+            bounds.add(window.from());
+            bounds.add(window.to());
+        }
+        List<SharedSegment> shared = new ArrayList<>();
+        LocalDateTime from = null;
+        for (LocalDateTime to : bounds) {
+            if (from != null) {
+                BitSet members = new BitSet();
+                for (int i = 0; i < widened.size(); i++) {
+                    if (!widened.get(i).from().isAfter(from) && !widened.get(i).to().isBefore(to)) {
+                        members.set(i);
+                    }
+                }
+                if (!members.isEmpty()) {
+                    for (WindowSegment segment : plan(from, to, coarseToFine, horizon)) {
+                        shared.add(new SharedSegment(segment, members));
+                    }
+                }
+            }
+            from = to;
+        }
+        return shared;
+    }
+
+    /**
+     * Гранулярности из {@code coarseToFine}, бакеты которых не пересекают границ шагов ряда
+     * {@code start + i * step}: шаг кратен бакету, а начало ряда выровнено по нему. Месяцы разной длины
+     * не подходят ни к какому шагу.
+     */
+    public List<Granularity> alignedTo(LocalDateTime start, Duration step, List<Granularity> coarseToFine) {
+        return coarseToFine.stream()
+                .filter(granularity -> !granularity.getUnit().isDurationEstimated())
+                .filter(granularity -> step.getSeconds() % granularity.getUnit().getDuration().getSeconds() == 0
+                        && granularity.floor(start).equals(start))
+                .toList();
+    }
+
+    /**
+     * Число шагов {@code step}, покрывающих окно {@code [start, end]}.
+     */
+    public long seriesLength(LocalDateTime start, LocalDateTime end, Duration step) {
+        return Duration.between(start, end).getSeconds() / step.getSeconds() + 1;
+    }
+
+    private TimeWindow widen(TimeWindow window, LocalDateTime horizon) {
+        if (horizon == null || !window.from().isBefore(horizon)) {
+            return window;
+        }
+        LocalDateTime to = window.to().isBefore(horizon) ? Granularity.DAY.ceil(window.to()) : window.to();
+        return new TimeWindow(Granularity.DAY.floor(window.from()), to);
+    }
+
+    private void split(LocalDateTime from, LocalDateTime to, List<Granularity> granularities, int level,
+                       List<WindowSegment> segments) {
+        if (!from.isBefore(to)) {
+            return;
+        }
+        for (int i = level; i < granularities.size(); i++) {
+            Granularity granularity = granularities.get(i);
+            LocalDateTime alignedFrom = granularity.ceil(from);
+            LocalDateTime alignedTo = granularity.floor(to);
+            if (alignedFrom.isBefore(alignedTo)) {
+                split(from, alignedFrom, granularities, i + 1, segments);
+                segments.add(new WindowSegment(granularity, alignedFrom, alignedTo));
+                split(alignedTo, to, granularities, i + 1, segments);
+                return;
+            }
+        }
+        segments.add(new WindowSegment(null, from, to));
+    }
+}
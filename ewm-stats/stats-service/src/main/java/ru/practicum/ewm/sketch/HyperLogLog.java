@@ -0,0 +1,104 @@
+package ru.practicum.ewm.sketch;
+
+/**
+ * HyperLogLog-скетч для оценки числа уникальных IP. Точность {@value #PRECISION} даёт {@value #REGISTERS} регистров
+ * и стандартную ошибку 1.04 / sqrt(2048) ≈ 2.3% (в 95% случаев оценка отличается от точного значения не более
+ * чем на 4.6%). Малые множества оцениваются линейным подсчётом и для нескольких десятков IP практически точны.
+ * Скетчи сливаются поэлементным максимумом регистров, поэтому объединение любых бакетов даёт скетч их объединения.
+ * В базе скетч хранится массивом регистров ({@link #toBytes()}, {@value #REGISTERS} байт).
+ */
+public class HyperLogLog {
+
+    public static final int PRECISION = 11;
+    public static final int REGISTERS = 1 << PRECISION;
+
+    private static final double ALPHA = 0.7213 / (1 + 1.079 / REGISTERS);
+
+    private final byte[] registers;
+
+    public HyperLogLog() {
+        this.registers = new byte[REGISTERS];
+    }
+
+    public HyperLogLog(byte[] registers) {
+        if (registers.length != REGISTERS) {
+            throw new IllegalArgumentException("Скетч должен содержать " + REGISTERS + " регистров, а не "
+                    + registers.length);
+        }
+        this.registers = registers.clone();
+    }
+
+    public static long hash(byte[] value) {
+        long hash = 0xcbf29ce484222325L;
+        for (byte b : value) {
+            hash ^= b & 0xff;
+            hash *= 0x100000001b3L;
+        }
+        return mix(hash);
+    }
+
+    public static int registerIndex(long hash) {
+        return (int) (hash >>> (Long.SIZE - PRECISION));
+    }
+
+    public static byte rho(long hash) {
+        return (byte) (Long.numberOfLeadingZeros((hash << PRECISION) | (1L << (PRECISION - 1))) + 1);
+    }
+
+    public void offer(long hash) {
+        merge(registerIndex(hash), rho(hash));
+    }
+
+    public void merge(int index, byte rho) {
+        if (registers[index] < rho) {
+            registers[index] = rho;
+        }
+    }
+
+    /**
+     * Сливает регистры другого скетча; {@code true}, если хотя бы один регистр вырос.
+     */
+    public boolean merge(byte[] other) {
+        boolean changed = false;
+        for (int i = 0; i < REGISTERS; i++) {
+            if (registers[i] < other[i]) {
+                registers[i] = other[i];
+                changed = true;
+            }
+        }
+        return changed;
+    }
+
+    public boolean merge(HyperLogLog other) {
+        return merge(other.registers);
+    }
+
+    public byte[] toBytes() {
+        return registers.clone();
+    }
+
+    public long estimate() {
+        double sum = 0;
+        int zeros = 0;
+        for (byte register : registers) {
+            sum += 1.0 / (1L << register);
+            if (register == 0) {
+                zeros++;
+            }
+        }
+        double estimate = ALPHA * REGISTERS * REGISTERS / sum;
+        if (estimate <= 2.5 * REGISTERS && zeros > 0) {
+            estimate = REGISTERS * Math.log((double) REGISTERS / zeros);
+        }
+        return Math.round(estimate);
+    }
+
+    private static long mix(long k) {
+        k ^= k >>> 33;
+        k *= 0xff51afd7ed558ccdL;
+        k ^= k >>> 33;
+        k *= 0xc4ceb9fe1a85ec53L;
+        k ^= k >>> 33;
+        return k;
+    }
+}
@@ -0,0 +1,65 @@
+package ru.practicum.ewm.sketch;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import ru.practicum.ewm.compaction.RawHorizon;
+import ru.practicum.ewm.model.endpoint.EndpointHit;
+import ru.practicum.ewm.repository.SketchRepository;
+import ru.practicum.ewm.storage.ConditionalOnJdbcStorage;
+
+import java.util.List;
+
+/**
+ * Строит скетчи по хитам, сохранённым до их появления или после их удаления при смене формата IP: когда нет ни
+ * одного скетча с горизонта сжатия (сырые хиты есть только с него). Запись скетчей идемпотентна,
+ * поэтому пересечение с параллельной записью новых хитов ничего не портит.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+@ConditionalOnJdbcStorage
+public class SketchBackfill {
+
+    private static final int PAGE_SIZE = 10_000;
+
+    private final SketchRepository sketchRepository;
+    private final JdbcTemplate jdbcTemplate;
+    private final RawHorizon rawHorizon;
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void backfill() {
+        if (!sketchRepository.isEmptySince(rawHorizon.get())) {
+            return;
+        }
+        long lastId = 0;
+        long total = 0;
+        while (true) {
+            List<EndpointHit> page = jdbcTemplate.query(
+                    "SELECT s.id, a.name AS app, u.name AS uri, s.ip, s.timestamp FROM statistics s "
+                            + "JOIN stats_app a ON a.id = s.app_id JOIN stats_uri u ON u.id = s.uri_id "
+                            + "WHERE s.id > ? ORDER BY s.id LIMIT " + PAGE_SIZE,
+                    (rs, rowNum) -> EndpointHit.builder()
+                            .id(rs.getLong("id"))
+                            .app(rs.getString("app"))
+                            .uri(rs.getString("uri"))
+                            .ip(rs.getBytes("ip"))
+                            .timestamp(rs.getTimestamp("timestamp").toLocalDateTime())
+                            .build(),
+                    lastId);
+            if (page.isEmpty()) {
+                break;
+            }
+            sketchRepository.offer(page);
+            lastId = page.get(page.size() - 1).getId();
+            total += page.size();
+        }
+        if (total > 0) {
+            log.info("Скетчи уникальных IP построены по {} сохранённым хитам", total);
+        }
+    }
+}
@@ -0,0 +1,173 @@
+package ru.practicum.ewm.sketch;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Space-Saving: не более {@code capacity} счётчиков самых частых ключей. Когда места нет, новый ключ вытесняет
+ * ключ с минимальным счётчиком и наследует его значение как ошибку, поэтому счётчик ключа никогда не меньше
+ * истинного и превышает его не больше чем на {@code error}. Любой ключ с долей больше 1 / capacity гарантированно
+ * остаётся в сводке.
+ * <p>
+ * {@code floor} - верхняя граница числа хитов для ключа, которого в сводке нет. Сводки сливаются: отсутствующий
+ * в одной из них ключ получает её {@code floor}, результат обрезается до {@code capacity}.
+ */
+public class SpaceSaving<K> {
+
+    private final int capacity;
+    private final Map<K, Counter> counters = new HashMap<>();
+    private final TreeMap<Long, LinkedHashSet<K>> byCount = new TreeMap<>();
+    private long floor;
+
+    public SpaceSaving(int capacity) {
+        this.capacity = capacity;
+    }
+
+    public void offer(K key, long count) {
+        Counter counter = counters.get(key);
+        if (counter != null) {
+            detach(key, counter.count);
+            counter.count += count;
+            attach(key, counter.count);
+            return;
+        }
+        long inherited = floor;
+        if (counters.size() >= capacity) {
+            Map.Entry<Long, LinkedHashSet<K>> min = byCount.firstEntry();
+            K evicted = min.getValue().iterator().next();
+            detach(evicted, min.getKey());
+            counters.remove(evicted);
+            inherited = min.getKey();
+            floor = Math.max(floor, inherited);
+        }
+        counters.put(key, new Counter(inherited + count, inherited));
+        attach(key, inherited + count);
+    }
+
+    /**
+     * Восстанавливает счётчик из сохранённой сводки, не вытесняя других ключей.
+     */
+    public void restore(K key, long count, long error) {
+        Counter previous = counters.put(key, new Counter(count, error));
+        if (previous != null) {
+            detach(key, previous.count);
+        }
+        attach(key, count);
+    }
+
+    public void merge(SpaceSaving<K> other) {
+        SpaceSaving<K> merged = new SpaceSaving<>(capacity);
+        merged.floor = floor + other.floor;
+        Map<K, Counter> union = new HashMap<>();
+        counters.forEach((key, counter) -> {
+            Counter theirs = other.counters.get(key);
+            union.put(key, theirs == null
+                    ? new Counter(counter.count + other.floor, counter.error + other.floor)
+                    : new Counter(counter.count + theirs.count, counter.error + theirs.error));
+        });
+        other.counters.forEach((key, counter) -> union.computeIfAbsent(key,
+                k -> new Counter(counter.count + floor, counter.error + floor)));
+        List<Map.Entry<K, Counter>> entries = new ArrayList<>(union.entrySet());
+        entries.sort(Comparator.comparingLong((Map.Entry<K, Counter> entry) -> entry.getValue().count).reversed());
+        for (int i = 0; i < entries.size(); i++) {
+            Map.Entry<K, Counter> entry = entries.get(i);
+            if (i < capacity) {
+                merged.restore(entry.getKey(), entry.getValue().count, entry.getValue().error);
+            } else {
+                merged.floor = Math.max(merged.floor, entry.getValue().count);
+            }
+        }
+        counters.clear();
+        byCount.clear();
+        counters.putAll(merged.counters);
+        byCount.putAll(merged.byCount);
+        floor = merged.floor;
+    }
+
+    /**
+     * Ключи по убыванию счётчика.
+     */
+    public List<K> top(int k) {
+        List<K> result = new ArrayList<>(Math.min(k, counters.size()));
+        for (LinkedHashSet<K> keys : byCount.descendingMap().values()) {
+            for (K key : keys) {
+                if (result.size() == k) {
+                    return result;
+                }
+                result.add(key);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Ключи по убыванию гарантированного счётчика {@code count - error}. У слитых сводок границы отсутствующих
+     * ключей складываются и поднимают счётчики случайных ключей, а гарантированная часть от этого не зависит.
+     */
+    public List<K> topGuaranteed(int k) {
+        return counters.entrySet().stream()
+                .sorted(Comparator.comparingLong((Map.Entry<K, Counter> entry) ->
+                        entry.getValue().count - entry.getValue().error).reversed())
+                .limit(k)
+                .map(Map.Entry::getKey)
+                .toList();
+    }
+
+    public long guaranteed(K key) {
+        Counter counter = counters.get(key);
+        return counter == null ? 0 : counter.count - counter.error;
+    }
+
+    public long count(K key) {
+        Counter counter = counters.get(key);
+        return counter == null ? floor : counter.count;
+    }
+
+    public long error(K key) {
+        Counter counter = counters.get(key);
+        return counter == null ? floor : counter.error;
+    }
+
+    public long getFloor() {
+        return floor;
+    }
+
+    public void setFloor(long floor) {
+        this.floor = floor;
+    }
+
+    public int size() {
+        return counters.size();
+    }
+
+    public boolean isEmpty() {
+        return counters.isEmpty();
+    }
+
+    private void attach(K key, long count) {
+        byCount.computeIfAbsent(count, c -> new LinkedHashSet<>()).add(key);
+    }
+
+    private void detach(K key, long count) {
+        LinkedHashSet<K> keys = byCount.get(count);
+        keys.remove(key);
+        if (keys.isEmpty()) {
+            byCount.remove(count);
+        }
+    }
+
+    private static final class Counter {
+        private long count;
+        private final long error;
+
+        private Counter(long count, long error) {
+            this.count = count;
+            this.error = error;
+        }
+    }
+}
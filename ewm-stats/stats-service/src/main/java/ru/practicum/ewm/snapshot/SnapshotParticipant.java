@@ -0,0 +1,35 @@
+package ru.practicum.ewm.snapshot;
+
+import ru.practicum.ewm.model.endpoint.EndpointHit;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Состояние в памяти, которое {@link SnapshotStore} сохраняет в снимок и восстанавливает при старте вместо
+ * пересчёта по базе.
+ */
+public interface SnapshotParticipant {
+
+    /**
+     * Имя раздела снимка. Раздел с незнакомым именем при чтении пропускается.
+     */
+    String snapshotSection();
+
+    /**
+     * Вызывается, пока запись хитов остановлена, поэтому должен только копировать состояние, без ввода-вывода.
+     */
+    void writeSnapshot(DataOutput out) throws IOException;
+
+    /**
+     * Вызывается при старте до приёма хитов. Раздел, сохранённый с другими настройками, пропускается.
+     */
+    void readSnapshot(DataInput in) throws IOException;
+
+    /**
+     * Применяет хиты из хвостового журнала, записанные после снимка.
+     */
+    void replay(List<EndpointHit> hits);
+}
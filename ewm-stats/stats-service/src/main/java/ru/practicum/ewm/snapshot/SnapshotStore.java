@@ -0,0 +1,308 @@
+package ru.practicum.ewm.snapshot;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import ru.practicum.ewm.ingest.HitLineCodec;
+import ru.practicum.ewm.model.endpoint.EndpointHit;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * Снимки состояния в памяти ({@link SnapshotParticipant}: тренды, фильтр повторов, словари) для быстрого
+ * перезапуска. Раз в {@code stats.snapshot.interval-ms} состояние копируется в компактный двоичный снимок,
+ * который пишется в файл через отображение в память и атомарно подменяет прошлый; хиты, записанные после снимка,
+ * дописываются строками {@link HitLineCodec} в хвостовой журнал {@code tail-<поколение>.log}. При старте снимок
+ * читается из отображённого файла, хвост проигрывается участникам, и состояние совпадает с состоянием до
+ * остановки без сканирования {@code statistics}.
+ * <p>
+ * Хиты пишутся в хранилище без блокировки, а изменение состояния в памяти и дописывание хвоста идут под общей
+ * блокировкой чтения, снимок и переключение хвоста - под блокировкой записи, поэтому каждый хит попадает либо
+ * в снимок, либо в хвост. Пока состояние копируется в память, ждёт только обновление состояния записанными хитами;
+ * на диск снимок пишется уже без блокировки. Хвост пишется без fsync: он переживает падение процесса, но
+ * не сервера.
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(name = "stats.snapshot.enabled", havingValue = "true")
+public class SnapshotStore {
+
+    private static final int MAGIC = 0x534E4150;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 24;
+    private static final String SNAPSHOT_FILE = "state.snap";
+    private static final String TAIL_PREFIX = "tail-";
+    private static final String TAIL_SUFFIX = ".log";
+    private static final int REPLAY_BATCH = 10_000;
+
+    private final List<SnapshotParticipant> participants;
+    private final Path dir;
+    private final ReentrantReadWriteLock cut = new ReentrantReadWriteLock();
+    private final Object tailLock = new Object();
+    private final Object snapshotLock = new Object();
+    private FileChannel tail;
+    private long generation;
+
+    public SnapshotStore(List<SnapshotParticipant> participants,
+                         @Value("${stats.snapshot.dir:${java.io.tmpdir}/stats-snapshot}") String dir) {
+        this.participants = participants;
+        this.dir = Path.of(dir);
+    }
+
+    @PostConstruct
+    public void restore() throws IOException {
+        long startedAt = System.currentTimeMillis();
+        Files.createDirectories(dir);
+        long snapshotGeneration = readSnapshot();
+        List<Path> tails = tails();
+        long replayed = 0;
+        long lastGeneration = snapshotGeneration;
+        for (Path file : tails) {
+            long tailGeneration = parseGeneration(file);
+            lastGeneration = Math.max(lastGeneration, tailGeneration);
+            if (tailGeneration >= snapshotGeneration) {
+                replayed += replay(file);
+            }
+        }
+        generation = lastGeneration + 1;
+        tail = openTail(generation);
+        log.info("Состояние в памяти восстановлено за {} мс: снимок поколения {}, из хвоста {} хитов",
+                System.currentTimeMillis() - startedAt, snapshotGeneration, replayed);
+    }
+
+    @PreDestroy
+    public void close() throws IOException {
+        snapshot();
+        synchronized (tailLock) {
+            tail.close();
+        }
+    }
+
+    /**
+     * Применяет уже записанные в хранилище хиты к состоянию в памяти ({@code apply}) и дописывает их в хвост так,
+     * что снимок не разделяет изменение состояния и хвост.
+     */
+    public void record(List<EndpointHit> written, Runnable apply) {
+        cut.readLock().lock();
+        try {
+            apply.run();
+            append(written);
+        } finally {
+            cut.readLock().unlock();
+        }
+    }
+
+    @Scheduled(initialDelayString = "${stats.snapshot.interval-ms:60000}",
+            fixedDelayString = "${stats.snapshot.interval-ms:60000}")
+    public void snapshot() {
+        synchronized (snapshotLock) {
+            long startedAt = System.currentTimeMillis();
+            ByteArrayOutputStream body = new ByteArrayOutputStream(1 << 16);
+            long snapshotGeneration;
+            cut.writeLock().lock();
+            try {
+                FileChannel next = openTail(generation + 1);
+                synchronized (tailLock) {
+                    tail.close();
+                    tail = next;
+                }
+                generation++;
+                snapshotGeneration = generation;
+                DataOutputStream out = new DataOutputStream(body);
+                out.writeInt(participants.size());
+                for (SnapshotParticipant participant : participants) {
+                    ByteArrayOutputStream section = new ByteArrayOutputStream();
+                    participant.writeSnapshot(new DataOutputStream(section));
+                    out.writeUTF(participant.snapshotSection());
+                    out.writeInt(section.size());
+                    section.writeTo(out);
+                }
+            } catch (IOException e) {
+                log.error("Не удалось снять состояние в памяти", e);
+                return;
+            } finally {
+                cut.writeLock().unlock();
+            }
+            try {
+                write(body, snapshotGeneration);
+                deleteTailsBefore(snapshotGeneration);
+                log.debug("Снимок состояния поколения {}: {} байт за {} мс", snapshotGeneration, body.size(),
+                        System.currentTimeMillis() - startedAt);
+            } catch (IOException e) {
+                log.error("Не удалось сохранить снимок состояния в {}", dir, e);
+            }
+        }
+    }
+
+    private void append(List<EndpointHit> hits) {
+        StringBuilder lines = new StringBuilder(hits.size() * 64);
+        for (EndpointHit hit : hits) {
+            lines.append(HitLineCodec.encode(hit)).append('\n');
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(lines.toString().getBytes(StandardCharsets.UTF_8));
+        synchronized (tailLock) {
+            try {
+                while (buffer.hasRemaining()) {
+                    tail.write(buffer);
+                }
+            } catch (IOException e) {
+                // хиты уже записаны в хранилище; без хвоста после перезапуска отстанет только состояние в памяти
+                log.error("Не удалось дописать {} хитов в хвост снимка", hits.size(), e);
+            }
+        }
+    }
+
+    /**
+     * Заголовок (magic, версия, поколение, длина и CRC32 тела) и тело пишутся через отображение файла в память,
+     * затем временный файл атомарно подменяет снимок.
+     */
+    private void write(ByteArrayOutputStream body, long snapshotGeneration) throws IOException {
+        byte[] bytes = body.toByteArray();
+        CRC32 crc = new CRC32();
+        crc.update(bytes);
+        Path tmp = dir.resolve(SNAPSHOT_FILE + ".tmp");
+        try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE + bytes.length);
+            buffer.putInt(MAGIC)
+                    .putInt(VERSION)
+                    .putLong(snapshotGeneration)
+                    .putInt(bytes.length)
+                    .putInt((int) crc.getValue())
+                    .put(bytes);
+            buffer.force();
+        }
+        Files.move(tmp, dir.resolve(SNAPSHOT_FILE), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Читает снимок и возвращает его поколение: хвосты начиная с него записаны после снимка. Без снимка - 0,
+     * проигрываются все хвосты.
+     */
+    private long readSnapshot() {
+        Path file = dir.resolve(SNAPSHOT_FILE);
+        if (!Files.exists(file)) {
+            return 0;
+        }
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.remaining() < HEADER_SIZE || buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+                log.warn("Файл {} не является снимком состояния, пропускаем", file);
+                return 0;
+            }
+            long snapshotGeneration = buffer.getLong();
+            int length = buffer.getInt();
+            int expectedCrc = buffer.getInt();
+            if (length != buffer.remaining()) {
+                log.warn("Снимок состояния {} обрезан, пропускаем", file);
+                return 0;
+            }
+            CRC32 crc = new CRC32();
+            crc.update(buffer.slice());
+            if ((int) crc.getValue() != expectedCrc) {
+                log.warn("Контрольная сумма снимка состояния {} не сходится, пропускаем", file);
+                return 0;
+            }
+            Map<String, SnapshotParticipant> bySection = new HashMap<>();
+            participants.forEach(participant -> bySection.put(participant.snapshotSection(), participant));
+            DataInputStream in = new DataInputStream(new ByteBufferInputStream(buffer));
+            int sections = in.readInt();
+            for (int i = 0; i < sections; i++) {
+                String name = in.readUTF();
+                int size = in.readInt();
+                ByteBuffer section = buffer.slice(buffer.position(), size);
+                buffer.position(buffer.position() + size);
+                SnapshotParticipant participant = bySection.get(name);
+                if (participant != null) {
+                    participant.readSnapshot(new DataInputStream(new ByteBufferInputStream(section)));
+                }
+            }
+            return snapshotGeneration;
+        } catch (IOException | RuntimeException e) {
+            log.warn("Не удалось прочитать снимок состояния {}, пропускаем", file, e);
+            return 0;
+        }
+    }
+
+    private long replay(Path file) throws IOException {
+        long replayed = 0;
+        List<EndpointHit> batch = new ArrayList<>(REPLAY_BATCH);
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                try {
+                    batch.add(HitLineCodec.decode(line));
+                } catch (RuntimeException e) {
+                    // последняя строка могла оборваться при падении процесса
+                    log.warn("Хвост снимка {}: некорректная строка пропущена", file);
+                    continue;
+                }
+                if (batch.size() == REPLAY_BATCH) {
+                    replayed += replayBatch(batch);
+                }
+            }
+        }
+        return replayed + replayBatch(batch);
+    }
+
+    private int replayBatch(List<EndpointHit> batch) {
+        if (batch.isEmpty()) {
+            return 0;
+        }
+        List<EndpointHit> hits = List.copyOf(batch);
+        participants.forEach(participant -> participant.replay(hits));
+        batch.clear();
+        return hits.size();
+    }
+
+    private FileChannel openTail(long tailGeneration) throws IOException {
+        return FileChannel.open(dir.resolve(TAIL_PREFIX + String.format("%019d", tailGeneration) + TAIL_SUFFIX),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    }
+
+    private void deleteTailsBefore(long tailGeneration) throws IOException {
+        for (Path file : tails()) {
+            if (parseGeneration(file) < tailGeneration) {
+                Files.delete(file);
+            }
+        }
+    }
+
+    private List<Path> tails() throws IOException {
+        try (Stream<Path> list = Files.list(dir)) {
+            return list.filter(path -> path.getFileName().toString().startsWith(TAIL_PREFIX)
+                            && path.getFileName().toString().endsWith(TAIL_SUFFIX))
+                    .sorted()
+                    .toList();
+        }
+    }
+
+    private static long parseGeneration(Path file) {
+        String name = file.getFileName().toString();
+        return Long.parseLong(name.substring(TAIL_PREFIX.length(), name.length() - TAIL_SUFFIX.length()));
+    }
+}
@@ -0,0 +1,37 @@
+package ru.practicum.ewm.storage;
+
+import org.springframework.boot.autoconfigure.condition.AnyNestedCondition;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Conditional;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Бин нужен только хранилищу в реляционной базе: {@code stats.storage.type=jdbc} (по умолчанию) или прежнее
+ * значение {@code jpa}, оставленное для старых конфигураций.
+ */
+@Target({ElementType.TYPE, ElementType.METHOD})
+@Retention(RetentionPolicy.RUNTIME)
+@Documented
+@Conditional(ConditionalOnJdbcStorage.OnJdbcStorage.class)
+public @interface ConditionalOnJdbcStorage {
+
+    class OnJdbcStorage extends AnyNestedCondition {
+
+        OnJdbcStorage() {
+            super(ConfigurationPhase.REGISTER_BEAN);
+        }
+
+        @ConditionalOnProperty(name = "stats.storage.type", havingValue = "jdbc", matchIfMissing = true)
+        static class Jdbc {
+        }
+
+        @ConditionalOnProperty(name = "stats.storage.type", havingValue = "jpa")
+        static class Jpa {
+        }
+    }
+}
@@ -0,0 +1,14 @@
+package ru.practicum.ewm.storage;
+
+import ru.practicum.ewm.model.endpoint.EndpointHit;
+
+import java.util.List;
+
+/**
+ * Получает хиты после того, как они стали видны в {@link HitStorage}: сразу после записи или после сброса
+ * отложенной записи.
+ */
+public interface HitListener {
+
+    void onWrite(List<EndpointHit> hits);
+}
@@ -0,0 +1,112 @@
+package ru.practicum.ewm.storage;
+
+import ru.practicum.ewm.StatsWindowDto;
+import ru.practicum.ewm.ViewStatsDto;
+import ru.practicum.ewm.WindowedStatsDto;
+import ru.practicum.ewm.model.endpoint.EndpointHit;
+import ru.practicum.ewm.model.stats.StatsKey;
+import ru.practicum.ewm.util.UriPatterns;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * Хранилище хитов. Реализация выбирается свойством {@code stats.storage.type}: {@code jdbc} (по умолчанию,
+ * прежнее имя - {@code jpa}) или {@code segment}.
+ */
+public interface HitStorage {
+
+    void write(List<EndpointHit> hits);
+
+    /**
+     * Запись хитов из журнала отложенной записи вместе с позицией журнала, до которой они сохранены.
+     */
+    void write(List<EndpointHit> hits, String journal, long lsn);
+
+    long findCheckpoint(String journal);
+
+    /**
+     * {@code true}, если позиции разных журналов хранятся раздельно (по имени журнала).
+     */
+    default boolean isNamedCheckpoints() {
+        return true;
+    }
+
+    /**
+     * Момент, начиная с которого уникальные посетители считаются точно; в окнах, начинающихся раньше, доступна
+     * только оценка ({@code approximate}). {@code null} - точный подсчёт доступен за всё время.
+     */
+    default LocalDateTime exactUniqueFrom() {
+        return null;
+    }
+
+    /**
+     * Горизонт сжатия: раньше него остались только дневные бакеты, и окно, захватывающее эту часть, считается
+     * по целым суткам. {@code null} - сжатия не было.
+     */
+    default LocalDateTime compactedBefore() {
+        return null;
+    }
+
+    /**
+     * Статистика по окну {@code [start, end]} (конец включительно), отсортированная по убыванию хитов.
+     */
+    List<ViewStatsDto> countHits(LocalDateTime start, LocalDateTime end, List<String> uris, boolean unique,
+                                 boolean approximate);
+
+    /**
+     * Статистика по нескольким окнам {@code [start, end]} сразу, отсортированная по первому окну. {@code uris}
+     * может содержать префиксы ({@code /events/*}). Реализация по умолчанию считает окна по одному
+     * и фильтрует префиксы в памяти.
+     */
+    default List<WindowedStatsDto> countWindows(List<StatsWindowDto> windows, List<String> uris, boolean unique,
+                                                boolean approximate) {
+        UriPatterns patterns = new UriPatterns(uris);
+        List<String> exact = patterns.getPrefixes().isEmpty() ? uris : List.of();
+        Map<StatsKey, Long[]> counts = new LinkedHashMap<>();
+        for (int i = 0; i < windows.size(); i++) {
+            int window = i;
+            countHits(windows.get(i).getStart(), windows.get(i).getEnd(), exact, unique, approximate).stream()
+                    .filter(stats -> patterns.matches(stats.getUri()))
+                    .forEach(stats -> counts.computeIfAbsent(new StatsKey(stats.getApp(), stats.getUri()), key -> {
+                        Long[] zeros = new Long[windows.size()];
+                        Arrays.fill(zeros, 0L);
+                        return zeros;
+                    })[window] = stats.getHits());
+        }
+        return counts.entrySet().stream()
+                .map(entry -> new WindowedStatsDto(entry.getKey().app(), entry.getKey().uri(),
+                        Arrays.asList(entry.getValue())))
+                .sorted(Comparator.comparing((WindowedStatsDto stats) -> stats.getHits().get(0)).reversed())
+                .toList();
+    }
+
+    /**
+     * Хиты или уникальные IP по {@code uri} (по всем приложениям) для каждого шага {@code start + i * step}
+     * окна {@code [start, end]}; длина массива - {@link ru.practicum.ewm.service.WindowPlanner#seriesLength}.
+     */
+    long[] countSeries(LocalDateTime start, LocalDateTime end, Duration step, String uri, boolean unique,
+                       boolean approximate);
+
+    /**
+     * Потоковый вариант {@link #countHits}: строки отдаются в {@code sink} по одной, не собираясь в список.
+     * Реализация по умолчанию сначала считает весь результат.
+     */
+    default void streamHits(LocalDateTime start, LocalDateTime end, List<String> uris, boolean unique,
+                            boolean approximate, Consumer<ViewStatsDto> sink) {
+        countHits(start, end, uris, unique, approximate).forEach(sink);
+    }
+
+    /**
+     * Верхние {@code k} пар app + uri окна. Реализация по умолчанию считает статистику по всем URI и обрезает её.
+     */
+    default List<ViewStatsDto> topHits(LocalDateTime start, LocalDateTime end, int k, boolean unique) {
+        return countHits(start, end, List.of(), unique, false).stream().limit(k).toList();
+    }
+}
@@ -0,0 +1,193 @@
+package ru.practicum.ewm.storage;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+import ru.practicum.ewm.StatsWindowDto;
+import ru.practicum.ewm.ViewStatsDto;
+import ru.practicum.ewm.WindowedStatsDto;
+import ru.practicum.ewm.compaction.RawHorizon;
+import ru.practicum.ewm.dictionary.HitDictionary;
+import ru.practicum.ewm.model.dictionary.DictionaryKind;
+import ru.practicum.ewm.model.endpoint.EndpointHit;
+import ru.practicum.ewm.model.rollup.Granularity;
+import ru.practicum.ewm.model.rollup.TimeWindow;
+import ru.practicum.ewm.repository.IngestCheckpointRepository;
+import ru.practicum.ewm.repository.RollupRepository;
+import ru.practicum.ewm.repository.SketchRepository;
+import ru.practicum.ewm.repository.StatsRepository;
+import ru.practicum.ewm.service.WindowPlanner;
+import ru.practicum.ewm.topk.TopKTracker;
+import ru.practicum.ewm.util.UriPatterns;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * Хранилище в реляционной базе: сырая таблица, бакеты и скетчи пишутся одной транзакцией.
+ */
+@Component
+@RequiredArgsConstructor
+@ConditionalOnJdbcStorage
+public class JdbcHitStorage implements HitStorage {
+
+    private final StatsRepository statsRepository;
+    private final RollupRepository rollupRepository;
+    private final SketchRepository sketchRepository;
+    private final IngestCheckpointRepository checkpointRepository;
+    private final RawHorizon rawHorizon;
+    private final HitDictionary hitDictionary;
+    private final TransactionTemplate transactionTemplate;
+    private final TopKTracker topKTracker;
+
+    @Override
+    public void write(List<EndpointHit> hits) {
+        write(hits, null, 0);
+    }
+
+    @Override
+    public void write(List<EndpointHit> hits, String journal, long lsn) {
+        if (hits.isEmpty()) {
+            return;
+        }
+        hitDictionary.intern(hits);
+        transactionTemplate.executeWithoutResult(status -> {
+            statsRepository.saveAllInBatch(hits);
+            rollupRepository.increment(hits);
+            sketchRepository.offer(hits);
+            if (journal != null) {
+                checkpointRepository.save(journal, lsn);
+            }
+        });
+        topKTracker.offer(hits);
+    }
+
+    @Override
+    public long findCheckpoint(String journal) {
+        return checkpointRepository.find(journal);
+    }
+
+    /**
+     * До горизонта сжатия сырых IP нет, уникальные там есть только в скетчах.
+     */
+    @Override
+    public LocalDateTime exactUniqueFrom() {
+        return rawHorizon.get();
+    }
+
+    @Override
+    public LocalDateTime compactedBefore() {
+        return rawHorizon.get();
+    }
+
+    @Override
+    @Transactional(readOnly = true)
+    public List<ViewStatsDto> countHits(LocalDateTime start, LocalDateTime end, List<String> uris, boolean unique,
+                                        boolean approximate) {
+        // BETWEEN включает конец окна, бакеты - полуоткрытые: сдвигаем конец на минимальный шаг TIMESTAMP
+        LocalDateTime to = end.plus(1, ChronoUnit.MICROS);
+        LocalDateTime horizon = rawHorizon.get();
+        List<Integer> uriIds = hitDictionary.findIds(DictionaryKind.URI, uris);
+        boolean compacted = horizon != null && start.isBefore(horizon);
+        if (unique && (approximate || compacted)) {
+            return sketchRepository.estimateUnique(
+                    WindowPlanner.plan(start, to, SketchRepository.GRANULARITIES, horizon), uris, uriIds);
+        }
+        if (unique) {
+            return statsRepository.countUniqueIps(start, end, uris.isEmpty() ? null : uriIds);
+        }
+        return rollupRepository.countHits(WindowPlanner.plan(start, to, Granularity.coarseToFine(), horizon), uris,
+                uriIds);
+    }
+
+    /**
+     * Все окна считаются одним запросом: общий диапазон режется границами окон на непересекающиеся части,
+     * каждая строка бакетов или сырой таблицы читается один раз и добавляется во все свои окна.
+     */
+    @Override
+    @Transactional(readOnly = true)
+    public List<WindowedStatsDto> countWindows(List<StatsWindowDto> windows, List<String> uris, boolean unique,
+                                               boolean approximate) {
+        List<TimeWindow> timeWindows = windows.stream()
+                .map(window -> new TimeWindow(window.getStart(), window.getEnd().plus(1, ChronoUnit.MICROS)))
+                .toList();
+        LocalDateTime horizon = rawHorizon.get();
+        UriPatterns patterns = new UriPatterns(uris);
+        List<Integer> uriIds = hitDictionary.findIds(DictionaryKind.URI, patterns.getExact());
+        boolean compacted = horizon != null && timeWindows.stream().anyMatch(window -> window.from().isBefore(horizon));
+        if (unique && (approximate || compacted)) {
+            return sketchRepository.estimateUniqueWindows(
+                    WindowPlanner.planShared(timeWindows, SketchRepository.GRANULARITIES, horizon), windows.size(),
+                    patterns, uriIds);
+        }
+        if (unique) {
+            return statsRepository.countUniqueIpWindows(timeWindows, patterns, uriIds);
+        }
+        return rollupRepository.countWindows(WindowPlanner.planShared(timeWindows, Granularity.coarseToFine(), horizon),
+                windows.size(), patterns, uriIds);
+    }
+
+    /**
+     * В окне ряда используются только бакеты, которые целиком лежат внутри одного шага, остальное берётся
+     * из сырой таблицы. До горизонта сжатия точность ряда - сутки: дневной бакет относится к шагу, в котором
+     * он начинается.
+     */
+    @Override
+    @Transactional(readOnly = true)
+    public long[] countSeries(LocalDateTime start, LocalDateTime end, Duration step, String uri, boolean unique,
+                              boolean approximate) {
+        LocalDateTime to = end.plus(1, ChronoUnit.MICROS);
+        LocalDateTime horizon = rawHorizon.get();
+        List<Integer> uriIds = hitDictionary.findIds(DictionaryKind.URI, List.of(uri));
+        boolean compacted = horizon != null && start.isBefore(horizon);
+        Map<Integer, Long> counts;
+        if (unique && (approximate || compacted)) {
+            List<Granularity> granularities = WindowPlanner.alignedTo(start, step, SketchRepository.GRANULARITIES);
+            counts = sketchRepository.estimateUniqueSeries(WindowPlanner.plan(start, to, granularities, horizon),
+                    uriIds, start, step);
+        } else if (unique) {
+            counts = statsRepository.countUniqueIpSeries(start, end, uriIds, step);
+        } else {
+            List<Granularity> granularities = WindowPlanner.alignedTo(start, step, Granularity.coarseToFine());
+            counts = rollupRepository.countSeries(WindowPlanner.plan(start, to, granularities, horizon),
+                    uriIds, start, step);
+        }
+        long[] series = new long[(int) WindowPlanner.seriesLength(start, end, step)];
+        counts.forEach((bucket, count) -> series[bucket] += count);
+        return series;
+    }
+
+    @Override
+    public List<ViewStatsDto> topHits(LocalDateTime start, LocalDateTime end, int k, boolean unique) {
+        return topKTracker.top(start, end, k, unique);
+    }
+
+    /**
+     * Те же запросы, что в {@link #countHits}, читаются курсором в транзакции: на Postgres драйвер выбирает строки
+     * порциями по {@code spring.jdbc.template.fetch-size}. Оценки по скетчам выдаются в порядке app, uri.
+     */
+    @Override
+    @Transactional(readOnly = true)
+    public void streamHits(LocalDateTime start, LocalDateTime end, List<String> uris, boolean unique,
+                           boolean approximate, Consumer<ViewStatsDto> sink) {
+        LocalDateTime to = end.plus(1, ChronoUnit.MICROS);
+        LocalDateTime horizon = rawHorizon.get();
+        List<Integer> uriIds = hitDictionary.findIds(DictionaryKind.URI, uris);
+        boolean compacted = horizon != null && start.isBefore(horizon);
+        if (unique && (approximate || compacted)) {
+            sketchRepository.streamUnique(
+                    WindowPlanner.plan(start, to, SketchRepository.GRANULARITIES, horizon), uris, uriIds, sink);
+        } else if (unique) {
+            statsRepository.streamUniqueIps(start, end, uris.isEmpty() ? null : uriIds, sink);
+        } else {
+            rollupRepository.streamHits(WindowPlanner.plan(start, to, Granularity.coarseToFine(), horizon), uris,
+                    uriIds, sink);
+        }
+    }
+}
@@ -0,0 +1,170 @@
+package ru.practicum.ewm.storage.segment;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Файл сегмента, отображённый в память. Заголовок хранит число закоммиченных записей, зону времени
+ * (min/max epochSecond) и позицию журнала; записи фиксированной длины идут следом.
+ * <pre>
+ * header: magic:4 | version:4 | count:4 | pad:4 | minTs:8 | maxTs:8 | lsn:8 | ...до 64 байт
+ * record: epochSecond:8 | appId:4 | uriId:4 | ip:16
+ * </pre>
+ */
+class Segment implements AutoCloseable {
+
+    static final int HEADER_SIZE = 64;
+    static final int RECORD_SIZE = 32;
+    static final int IP_OFFSET = 16;
+
+    private static final int MAGIC = 0x45574D53;
+    private static final int VERSION = 1;
+    private static final int COUNT_OFFSET = 8;
+    private static final int MIN_TS_OFFSET = 16;
+    private static final int MAX_TS_OFFSET = 24;
+    private static final int LSN_OFFSET = 32;
+
+    private final Path file;
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+    private final int capacity;
+    private volatile int count;
+    private volatile long minTs;
+    private volatile long maxTs;
+    private long lsn;
+
+    private Segment(Path file, FileChannel channel, MappedByteBuffer buffer, int capacity) {
+        this.file = file;
+        this.channel = channel;
+        this.buffer = buffer;
+        this.capacity = capacity;
+    }
+
+    static Segment create(Path file, int capacity, long lsn) throws IOException {
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        long size = HEADER_SIZE + (long) capacity * RECORD_SIZE;
+        Segment segment = new Segment(file, channel, channel.map(FileChannel.MapMode.READ_WRITE, 0, size), capacity);
+        segment.buffer.putInt(0, MAGIC);
+        segment.buffer.putInt(4, VERSION);
+        segment.minTs = Long.MAX_VALUE;
+        segment.maxTs = Long.MIN_VALUE;
+        segment.lsn = lsn;
+        segment.commit();
+        return segment;
+    }
+
+    static Segment open(Path file) throws IOException {
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        long size = channel.size();
+        MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        if (size < HEADER_SIZE || buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+            channel.close();
+            throw new IOException("Повреждён заголовок сегмента " + file);
+        }
+        Segment segment = new Segment(file, channel, buffer, (int) ((size - HEADER_SIZE) / RECORD_SIZE));
+        segment.count = buffer.getInt(COUNT_OFFSET);
+        segment.minTs = buffer.getLong(MIN_TS_OFFSET);
+        segment.maxTs = buffer.getLong(MAX_TS_OFFSET);
+        segment.lsn = buffer.getLong(LSN_OFFSET);
+        return segment;
+    }
+
+    /**
+     * Запись без публикации: читатели увидят её только после {@link #commit()}.
+     */
+    void put(int index, long epochSecond, int appId, int uriId, byte[] ip) {
+        int offset = offset(index);
+        buffer.putLong(offset, epochSecond);
+        buffer.putInt(offset + 8, appId);
+        buffer.putInt(offset + 12, uriId);
+        buffer.put(offset + IP_OFFSET, ip);
+    }
+
+    /**
+     * Сбрасывает записи {@code [count, newCount)} на диск, затем атомарно (одна страница) публикует
+     * заголовок с новым счётчиком, зоной времени и позицией журнала.
+     */
+    void commit(int newCount, long newMinTs, long newMaxTs, long newLsn) {
+        if (newCount > count) {
+            buffer.force(offset(count), (newCount - count) * RECORD_SIZE);
+        }
+        minTs = newMinTs;
+        maxTs = newMaxTs;
+        lsn = newLsn;
+        count = newCount;
+        commit();
+    }
+
+    long epochSecond(int index) {
+        return buffer.getLong(offset(index));
+    }
+
+    int appId(int index) {
+        return buffer.getInt(offset(index) + 8);
+    }
+
+    int uriId(int index) {
+        return buffer.getInt(offset(index) + 12);
+    }
+
+    long ipHigh(int index) {
+        return buffer.getLong(offset(index) + IP_OFFSET);
+    }
+
+    long ipLow(int index) {
+        return buffer.getLong(offset(index) + IP_OFFSET + 8);
+    }
+
+    void ip(int index, byte[] target) {
+        buffer.get(offset(index) + IP_OFFSET, target);
+    }
+
+    boolean overlaps(long from, long to) {
+        return count > 0 && minTs <= to && maxTs >= from;
+    }
+
+    int getCount() {
+        return count;
+    }
+
+    int getCapacity() {
+        return capacity;
+    }
+
+    long getMinTs() {
+        return minTs;
+    }
+
+    long getMaxTs() {
+        return maxTs;
+    }
+
+    long getLsn() {
+        return lsn;
+    }
+
+    Path getFile() {
+        return file;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    private void commit() {
+        buffer.putLong(MIN_TS_OFFSET, minTs);
+        buffer.putLong(MAX_TS_OFFSET, maxTs);
+        buffer.putLong(LSN_OFFSET, lsn);
+        buffer.putInt(COUNT_OFFSET, count);
+        buffer.force(0, HEADER_SIZE);
+    }
+
+    private static int offset(int index) {
+        return HEADER_SIZE + index * RECORD_SIZE;
+    }
+}
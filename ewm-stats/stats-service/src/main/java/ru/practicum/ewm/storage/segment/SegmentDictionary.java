@@ -0,0 +1,100 @@
+package ru.practicum.ewm.storage.segment;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Словарь строк сегментного хранилища: приложения и URI кодируются в int. Файл только дописывается,
+ * запись - {@code [kind:1][length:4][utf-8]}, идентификатор равен порядковому номеру строки своего вида.
+ */
+class SegmentDictionary implements AutoCloseable {
+
+    static final byte APP = 0;
+    static final byte URI = 1;
+
+    private final FileChannel channel;
+    private final Map<String, Integer>[] ids;
+    private final Map<Integer, String>[] values;
+
+    @SuppressWarnings("unchecked")
+    SegmentDictionary(Path file) throws IOException {
+        this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        this.ids = new Map[]{new ConcurrentHashMap<>(), new ConcurrentHashMap<>()};
+        this.values = new Map[]{new ConcurrentHashMap<>(), new ConcurrentHashMap<>()};
+        load();
+    }
+
+    /**
+     * Идентификатор строки, новая строка дописывается в файл. Вызывается только пишущим потоком.
+     */
+    int id(byte kind, String value) throws IOException {
+        Integer id = ids[kind].get(value);
+        if (id != null) {
+            return id;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer entry = ByteBuffer.allocate(1 + Integer.BYTES + bytes.length)
+                .put(kind).putInt(bytes.length).put(bytes).flip();
+        while (entry.hasRemaining()) {
+            channel.write(entry);
+        }
+        return register(kind, value);
+    }
+
+    /**
+     * Идентификатор уже известной строки или -1.
+     */
+    int find(byte kind, String value) {
+        return ids[kind].getOrDefault(value, -1);
+    }
+
+    String value(byte kind, int id) {
+        return values[kind].get(id);
+    }
+
+    void sync() throws IOException {
+        channel.force(false);
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    private void load() throws IOException {
+        ByteBuffer data = ByteBuffer.allocate((int) channel.size());
+        while (data.hasRemaining() && channel.read(data, data.position()) >= 0) {
+            // читаем файл целиком
+        }
+        data.flip();
+        int valid = 0;
+        while (data.remaining() >= 1 + Integer.BYTES) {
+            byte kind = data.get();
+            int length = data.getInt();
+            if ((kind != APP && kind != URI) || length < 0 || length > data.remaining()) {
+                break;
+            }
+            byte[] bytes = new byte[length];
+            data.get(bytes);
+            register(kind, new String(bytes, StandardCharsets.UTF_8));
+            valid = data.position();
+        }
+        // недописанная при сбое запись отбрасывается
+        channel.truncate(valid);
+        channel.position(valid);
+    }
+
+    private int register(byte kind, String value) {
+        int id = values[kind].size();
+        values[kind].put(id, value);
+        ids[kind].put(value, id);
+        return id;
+    }
+}
@@ -0,0 +1,277 @@
+package ru.practicum.ewm.storage.segment;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+import ru.practicum.ewm.ViewStatsDto;
+import ru.practicum.ewm.model.endpoint.EndpointHit;
+import ru.practicum.ewm.service.WindowPlanner;
+import ru.practicum.ewm.sketch.HyperLogLog;
+import ru.practicum.ewm.storage.HitStorage;
+import ru.practicum.ewm.util.IpAddresses;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Хранилище сырых хитов в сегментных файлах, отображённых в память. Записи фиксированной длины дописываются
+ * в активный сегмент, заполненный сегмент закрывается и больше не меняется. Запросы пропускают сегменты,
+ * чья зона времени не пересекается с окном, и сканируют остальные без копирования в кучу.
+ * <p>
+ * Время хита хранится с точностью до секунды - с такой точностью его принимает API.
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(name = "stats.storage.type", havingValue = "segment")
+public class SegmentHitStorage implements HitStorage {
+
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String SEGMENT_SUFFIX = ".dat";
+    private static final int MAX_RECORDS = (Integer.MAX_VALUE - Segment.HEADER_SIZE) / Segment.RECORD_SIZE;
+
+    private final Path dir;
+    private final int recordsPerSegment;
+    private final List<Segment> segments = new CopyOnWriteArrayList<>();
+    private SegmentDictionary dictionary;
+
+    public SegmentHitStorage(@Value("${stats.storage.segment.dir:${java.io.tmpdir}/stats-segments}") String dir,
+                             @Value("${stats.storage.segment.records-per-segment:1048576}") int recordsPerSegment) {
+        if (recordsPerSegment <= 0 || recordsPerSegment > MAX_RECORDS) {
+            throw new IllegalArgumentException("Размер сегмента должен быть от 1 до " + MAX_RECORDS + " записей.");
+        }
+        this.dir = Path.of(dir);
+        this.recordsPerSegment = recordsPerSegment;
+    }
+
+    @PostConstruct
+    public void open() throws IOException {
+        Files.createDirectories(dir);
+        dictionary = new SegmentDictionary(dir.resolve("dictionary.dat"));
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir, SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+            stream.forEach(files::add);
+        }
+        files.sort(Comparator.naturalOrder());
+        for (Path file : files) {
+            segments.add(Segment.open(file));
+        }
+        log.info("Сегментное хранилище {}: {} сегментов", dir, segments.size());
+    }
+
+    @PreDestroy
+    public synchronized void close() throws IOException {
+        for (Segment segment : segments) {
+            segment.close();
+        }
+        segments.clear();
+        dictionary.close();
+    }
+
+    @Override
+    public void write(List<EndpointHit> hits) {
+        write(hits, null, -1);
+    }
+
+    @Override
+    public synchronized void write(List<EndpointHit> hits, String journal, long lsn) {
+        if (hits.isEmpty()) {
+            return;
+        }
+        try {
+            long[] seconds = new long[hits.size()];
+            int[] apps = new int[hits.size()];
+            int[] uris = new int[hits.size()];
+            byte[][] ips = new byte[hits.size()][];
+            for (int i = 0; i < hits.size(); i++) {
+                EndpointHit hit = hits.get(i);
+                seconds[i] = hit.getTimestamp().toEpochSecond(ZoneOffset.UTC);
+                apps[i] = dictionary.id(SegmentDictionary.APP, hit.getApp());
+                uris[i] = dictionary.id(SegmentDictionary.URI, hit.getUri());
+                ips[i] = hit.getIp();
+            }
+            // строки словаря должны попасть на диск раньше записей, которые на них ссылаются
+            dictionary.sync();
+            Segment segment = active(hits.size());
+            long newLsn = lsn >= 0 ? lsn : segment.getLsn();
+            int written = 0;
+            while (written < hits.size()) {
+                int count = segment.getCount();
+                int n = Math.min(hits.size() - written, segment.getCapacity() - count);
+                long min = segment.getMinTs();
+                long max = segment.getMaxTs();
+                for (int i = 0; i < n; i++, written++) {
+                    segment.put(count + i, seconds[written], apps[written], uris[written], ips[written]);
+                    min = Math.min(min, seconds[written]);
+                    max = Math.max(max, seconds[written]);
+                }
+                segment.commit(count + n, min, max, written == hits.size() ? newLsn : segment.getLsn());
+                if (written < hits.size()) {
+                    segment = roll(segment.getLsn());
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Не удалось записать хиты в сегмент", e);
+        }
+    }
+
+    /**
+     * Сегментное хранилище ведёт одну позицию журнала - на сервис приходится один журнал отложенной записи.
+     */
+    @Override
+    public long findCheckpoint(String journal) {
+        return segments.isEmpty() ? 0 : segments.get(segments.size() - 1).getLsn();
+    }
+
+    @Override
+    public boolean isNamedCheckpoints() {
+        return false;
+    }
+
+    @Override
+    public List<ViewStatsDto> countHits(LocalDateTime start, LocalDateTime end, List<String> uris, boolean unique,
+                                        boolean approximate) {
+        long from = start.toEpochSecond(ZoneOffset.UTC);
+        long to = end.toEpochSecond(ZoneOffset.UTC);
+        BitSet uriFilter = null;
+        if (!uris.isEmpty()) {
+            uriFilter = new BitSet();
+            for (String uri : uris) {
+                int id = dictionary.find(SegmentDictionary.URI, uri);
+                if (id >= 0) {
+                    uriFilter.set(id);
+                }
+            }
+            if (uriFilter.isEmpty()) {
+                return List.of();
+            }
+        }
+        Map<Long, Aggregate> aggregates = new HashMap<>();
+        byte[] ip = new byte[IpAddresses.LENGTH];
+        for (Segment segment : segments) {
+            if (!segment.overlaps(from, to)) {
+                continue;
+            }
+            int count = segment.getCount();
+            for (int i = 0; i < count; i++) {
+                long second = segment.epochSecond(i);
+                if (second < from || second > to) {
+                    continue;
+                }
+                int uriId = segment.uriId(i);
+                if (uriFilter != null && !uriFilter.get(uriId)) {
+                    continue;
+                }
+                long key = (long) segment.appId(i) << 32 | (uriId & 0xFFFFFFFFL);
+                Aggregate aggregate = aggregates.computeIfAbsent(key, k -> new Aggregate(unique, approximate));
+                if (!unique) {
+                    aggregate.hits++;
+                } else if (approximate) {
+                    segment.ip(i, ip);
+                    aggregate.sketch.offer(HyperLogLog.hash(ip));
+                } else {
+                    aggregate.ips.add(new Ip(segment.ipHigh(i), segment.ipLow(i)));
+                }
+            }
+        }
+        List<ViewStatsDto> result = new ArrayList<>(aggregates.size());
+        aggregates.forEach((key, aggregate) -> result.add(new ViewStatsDto(
+                dictionary.value(SegmentDictionary.APP, (int) (key >>> 32)),
+                dictionary.value(SegmentDictionary.URI, (int) (long) key),
+                aggregate.count())));
+        result.sort(Comparator.comparing(ViewStatsDto::getHits).reversed());
+        return result;
+    }
+
+    @Override
+    public long[] countSeries(LocalDateTime start, LocalDateTime end, Duration step, String uri, boolean unique,
+                              boolean approximate) {
+        long from = start.toEpochSecond(ZoneOffset.UTC);
+        long to = end.toEpochSecond(ZoneOffset.UTC);
+        long stepSeconds = step.getSeconds();
+        long[] series = new long[(int) WindowPlanner.seriesLength(start, end, step)];
+        int uriId = dictionary.find(SegmentDictionary.URI, uri);
+        if (uriId < 0) {
+            return series;
+        }
+        Map<Integer, Set<Ip>> ips = new HashMap<>();
+        for (Segment segment : segments) {
+            if (!segment.overlaps(from, to)) {
+                continue;
+            }
+            int count = segment.getCount();
+            for (int i = 0; i < count; i++) {
+                long second = segment.epochSecond(i);
+                if (second < from || second > to || segment.uriId(i) != uriId) {
+                    continue;
+                }
+                int bucket = (int) ((second - from) / stepSeconds);
+                if (!unique) {
+                    series[bucket]++;
+                } else {
+                    ips.computeIfAbsent(bucket, b -> new HashSet<>()).add(new Ip(segment.ipHigh(i), segment.ipLow(i)));
+                }
+            }
+        }
+        ips.forEach((bucket, bucketIps) -> series[bucket] = bucketIps.size());
+        return series;
+    }
+
+    private Segment active(int batchSize) throws IOException {
+        if (segments.isEmpty()) {
+            return roll(0);
+        }
+        Segment last = segments.get(segments.size() - 1);
+        int free = last.getCapacity() - last.getCount();
+        // пакет, который не помещается в остаток, начинает новый сегмент: позиция журнала коммитится вместе с ним
+        if (free == 0 || (free < batchSize && batchSize <= recordsPerSegment)) {
+            return roll(last.getLsn());
+        }
+        return last;
+    }
+
+    private Segment roll(long lsn) throws IOException {
+        long sequence = segments.isEmpty() ? 0 : sequence(segments.get(segments.size() - 1).getFile()) + 1;
+        Path file = dir.resolve(String.format("%s%020d%s", SEGMENT_PREFIX, sequence, SEGMENT_SUFFIX));
+        Segment segment = Segment.create(file, recordsPerSegment, lsn);
+        segments.add(segment);
+        log.info("Создан сегмент хитов {}", file.getFileName());
+        return segment;
+    }
+
+    private static long sequence(Path file) {
+        String name = file.getFileName().toString();
+        return Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+    }
+
+    private record Ip(long high, long low) {
+    }
+
+    private static class Aggregate {
+        private long hits;
+        private final Set<Ip> ips;
+        private final HyperLogLog sketch;
+
+        Aggregate(boolean unique, boolean approximate) {
+            this.ips = unique && !approximate ? new HashSet<>() : null;
+            this.sketch = unique && approximate ? new HyperLogLog() : null;
+        }
+
+        long count() {
+            if (sketch != null) {
+                return sketch.estimate();
+            }
+            return ips != null ? ips.size() : hits;
+        }
+    }
+}
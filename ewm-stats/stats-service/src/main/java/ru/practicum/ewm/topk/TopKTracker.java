@@ -0,0 +1,196 @@
+package ru.practicum.ewm.topk;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jakarta.validation.ValidationException;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.DependsOn;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+import ru.practicum.ewm.ViewStatsDto;
+import ru.practicum.ewm.compaction.RawHorizon;
+import ru.practicum.ewm.dictionary.HitDictionary;
+import ru.practicum.ewm.model.dictionary.DictionaryKind;
+import ru.practicum.ewm.model.endpoint.EndpointHit;
+import ru.practicum.ewm.model.rollup.Granularity;
+import ru.practicum.ewm.model.rollup.WindowSegment;
+import ru.practicum.ewm.model.stats.StatsKey;
+import ru.practicum.ewm.repository.RollupRepository;
+import ru.practicum.ewm.repository.SketchRepository;
+import ru.practicum.ewm.repository.TopKRepository;
+import ru.practicum.ewm.service.WindowPlanner;
+import ru.practicum.ewm.sketch.SpaceSaving;
+import ru.practicum.ewm.storage.ConditionalOnJdbcStorage;
+
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Самые посещаемые app + uri по окну без группировки всех хитов. Каждый часовой и дневной бакет хранит сводку
+ * Space-Saving; новые хиты копятся в памяти и раз в {@code stats.topk.flush-interval-ms} сливаются
+ * в сохранённые сводки. Запрос сливает сводки бакетов окна, края окна короче часа считаются точно
+ * по минутным бакетам.
+ * <p>
+ * Ключ с долей больше 1 / {@code stats.topk.capacity} в бакете гарантированно попадает в его сводку. В ответе
+ * число хитов - гарантированная часть счётчика (нижняя оценка), по ней же идёт сортировка.
+ */
+@Slf4j
+@Component
+@DependsOn("schemaUpgrade")
+@ConditionalOnJdbcStorage
+public class TopKTracker {
+
+    private static final List<Granularity> GRANULARITIES = List.of(Granularity.DAY, Granularity.HOUR);
+    // уникальные не складываются, поэтому кандидаты берутся по хитам с запасом и пересчитываются по скетчам
+    private static final int UNIQUE_CANDIDATES_FACTOR = 4;
+
+    private final TopKRepository topKRepository;
+    private final RollupRepository rollupRepository;
+    private final SketchRepository sketchRepository;
+    private final HitDictionary hitDictionary;
+    private final RawHorizon rawHorizon;
+    private final TransactionTemplate transactionTemplate;
+    private final int capacity;
+    private final Object flushLock = new Object();
+    private Map<Bucket, SpaceSaving<StatsKey>> pending = new HashMap<>();
+    private final Map<Bucket, SpaceSaving<StatsKey>> flushing = new HashMap<>();
+
+    public TopKTracker(TopKRepository topKRepository,
+                       RollupRepository rollupRepository,
+                       SketchRepository sketchRepository,
+                       HitDictionary hitDictionary,
+                       RawHorizon rawHorizon,
+                       TransactionTemplate transactionTemplate,
+                       @Value("${stats.topk.capacity:1000}") int capacity) {
+        this.topKRepository = topKRepository;
+        this.rollupRepository = rollupRepository;
+        this.sketchRepository = sketchRepository;
+        this.hitDictionary = hitDictionary;
+        this.rawHorizon = rawHorizon;
+        this.transactionTemplate = transactionTemplate;
+        this.capacity = capacity;
+    }
+
+    @PostConstruct
+    public void init() {
+        if (topKRepository.isEmpty()) {
+            int rows = topKRepository.backfill(capacity);
+            if (rows > 0) {
+                log.info("Сводки top-K построены по накопленным бакетам: {} счётчиков", rows);
+            }
+        }
+    }
+
+    public synchronized void offer(List<EndpointHit> hits) {
+        for (EndpointHit hit : hits) {
+            StatsKey key = new StatsKey(hit.getApp(), hit.getUri());
+            for (Granularity granularity : GRANULARITIES) {
+                pending.computeIfAbsent(new Bucket(granularity, granularity.floor(hit.getTimestamp())),
+                        bucket -> new SpaceSaving<>(capacity)).offer(key, 1);
+            }
+        }
+    }
+
+    @PreDestroy
+    @Scheduled(fixedDelayString = "${stats.topk.flush-interval-ms:5000}")
+    public void flush() {
+        synchronized (flushLock) {
+            Map<Bucket, SpaceSaving<StatsKey>> batch;
+            synchronized (this) {
+                if (pending.isEmpty()) {
+                    return;
+                }
+                // до сохранения дельты видны запросам через flushing
+                batch = pending;
+                flushing.putAll(batch);
+                pending = new HashMap<>();
+            }
+            try {
+                batch.forEach((bucket, delta) -> {
+                    transactionTemplate.executeWithoutResult(status -> {
+                        SpaceSaving<StatsKey> stored = topKRepository.find(bucket.granularity(), bucket.start(),
+                                capacity);
+                        stored.merge(delta);
+                        topKRepository.replace(bucket.granularity(), bucket.start(), stored);
+                    });
+                    synchronized (this) {
+                        flushing.remove(bucket);
+                    }
+                });
+            } catch (RuntimeException e) {
+                log.warn("Не удалось сохранить сводки top-K, повтор при следующем сбросе", e);
+                synchronized (this) {
+                    flushing.forEach((bucket, delta) -> pending.merge(bucket, delta, (newer, older) -> {
+                        newer.merge(older);
+                        return newer;
+                    }));
+                    flushing.clear();
+                }
+            }
+        }
+    }
+
+    /**
+     * Верхние {@code k} пар app + uri окна {@code [start, end]} по хитам или, при {@code unique}, по оценке
+     * уникальных IP.
+     */
+    public List<ViewStatsDto> top(LocalDateTime start, LocalDateTime end, int k, boolean unique) {
+        if (k <= 0 || k > capacity) {
+            throw new ValidationException("Параметр k должен быть от 1 до " + capacity);
+        }
+        LocalDateTime to = end.plus(1, ChronoUnit.MICROS);
+        LocalDateTime horizon = rawHorizon.get();
+        List<WindowSegment> segments = WindowPlanner.plan(start, to, GRANULARITIES, horizon);
+        List<WindowSegment> bucketSegments = segments.stream().filter(segment -> !segment.isRaw()).toList();
+        SpaceSaving<StatsKey> summary = topKRepository.merge(bucketSegments, capacity);
+        synchronized (this) {
+            mergePending(summary, pending, bucketSegments);
+            mergePending(summary, flushing, bucketSegments);
+        }
+        for (WindowSegment segment : segments) {
+            if (segment.isRaw()) {
+                rollupRepository.countHits(WindowPlanner.plan(segment.getFrom(), segment.getTo(),
+                                List.of(Granularity.MINUTE)), List.of(), List.of())
+                        .forEach(stats -> summary.offer(new StatsKey(stats.getApp(), stats.getUri()), stats.getHits()));
+            }
+        }
+        if (!unique) {
+            return summary.topGuaranteed(k).stream()
+                    .map(key -> new ViewStatsDto(key.app(), key.uri(), summary.guaranteed(key)))
+                    .toList();
+        }
+        Set<StatsKey> candidates = new HashSet<>(summary.topGuaranteed(k * UNIQUE_CANDIDATES_FACTOR));
+        List<String> uris = candidates.stream().map(StatsKey::uri).distinct().toList();
+        if (uris.isEmpty()) {
+            return List.of();
+        }
+        return sketchRepository.estimateUnique(WindowPlanner.plan(start, to, SketchRepository.GRANULARITIES, horizon),
+                        uris, hitDictionary.findIds(DictionaryKind.URI, uris)).stream()
+                .filter(stats -> candidates.contains(new StatsKey(stats.getApp(), stats.getUri())))
+                .limit(k)
+                .toList();
+    }
+
+    private void mergePending(SpaceSaving<StatsKey> summary, Map<Bucket, SpaceSaving<StatsKey>> buckets,
+                              List<WindowSegment> segments) {
+        buckets.forEach((bucket, delta) -> {
+            for (WindowSegment segment : segments) {
+                if (segment.getGranularity() == bucket.granularity() && !bucket.start().isBefore(segment.getFrom())
+                        && bucket.start().isBefore(segment.getTo())) {
+                    summary.merge(delta);
+                }
+            }
+        });
+    }
+
+    private record Bucket(Granularity granularity, LocalDateTime start) {
+    }
+}
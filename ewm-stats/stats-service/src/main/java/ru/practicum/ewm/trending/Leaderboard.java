@@ -0,0 +1,89 @@
+package ru.practicum.ewm.trending;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Первые {@code capacity} ключей по убыванию счёта. Счета при forward decay только растут, поэтому ключ,
+ * вытесненный из таблицы, может вернуться только через собственное обновление - полный пересчёт не нужен.
+ * Позиция ключа ищется по индексу, обновление сдвигает только записи, которые ключ обогнал.
+ */
+final class Leaderboard {
+
+    private final int[] ids;
+    private final double[] scores;
+    private final Map<Integer, Integer> positions;
+    private int size;
+
+    Leaderboard(int capacity) {
+        this.ids = new int[capacity];
+        this.scores = new double[capacity];
+        this.positions = new HashMap<>(capacity * 4 / 3 + 1);
+    }
+
+    synchronized void offer(int id, double score) {
+        // ключ со счётом не выше минимума полной таблицы в ней либо отсутствует, либо уже записан с большим счётом
+        if (size == ids.length && score <= scores[size - 1]) {
+            return;
+        }
+        Integer current = positions.get(id);
+        int position;
+        if (current != null) {
+            if (scores[current] >= score) {
+                return;
+            }
+            position = current;
+        } else if (size < ids.length) {
+            position = size++;
+        } else {
+            position = size - 1;
+            positions.remove(ids[position]);
+        }
+        while (position > 0 && scores[position - 1] < score) {
+            ids[position] = ids[position - 1];
+            scores[position] = scores[position - 1];
+            positions.put(ids[position], position);
+            position--;
+        }
+        ids[position] = id;
+        scores[position] = score;
+        positions.put(id, position);
+    }
+
+    /**
+     * Убирает вытесненный из трекера ключ. Ключи вне таблицы не выше её минимума, поэтому порядок не нарушается.
+     */
+    synchronized void remove(int id) {
+        Integer position = positions.remove(id);
+        if (position == null) {
+            return;
+        }
+        for (int i = position; i < size - 1; i++) {
+            ids[i] = ids[i + 1];
+            scores[i] = scores[i + 1];
+            positions.put(ids[i], i);
+        }
+        size--;
+    }
+
+    synchronized void scale(double factor) {
+        for (int i = 0; i < size; i++) {
+            scores[i] *= factor;
+        }
+    }
+
+    synchronized void clear() {
+        size = 0;
+        positions.clear();
+    }
+
+    /**
+     * Копирует первые {@code limit} записей и возвращает их число.
+     */
+    synchronized int top(int limit, int[] topIds, double[] topScores) {
+        int count = Math.min(limit, size);
+        System.arraycopy(ids, 0, topIds, 0, count);
+        System.arraycopy(scores, 0, topScores, 0, count);
+        return count;
+    }
+}
@@ -0,0 +1,463 @@
+package ru.practicum.ewm.trending;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jakarta.validation.ValidationException;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import ru.practicum.ewm.TrendingStatsDto;
+import ru.practicum.ewm.model.endpoint.EndpointHit;
+import ru.practicum.ewm.model.stats.StatsKey;
+import ru.practicum.ewm.snapshot.SnapshotParticipant;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Счёт "в тренде" для каждой пары app + uri: сумма просмотров, каждый из которых теряет половину веса
+ * за период полураспада. Используется forward decay: просмотр в момент {@code t} добавляет
+ * {@code exp(rate * (t - landmark))}, и при запросе все счета делятся на один и тот же множитель. Поэтому
+ * порядок ключей со временем не меняется, а таблицы лидеров обновляются только при хитах.
+ * <p>
+ * Счета лежат в массивах по целочисленному идентификатору ключа, запись защищена одной из {@value #STRIPES}
+ * блокировок по идентификатору. Таблицы лидеров тоже свои у каждой блокировки и сливаются при запросе: ключ
+ * всегда попадает в таблицы одной блокировки, поэтому первые {@code limit} по всем таблицам - это первые
+ * {@code limit} по всем ключам. Ключи, счёт которых по всем периодам упал ниже
+ * {@code stats.trending.evict-below}, периодически вытесняются, а их идентификаторы используются повторно.
+ * Состояние периодически сохраняется в {@code stats.trending.checkpoint-file}; хиты после последнего сохранения при аварийной остановке теряются, если не включены снимки
+ * {@link ru.practicum.ewm.snapshot.SnapshotStore}.
+ */
+@Slf4j
+@Component
+public class TrendingTracker implements SnapshotParticipant {
+
+    private static final int STRIPES = 64;
+    private static final int CHUNK = 4096;
+    private static final int MAGIC = 0x54524E44;
+    private static final int VERSION = 1;
+    // exp(400) ~ 5e173: ориентир сдвигается задолго до переполнения double даже для миллиардов хитов
+    private static final double MAX_EXPONENT = 400;
+
+    private final List<Duration> halfLives;
+    private final double[] rates;
+    private final int maxLimit;
+    private final Path checkpointFile;
+    private final double evictBelow;
+    private final Object[] stripes = new Object[STRIPES];
+    private final ReentrantReadWriteLock landmarkLock = new ReentrantReadWriteLock();
+    private final Map<StatsKey, Integer> ids = new ConcurrentHashMap<>();
+    private final List<StatsKey> keys = new ArrayList<>();
+    // освобождённые идентификаторы, защищены keys
+    private final Deque<Integer> freeIds = new ArrayDeque<>();
+    // [блокировка][период полураспада]
+    private final Map<String, Leaderboard[][]> appBoards = new ConcurrentHashMap<>();
+    private final Leaderboard[][] allBoards;
+    private volatile double[][] chunks = new double[0][];
+    private long landmark;
+
+    public TrendingTracker(@Value("${stats.trending.half-lives:1h,6h,24h}") List<Duration> halfLives,
+                           @Value("${stats.trending.max-limit:100}") int maxLimit,
+                           @Value("${stats.trending.checkpoint-file:${java.io.tmpdir}/stats-trending.dat}")
+                           String checkpointFile,
+                           @Value("${stats.trending.evict-below:0.01}") double evictBelow) {
+        if (halfLives.isEmpty() || halfLives.stream().anyMatch(halfLife -> halfLife.toMillis() <= 0)) {
+            throw new IllegalArgumentException("Периоды полураспада должны быть положительными.");
+        }
+        this.halfLives = List.copyOf(halfLives);
+        this.rates = halfLives.stream().mapToDouble(halfLife -> Math.log(2) / halfLife.toMillis()).toArray();
+        this.maxLimit = maxLimit;
+        this.checkpointFile = Path.of(checkpointFile);
+        this.evictBelow = evictBelow;
+        this.allBoards = newBoards();
+        Arrays.setAll(stripes, i -> new Object());
+        this.landmark = epochMillis(LocalDateTime.now());
+    }
+
+    @PostConstruct
+    public void load() {
+        if (!Files.exists(checkpointFile)) {
+            return;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(checkpointFile)))) {
+            readState(in, checkpointFile.toString());
+        } catch (IOException e) {
+            log.warn("Не удалось прочитать состояние трендов из {}, начинаем с нуля", checkpointFile, e);
+        }
+    }
+
+    public void offer(List<EndpointHit> hits) {
+        long now = epochMillis(LocalDateTime.now());
+        double[] scores = new double[halfLives.size()];
+        landmarkLock.readLock().lock();
+        try {
+            for (EndpointHit hit : hits) {
+                int id = id(new StatsKey(hit.getApp(), hit.getUri()));
+                long age = Math.min(epochMillis(hit.getTimestamp()), now) - landmark;
+                double[] chunk = chunks[id / CHUNK];
+                int base = (id % CHUNK) * scores.length;
+                synchronized (stripes[id % STRIPES]) {
+                    for (int h = 0; h < scores.length; h++) {
+                        chunk[base + h] += Math.exp(rates[h] * age);
+                        scores[h] = chunk[base + h];
+                    }
+                    rank(hit.getApp(), id, scores);
+                }
+            }
+        } finally {
+            landmarkLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Первые {@code limit} пар app + uri по счёту для периода полураспада {@code halfLife} (по умолчанию
+     * первый настроенный); {@code app == null} - по всем приложениям. Счёт приведён к текущему моменту.
+     */
+    public List<TrendingStatsDto> top(String app, int limit, Duration halfLife) {
+        int h = halfLife == null ? 0 : halfLives.indexOf(halfLife);
+        if (h < 0) {
+            throw new ValidationException("Период полураспада должен быть одним из " + halfLives);
+        }
+        if (limit <= 0 || limit > maxLimit) {
+            throw new ValidationException("Параметр limit должен быть от 1 до " + maxLimit);
+        }
+        Leaderboard[][] boards = app == null ? allBoards : appBoards.get(app);
+        if (boards == null) {
+            return List.of();
+        }
+        int[] topIds = new int[limit];
+        double[] topScores = new double[limit];
+        int[] stripeIds = new int[limit];
+        double[] stripeScores = new double[limit];
+        int count = 0;
+        landmarkLock.readLock().lock();
+        try {
+            for (Leaderboard[] stripe : boards) {
+                int stripeCount = stripe[h].top(limit, stripeIds, stripeScores);
+                count = merge(topIds, topScores, count, stripeIds, stripeScores, stripeCount);
+            }
+            double scale = Math.exp(-rates[h] * (epochMillis(LocalDateTime.now()) - landmark));
+            List<TrendingStatsDto> result = new ArrayList<>(count);
+            synchronized (keys) {
+                for (int i = 0; i < count; i++) {
+                    StatsKey key = keys.get(topIds[i]);
+                    result.add(new TrendingStatsDto(key.app(), key.uri(), topScores[i] * scale));
+                }
+            }
+            return result;
+        } finally {
+            landmarkLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Вытесняет ключи, счёт которых по всем периодам полураспада, приведённый к текущему моменту, ниже
+     * {@code stats.trending.evict-below}. Приём хитов на время прохода останавливается.
+     */
+    @Scheduled(fixedDelayString = "${stats.trending.evict-interval-ms:600000}")
+    public void evictCold() {
+        rebaseIfNeeded();
+        int size = halfLives.size();
+        double[] factors = new double[size];
+        int evicted = 0;
+        landmarkLock.writeLock().lock();
+        try {
+            long now = epochMillis(LocalDateTime.now());
+            for (int h = 0; h < size; h++) {
+                factors[h] = Math.exp(-rates[h] * (now - landmark));
+            }
+            synchronized (keys) {
+                for (int id = 0; id < keys.size(); id++) {
+                    StatsKey key = keys.get(id);
+                    if (key == null || !isCold(id, factors)) {
+                        continue;
+                    }
+                    int base = (id % CHUNK) * size;
+                    Arrays.fill(chunks[id / CHUNK], base, base + size, 0);
+                    Leaderboard[] appStripe = appBoards.get(key.app())[id % STRIPES];
+                    for (int h = 0; h < size; h++) {
+                        allBoards[id % STRIPES][h].remove(id);
+                        appStripe[h].remove(id);
+                    }
+                    ids.remove(key);
+                    keys.set(id, null);
+                    freeIds.push(id);
+                    evicted++;
+                }
+            }
+        } finally {
+            landmarkLock.writeLock().unlock();
+        }
+        if (evicted > 0) {
+            log.debug("Тренды: вытеснено {} остывших ключей", evicted);
+        }
+    }
+
+    @PreDestroy
+    @Scheduled(fixedDelayString = "${stats.trending.checkpoint-interval-ms:60000}")
+    public void checkpoint() {
+        Path tmp = checkpointFile.resolveSibling(checkpointFile.getFileName() + ".tmp");
+        try {
+            if (checkpointFile.getParent() != null) {
+                Files.createDirectories(checkpointFile.getParent());
+            }
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+                writeState(out);
+            }
+            Files.move(tmp, checkpointFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            log.warn("Не удалось сохранить состояние трендов в {}", checkpointFile, e);
+        }
+    }
+
+    @Override
+    public String snapshotSection() {
+        return "trending";
+    }
+
+    @Override
+    public void writeSnapshot(DataOutput out) throws IOException {
+        writeState(out);
+    }
+
+    @Override
+    public void readSnapshot(DataInput in) throws IOException {
+        readState(in, "снимка");
+    }
+
+    @Override
+    public void replay(List<EndpointHit> hits) {
+        offer(hits);
+    }
+
+    private void writeState(DataOutput out) throws IOException {
+        rebaseIfNeeded();
+        List<StatsKey> savedKeys;
+        double[][] savedChunks;
+        long savedLandmark;
+        landmarkLock.writeLock().lock();
+        try {
+            synchronized (keys) {
+                savedKeys = new ArrayList<>(keys);
+            }
+            savedChunks = new double[chunks.length][];
+            for (int i = 0; i < chunks.length; i++) {
+                savedChunks[i] = chunks[i].clone();
+            }
+            savedLandmark = landmark;
+        } finally {
+            landmarkLock.writeLock().unlock();
+        }
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeLong(savedLandmark);
+        out.writeInt(halfLives.size());
+        for (Duration halfLife : halfLives) {
+            out.writeLong(halfLife.toMillis());
+        }
+        out.writeInt((int) savedKeys.stream().filter(Objects::nonNull).count());
+        for (int id = 0; id < savedKeys.size(); id++) {
+            if (savedKeys.get(id) == null) {
+                continue;
+            }
+            out.writeUTF(savedKeys.get(id).app());
+            out.writeUTF(savedKeys.get(id).uri());
+            int base = (id % CHUNK) * halfLives.size();
+            for (int h = 0; h < halfLives.size(); h++) {
+                out.writeDouble(savedChunks[id / CHUNK][base + h]);
+            }
+        }
+    }
+
+    /**
+     * Заменяет текущее состояние сохранённым, если оно сохранено для тех же периодов полураспада.
+     * Вызывается при старте, до приёма хитов.
+     */
+    private void readState(DataInput in, String source) throws IOException {
+        if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+            log.warn("Состояние трендов из {}: неизвестный формат, пропускаем", source);
+            return;
+        }
+        long savedLandmark = in.readLong();
+        int count = in.readInt();
+        List<Duration> savedHalfLives = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            savedHalfLives.add(Duration.ofMillis(in.readLong()));
+        }
+        if (!savedHalfLives.equals(halfLives)) {
+            log.warn("Состояние трендов из {} сохранено для периодов {}, настроены {}: пропускаем",
+                    source, savedHalfLives, halfLives);
+            return;
+        }
+        synchronized (keys) {
+            ids.clear();
+            keys.clear();
+            freeIds.clear();
+            chunks = new double[0][];
+        }
+        appBoards.clear();
+        for (Leaderboard[] stripe : allBoards) {
+            for (Leaderboard board : stripe) {
+                board.clear();
+            }
+        }
+        landmark = savedLandmark;
+        int keyCount = in.readInt();
+        double[] scores = new double[halfLives.size()];
+        for (int i = 0; i < keyCount; i++) {
+            StatsKey key = new StatsKey(in.readUTF(), in.readUTF());
+            for (int h = 0; h < scores.length; h++) {
+                scores[h] = in.readDouble();
+            }
+            int id = id(key);
+            System.arraycopy(scores, 0, chunks[id / CHUNK], (id % CHUNK) * scores.length, scores.length);
+            rank(key.app(), id, scores);
+        }
+        log.info("Состояние трендов восстановлено из {}: {} ключей", source, keyCount);
+        rebaseIfNeeded();
+    }
+
+    /**
+     * Сдвигает ориентир к текущему моменту, пока веса новых хитов не переросли диапазон double.
+     */
+    private void rebaseIfNeeded() {
+        long now = epochMillis(LocalDateTime.now());
+        double maxRate = Arrays.stream(rates).max().orElseThrow();
+        landmarkLock.writeLock().lock();
+        try {
+            if (maxRate * (now - landmark) < MAX_EXPONENT) {
+                return;
+            }
+            int size = halfLives.size();
+            double[] factors = new double[size];
+            for (int h = 0; h < size; h++) {
+                factors[h] = Math.exp(-rates[h] * (now - landmark));
+            }
+            for (double[] chunk : chunks) {
+                for (int i = 0; i < chunk.length; i++) {
+                    chunk[i] *= factors[i % size];
+                }
+            }
+            for (Leaderboard[][] boards : appBoards.values()) {
+                scale(boards, factors);
+            }
+            scale(allBoards, factors);
+            landmark = now;
+        } finally {
+            landmarkLock.writeLock().unlock();
+        }
+    }
+
+    private int id(StatsKey key) {
+        Integer id = ids.get(key);
+        if (id != null) {
+            return id;
+        }
+        synchronized (keys) {
+            id = ids.get(key);
+            if (id == null && !freeIds.isEmpty()) {
+                id = freeIds.pop();
+                keys.set(id, key);
+                ids.put(key, id);
+            } else if (id == null) {
+                id = keys.size();
+                if (id / CHUNK == chunks.length) {
+                    double[][] grown = Arrays.copyOf(chunks, chunks.length + 1);
+                    grown[chunks.length] = new double[CHUNK * halfLives.size()];
+                    chunks = grown;
+                }
+                keys.add(key);
+                ids.put(key, id);
+            }
+            return id;
+        }
+    }
+
+    /**
+     * Вызывается под блокировкой ключа {@code id}.
+     */
+    private void rank(String app, int id, double[] scores) {
+        Leaderboard[] appStripe = appBoards.computeIfAbsent(app, a -> newBoards())[id % STRIPES];
+        Leaderboard[] allStripe = allBoards[id % STRIPES];
+        for (int h = 0; h < scores.length; h++) {
+            appStripe[h].offer(id, scores[h]);
+            allStripe[h].offer(id, scores[h]);
+        }
+    }
+
+    private boolean isCold(int id, double[] factors) {
+        double[] chunk = chunks[id / CHUNK];
+        int base = (id % CHUNK) * factors.length;
+        for (int h = 0; h < factors.length; h++) {
+            if (chunk[base + h] * factors[h] >= evictBelow) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private Leaderboard[][] newBoards() {
+        Leaderboard[][] boards = new Leaderboard[STRIPES][halfLives.size()];
+        for (Leaderboard[] stripe : boards) {
+            Arrays.setAll(stripe, h -> new Leaderboard(maxLimit));
+        }
+        return boards;
+    }
+
+    /**
+     * Сливает упорядоченные по убыванию записи {@code ids} в {@code topIds}, оставляя не больше
+     * {@code topIds.length}; возвращает новое число записей.
+     */
+    private static int merge(int[] topIds, double[] topScores, int count, int[] ids, double[] scores, int size) {
+        int[] mergedIds = new int[topIds.length];
+        double[] mergedScores = new double[topIds.length];
+        int merged = 0;
+        int i = 0;
+        int j = 0;
+        while (merged < topIds.length && (i < count || j < size)) {
+            if (j == size || (i < count && topScores[i] >= scores[j])) {
+                mergedIds[merged] = topIds[i];
+                mergedScores[merged++] = topScores[i++];
+            } else {
+                mergedIds[merged] = ids[j];
+                mergedScores[merged++] = scores[j++];
+            }
+        }
+        System.arraycopy(mergedIds, 0, topIds, 0, merged);
+        System.arraycopy(mergedScores, 0, topScores, 0, merged);
+        return merged;
+    }
+
+    private static void scale(Leaderboard[][] boards, double[] factors) {
+        for (Leaderboard[] stripe : boards) {
+            for (int h = 0; h < stripe.length; h++) {
+                stripe[h].scale(factors[h]);
+            }
+        }
+    }
+
+    private static long epochMillis(LocalDateTime dateTime) {
+        return dateTime.toInstant(ZoneOffset.UTC).toEpochMilli();
+    }
+}
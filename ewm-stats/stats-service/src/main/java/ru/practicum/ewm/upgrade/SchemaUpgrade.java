@@ -0,0 +1,67 @@
+package ru.practicum.ewm.upgrade;
+
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.sql.init.dependency.DependsOnDatabaseInitialization;
+import org.springframework.stereotype.Component;
+import ru.practicum.ewm.repository.CompactionRepository;
+import ru.practicum.ewm.repository.DatabaseDialect;
+import ru.practicum.ewm.repository.PartitionRepository;
+import ru.practicum.ewm.repository.SchemaUpgradeRepository;
+
+import java.time.LocalDate;
+import java.util.Map;
+
+/**
+ * Доводит базу, заведённую старыми версиями сервиса, до текущей схемы. Шаги идут строго по порядку
+ * и ничего не делают, если уже выполнены.
+ */
+@Slf4j
+@Component("schemaUpgrade")
+@RequiredArgsConstructor
+@DependsOnDatabaseInitialization
+public class SchemaUpgrade {
+
+    private static final Map<String, String> AGGREGATE_KEYS = Map.of(
+            "stats_rollup", "granularity, bucket_start, app_id, uri_id",
+            "stats_hll", "granularity, bucket_start, app_id, uri_id, register_idx",
+            "stats_topk", "granularity, bucket_start, app_id, uri_id");
+
+    private final SchemaUpgradeRepository schemaUpgradeRepository;
+    private final PartitionRepository partitionRepository;
+    private final CompactionRepository compactionRepository;
+    private final DatabaseDialect databaseDialect;
+
+    @PostConstruct
+    public void upgrade() {
+        if (databaseDialect.isPostgres() && partitionRepository.isLegacyTable()) {
+            log.info("Таблица statistics переводится на секционирование");
+            partitionRepository.migrateLegacyTable(LocalDate.now().atStartOfDay());
+        }
+        if (schemaUpgradeRepository.hasColumn("statistics", "app")) {
+            log.info("Приложения и URI в statistics заменяются идентификаторами словарей");
+            schemaUpgradeRepository.encodeDictionaries();
+        }
+        AGGREGATE_KEYS.forEach((table, primaryKey) -> {
+            if (schemaUpgradeRepository.hasColumn(table, "app")) {
+                log.info("Приложения и URI в {} заменяются идентификаторами словарей", table);
+                schemaUpgradeRepository.encodeAggregateDictionaries(table, primaryKey);
+            }
+        });
+        if (schemaUpgradeRepository.hasTable("stats_hll")) {
+            log.info("Скетчи уникальных IP переводятся в формат массива регистров на бакет");
+            schemaUpgradeRepository.convertSketches();
+        }
+        String ipType = schemaUpgradeRepository.columnType("statistics", "ip");
+        if (ipType != null && ipType.contains("char")) {
+            log.info("IP в statistics переводятся в двоичную форму");
+            long invalid = schemaUpgradeRepository.convertIpColumn(compactionRepository.findHorizon());
+            if (invalid > 0) {
+                log.warn("{} сохранённых хитов содержали некорректный IP, он заменён на ::", invalid);
+            }
+        }
+        schemaUpgradeRepository.createIndexes();
+        schemaUpgradeRepository.backfillRollups();
+    }
+}
@@ -0,0 +1,64 @@
+package ru.practicum.ewm.util;
+
+import lombok.experimental.UtilityClass;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.regex.Pattern;
+
+/**
+ * IP-адреса в 16-байтовой форме: IPv6 как есть, IPv4 - как IPv4-mapped IPv6 ({@code ::ffff:a.b.c.d}).
+ */
+@UtilityClass
+public class IpAddresses {
+
+    public static final int LENGTH = 16;
+
+    private static final Pattern IPV4 = Pattern.compile("\\d{1,3}(\\.\\d{1,3}){3}");
+    private static final Pattern IPV6 = Pattern.compile("[0-9a-fA-F:.]+");
+
+    public byte[] toBytes(String ip) {
+        String value = ip == null ? "" : ip.trim();
+        // зона (fe80::1%eth0) не отличает одного посетителя от другого и отбрасывается
+        int zone = value.indexOf('%');
+        if (zone >= 0) {
+            value = value.substring(0, zone);
+        }
+        boolean v4 = IPV4.matcher(value).matches() && validOctets(value);
+        // InetAddress разбирает литералы без обращения к DNS, имена хостов отсекаются заранее
+        if (!v4 && !(value.indexOf(':') >= 0 && IPV6.matcher(value).matches())) {
+            throw new IllegalArgumentException("Некорректный IP-адрес: " + ip);
+        }
+        byte[] address;
+        try {
+            address = InetAddress.getByName(value).getAddress();
+        } catch (UnknownHostException e) {
+            throw new IllegalArgumentException("Некорректный IP-адрес: " + ip, e);
+        }
+        if (address.length == LENGTH) {
+            return address;
+        }
+        byte[] mapped = new byte[LENGTH];
+        mapped[10] = (byte) 0xff;
+        mapped[11] = (byte) 0xff;
+        System.arraycopy(address, 0, mapped, 12, 4);
+        return mapped;
+    }
+
+    public String toString(byte[] address) {
+        try {
+            return InetAddress.getByAddress(address).getHostAddress();
+        } catch (UnknownHostException e) {
+            throw new IllegalArgumentException("Некорректная длина IP-адреса: " + address.length, e);
+        }
+    }
+
+    private boolean validOctets(String value) {
+        for (String octet : value.split("\\.")) {
+            if (Integer.parseInt(octet) > 255) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
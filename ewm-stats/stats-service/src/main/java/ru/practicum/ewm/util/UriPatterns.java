@@ -0,0 +1,47 @@
+package ru.practicum.ewm.util;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Фильтр URI из запроса: точные значения и префиксы, заданные звёздочкой в конце ({@code /events/*}).
+ * Пустой фильтр пропускает все URI.
+ */
+public class UriPatterns {
+
+    private final List<String> exact = new ArrayList<>();
+    private final List<String> prefixes = new ArrayList<>();
+
+    public UriPatterns(List<String> uris) {
+        for (String uri : uris) {
+            if (uri.endsWith("*")) {
+                prefixes.add(uri.substring(0, uri.length() - 1));
+            } else {
+                exact.add(uri);
+            }
+        }
+    }
+
+    public List<String> getExact() {
+        return exact;
+    }
+
+    public List<String> getPrefixes() {
+        return prefixes;
+    }
+
+    public boolean isEmpty() {
+        return exact.isEmpty() && prefixes.isEmpty();
+    }
+
+    public boolean matches(String uri) {
+        return isEmpty() || exact.contains(uri) || prefixes.stream().anyMatch(uri::startsWith);
+    }
+
+    /**
+     * Префикс как шаблон LIKE: {@code %}, {@code _} и {@code \} экранируются обратной косой чертой.
+     */
+    public static String likePattern(String prefix) {
+        return prefix.replace("\\", "\\\\").replace("%", "\\%").replace("_", "\\_") + "%";
+    }
+}
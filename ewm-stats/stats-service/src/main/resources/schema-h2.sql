@@ -0,0 +1,10 @@
+CREATE TABLE IF NOT EXISTS statistics
+(
+    id        BIGINT GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY,
+    app_id    INTEGER NOT NULL,
+    uri_id    INTEGER NOT NULL,
+    ip        VARBINARY(16) NOT NULL,
+    timestamp TIMESTAMP NOT NULL
+);
+
+CREATE INDEX IF NOT EXISTS statistics_timestamp_idx ON statistics (timestamp);
@@ -0,0 +1,11 @@
+CREATE TABLE IF NOT EXISTS statistics
+(
+    id        BIGINT GENERATED BY DEFAULT AS IDENTITY,
+    app_id    INTEGER NOT NULL,
+    uri_id    INTEGER NOT NULL,
+    ip        BYTEA NOT NULL,
+    timestamp TIMESTAMP NOT NULL,
+    CONSTRAINT statistics_id_timestamp_pk PRIMARY KEY (id, timestamp)
+) PARTITION BY RANGE (timestamp);
+
+CREATE INDEX IF NOT EXISTS statistics_timestamp_idx ON statistics (timestamp);
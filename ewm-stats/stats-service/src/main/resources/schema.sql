@@ -1,8 +1,54 @@
-CREATE TABLE IF NOT EXISTS statistics
-(
-    id        BIGINT GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY,
-    app       VARCHAR(64) NOT NULL,
-    uri       VARCHAR(256) NOT NULL,
-    ip        VARCHAR(16) NOT NULL,
-    timestamp TIMESTAMP NOT NULL
-);
\ No newline at end of file
+CREATE TABLE IF NOT EXISTS stats_app
+(
+    id   INTEGER GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY,
+    name VARCHAR(64) NOT NULL UNIQUE
+);
+
+CREATE TABLE IF NOT EXISTS stats_uri
+(
+    id   INTEGER GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY,
+    name VARCHAR(256) NOT NULL UNIQUE
+);
+
+CREATE TABLE IF NOT EXISTS stats_rollup
+(
+    granularity  VARCHAR(8) NOT NULL,
+    bucket_start TIMESTAMP NOT NULL,
+    app_id       INTEGER NOT NULL,
+    uri_id       INTEGER NOT NULL,
+    hits         BIGINT NOT NULL,
+    PRIMARY KEY (granularity, bucket_start, app_id, uri_id)
+);
+
+CREATE TABLE IF NOT EXISTS stats_sketch
+(
+    granularity  VARCHAR(8) NOT NULL,
+    bucket_start TIMESTAMP NOT NULL,
+    app_id       INTEGER NOT NULL,
+    uri_id       INTEGER NOT NULL,
+    registers    BYTEA NOT NULL,
+    PRIMARY KEY (granularity, bucket_start, app_id, uri_id)
+);
+
+CREATE TABLE IF NOT EXISTS stats_topk
+(
+    granularity  VARCHAR(8) NOT NULL,
+    bucket_start TIMESTAMP NOT NULL,
+    app_id       INTEGER NOT NULL,
+    uri_id       INTEGER NOT NULL,
+    hits         BIGINT NOT NULL,
+    error_hits   BIGINT NOT NULL,
+    floor_hits   BIGINT NOT NULL,
+    PRIMARY KEY (granularity, bucket_start, app_id, uri_id)
+);
+
+CREATE TABLE IF NOT EXISTS stats_ingest_checkpoint
+(
+    journal VARCHAR(64) PRIMARY KEY,
+    lsn     BIGINT NOT NULL
+);
+
+CREATE TABLE IF NOT EXISTS stats_compaction
+(
+    horizon TIMESTAMP NOT NULL
+);